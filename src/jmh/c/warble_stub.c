@@ -0,0 +1,228 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+
+/*
+ * Stand-in for the Warble C library used by the native binding benchmarks.  Every request completes on the calling
+ * thread, and enabling notifications on a characteristic immediately delivers STUB_NOTIFICATIONS notifications so
+ * one downcall measures many upcalls.
+ *
+ * Build with: cc -shared -fPIC -O2 -o libwarble.so warble_stub.c
+ */
+#include <stdint.h>
+#include <stdlib.h>
+#include <string.h>
+
+#define STUB_NOTIFICATIONS 1000
+#define STUB_VALUE_SIZE 20
+#define MAX_CHARACTERISTICS 32
+
+typedef struct {
+    const char* key;
+    const char* value;
+} WarbleOption;
+
+typedef struct {
+    const char* mac;
+    const char* name;
+    int32_t rssi;
+    void* private_data;
+} WarbleScanResult;
+
+typedef struct {
+    const uint8_t* value;
+    uint8_t value_size;
+} WarbleScanManufacturerData;
+
+typedef struct WarbleGatt WarbleGatt;
+typedef struct WarbleGattChar WarbleGattChar;
+
+typedef void (*FnVoid_VoidP_WarbleScanResultP)(void* context, const WarbleScanResult* result);
+typedef void (*FnVoid_VoidP_WarbleGattP_CharP)(void* context, WarbleGatt* caller, const char* value);
+typedef void (*FnVoid_VoidP_WarbleGattP_Int)(void* context, WarbleGatt* caller, int32_t value);
+typedef void (*FnVoid_VoidP_WarbleGattCharP_CharP)(void* context, WarbleGattChar* caller, const char* value);
+typedef void (*FnVoid_VoidP_WarbleGattCharP_UbyteP_Ubyte_CharP)(void* context, WarbleGattChar* caller, const uint8_t* value, uint8_t length, const char* error);
+typedef void (*FnVoid_VoidP_WarbleGattCharP_UbyteP_Ubyte)(void* context, WarbleGattChar* caller, const uint8_t* value, uint8_t length);
+
+struct WarbleGattChar {
+    WarbleGatt* gatt;
+    char uuid[37];
+    void* notify_context;
+    FnVoid_VoidP_WarbleGattCharP_UbyteP_Ubyte notify_handler;
+};
+
+struct WarbleGatt {
+    char mac[18];
+    int32_t connected;
+    void* disconnect_context;
+    FnVoid_VoidP_WarbleGattP_Int disconnect_handler;
+    int32_t count;
+    WarbleGattChar characteristics[MAX_CHARACTERISTICS];
+};
+
+static uint8_t stub_value[STUB_VALUE_SIZE];
+static const uint8_t stub_manufacturer_value[] = {0x01, 0x02, 0x03, 0x04};
+static const WarbleScanManufacturerData stub_manufacturer_data = {stub_manufacturer_value, sizeof(stub_manufacturer_value)};
+// the bindings only check private_data for NULL, which marks results without advertisement data
+static int stub_advertisement;
+static const WarbleScanResult stub_scan_result = {"D4:CA:6E:01:A2:B3", "MetaWear", -60, &stub_advertisement};
+
+static void* scan_context = NULL;
+static FnVoid_VoidP_WarbleScanResultP scan_handler = NULL;
+
+const char* warble_lib_version() {
+    return "stub";
+}
+
+const char* warble_lib_config() {
+    return "stub";
+}
+
+void warble_lib_init(int32_t nopts, const WarbleOption* opts) {
+}
+
+void warble_scanner_set_handler(void* context, FnVoid_VoidP_WarbleScanResultP handler) {
+    scan_context = context;
+    scan_handler = handler;
+}
+
+void warble_scanner_start(int32_t nopts, const WarbleOption* opts) {
+    if (scan_handler != NULL) {
+        for (int i = 0; i < STUB_NOTIFICATIONS; i++) {
+            scan_handler(scan_context, &stub_scan_result);
+        }
+    }
+}
+
+void warble_scanner_stop() {
+}
+
+const WarbleScanManufacturerData* warble_scan_result_get_manufacturer_data(const WarbleScanResult* result, uint16_t company_id) {
+    return company_id == 0x067e ? &stub_manufacturer_data : NULL;
+}
+
+int32_t warble_scan_result_has_service_uuid(const WarbleScanResult* result, const char* uuid) {
+    return 0;
+}
+
+WarbleGatt* warble_gatt_create(const char* mac) {
+    WarbleGatt* gatt = (WarbleGatt*) calloc(1, sizeof(WarbleGatt));
+    if (mac != NULL) {
+        strncpy(gatt->mac, mac, sizeof(gatt->mac) - 1);
+    }
+    return gatt;
+}
+
+WarbleGatt* warble_gatt_create_with_options(int32_t nopts, const WarbleOption* opts) {
+    const char* mac = NULL;
+    for (int32_t i = 0; i < nopts; i++) {
+        if (strcmp(opts[i].key, "mac") == 0) {
+            mac = opts[i].value;
+        }
+    }
+    return warble_gatt_create(mac);
+}
+
+void warble_gatt_delete(WarbleGatt* gatt) {
+    free(gatt);
+}
+
+void warble_gatt_connect_async(WarbleGatt* gatt, void* context, FnVoid_VoidP_WarbleGattP_CharP handler) {
+    gatt->connected = 1;
+    handler(context, gatt, NULL);
+}
+
+void warble_gatt_disconnect(WarbleGatt* gatt) {
+    gatt->connected = 0;
+    if (gatt->disconnect_handler != NULL) {
+        gatt->disconnect_handler(gatt->disconnect_context, gatt, 0);
+    }
+}
+
+void warble_gatt_on_disconnect(WarbleGatt* gatt, void* context, FnVoid_VoidP_WarbleGattP_Int handler) {
+    gatt->disconnect_context = context;
+    gatt->disconnect_handler = handler;
+}
+
+int32_t warble_gatt_is_connected(const WarbleGatt* gatt) {
+    return gatt->connected;
+}
+
+WarbleGattChar* warble_gatt_find_characteristic(WarbleGatt* gatt, const char* uuid) {
+    for (int32_t i = 0; i < gatt->count; i++) {
+        if (strcmp(gatt->characteristics[i].uuid, uuid) == 0) {
+            return &gatt->characteristics[i];
+        }
+    }
+    if (gatt->count == MAX_CHARACTERISTICS) {
+        return NULL;
+    }
+
+    WarbleGattChar* gattchar = &gatt->characteristics[gatt->count++];
+    gattchar->gatt = gatt;
+    strncpy(gattchar->uuid, uuid, sizeof(gattchar->uuid) - 1);
+    return gattchar;
+}
+
+int32_t warble_gatt_has_service(const WarbleGatt* gatt, const char* uuid) {
+    return 1;
+}
+
+void warble_gattchar_write_async(WarbleGattChar* gattchar, const uint8_t* value, uint8_t len, void* context, FnVoid_VoidP_WarbleGattCharP_CharP handler) {
+    handler(context, gattchar, NULL);
+}
+
+void warble_gattchar_write_without_resp_async(WarbleGattChar* gattchar, const uint8_t* value, uint8_t len, void* context, FnVoid_VoidP_WarbleGattCharP_CharP handler) {
+    handler(context, gattchar, NULL);
+}
+
+void warble_gattchar_read_async(WarbleGattChar* gattchar, void* context, FnVoid_VoidP_WarbleGattCharP_UbyteP_Ubyte_CharP handler) {
+    handler(context, gattchar, stub_value, STUB_VALUE_SIZE, NULL);
+}
+
+void warble_gattchar_enable_notifications_async(WarbleGattChar* gattchar, void* context, FnVoid_VoidP_WarbleGattCharP_CharP handler) {
+    handler(context, gattchar, NULL);
+    if (gattchar->notify_handler != NULL) {
+        for (int i = 0; i < STUB_NOTIFICATIONS; i++) {
+            stub_value[0] = (uint8_t) i;
+            gattchar->notify_handler(gattchar->notify_context, gattchar, stub_value, STUB_VALUE_SIZE);
+        }
+    }
+}
+
+void warble_gattchar_disable_notifications_async(WarbleGattChar* gattchar, void* context, FnVoid_VoidP_WarbleGattCharP_CharP handler) {
+    handler(context, gattchar, NULL);
+}
+
+void warble_gattchar_on_notification_received(WarbleGattChar* gattchar, void* context, FnVoid_VoidP_WarbleGattCharP_UbyteP_Ubyte handler) {
+    gattchar->notify_context = context;
+    gattchar->notify_handler = handler;
+}
+
+const char* warble_gattchar_get_uuid(const WarbleGattChar* gattchar) {
+    return gattchar->uuid;
+}
+
+WarbleGatt* warble_gattchar_get_gatt(const WarbleGattChar* gattchar) {
+    return gattchar->gatt;
+}
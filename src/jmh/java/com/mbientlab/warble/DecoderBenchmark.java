@@ -0,0 +1,112 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Ingesting accelerometer style notifications, 3 packed int16 samples of x/y/z after a 2 byte header, by parsing
+ * the byte[] handler's arrays into objects compared with the column decoder
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dwarble.native=com.mbientlab.warble.StubNative")
+public class DecoderBenchmark {
+    private static final float SCALE = 1 / 16384f;
+    private static final byte[] PAYLOAD = new byte[2 + 3 * 6];
+
+    static final class Sample {
+        final Float x, y, z;
+
+        Sample(Float x, Float y, Float z) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+    }
+
+    private StubNative stub;
+    private GattCharacteristic parsedChar, decodedChar;
+
+    @Setup
+    public void setup(Blackhole bh) {
+        stub = (StubNative) Library.WARBLE;
+
+        final Gatt gatt = new Gatt.Builder("D4:CA:6E:01:A2:B3").build();
+        gatt.connectAsync().join();
+
+        parsedChar = gatt.findCharacteristic("326a9006-85cb-9195-d9dd-464cfbbae75a");
+        parsedChar.onNotificationReceived = value -> {
+            final List<Sample> samples = new ArrayList<>();
+            for (int offset = 2; offset + 6 <= value.length; offset += 6) {
+                samples.add(new Sample(
+                        (short) ((value[offset] & 0xff) | (value[offset + 1] << 8)) * SCALE,
+                        (short) ((value[offset + 2] & 0xff) | (value[offset + 3] << 8)) * SCALE,
+                        (short) ((value[offset + 4] & 0xff) | (value[offset + 5] << 8)) * SCALE));
+            }
+            bh.consume(samples);
+        };
+
+        decodedChar = gatt.findCharacteristic("326a9007-85cb-9195-d9dd-464cfbbae75a");
+        final SampleDecoder decoder = new SampleDecoder(new SampleLayout.Builder()
+                .withHeader(2)
+                .withField(SampleLayout.Type.INT16, SCALE)
+                .withField(SampleLayout.Type.INT16, SCALE)
+                .withField(SampleLayout.Type.INT16, SCALE)
+                .withRepeat(0)
+                .build(), 256);
+        decoder.onBatchReady = batch -> {
+            bh.consume(batch.getFloats(0));
+            batch.release();
+        };
+        decodedChar.setDecoder(decoder);
+    }
+
+    @Benchmark
+    public void parseObjects() {
+        stub.sendNotification(parsedChar, PAYLOAD);
+    }
+
+    @Benchmark
+    public void decodeColumns() {
+        stub.sendNotification(decodedChar, PAYLOAD);
+    }
+}
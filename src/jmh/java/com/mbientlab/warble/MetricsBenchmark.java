@@ -0,0 +1,90 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Overhead of recording metrics on the read and notification paths, compared with metrics disabled
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dwarble.native=com.mbientlab.warble.StubNative")
+public class MetricsBenchmark {
+    private static final byte[] VALUE = new byte[] {0x1, 0x2, 0x3, 0x4};
+
+    @Param({"false", "true"})
+    public boolean metrics;
+
+    private StubNative stub;
+    private GattCharacteristic readChar, notifyChar;
+    private LatencyHistogram histogram;
+    private long sample;
+
+    @Setup
+    public void setup(Blackhole bh) {
+        stub = (StubNative) Library.WARBLE;
+        stub.readValue = VALUE;
+
+        final Gatt gatt = new Gatt.Builder("D4:CA:6E:01:A2:B3").withMetrics(metrics).build();
+        gatt.connectAsync().join();
+        readChar = gatt.findCharacteristic("326a9001-85cb-9195-d9dd-464cfbbae75a");
+        notifyChar = gatt.findCharacteristic("326a9006-85cb-9195-d9dd-464cfbbae75a");
+        notifyChar.onNotificationBufferReceived = bh::consume;
+
+        histogram = new LatencyHistogram();
+    }
+
+    @Benchmark
+    public byte[] readAsync() {
+        return readChar.readAsync().join();
+    }
+
+    @Benchmark
+    public void notification() {
+        stub.sendNotification(notifyChar, VALUE);
+    }
+
+    @Benchmark
+    public void histogramRecord() {
+        // spread samples over a few decades so different buckets are hit
+        histogram.record(sample = (sample * 31 + 17) & 0xfffff);
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares the jnr-ffi and Foreign Function and Memory API bindings against the stub C library in
+ * <code>src/jmh/c</code>, which has to be built first with <code>gradle stubLibrary</code>.  The Panama variant
+ * needs a Java 22+ JVM.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public abstract class NativeBindingBenchmark {
+    // STUB_NOTIFICATIONS in warble_stub.c
+    private static final int NOTIFICATIONS = 1000;
+
+    @Fork(value = 1, jvmArgsAppend = "-Dwarble.native=jnr")
+    public static class Jnr extends NativeBindingBenchmark {
+    }
+
+    @Fork(value = 1, jvmArgsAppend = {"-Dwarble.native=panama", "--enable-native-access=ALL-UNNAMED"})
+    public static class Panama extends NativeBindingBenchmark {
+    }
+
+    private Gatt gatt;
+    private GattCharacteristic gattChar;
+    private final byte[] value = new byte[20];
+
+    @Setup
+    public void setup(Blackhole bh) {
+        gatt = new Gatt.Builder("D4:CA:6E:01:A2:B3").build();
+        gatt.connectAsync().join();
+
+        gattChar = gatt.findCharacteristic("326a9006-85cb-9195-d9dd-464cfbbae75a");
+        gattChar.onNotificationReceived = bh::consume;
+    }
+
+    @TearDown
+    public void tearDown() {
+        gatt.close();
+    }
+
+    @Benchmark
+    public boolean downcall() {
+        return gatt.isConnected();
+    }
+
+    @Benchmark
+    public void writeWithoutResponse() {
+        gattChar.writeWithoutResponseAsync(value).join();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NOTIFICATIONS)
+    public void notification() {
+        gattChar.enableNotificationsAsync().join();
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import jnr.ffi.Pointer;
+
+/**
+ * Cost of decoding scan results in the native callback path
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dwarble.native=com.mbientlab.warble.StubNative")
+public class ScanResultBenchmark {
+    private static final int MBIENTLAB_COMPANY_ID = 0x067e;
+
+    private Pointer result;
+    private ScanSnapshot.Schema schema;
+    private ScanTable table;
+    private ScanFilter rejectingFilter;
+
+    @Setup
+    public void setup() {
+        final StubNative stub = (StubNative) Library.WARBLE;
+        stub.setManufacturerData(MBIENTLAB_COMPANY_ID, new byte[] {0x2, 0x1, 0x0, 0x1});
+        result = stub.scanResult("D4:CA:6E:01:A2:B3", "MetaWear", -60);
+
+        schema = new ScanSnapshot.Schema.Builder().withManufacturerData(MBIENTLAB_COMPANY_ID).build();
+        table = new ScanTable.Builder().withManufacturerData(MBIENTLAB_COMPANY_ID).build();
+        rejectingFilter = new ScanFilter.Builder().withMinRssi(-50).build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        table.stop();
+    }
+
+    @Benchmark
+    public void wrapperGetters(Blackhole bh) {
+        final ScanResult wrapper = new ScanResult(result);
+        bh.consume(wrapper.getMac());
+        bh.consume(wrapper.getName());
+        bh.consume(wrapper.getRssi());
+        bh.consume(wrapper.getManufacturerData(MBIENTLAB_COMPANY_ID));
+    }
+
+    @Benchmark
+    public ScanSnapshot snapshot() {
+        return ScanSnapshot.capture(result, schema);
+    }
+
+    @Benchmark
+    public void packedRecord(Blackhole bh) {
+        bh.consume(ScanRecord.mac(result));
+        bh.consume(ScanRecord.rssi(result));
+    }
+
+    @Benchmark
+    public void scanTableUpdate() {
+        table.accept(result);
+    }
+
+    @Benchmark
+    public boolean filterReject() {
+        return rejectingFilter.test(result);
+    }
+}
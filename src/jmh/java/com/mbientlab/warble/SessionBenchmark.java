@@ -0,0 +1,122 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time for every session in a thread-per-device design to finish a batch of synchronous reads.  Completions come
+ * from one callback thread, standing in for the native event thread, so sessions park while they wait.  Virtual
+ * thread sessions run on 4 carrier threads and need Java 21+; on older JVMs the benchmark falls back to platform
+ * threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Dwarble.native=com.mbientlab.warble.StubNative", "-Djdk.virtualThreadScheduler.parallelism=4"})
+public class SessionBenchmark {
+    private static final int READS_PER_SESSION = 10;
+
+    @Param({"1000", "10000"})
+    public int sessions;
+
+    @Param({"virtual", "platform"})
+    public String threads;
+
+    private ExecutorService callbacks;
+    private ThreadFactory factory;
+    private Gatt[] gatts;
+    private GattCharacteristic[] chars;
+
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            final Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            return Thread::new;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws InterruptedException {
+        ((StubNative) Library.WARBLE).readValue = new byte[20];
+        callbacks = Executors.newSingleThreadExecutor();
+        factory = threads.equals("virtual") ? virtualThreadFactory() : Thread::new;
+
+        gatts = new Gatt[sessions];
+        chars = new GattCharacteristic[sessions];
+        for (int i = 0; i < sessions; i++) {
+            gatts[i] = new Gatt.Builder(MacAddress.toString(0xD4CA6E000000L + i)).withCallbackExecutor(callbacks).build();
+            gatts[i].connect(1, TimeUnit.SECONDS);
+            chars[i] = gatts[i].findCharacteristic("326a9006-85cb-9195-d9dd-464cfbbae75a");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (Gatt gatt : gatts) {
+            gatt.close();
+        }
+        callbacks.shutdown();
+    }
+
+    @Benchmark
+    public void synchronousReads() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(sessions);
+        for (GattCharacteristic gattChar : chars) {
+            factory.newThread(() -> {
+                try {
+                    for (int i = 0; i < READS_PER_SESSION; i++) {
+                        gattChar.read(5, TimeUnit.SECONDS);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Notification throughput of the full stack with thousands of simulated devices streaming at once.  The
+ * <code>notifications</code> counter is the rate handlers received notifications at; end to end latency, from the
+ * simulator generating a notification to the handler seeing it, and the simulator's event lag are printed after each
+ * iteration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Threads(1)
+@Fork(value = 1, jvmArgsAppend = "-Dwarble.native=com.mbientlab.warble.SimulatedNative")
+public class SimulatedLoadBenchmark {
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Received {
+        public long notifications;
+    }
+
+    @Param({"5000"})
+    public int devices;
+
+    @Param({"inline", "striped"})
+    public String dispatch;
+
+    private final LongAdder received = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private StripedExecutor executor;
+    private Gatt[] gatts;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        SimulatedNative.get().setProfile(new SimulatedNative.Profile.Builder()
+                .withDevices(devices)
+                .withNotifications(20, TimeUnit.MILLISECONDS, 20)
+                .build());
+        executor = dispatch.equals("striped") ? new StripedExecutor.Builder().build() : null;
+
+        gatts = new Gatt[devices];
+        final CompletableFuture<?>[] connects = new CompletableFuture<?>[devices];
+        for (int i = 0; i < devices; i++) {
+            final Gatt.Builder builder = new Gatt.Builder(SimulatedNative.deviceMac(i));
+            if (executor != null) {
+                builder.withCallbackExecutor(executor);
+            }
+            gatts[i] = builder.build();
+            connects[i] = gatts[i].connectAsync();
+        }
+        CompletableFuture.allOf(connects).join();
+
+        final CompletableFuture<?>[] enables = new CompletableFuture<?>[devices];
+        for (int i = 0; i < devices; i++) {
+            final GattCharacteristic gattChar = gatts[i].findCharacteristic("326a9006-85cb-9195-d9dd-464cfbbae75a");
+            gattChar.onNotificationBufferReceived = value -> {
+                // bytes 4 - 11 hold the little endian nanoTime the simulator generated the notification at
+                latency.record(System.nanoTime() - Long.reverseBytes(value.getLong(4)));
+                received.increment();
+            };
+            enables[i] = gattChar.enableNotificationsAsync();
+        }
+        CompletableFuture.allOf(enables).join();
+    }
+
+    @TearDown(Level.Iteration)
+    public void report() {
+        final LatencyHistogram.Snapshot endToEnd = latency.snapshot(), lag = SimulatedNative.get().getEventLag();
+        System.out.printf("%nlatency p50 %d us, p99 %d us, p99.9 %d us, max %d us; event lag p99 %d us%n",
+                endToEnd.getPercentile(50, TimeUnit.MICROSECONDS), endToEnd.getPercentile(99, TimeUnit.MICROSECONDS),
+                endToEnd.getPercentile(99.9, TimeUnit.MICROSECONDS), endToEnd.getMax(TimeUnit.MICROSECONDS),
+                lag.getPercentile(99, TimeUnit.MICROSECONDS));
+        latency.reset();
+        SimulatedNative.get().resetStats();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (Gatt gatt : gatts) {
+            gatt.close();
+        }
+        if (executor != null) {
+            executor.close();
+        }
+    }
+
+    @Benchmark
+    public void notifications(Received counters) throws InterruptedException {
+        final long before = received.sum();
+        Thread.sleep(100);
+        counters.notifications += received.sum() - before;
+    }
+}
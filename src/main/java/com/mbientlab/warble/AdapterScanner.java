@@ -0,0 +1,240 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import jnr.ffi.Pointer;
+
+/**
+ * Scans for nearby BLE devices with one HCI adapter.  Each object has its own handler, scan type, filter, and
+ * metrics, and any number of them can be started at once.  The Warble library runs one native scan at a time, so
+ * while more than one adapter is started the native scan rotates between them, and results are credited to the
+ * adapter that was scanning when they arrived.  Each adapter only hears advertisements during its turn, so starting
+ * more adapters lowers what each one captures rather than adding capacity.
+ * @see MergedScanView
+ */
+public class AdapterScanner {
+    // guarded by the class lock
+    private static final List<AdapterScanner> RUNNING = new ArrayList<>();
+    private static long rotationNanos = TimeUnit.SECONDS.toNanos(2);
+    private static ScheduledFuture<?> rotation = null;
+    private static int position = 0;
+
+    static volatile AdapterScanner active = null;
+
+    /**
+     * Sets how long the native scan stays on each adapter when more than one is started.  Defaults to 2 seconds.
+     * The new interval applies the next time rotation begins
+     * @param interval Time spent scanning with each adapter
+     * @param unit     Unit of the interval value
+     */
+    public static synchronized void setRotationInterval(long interval, TimeUnit unit) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Rotation interval must be positive");
+        }
+        rotationNanos = unit.toNanos(interval);
+    }
+
+    private static void startNative(AdapterScanner scanner) {
+        Scanner.start(scanner.scanType, scanner.hci);
+    }
+
+    private static synchronized void rotate() {
+        if (RUNNING.size() < 2) {
+            return;
+        }
+
+        Library.WARBLE.warble_scanner_stop();
+        position = (position + 1) % RUNNING.size();
+        active = RUNNING.get(position);
+        startNative(active);
+    }
+
+    /** MAC address of the HCI adapter as a hex string, null if the system picks one */
+    public final String hci;
+
+    private volatile Scanner.ScanType scanType = Scanner.ScanType.ACTIVE;
+    private volatile ScanFilter filter = null;
+    private volatile ScannerMetrics metrics = null;
+    private volatile Consumer<Pointer> resultSink = null;
+    private boolean scanning = false;
+
+    /**
+     * Creates a scanner for an adapter
+     * @param hciMac MAC address of the HCI adapter as a hex string, null to have the system pick one.
+     *               Ignored on Windows, which only has one adapter
+     */
+    public AdapterScanner(String hciMac) {
+        this.hci = hciMac;
+    }
+
+    // Called from the native scan thread while this adapter is the one scanning
+    void accept(Pointer pointer) {
+        Scanner.deliver(pointer, filter, metrics, resultSink);
+    }
+
+    /**
+     * Sets a handler to process devices discovered by this adapter, replacing the current handler
+     * @param handler Consumer to forward scan results to
+     */
+    public void onResultReceived(Consumer<ScanResult> handler) {
+        resultSink = pointer -> handler.accept(new ScanResult(pointer));
+    }
+
+    /**
+     * Sets a handler that receives immutable copies of each scan result, replacing the current handler
+     * @param schema  Manufacturer data and service UUIDs to include in each snapshot
+     * @param handler Consumer to forward snapshots to
+     */
+    public void onSnapshotReceived(ScanSnapshot.Schema schema, Consumer<ScanSnapshot> handler) {
+        resultSink = pointer -> handler.accept(ScanSnapshot.capture(pointer, schema));
+    }
+
+    /**
+     * Aggregates devices discovered by this adapter into a table, replacing the current handler
+     * @param table Table to update with scan results
+     */
+    public void onResultReceived(ScanTable table) {
+        resultSink = table::accept;
+    }
+
+    /**
+     * Adds devices discovered by this adapter to a view shared with other adapters, replacing the current handler
+     * @param view View to update with scan results
+     */
+    public void onResultReceived(MergedScanView view) {
+        resultSink = pointer -> view.accept(this, pointer);
+    }
+
+    /**
+     * Sets the scan type used the next time this adapter starts scanning
+     * @param type Type of BLE scan to perform, defaults to {@link Scanner.ScanType#ACTIVE} if null
+     */
+    public void setScanType(Scanner.ScanType type) {
+        scanType = type == null ? Scanner.ScanType.ACTIVE : type;
+    }
+
+    /**
+     * Sets a filter that discards unwanted scan results before they reach the handler
+     * @param scanFilter Compiled filter, null to accept all results
+     */
+    public void setFilter(ScanFilter scanFilter) {
+        filter = scanFilter;
+    }
+
+    /**
+     * Records scan callback counts and handler timing for this adapter into a metrics object
+     * @param scannerMetrics Metrics to update, null to stop recording
+     */
+    public void setMetrics(ScannerMetrics scannerMetrics) {
+        metrics = scannerMetrics;
+    }
+
+    /**
+     * Get the metrics currently being recorded
+     * @return Scanner metrics, null if not recording
+     */
+    public ScannerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Checks if the adapter has been started
+     * @return True if started and not yet stopped
+     */
+    public boolean isScanning() {
+        synchronized (AdapterScanner.class) {
+            return scanning;
+        }
+    }
+
+    /**
+     * Checks if the native scan is currently using this adapter
+     * @return True if results are being credited to this adapter
+     */
+    public boolean isActive() {
+        return active == this;
+    }
+
+    /**
+     * Start scanning with this adapter
+     */
+    public void start() {
+        synchronized (AdapterScanner.class) {
+            if (scanning) {
+                return;
+            }
+            scanning = true;
+            RUNNING.add(this);
+
+            if (RUNNING.size() == 1) {
+                Scanner.attachHandler();
+                position = 0;
+                active = this;
+                startNative(this);
+            } else if (rotation == null) {
+                rotation = OperationQueue.TIMER.scheduleWithFixedDelay(
+                        OperationQueue.logExceptions("rotating the native scan", AdapterScanner::rotate),
+                        rotationNanos, rotationNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    /**
+     * Stop scanning with this adapter.  The native scan moves on to the next started adapter, if any
+     */
+    public void stop() {
+        synchronized (AdapterScanner.class) {
+            if (!scanning) {
+                return;
+            }
+            scanning = false;
+
+            final int index = RUNNING.indexOf(this);
+            RUNNING.remove(index);
+            if (RUNNING.size() < 2 && rotation != null) {
+                rotation.cancel(false);
+                rotation = null;
+            }
+
+            if (active == this) {
+                Library.WARBLE.warble_scanner_stop();
+                if (RUNNING.isEmpty()) {
+                    active = null;
+                } else {
+                    position = index % RUNNING.size();
+                    active = RUNNING.get(position);
+                    startNative(active);
+                }
+            } else if (index < position) {
+                position--;
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rolling statistics on the time between notifications, measured at native callback entry.  Intervals are kept for
+ * the most recent {@value #WINDOW} notifications; gap and drop counts cover everything since the last reset.
+ * @see GattCharacteristic#enableArrivalStats(long, TimeUnit)
+ */
+public class ArrivalStats {
+    /** Number of intervals the rolling statistics cover */
+    public static final int WINDOW = 1024;
+    // an interval this many times longer than expected is counted as a gap
+    private static final double GAP_FACTOR = 1.5;
+
+    private final long expectedNanos;
+    private final long[] intervals = new long[WINDOW];
+    private long count = 0, last = 0, windowSum = 0, gaps = 0, dropped = 0;
+
+    ArrivalStats(long expectedNanos) {
+        this.expectedNanos = expectedNanos;
+    }
+
+    synchronized void record(long nanoTime) {
+        if (count++ == 0) {
+            last = nanoTime;
+            return;
+        }
+
+        final long interval = nanoTime - last;
+        last = nanoTime;
+
+        final int filled = (int) Math.min(count - 2, WINDOW);
+        final long expected = expectedNanos > 0 ? expectedNanos : (filled == 0 ? 0 : windowSum / filled);
+        if (expected > 0 && interval > expected * GAP_FACTOR) {
+            gaps++;
+            dropped += Math.max(1, Math.round((double) interval / expected) - 1);
+        }
+
+        final int index = (int) ((count - 2) % WINDOW);
+        windowSum += interval - intervals[index];
+        intervals[index] = interval;
+    }
+
+    private int filled() {
+        return (int) Math.min(Math.max(count - 1, 0), WINDOW);
+    }
+
+    /**
+     * Get the number of notifications recorded
+     * @return Notification count
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * Get the average time between notifications over the rolling window
+     * @param unit Unit to express the interval in
+     * @return Mean interval, 0 if fewer than 2 notifications were recorded
+     */
+    public synchronized double getMeanInterval(TimeUnit unit) {
+        final int filled = filled();
+        return filled == 0 ? 0 : (double) windowSum / filled / unit.toNanos(1);
+    }
+
+    /**
+     * Get the deviation from the expected interval that the given fraction of intervals in the rolling window did
+     * not exceed.  The expected interval is the configured one, or the rolling mean if none was configured
+     * @param percentile Percentile between 0 and 100, such as 99
+     * @param unit       Unit to express the jitter in
+     * @return Jitter at the percentile, 0 if fewer than 2 notifications were recorded
+     */
+    public double getJitter(double percentile, TimeUnit unit) {
+        final long[] deviations;
+        synchronized (this) {
+            final int filled = filled();
+            if (filled == 0) {
+                return 0;
+            }
+
+            final long expected = expectedNanos > 0 ? expectedNanos : windowSum / filled;
+            deviations = new long[filled];
+            for (int i = 0; i < filled; i++) {
+                deviations[i] = Math.abs(intervals[i] - expected);
+            }
+        }
+
+        Arrays.sort(deviations);
+        final int rank = (int) Math.ceil(Math.min(percentile, 100.0) / 100.0 * deviations.length);
+        return (double) deviations[Math.max(rank, 1) - 1] / unit.toNanos(1);
+    }
+
+    /**
+     * Get the number of intervals more than 1.5 times longer than expected
+     * @return Gap count
+     */
+    public synchronized long getGapCount() {
+        return gaps;
+    }
+
+    /**
+     * Estimates how many notifications went missing, based on how many expected intervals each gap spans
+     * @return Estimated dropped notifications
+     */
+    public synchronized long getEstimatedDropped() {
+        return dropped;
+    }
+
+    /**
+     * Clears all recorded values
+     */
+    public synchronized void reset() {
+        Arrays.fill(intervals, 0);
+        count = 0;
+        last = 0;
+        windowSum = 0;
+        gaps = 0;
+        dropped = 0;
+    }
+}
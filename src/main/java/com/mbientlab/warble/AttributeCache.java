@@ -0,0 +1,215 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers the GATT services and characteristics of known devices so lookups on a reconnect are answered from
+ * memory rather than the native library.  Entries are keyed by MAC address plus a caller supplied hash of the
+ * device's attribute database, such as one derived from its firmware revision, and are discarded when the hash
+ * changes.  The cache is stored in a small binary file that is read in one pass.
+ * @see Gatt.Builder#withAttributeCache(AttributeCache, long)
+ */
+public class AttributeCache {
+    private static final int MAGIC = 0x57415443, VERSION = 1;
+
+    static final class Entry {
+        final long dbHash;
+        final Map<GattUuid, Boolean> services = new ConcurrentHashMap<>(), characteristics = new ConcurrentHashMap<>();
+
+        Entry(long dbHash) {
+            this.dbHash = dbHash;
+        }
+
+        boolean isWarm() {
+            return !services.isEmpty() || !characteristics.isEmpty();
+        }
+    }
+
+    private final Path file;
+    private final Map<Long, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong warmConnects = new AtomicLong(), warmConnectNanos = new AtomicLong(),
+            coldConnects = new AtomicLong(), coldConnectNanos = new AtomicLong();
+
+    private AttributeCache(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Loads the cache from a file, starting with an empty cache if the file does not exist or is not a valid
+     * cache file
+     * @param file Path of the cache file
+     * @return AttributeCache object backed by the file
+     * @throws IOException If the file exists but cannot be read
+     */
+    public static AttributeCache open(Path file) throws IOException {
+        final AttributeCache cache = new AttributeCache(file);
+
+        final byte[] contents;
+        try {
+            contents = Files.readAllBytes(file);
+        } catch (NoSuchFileException e) {
+            return cache;
+        }
+
+        try {
+            final ByteBuffer buffer = ByteBuffer.wrap(contents);
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return cache;
+            }
+
+            for (int remaining = buffer.getInt(); remaining > 0; remaining--) {
+                final long mac = buffer.getLong();
+                final Entry entry = new Entry(buffer.getLong());
+                readTable(buffer, entry.services);
+                readTable(buffer, entry.characteristics);
+                cache.entries.put(mac, entry);
+            }
+        } catch (BufferUnderflowException e) {
+            cache.entries.clear();
+        }
+        return cache;
+    }
+
+    private static void readTable(ByteBuffer buffer, Map<GattUuid, Boolean> table) {
+        for (int remaining = buffer.getShort() & 0xffff; remaining > 0; remaining--) {
+            table.put(GattUuid.of(buffer.getLong(), buffer.getLong()), buffer.get() != 0);
+        }
+    }
+
+    private static void writeTable(DataOutputStream out, Map<GattUuid, Boolean> table) throws IOException {
+        final Map<GattUuid, Boolean> snapshot = new HashMap<>(table);
+        out.writeShort(snapshot.size());
+        for (Map.Entry<GattUuid, Boolean> it : snapshot.entrySet()) {
+            out.writeLong(it.getKey().msb);
+            out.writeLong(it.getKey().lsb);
+            out.writeByte(it.getValue() ? 1 : 0);
+        }
+    }
+
+    /**
+     * Writes the cache to its file, replacing the previous contents
+     * @throws IOException If the file cannot be written
+     */
+    public synchronized void save() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            // lookups keep adding to the maps while saving, write a copy so the counts match the records
+            final Map<Long, Entry> snapshot = new HashMap<>(entries);
+            out.writeInt(snapshot.size());
+            for (Map.Entry<Long, Entry> it : snapshot.entrySet()) {
+                out.writeLong(it.getKey());
+                out.writeLong(it.getValue().dbHash);
+                writeTable(out, it.getValue().services);
+                writeTable(out, it.getValue().characteristics);
+            }
+        }
+
+        final Path parent = file.toAbsolutePath().getParent();
+        final Path tmp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try {
+            Files.write(tmp, bytes.toByteArray());
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Get the entry for a device, replacing it with an empty one if the attribute database hash differs
+     * @param mac    Device MAC address
+     * @param dbHash Hash of the device's current attribute database
+     * @return Cache entry for the device
+     * @throws IllegalArgumentException If the MAC address is not valid
+     */
+    Entry bind(String mac, long dbHash) {
+        return entries.compute(key(mac), (key, entry) -> entry == null || entry.dbHash != dbHash ? new Entry(dbHash) : entry);
+    }
+
+    /**
+     * Removes a device from the cache
+     * @param mac Device MAC address
+     * @throws IllegalArgumentException If the MAC address is not valid
+     */
+    public void invalidate(String mac) {
+        entries.remove(key(mac));
+    }
+
+    private static long key(String mac) {
+        final long packed = MacAddress.pack(mac);
+        if (packed == MacAddress.INVALID) {
+            throw new IllegalArgumentException("Invalid MAC address: " + mac);
+        }
+        return packed;
+    }
+
+    /**
+     * Get the number of devices in the cache
+     * @return Cache size
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    void recordConnect(boolean warm, long nanos) {
+        (warm ? warmConnects : coldConnects).incrementAndGet();
+        (warm ? warmConnectNanos : coldConnectNanos).addAndGet(nanos);
+    }
+
+    /**
+     * Get the average time taken to connect to devices
+     * @param warm True for devices that had cached attributes when the connection started, false for those that did not
+     * @param unit Unit to express the time in
+     * @return Average connect time, 0 if there have been no such connections
+     */
+    public double getAverageConnectTime(boolean warm, TimeUnit unit) {
+        final long count = (warm ? warmConnects : coldConnects).get();
+        return count == 0 ? 0 : (double) (warm ? warmConnectNanos : coldConnectNanos).get() / count / unit.toNanos(1);
+    }
+
+    /**
+     * Get the number of successful connections
+     * @param warm True for devices that had cached attributes when the connection started, false for those that did not
+     * @return Number of connections
+     */
+    public long getConnectCount(boolean warm) {
+        return (warm ? warmConnects : coldConnects).get();
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Waits for tasks on behalf of the synchronous API.  The waiting thread parks until the completion callback unparks
+ * it; no monitor is held while parked, so virtual threads release their carrier thread, and the callback, which
+ * runs on the native event thread, never blocks.  Callbacks record which thread they run on so a synchronous call
+ * that could never be completed fails fast instead of parking forever.
+ */
+final class Blocking {
+    // marks callbacks running inline on the native event thread, or the shared timer when it expires an operation
+    private static final Object EVENT_THREAD = new Object();
+    private static final ThreadLocal<Object> RUNNING = new ThreadLocal<>();
+
+    private Blocking() {
+    }
+
+    /**
+     * Marks the calling thread as running callbacks until {@link #exit(Object)} is called
+     * @param executor Executor the callbacks were dispatched on, null if they run inline on the event thread
+     * @return Previous mark to restore
+     */
+    static Object enter(Executor executor) {
+        final Object previous = RUNNING.get();
+        RUNNING.set(executor == null ? EVENT_THREAD : executor);
+        return previous;
+    }
+
+    static void exit(Object previous) {
+        RUNNING.set(previous);
+    }
+
+    /**
+     * Checks that a synchronous call for a device can complete on the calling thread.  Completions are delivered
+     * from the event thread and then through the device's callback executor, so waiting on either one deadlocks
+     * @param callbackExecutor Executor the device's callbacks are dispatched on, null if they run on the event thread
+     * @throws IllegalStateException If called from a thread the completion has to pass through
+     */
+    static void checkCaller(Executor callbackExecutor) {
+        final Object current = RUNNING.get();
+        if (current == EVENT_THREAD) {
+            throw new IllegalStateException("Synchronous calls cannot be made from the native event thread, use the async variant");
+        }
+        if (current != null && current == callbackExecutor) {
+            throw new IllegalStateException("Synchronous calls cannot be made from the device's callback executor, use the async variant");
+        }
+    }
+
+    /**
+     * Waits for a task to complete.  Tasks are expected to carry their own timeout
+     * @param task Task to wait on
+     * @param <T>  Result type
+     * @return Result of the task
+     * @throws InterruptedException If the thread is interrupted while waiting, the task keeps running
+     * @throws RuntimeException     Exception the task failed with
+     */
+    static <T> T await(CompletableFuture<T> task) throws InterruptedException {
+        if (!task.isDone()) {
+            final Thread waiter = Thread.currentThread();
+            task.whenComplete((value, error) -> LockSupport.unpark(waiter));
+            while (!task.isDone()) {
+                LockSupport.park(task);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        }
+
+        try {
+            return task.getNow(null);
+        } catch (CompletionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+}
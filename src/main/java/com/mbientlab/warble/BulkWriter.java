@@ -0,0 +1,447 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Streams payloads larger than a single characteristic value, such as firmware images, to a characteristic.
+ * The payload is split into chunks that are written without response, keeping several chunks queued so the link is
+ * never idle waiting for the application.  Every few chunks, and for the final chunk, an acknowledged write is used
+ * as a flow control checkpoint and no further chunks are queued until the remote device responds.
+ * <p>
+ * The {@link OperationQueue} issues one native request at a time per connection, writes without response included,
+ * so the window does not put several chunks on the air at once.  It bounds how many chunks wait in the queue, which
+ * lets the next chunk be issued as soon as the previous one completes without a round trip through the reader.
+ * When a transfer fails or is cancelled, the chunks still waiting in the queue are cancelled.  The queue issues the
+ * next operation as soon as the native library reports a failure, so the chunk after a failed one may already be on
+ * the air by the time the transfer learns of the error; nothing after that is written.
+ */
+public class BulkWriter {
+    /**
+     * Builder class to construct a {@link BulkWriter} object
+     */
+    public static class Builder {
+        private final GattCharacteristic target;
+        private int chunkSize = 20, window = 8, checkpointInterval = 32;
+        private OperationQueue.Priority priority = OperationQueue.Priority.LOW;
+        private long timeoutNanos = TimeUnit.SECONDS.toNanos(30);
+
+        /**
+         * Instantiates a builder
+         * @param target Characteristic to write to
+         */
+        public Builder(GattCharacteristic target) {
+            this.target = target;
+        }
+
+        /**
+         * Sets the number of payload bytes per write.  This should be the negotiated ATT MTU minus 3, the native
+         * library does not report the MTU so it has to be configured.  Defaults to 20, the payload size of the
+         * minimum MTU
+         * @param size Bytes per chunk, between 1 and 255
+         * @return Calling object
+         */
+        public Builder withChunkSize(int size) {
+            if (size < 1 || size > GattCharacteristic.MAX_VALUE_SIZE) {
+                throw new IllegalArgumentException("Chunk size must be between 1 and " + GattCharacteristic.MAX_VALUE_SIZE);
+            }
+            this.chunkSize = size;
+            return this;
+        }
+
+        /**
+         * Sets how many chunks can be queued or in flight at once.  Only one of them is handed to the native library
+         * at a time, the rest wait in the connection's operation queue.  Defaults to 8
+         * @param chunks Maximum outstanding chunks
+         * @return Calling object
+         */
+        public Builder withWindow(int chunks) {
+            if (chunks < 1) {
+                throw new IllegalArgumentException("Window must be at least 1 chunk");
+            }
+            this.window = chunks;
+            return this;
+        }
+
+        /**
+         * Sets how often an acknowledged write is used instead of a write without response.  Defaults to every 32
+         * chunks.  The final chunk is always acknowledged
+         * @param chunks Number of chunks between checkpoints, 0 to only acknowledge the final chunk
+         * @return Calling object
+         */
+        public Builder withCheckpointInterval(int chunks) {
+            if (chunks < 0) {
+                throw new IllegalArgumentException("Checkpoint interval cannot be negative");
+            }
+            this.checkpointInterval = chunks;
+            return this;
+        }
+
+        /**
+         * Sets the queue lane chunks are written from and the deadline for each chunk.  Defaults to
+         * {@link OperationQueue.Priority#LOW} and 30 seconds so bulk transfers do not hold up other traffic
+         * @param priority Queue lane to issue writes from
+         * @param timeout  How long each chunk may take, including time spent in the queue, 0 to wait indefinitely
+         * @param unit     Unit of the timeout value
+         * @return Calling object
+         */
+        public Builder withPriority(OperationQueue.Priority priority, long timeout, TimeUnit unit) {
+            this.priority = priority;
+            this.timeoutNanos = unit.toNanos(timeout);
+            return this;
+        }
+
+        /**
+         * Build the BulkWriter object with the specified parameters
+         * @return BulkWriter object
+         */
+        public BulkWriter build() {
+            return new BulkWriter(this);
+        }
+    }
+
+    /**
+     * Source of payload bytes
+     */
+    private interface Source {
+        /** Fills up to <code>dst.length</code> bytes, returns the number read or -1 at the end of the payload */
+        int read(byte[] dst) throws IOException;
+    }
+
+    /** Handler called on the callback thread each time a chunk has been written, an exception fails the transfer */
+    public Consumer<BulkWriter> onProgress = (writer) -> { };
+
+    private final GattCharacteristic target;
+    private final int chunkSize, window, checkpointInterval;
+    private final OperationQueue.Priority priority;
+    private final long timeoutNanos;
+
+    private final AtomicInteger wip = new AtomicInteger(), inFlight = new AtomicInteger();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    // chunks of the current transfer that have not completed
+    private final Set<CompletableFuture<Void>> chunkWrites = ConcurrentHashMap.newKeySet();
+    private volatile CompletableFuture<Long> transfer = null;
+    private volatile boolean paused = false, awaitingCheckpoint = false;
+    private volatile long totalBytes = -1;
+    // guarded by the pump, only touched by the thread that owns the work in progress counter
+    private Source source;
+    private byte[] next;
+    private long chunks;
+    private boolean exhausted;
+    // guarded by this
+    private long activeNanos, resumedAt;
+
+    private BulkWriter(Builder builder) {
+        this.target = builder.target;
+        this.chunkSize = builder.chunkSize;
+        this.window = builder.window;
+        this.checkpointInterval = builder.checkpointInterval;
+        this.priority = builder.priority;
+        this.timeoutNanos = builder.timeoutNanos;
+    }
+
+    /**
+     * Writes the remaining bytes of a buffer.  The buffer's position is not changed
+     * @param payload Bytes to write
+     * @return Number of bytes written when the transfer completes, {@link GattCharacteristicException} if a write fails
+     * @throws IllegalStateException If a transfer is already in progress
+     */
+    public CompletableFuture<Long> write(ByteBuffer payload) {
+        final ByteBuffer remaining = payload.duplicate();
+        return start(remaining.remaining(), dst -> {
+            if (!remaining.hasRemaining()) {
+                return -1;
+            }
+            final int length = Math.min(dst.length, remaining.remaining());
+            remaining.get(dst, 0, length);
+            return length;
+        });
+    }
+
+    /**
+     * Writes everything remaining in a stream.  The stream is read on the callback thread and is not closed
+     * @param payload Stream to read bytes from
+     * @return Number of bytes written when the transfer completes, {@link GattCharacteristicException} if a write fails,
+     * or the {@link IOException} thrown by the stream
+     * @throws IllegalStateException If a transfer is already in progress
+     */
+    public CompletableFuture<Long> write(InputStream payload) {
+        return start(-1, dst -> {
+            int offset = 0;
+            while (offset < dst.length) {
+                final int count = payload.read(dst, offset, dst.length - offset);
+                if (count < 0) {
+                    break;
+                }
+                offset += count;
+            }
+            return offset == 0 ? -1 : offset;
+        });
+    }
+
+    /**
+     * Writes everything remaining in a channel, such as a {@link FileChannel} opened on a firmware image.
+     * The channel is read on the callback thread and is not closed
+     * @param payload Channel to read bytes from
+     * @return Number of bytes written when the transfer completes, {@link GattCharacteristicException} if a write fails,
+     * or the {@link IOException} thrown by the channel
+     * @throws IllegalStateException If a transfer is already in progress
+     */
+    public CompletableFuture<Long> write(ReadableByteChannel payload) {
+        long size = -1;
+        if (payload instanceof FileChannel) {
+            try {
+                final FileChannel file = (FileChannel) payload;
+                size = file.size() - file.position();
+            } catch (IOException ignored) {
+            }
+        }
+
+        return start(size, dst -> {
+            final ByteBuffer buffer = ByteBuffer.wrap(dst);
+            while (buffer.hasRemaining()) {
+                if (payload.read(buffer) < 0) {
+                    break;
+                }
+            }
+            return buffer.position() == 0 ? -1 : buffer.position();
+        });
+    }
+
+    private CompletableFuture<Long> start(long size, Source payload) {
+        final CompletableFuture<Long> task = new CompletableFuture<>();
+        synchronized (this) {
+            if (transfer != null && !transfer.isDone()) {
+                throw new IllegalStateException("A transfer is already in progress");
+            }
+
+            cancelChunks();
+            source = payload;
+            next = null;
+            chunks = 0;
+            exhausted = false;
+            awaitingCheckpoint = false;
+            inFlight.set(0);
+            bytesWritten.set(0);
+            totalBytes = size;
+            activeNanos = 0;
+            resumedAt = System.nanoTime();
+            transfer = task;
+        }
+
+        task.whenComplete((value, error) -> {
+            if (error != null) {
+                synchronized (this) {
+                    if (transfer == task) {
+                        cancelChunks();
+                    }
+                }
+            }
+        });
+        pump();
+        return task;
+    }
+
+    private synchronized void cancelChunks() {
+        for (CompletableFuture<Void> it : chunkWrites) {
+            // the operation queue skips cancelled tasks instead of issuing them
+            it.cancel(false);
+        }
+        chunkWrites.clear();
+    }
+
+    /**
+     * Stops queueing chunks.  Chunks already queued are still written
+     */
+    public synchronized void pause() {
+        if (!paused) {
+            paused = true;
+            activeNanos += System.nanoTime() - resumedAt;
+        }
+    }
+
+    /**
+     * Resumes a paused transfer
+     */
+    public void resume() {
+        synchronized (this) {
+            if (!paused) {
+                return;
+            }
+            paused = false;
+            resumedAt = System.nanoTime();
+        }
+        pump();
+    }
+
+    /**
+     * Checks if the transfer is paused
+     * @return True if {@link #pause()} was called without a matching {@link #resume()}
+     */
+    public boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * Get the number of bytes the remote device has accepted in the current or most recent transfer
+     * @return Bytes written
+     */
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    /**
+     * Get the size of the current or most recent transfer
+     * @return Payload size, -1 if it is not known in advance
+     */
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * Get the sustained transfer rate, excluding time spent paused
+     * @return Bytes per second
+     */
+    public synchronized double getThroughput() {
+        final long active = activeNanos + (paused || transfer == null || transfer.isDone() ? 0 : System.nanoTime() - resumedAt);
+        return active <= 0 ? 0 : bytesWritten.get() * 1e9 / active;
+    }
+
+    private synchronized void finish(CompletableFuture<Long> task) {
+        if (!paused) {
+            activeNanos += System.nanoTime() - resumedAt;
+            resumedAt = System.nanoTime();
+        }
+        task.complete(bytesWritten.get());
+    }
+
+    private void pump() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+
+        int missed = 1;
+        do {
+            final CompletableFuture<Long> task = transfer;
+            if (task != null && !task.isDone()) {
+                issue(task);
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private void issue(CompletableFuture<Long> task) {
+        try {
+            while (!paused && !awaitingCheckpoint && inFlight.get() < window && !task.isDone()) {
+                final byte[] chunk = next == null ? read() : next;
+                if (chunk == null) {
+                    break;
+                }
+                // read ahead so the final chunk is known and can be acknowledged
+                next = read();
+
+                chunks++;
+                final boolean checkpoint = next == null || (checkpointInterval > 0 && chunks % checkpointInterval == 0);
+                if (checkpoint) {
+                    awaitingCheckpoint = true;
+                }
+                inFlight.incrementAndGet();
+
+                final CompletableFuture<Void> write = checkpoint ?
+                        target.writeAsync(chunk, priority, timeoutNanos, TimeUnit.NANOSECONDS) :
+                        target.writeWithoutResponseAsync(chunk, priority, timeoutNanos, TimeUnit.NANOSECONDS);
+                chunkWrites.add(write);
+                write.whenComplete((value, error) -> {
+                    chunkWrites.remove(write);
+                    written(task, chunk.length, checkpoint, error);
+                });
+                if (task.isCompletedExceptionally()) {
+                    // failed while this chunk was being queued, after the pending chunks were cancelled
+                    write.cancel(false);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            task.completeExceptionally(e);
+            return;
+        }
+
+        if (exhausted && next == null && inFlight.get() == 0 && !task.isDone()) {
+            finish(task);
+        }
+    }
+
+    private byte[] read() throws IOException {
+        if (exhausted) {
+            return null;
+        }
+
+        final byte[] chunk = new byte[chunkSize];
+        final int length = source.read(chunk);
+        if (length < 0) {
+            exhausted = true;
+            return null;
+        }
+        if (length < chunkSize) {
+            final byte[] partial = new byte[length];
+            System.arraycopy(chunk, 0, partial, 0, length);
+            return partial;
+        }
+        return chunk;
+    }
+
+    private void written(CompletableFuture<Long> task, int length, boolean checkpoint, Throwable error) {
+        if (transfer != task || task.isDone()) {
+            return;
+        }
+        if (error != null) {
+            task.completeExceptionally(error);
+            return;
+        }
+
+        bytesWritten.addAndGet(length);
+        inFlight.decrementAndGet();
+        if (checkpoint) {
+            awaitingCheckpoint = false;
+        }
+        try {
+            onProgress.accept(this);
+        } catch (RuntimeException e) {
+            task.completeExceptionally(e);
+            return;
+        }
+        pump();
+    }
+}
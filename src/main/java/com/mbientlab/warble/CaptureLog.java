@@ -0,0 +1,381 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.logging.Level;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import jnr.ffi.Pointer;
+
+/**
+ * Appends raw notification, scan, connection, and operation traffic to memory-mapped segment files for later
+ * {@link CaptureReplay replay}.  Records are written straight from the native callbacks without locks or allocation;
+ * space is reserved with an atomic add and a new segment is mapped ahead of time on a background thread.  When the
+ * writers outrun the background thread, records are dropped and counted rather than blocking the event thread.
+ * @see Gatt.Builder#withCapture(CaptureLog)
+ * @see Scanner#setCapture(CaptureLog)
+ */
+public final class CaptureLog implements AutoCloseable {
+    /**
+     * Kinds of captured records
+     */
+    public enum RecordType {
+        /** Characteristic notification, the payload is the value */
+        NOTIFICATION,
+        /** Scan result, the status is the signal strength and the payload is the advertising name */
+        SCAN_RESULT,
+        /** Connection attempt finished, the status is 0 on success or 1 with the error message as the payload */
+        CONNECT,
+        /** Disconnected from the device, the status is the value passed to {@link Gatt#onDisconnect} */
+        DISCONNECT,
+        /** Write or notification change finished, the status is 0 on success or 1 with the error message as the payload */
+        COMPLETION,
+        /** Read finished, the status is 0 with the value as the payload, or 1 with the error message */
+        READ;
+
+        private static final RecordType[] VALUES = values();
+
+        static RecordType of(int code) {
+            return code >= 0 && code < VALUES.length ? VALUES[code] : null;
+        }
+    }
+
+    static final String FILE_EXTENSION = ".wcap";
+    static final int MAGIC = 0x50414357, VERSION = 1;
+    // segment header: int magic, int version, long segment index
+    static final int SEGMENT_HEADER_SIZE = 16;
+    // record header: int length, byte type, byte reserved, short payload length, long nano time, long wall clock,
+    // long mac, long uuid msb, long uuid lsb, int status, int reserved
+    static final int RECORD_HEADER_SIZE = 56, END_OF_SEGMENT = -1;
+    static final int TYPE_OFFSET = 4, PAYLOAD_LENGTH_OFFSET = 6, NANO_TIME_OFFSET = 8, WALL_CLOCK_OFFSET = 16,
+            MAC_OFFSET = 24, MSB_OFFSET = 32, LSB_OFFSET = 40, STATUS_OFFSET = 48;
+
+    static final Pattern SEGMENT_NAME = Pattern.compile("capture-\\d{8}\\" + FILE_EXTENSION);
+
+    static String segmentName(long index) {
+        return String.format(Locale.US, "capture-%08d%s", index, FILE_EXTENSION);
+    }
+
+    /**
+     * Builder class to construct a {@link CaptureLog} object
+     */
+    public static class Builder {
+        private final Path directory;
+        private long segmentSize = 64L << 20;
+        private int maxSegments = 0;
+
+        /**
+         * Creates a builder that writes segments to the directory
+         * @param directory Directory to write segment files to, created if it does not exist
+         */
+        public Builder(Path directory) {
+            this.directory = directory;
+        }
+
+        /**
+         * Sets the size each segment file is mapped at.  Defaults to 64MB
+         * @param bytes Segment size, between 4KB and 1GB
+         * @return Calling object
+         */
+        public Builder withSegmentSize(long bytes) {
+            this.segmentSize = bytes;
+            return this;
+        }
+
+        /**
+         * Deletes the oldest segments once the directory holds more than the given number.  Defaults to 0, keeping
+         * every segment
+         * @param count Number of segments to keep, 0 to keep all
+         * @return Calling object
+         */
+        public Builder withMaxSegments(int count) {
+            this.maxSegments = count;
+            return this;
+        }
+
+        /**
+         * Creates the directory and maps the first segment
+         * @return Capture log
+         * @throws IOException If the first segment cannot be created
+         * @throws IllegalArgumentException If the segment size is out of range
+         */
+        public CaptureLog build() throws IOException {
+            if (segmentSize < 4096 || segmentSize > (1L << 30)) {
+                throw new IllegalArgumentException("Segment size must be between 4KB and 1GB");
+            }
+            Files.createDirectories(directory);
+            return new CaptureLog(this);
+        }
+    }
+
+    private static final class Segment {
+        private final long index, capacity;
+        private final Path file;
+        // keeps the mapping alive, the pointer does not reference it
+        private final MappedByteBuffer buffer;
+        private final Pointer memory;
+        private final AtomicLong position = new AtomicLong(SEGMENT_HEADER_SIZE);
+
+        private Segment(Path file, long index, long capacity) throws IOException {
+            this.file = file;
+            this.index = index;
+            this.capacity = capacity;
+
+            try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw");
+                 FileChannel channel = raf.getChannel()) {
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            }
+            buffer.order(ByteOrder.nativeOrder());
+            memory = Pointer.wrap(Library.RUNTIME, Pointer.wrap(Library.RUNTIME, buffer).address());
+            memory.putInt(0, MAGIC);
+            memory.putInt(4, VERSION);
+            memory.putLong(8, index);
+        }
+    }
+
+    private static final AtomicReferenceFieldUpdater<CaptureLog, Segment> CURRENT =
+            AtomicReferenceFieldUpdater.newUpdater(CaptureLog.class, Segment.class, "current");
+
+    private final Path directory;
+    private final long segmentSize;
+    private final int maxSegments;
+    private final ExecutorService mapper;
+    private final AtomicBoolean mapping = new AtomicBoolean(false);
+    private final AtomicLong written = new AtomicLong(), dropped = new AtomicLong();
+    private volatile Segment current, spare;
+    private volatile boolean closed = false;
+
+    private CaptureLog(Builder builder) throws IOException {
+        directory = builder.directory;
+        segmentSize = builder.segmentSize;
+        maxSegments = builder.maxSegments;
+
+        // continue numbering after any earlier capture in the directory
+        final long first;
+        try (Stream<Path> files = Files.list(directory)) {
+            first = files.map(path -> path.getFileName().toString())
+                    .filter(name -> SEGMENT_NAME.matcher(name).matches())
+                    .mapToLong(name -> Long.parseLong(name.substring(8, 16)) + 1)
+                    .max()
+                    .orElse(0);
+        }
+        current = newSegment(first);
+        mapper = Executors.newSingleThreadExecutor(task -> {
+            final Thread thread = new Thread(task, "warble-capture");
+            thread.setDaemon(true);
+            return thread;
+        });
+        requestSpare();
+    }
+
+    private Segment newSegment(long index) throws IOException {
+        final Segment segment = new Segment(directory.resolve(segmentName(index)), index, segmentSize);
+        if (maxSegments > 0) {
+            Files.deleteIfExists(directory.resolve(segmentName(index - maxSegments)));
+        }
+        return segment;
+    }
+
+    private void requestSpare() {
+        if (closed || !mapping.compareAndSet(false, true)) {
+            return;
+        }
+        mapper.execute(() -> {
+            try {
+                final Segment next = newSegment(current.index + 1);
+                if (closed) {
+                    Files.deleteIfExists(next.file);
+                } else {
+                    spare = next;
+                }
+            } catch (IOException e) {
+                NativeCleaner.LOGGER.log(Level.WARNING, "Failed to map the next capture segment", e);
+            } finally {
+                mapping.set(false);
+            }
+        });
+    }
+
+    private void write(RecordType type, long mac, long msb, long lsb, int status, long nanoTime, long wallClockMillis,
+                       Pointer value, String text, int size) {
+        if (closed) {
+            return;
+        }
+
+        final int length = (RECORD_HEADER_SIZE + size + 7) & ~7;
+        while (true) {
+            final Segment segment = current;
+            final long position = segment.position.getAndAdd(length);
+            if (position + length <= segment.capacity) {
+                final Pointer memory = segment.memory;
+                memory.putByte(position + TYPE_OFFSET, (byte) type.ordinal());
+                memory.putShort(position + PAYLOAD_LENGTH_OFFSET, (short) size);
+                memory.putLong(position + NANO_TIME_OFFSET, nanoTime);
+                memory.putLong(position + WALL_CLOCK_OFFSET, wallClockMillis);
+                memory.putLong(position + MAC_OFFSET, mac);
+                memory.putLong(position + MSB_OFFSET, msb);
+                memory.putLong(position + LSB_OFFSET, lsb);
+                memory.putInt(position + STATUS_OFFSET, status);
+                if (value != null) {
+                    value.transferTo(0, memory, position + RECORD_HEADER_SIZE, size);
+                } else {
+                    for (int i = 0; i < size; i++) {
+                        memory.putByte(position + RECORD_HEADER_SIZE + i, (byte) text.charAt(i));
+                    }
+                }
+                // length is written last, a reader stops at a record that was reserved but not finished
+                memory.putInt(position, length);
+                written.incrementAndGet();
+                return;
+            }
+
+            if (position + 4 <= segment.capacity) {
+                // only the first writer past the end lands here
+                segment.memory.putInt(position, END_OF_SEGMENT);
+            }
+            final Segment next = spare;
+            if (next == null || next.index <= segment.index) {
+                dropped.incrementAndGet();
+                requestSpare();
+                return;
+            }
+            if (CURRENT.compareAndSet(this, segment, next)) {
+                spare = null;
+                requestSpare();
+            }
+        }
+    }
+
+    void notification(long mac, GattUuid uuid, long nanoTime, long wallClockMillis, Pointer value, int size) {
+        write(RecordType.NOTIFICATION, mac, uuid.msb, uuid.lsb, 0, nanoTime, wallClockMillis, value, null, size);
+    }
+
+    void scanResult(Pointer result, long nanoTime, long wallClockMillis) {
+        final Pointer name = ScanRecord.namePointer(result);
+        int size = name == null ? 0 : name.indexOf(0, (byte) 0, GattCharacteristic.MAX_VALUE_SIZE);
+        if (size < 0) {
+            size = GattCharacteristic.MAX_VALUE_SIZE;
+        }
+        write(RecordType.SCAN_RESULT, ScanRecord.mac(result), 0, 0, ScanRecord.rssi(result), nanoTime, wallClockMillis,
+                name, null, size);
+    }
+
+    void connection(long mac, String err) {
+        write(RecordType.CONNECT, mac, 0, 0, err == null ? 0 : 1, System.nanoTime(), System.currentTimeMillis(),
+                null, err, textLength(err));
+    }
+
+    void disconnect(long mac, int status) {
+        write(RecordType.DISCONNECT, mac, 0, 0, status, System.nanoTime(), System.currentTimeMillis(), null, null, 0);
+    }
+
+    void completion(long mac, GattUuid uuid, String err) {
+        write(RecordType.COMPLETION, mac, uuid.msb, uuid.lsb, err == null ? 0 : 1, System.nanoTime(),
+                System.currentTimeMillis(), null, err, textLength(err));
+    }
+
+    void read(long mac, GattUuid uuid, Pointer value, int size, String err) {
+        if (err == null) {
+            write(RecordType.READ, mac, uuid.msb, uuid.lsb, 0, System.nanoTime(), System.currentTimeMillis(),
+                    value, null, size);
+        } else {
+            write(RecordType.READ, mac, uuid.msb, uuid.lsb, 1, System.nanoTime(), System.currentTimeMillis(),
+                    null, err, textLength(err));
+        }
+    }
+
+    private static int textLength(String text) {
+        return text == null ? 0 : Math.min(text.length(), GattCharacteristic.MAX_VALUE_SIZE);
+    }
+
+    /**
+     * Get the directory segments are written to
+     * @return Capture directory
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Get the number of records written
+     * @return Record count
+     */
+    public long getWritten() {
+        return written.get();
+    }
+
+    /**
+     * Get the number of records discarded because the next segment was not mapped in time
+     * @return Dropped record count
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Flushes the current segment to disk and stops recording.  Subsequent calls have no effect
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        mapper.shutdown();
+        // the mapper may be creating the spare segment, let it finish so the file is not left behind or half written
+        try {
+            if (!mapper.awaitTermination(5, TimeUnit.SECONDS)) {
+                NativeCleaner.LOGGER.warning("Timed out waiting for the capture segment mapper to stop");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        current.buffer.force();
+        final Segment unused = spare;
+        if (unused != null) {
+            spare = null;
+            try {
+                Files.deleteIfExists(unused.file);
+            } catch (IOException e) {
+                NativeCleaner.LOGGER.log(Level.WARNING, "Failed to delete unused capture segment", e);
+            }
+        }
+    }
+}
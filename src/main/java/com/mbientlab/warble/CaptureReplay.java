@@ -0,0 +1,344 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import jnr.ffi.Pointer;
+
+/**
+ * Plays back a directory written by a {@link CaptureLog}.  Notifications and disconnects are fed through the native
+ * handlers of the {@link Gatt} objects registered with the builder, and scan results through the {@link Scanner}
+ * handler, so the same handlers, queues, decoders, and statistics see the traffic as if it came from the devices.
+ * Operation results cannot be matched to new requests and are only passed to {@link #onRecord}.
+ */
+public final class CaptureReplay {
+    /**
+     * Captured record.  The object and its payload are reused, so they are only valid until the handler returns
+     */
+    public static final class Record {
+        private CaptureLog.RecordType type;
+        private long nanoTime, wallClockMillis, mac, msb, lsb;
+        private int status;
+        private ByteBuffer payload;
+
+        private Record() {
+
+        }
+
+        /**
+         * Get the kind of record
+         * @return Record type
+         */
+        public CaptureLog.RecordType getType() {
+            return type;
+        }
+
+        /**
+         * Get when the record was captured
+         * @return {@link System#nanoTime()} value at capture time
+         */
+        public long getNanoTime() {
+            return nanoTime;
+        }
+
+        /**
+         * Get when the record was captured
+         * @return {@link System#currentTimeMillis()} value at capture time
+         */
+        public long getWallClockMillis() {
+            return wallClockMillis;
+        }
+
+        /**
+         * Get the MAC address of the remote device
+         * @return MAC address packed into a long
+         */
+        public long getPackedMac() {
+            return mac;
+        }
+
+        /**
+         * Get the MAC address of the remote device
+         * @return Upper case, colon separated MAC address
+         */
+        public String getMac() {
+            return MacAddress.toString(mac);
+        }
+
+        /**
+         * Get the characteristic the record belongs to
+         * @return Characteristic UUID, null for scan results and connection events
+         */
+        public GattUuid getCharacteristic() {
+            return msb == 0 && lsb == 0 ? null : GattUuid.of(msb, lsb);
+        }
+
+        /**
+         * Get the status value, its meaning depends on the {@link CaptureLog.RecordType type}
+         * @return Record status
+         */
+        public int getStatus() {
+            return status;
+        }
+
+        /**
+         * Get the payload, its meaning depends on the {@link CaptureLog.RecordType type}
+         * @return Read-only buffer over the payload bytes
+         */
+        public ByteBuffer getPayload() {
+            return payload;
+        }
+    }
+
+    /**
+     * Builder class to construct a {@link CaptureReplay} object
+     */
+    public static class Builder {
+        private final Path directory;
+        private final Map<Long, Gatt> devices = new HashMap<>();
+        private double speed = 1.0;
+        private boolean scanResults = false;
+
+        /**
+         * Creates a builder that reads segments from the directory
+         * @param directory Directory a {@link CaptureLog} wrote to
+         */
+        public Builder(Path directory) {
+            this.directory = directory;
+        }
+
+        /**
+         * Sets how fast to play back the capture relative to the original timing.  Defaults to 1
+         * @param factor Speed up factor, 1 for the original timing, 0 to replay as fast as possible
+         * @return Calling object
+         */
+        public Builder withSpeed(double factor) {
+            this.speed = factor;
+            return this;
+        }
+
+        /**
+         * Delivers the notifications and disconnects captured for the device's MAC address to the Gatt object.
+         * Characteristics are looked up with {@link Gatt#findCharacteristic(GattUuid)}
+         * @param gatt Object to deliver to
+         * @return Calling object
+         */
+        public Builder withDevice(Gatt gatt) {
+            devices.put(gatt.packedMac, gatt);
+            return this;
+        }
+
+        /**
+         * Delivers captured scan results to the current {@link Scanner} or {@link AdapterScanner} handler.  Replayed
+         * results only have a MAC address, name, and signal strength; filters and lookups on manufacturer data or
+         * service UUIDs do not match them.  Disabled by default
+         * @param enabled True to replay scan results
+         * @return Calling object
+         */
+        public Builder withScanResults(boolean enabled) {
+            this.scanResults = enabled;
+            return this;
+        }
+
+        /**
+         * Create the replay object
+         * @return Replay object
+         * @throws IllegalArgumentException If the speed is negative
+         */
+        public CaptureReplay build() {
+            if (speed < 0) {
+                throw new IllegalArgumentException("Speed cannot be negative");
+            }
+            return new CaptureReplay(this);
+        }
+    }
+
+    private final Path directory;
+    private final Map<Long, Gatt> devices;
+    private final double speed;
+    private final boolean scanResults;
+    private final Record record = new Record();
+    private final byte[] scratch = new byte[GattCharacteristic.MAX_VALUE_SIZE + 1];
+    private final Pointer value, scanResult, scanMac, scanName;
+
+    /** Handler that sees every record before it is delivered, null to disable */
+    public Consumer<Record> onRecord = null;
+
+    private CaptureReplay(Builder builder) {
+        directory = builder.directory;
+        devices = new HashMap<>(builder.devices);
+        speed = builder.speed;
+        scanResults = builder.scanResults;
+
+        final int addressSize = Library.RUNTIME.addressSize();
+        value = Library.RUNTIME.getMemoryManager().allocateDirect(GattCharacteristic.MAX_VALUE_SIZE, true);
+        scanMac = Library.RUNTIME.getMemoryManager().allocateDirect(18, true);
+        scanName = Library.RUNTIME.getMemoryManager().allocateDirect(GattCharacteristic.MAX_VALUE_SIZE + 1, true);
+        // WarbleScanResult without private data, see ScanRecord.hasAdvertisement
+        scanResult = Library.RUNTIME.getMemoryManager().allocateDirect(4 * addressSize, true);
+        scanResult.putPointer(0, scanMac);
+        scanResult.putPointer(addressSize, scanName);
+    }
+
+    /**
+     * Plays back every segment in the directory on the calling thread, oldest first
+     * @return Number of records replayed
+     * @throws IOException          If a segment cannot be read or is not a capture segment
+     * @throws InterruptedException If the thread is interrupted while waiting for the next record
+     */
+    public long run() throws IOException, InterruptedException {
+        final List<Path> segments;
+        try (Stream<Path> files = Files.list(directory)) {
+            segments = files.filter(path -> CaptureLog.SEGMENT_NAME.matcher(path.getFileName().toString()).matches())
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+
+        final long start = System.nanoTime();
+        long first = Long.MIN_VALUE, count = 0;
+        for (Path segment : segments) {
+            final MappedByteBuffer buffer;
+            try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } catch (NoSuchFileException e) {
+                // rotated out by a live capture after the directory was listed
+                continue;
+            }
+            // a segment still being created by a live capture has no header yet
+            if (buffer.limit() < CaptureLog.SEGMENT_HEADER_SIZE || buffer.getLong(0) == 0) {
+                continue;
+            }
+            // segments are written in the native byte order of the capturing machine
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getInt(0) != CaptureLog.MAGIC) {
+                buffer.order(ByteOrder.BIG_ENDIAN);
+            }
+            if (buffer.getInt(0) != CaptureLog.MAGIC) {
+                throw new IOException("Not a capture segment: " + segment);
+            }
+            if (buffer.getInt(4) != CaptureLog.VERSION) {
+                throw new IOException("Unsupported capture version " + buffer.getInt(4) + ": " + segment);
+            }
+
+            final ByteBuffer view = buffer.asReadOnlyBuffer();
+            int position = CaptureLog.SEGMENT_HEADER_SIZE;
+            while (position + CaptureLog.RECORD_HEADER_SIZE <= buffer.limit()) {
+                final int length = buffer.getInt(position);
+                // 0 is a record that was never finished, negative marks the end of the segment
+                if (length < CaptureLog.RECORD_HEADER_SIZE || position + length > buffer.limit()) {
+                    break;
+                }
+
+                record.type = CaptureLog.RecordType.of(buffer.get(position + CaptureLog.TYPE_OFFSET));
+                record.nanoTime = buffer.getLong(position + CaptureLog.NANO_TIME_OFFSET);
+                record.wallClockMillis = buffer.getLong(position + CaptureLog.WALL_CLOCK_OFFSET);
+                record.mac = buffer.getLong(position + CaptureLog.MAC_OFFSET);
+                record.msb = buffer.getLong(position + CaptureLog.MSB_OFFSET);
+                record.lsb = buffer.getLong(position + CaptureLog.LSB_OFFSET);
+                record.status = buffer.getInt(position + CaptureLog.STATUS_OFFSET);
+                final int size = Math.min(buffer.getShort(position + CaptureLog.PAYLOAD_LENGTH_OFFSET) & 0xffff, length - CaptureLog.RECORD_HEADER_SIZE);
+                view.limit(position + CaptureLog.RECORD_HEADER_SIZE + size).position(position + CaptureLog.RECORD_HEADER_SIZE);
+                record.payload = view.slice().asReadOnlyBuffer();
+                position += length;
+
+                if (first == Long.MIN_VALUE) {
+                    first = record.nanoTime;
+                }
+                if (speed > 0) {
+                    final long delay = start + (long) ((record.nanoTime - first) / speed) - System.nanoTime();
+                    if (delay > 0) {
+                        TimeUnit.NANOSECONDS.sleep(delay);
+                    }
+                }
+
+                deliver(size);
+                view.clear();
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void deliver(int size) {
+        final Consumer<Record> handler = onRecord;
+        if (handler != null) {
+            handler.accept(record);
+            record.payload.rewind();
+        }
+        if (record.type == null) {
+            return;
+        }
+
+        switch (record.type) {
+            case NOTIFICATION: {
+                final Gatt gatt = devices.get(record.mac);
+                final GattCharacteristic gattChar = gatt == null || gatt.isClosed() ? null : gatt.findCharacteristic(GattUuid.of(record.msb, record.lsb));
+                if (gattChar != null) {
+                    record.payload.get(scratch, 0, size);
+                    value.put(0, scratch, 0, size);
+                    gattChar.replayNotification(value, size);
+                }
+                break;
+            }
+            case DISCONNECT: {
+                final Gatt gatt = devices.get(record.mac);
+                if (gatt != null && !gatt.isClosed()) {
+                    gatt.replayDisconnect(record.status);
+                }
+                break;
+            }
+            case SCAN_RESULT:
+                if (scanResults) {
+                    final byte[] mac = MacAddress.toString(record.mac).getBytes(StandardCharsets.US_ASCII);
+                    scanMac.put(0, mac, 0, mac.length);
+                    scanMac.putByte(mac.length, (byte) 0);
+                    record.payload.get(scratch, 0, size);
+                    scratch[size] = 0;
+                    scanName.put(0, scratch, 0, size + 1);
+                    scanResult.putInt(2L * Library.RUNTIME.addressSize(), record.status);
+                    Scanner.replay(scanResult);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+}
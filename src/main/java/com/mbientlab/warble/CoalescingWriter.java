@@ -0,0 +1,345 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Batches small messages into as few writes without response as possible.  Messages are appended to a packet that
+ * is sent once it is full, once the linger time has passed since the first message was added, or when
+ * {@link #flush()} is called.  A {@link Framing} strategy controls how messages are laid out in the packet so the
+ * remote device can split them apart again.
+ */
+public class CoalescingWriter {
+    /**
+     * Lays out messages in a packet
+     */
+    public interface Framing {
+        /**
+         * Computes how many packet bytes a message takes up
+         * @param message Message to be added
+         * @return Framed size in bytes
+         */
+        int size(byte[] message);
+        /**
+         * Copies a message into a packet
+         * @param message Message to be added
+         * @param packet  Packet being built
+         * @param offset  Where in the packet to write the message
+         */
+        void write(byte[] message, byte[] packet, int offset);
+    }
+
+    /** Concatenates messages, for protocols whose messages are self-delimiting */
+    public static final Framing RAW = new Framing() {
+        @Override
+        public int size(byte[] message) {
+            return message.length;
+        }
+
+        @Override
+        public void write(byte[] message, byte[] packet, int offset) {
+            System.arraycopy(message, 0, packet, offset, message.length);
+        }
+    };
+    /** Prefixes each message with a one byte length */
+    public static final Framing LENGTH_PREFIXED = new Framing() {
+        @Override
+        public int size(byte[] message) {
+            return message.length + 1;
+        }
+
+        @Override
+        public void write(byte[] message, byte[] packet, int offset) {
+            packet[offset] = (byte) message.length;
+            System.arraycopy(message, 0, packet, offset + 1, message.length);
+        }
+    };
+
+    /**
+     * Builder class to construct a {@link CoalescingWriter} object
+     */
+    public static class Builder {
+        private final GattCharacteristic target;
+        private int packetSize = 20;
+        private long lingerNanos = TimeUnit.MILLISECONDS.toNanos(5);
+        private Framing framing = RAW;
+        private OperationQueue.Priority priority = OperationQueue.Priority.NORMAL;
+        private long timeoutNanos;
+
+        /**
+         * Instantiates a builder
+         * @param target Characteristic to write to
+         */
+        public Builder(GattCharacteristic target) {
+            this.target = target;
+            this.timeoutNanos = target.owner.operationTimeoutNanos;
+        }
+
+        /**
+         * Sets the maximum number of bytes per packet.  This should be the negotiated ATT MTU minus 3, the native
+         * library does not report the MTU so it has to be configured.  Defaults to 20, the payload size of the
+         * minimum MTU
+         * @param size Bytes per packet, between 1 and 255
+         * @return Calling object
+         */
+        public Builder withPacketSize(int size) {
+            if (size < 1 || size > GattCharacteristic.MAX_VALUE_SIZE) {
+                throw new IllegalArgumentException("Packet size must be between 1 and " + GattCharacteristic.MAX_VALUE_SIZE);
+            }
+            this.packetSize = size;
+            return this;
+        }
+
+        /**
+         * Sets how long a partially filled packet waits for more messages before it is sent.  Defaults to 5ms
+         * @param linger Maximum time to hold the first message of a packet
+         * @param unit   Unit of the linger time
+         * @return Calling object
+         */
+        public Builder withLinger(long linger, TimeUnit unit) {
+            this.lingerNanos = unit.toNanos(linger);
+            return this;
+        }
+
+        /**
+         * Sets how messages are laid out in a packet.  Defaults to {@link #RAW}
+         * @param framing Framing strategy
+         * @return Calling object
+         */
+        public Builder withFraming(Framing framing) {
+            this.framing = framing;
+            return this;
+        }
+
+        /**
+         * Sets the queue lane packets are written from and the deadline for each packet.  Defaults to
+         * {@link OperationQueue.Priority#NORMAL} and the connection's operation timeout
+         * @param priority Queue lane to issue writes from
+         * @param timeout  How long each packet may take, including time spent in the queue, 0 to wait indefinitely
+         * @param unit     Unit of the timeout value
+         * @return Calling object
+         */
+        public Builder withPriority(OperationQueue.Priority priority, long timeout, TimeUnit unit) {
+            this.priority = priority;
+            this.timeoutNanos = unit.toNanos(timeout);
+            return this;
+        }
+
+        /**
+         * Build the CoalescingWriter object with the specified parameters
+         * @return CoalescingWriter object
+         */
+        public CoalescingWriter build() {
+            return new CoalescingWriter(this);
+        }
+    }
+
+    private final GattCharacteristic target;
+    private final int packetSize;
+    private final long lingerNanos, timeoutNanos;
+    private final Framing framing;
+    private final OperationQueue.Priority priority;
+    private final LatencyHistogram lingerTime = new LatencyHistogram();
+    private final AtomicLong messages = new AtomicLong(), packets = new AtomicLong();
+
+    private static final class Packet {
+        final byte[] value;
+        final List<CompletableFuture<Void>> tasks;
+
+        Packet(byte[] value, List<CompletableFuture<Void>> tasks) {
+            this.value = value;
+            this.tasks = tasks;
+        }
+    }
+
+    // packets are added while holding the lock and written by one thread at a time outside of it, in the same order
+    private final ConcurrentLinkedQueue<Packet> outbox = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger wip = new AtomicInteger();
+
+    // guarded by this
+    private final byte[] packet;
+    private int length = 0;
+    private long firstQueuedAt;
+    private List<CompletableFuture<Void>> batch = new ArrayList<>();
+    private ScheduledFuture<?> lingerTask = null;
+
+    private CoalescingWriter(Builder builder) {
+        this.target = builder.target;
+        this.packetSize = builder.packetSize;
+        this.lingerNanos = builder.lingerNanos;
+        this.timeoutNanos = builder.timeoutNanos;
+        this.framing = builder.framing;
+        this.priority = builder.priority;
+        this.packet = new byte[packetSize];
+    }
+
+    /**
+     * Adds a message to the current packet, sending the packet first if the message does not fit
+     * @param message Message to write
+     * @return Null when the packet holding the message has been written, {@link GattCharacteristicException} if the
+     * write fails or the framed message is larger than a packet
+     */
+    public CompletableFuture<Void> write(byte[] message) {
+        final CompletableFuture<Void> task = new CompletableFuture<>();
+        final int size = framing.size(message);
+        if (size > packetSize) {
+            task.completeExceptionally(new GattCharacteristicException("Framed message is " + size +
+                    " bytes, larger than the " + packetSize + " byte packet size"));
+            return task;
+        }
+        messages.incrementAndGet();
+
+        synchronized (this) {
+            if (length + size > packetSize) {
+                send();
+            }
+            if (length == 0) {
+                firstQueuedAt = System.nanoTime();
+                if (lingerNanos > 0 && lingerTask == null) {
+                    lingerTask = OperationQueue.TIMER.schedule(this::lingerExpired, lingerNanos, TimeUnit.NANOSECONDS);
+                }
+            }
+
+            framing.write(message, packet, length);
+            length += size;
+            batch.add(task);
+            if (length == packetSize || lingerNanos <= 0) {
+                send();
+            }
+        }
+        drain();
+        return task;
+    }
+
+    /**
+     * Sends the current packet without waiting for the linger time to pass
+     */
+    public void flush() {
+        synchronized (this) {
+            send();
+        }
+        drain();
+    }
+
+    // the timer is not cancelled when a packet is sent early, instead it checks the deadline of the packet being
+    // built when it fires, saving a schedule and cancel for every packet
+    private void lingerExpired() {
+        synchronized (this) {
+            lingerTask = null;
+            if (length == 0) {
+                return;
+            }
+
+            final long remaining = firstQueuedAt + lingerNanos - System.nanoTime();
+            if (remaining > 0) {
+                lingerTask = OperationQueue.TIMER.schedule(this::lingerExpired, remaining, TimeUnit.NANOSECONDS);
+                return;
+            }
+            send();
+        }
+        drain();
+    }
+
+    // called while holding the lock, moves the packet being built to the outbox; the caller writes it with drain()
+    // after releasing the lock since the write can be issued and completed on the calling thread
+    private void send() {
+        if (length == 0) {
+            return;
+        }
+
+        final byte[] value = new byte[length];
+        System.arraycopy(packet, 0, value, 0, length);
+        final List<CompletableFuture<Void>> tasks = batch;
+        lingerTime.record(System.nanoTime() - firstQueuedAt);
+        batch = new ArrayList<>();
+        length = 0;
+
+        packets.incrementAndGet();
+        outbox.add(new Packet(value, tasks));
+    }
+
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+
+        int missed = 1;
+        do {
+            Packet next;
+            while ((next = outbox.poll()) != null) {
+                final List<CompletableFuture<Void>> tasks = next.tasks;
+                target.writeWithoutResponseAsync(next.value, priority, timeoutNanos, TimeUnit.NANOSECONDS).whenComplete((result, error) -> {
+                    for (CompletableFuture<Void> task : tasks) {
+                        if (error == null) {
+                            task.complete(null);
+                        } else {
+                            task.completeExceptionally(error);
+                        }
+                    }
+                });
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    /**
+     * Get the number of messages passed to {@link #write(byte[])}
+     * @return Total messages
+     */
+    public long getMessageCount() {
+        return messages.get();
+    }
+
+    /**
+     * Get the number of packets written to the characteristic
+     * @return Total packets
+     */
+    public long getPacketCount() {
+        return packets.get();
+    }
+
+    /**
+     * Get the number of writes avoided by coalescing
+     * @return Messages minus packets
+     */
+    public long getPacketsSaved() {
+        return messages.get() - packets.get();
+    }
+
+    /**
+     * Get how long the first message of each packet waited before the packet was sent, the latency added by coalescing
+     * @return Linger time histogram
+     */
+    public LatencyHistogram.Snapshot getLingerTime() {
+        return lingerTime.snapshot();
+    }
+}
@@ -25,18 +25,24 @@ package com.mbientlab.warble;
 
 import java.util.Locale;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import jnr.ffi.Pointer;
-import jnr.ffi.Runtime;
 import jnr.ffi.Struct;
 
 /**
- * Wrapper around the WarbleGatt C struct
+ * Wrapper around the WarbleGatt C struct.  Call {@link #close()} when the object is no longer needed to free its native
+ * memory; objects that are garbage collected without being closed are freed by a background thread and reported
+ * as leaks.
  */
-public class Gatt {
+public class Gatt implements AutoCloseable {
     /**
      * GAP address types.
      * See this <a href='https://devzone.nordicsemi.com/f/nordic-q-a/2084/gap-address-types'>post </a>
@@ -50,6 +56,36 @@ public class Gatt {
         /** Unspecified, only supported on Windows 10 */
         UNSPECIFIED
     }
+    /**
+     * Connection state change published by {@link #connectionEventPublisher(int, OverflowPolicy)}
+     */
+    public static final class ConnectionEvent {
+        /**
+         * Connection state changes
+         */
+        public enum Type {
+            /** Connection was established */
+            CONNECTED,
+            /** Connection was lost or closed */
+            DISCONNECTED
+        }
+
+        /** State the connection changed to */
+        public final Type type;
+        /** Status code reported by the native library for disconnects, 0 for connects */
+        public final int status;
+
+        ConnectionEvent(Type type, int status) {
+            this.type = type;
+            this.status = status;
+        }
+
+        @Override
+        public String toString() {
+            return type == Type.CONNECTED ? "CONNECTED" : "DISCONNECTED(" + status + ")";
+        }
+    }
+
     /**
      * Builder class to construct a {@link Gatt} object.
      * Only the remote device's MAC address is required,
@@ -58,6 +94,15 @@ public class Gatt {
         private final String mac;
         private String hci = null;
         private AddressType addrType = null;
+        private Executor callbackExecutor = null;
+        private int queueCapacity = 64;
+        private OverflowPolicy overflowPolicy = null;
+        private boolean stripedCallbacks = false;
+        private AttributeCache attributeCache = null;
+        private long dbHash = 0;
+        private boolean metrics = false;
+        private CaptureLog capture = null;
+        private long operationTimeoutNanos = TimeUnit.SECONDS.toNanos(10), connectTimeoutNanos = TimeUnit.SECONDS.toNanos(30);
 
         /**
          * Instantiates a builder
@@ -89,12 +134,117 @@ public class Gatt {
             return this;
         }
 
+        /**
+         * Sets the executor that runs disconnect handlers, task completions, and notification handlers, which are
+         * otherwise called from the native event thread.  Notifications are buffered in a {@link NotificationQueue}
+         * until the executor gets to them.
+         * @param executor Executor to run callbacks on
+         * @return Calling object
+         * @see #withNotificationQueue(int, OverflowPolicy)
+         */
+        public Builder withCallbackExecutor(Executor executor) {
+            this.callbackExecutor = executor;
+            this.stripedCallbacks = false;
+            return this;
+        }
+
+        /**
+         * Runs callbacks on the shared worker assigned to this device, keeping them in order while other devices use
+         * the remaining workers
+         * @param executor Striped executor to pick this device's worker from
+         * @return Calling object
+         * @see #withCallbackExecutor(Executor)
+         */
+        public Builder withCallbackExecutor(StripedExecutor executor) {
+            this.callbackExecutor = executor.forDevice(mac);
+            this.stripedCallbacks = true;
+            return this;
+        }
+
+        /**
+         * Configures the notification queues created when a callback executor is set.  Defaults to 64 notifications
+         * with the {@link OverflowPolicy#BLOCK} policy, or {@link OverflowPolicy#DROP_OLDEST} when callbacks run on a
+         * {@link StripedExecutor} since blocking there would stall the native event thread for every device
+         * @param capacity Number of notifications each characteristic's queue can hold, rounded up to a power of 2
+         * @param policy   Action to take when a queue is full
+         * @return Calling object
+         * @see #withCallbackExecutor(Executor)
+         */
+        public Builder withNotificationQueue(int capacity, OverflowPolicy policy) {
+            this.queueCapacity = capacity;
+            this.overflowPolicy = policy;
+            return this;
+        }
+
+        /**
+         * Sets the default deadline for characteristic reads, writes, and notification changes, measured from when
+         * the operation is queued.  Defaults to 10 seconds
+         * @param timeout How long to wait before failing the operation, 0 to wait indefinitely
+         * @param unit    Unit of the timeout value
+         * @return Calling object
+         */
+        public Builder withOperationTimeout(long timeout, TimeUnit unit) {
+            this.operationTimeoutNanos = unit.toNanos(timeout);
+            return this;
+        }
+
+        /**
+         * Sets the deadline for connection attempts.  Defaults to 30 seconds
+         * @param timeout How long to wait before abandoning the attempt, 0 to wait indefinitely
+         * @param unit    Unit of the timeout value
+         * @return Calling object
+         */
+        public Builder withConnectTimeout(long timeout, TimeUnit unit) {
+            this.connectTimeoutNanos = unit.toNanos(timeout);
+            return this;
+        }
+
+        /**
+         * Answers service and characteristic lookups from a persistent cache when possible, and records new
+         * lookup results in it
+         * @param cache  Cache to use
+         * @param dbHash Hash identifying the remote device's attribute database, such as one computed from its
+         *               firmware revision; cached attributes recorded with a different hash are discarded
+         * @return Calling object
+         * @throws IllegalArgumentException If the builder's MAC address is not valid, entries are keyed by it
+         */
+        public Builder withAttributeCache(AttributeCache cache, long dbHash) {
+            if (cache != null && MacAddress.pack(mac) == MacAddress.INVALID) {
+                throw new IllegalArgumentException("Invalid MAC address: " + mac);
+            }
+            this.attributeCache = cache;
+            this.dbHash = dbHash;
+            return this;
+        }
+
+        /**
+         * Records operation latencies, notification counts, and errors for the connection.  Disabled by default
+         * @param enabled True to record metrics
+         * @return Calling object
+         * @see Gatt#getMetrics()
+         */
+        public Builder withMetrics(boolean enabled) {
+            this.metrics = enabled;
+            return this;
+        }
+
+        /**
+         * Appends the connection's notifications, operation results, and connection events to a capture log
+         * @param log Log to append to, null to disable capturing
+         * @return Calling object
+         * @see CaptureReplay
+         */
+        public Builder withCapture(CaptureLog log) {
+            this.capture = log;
+            return this;
+        }
+
         /**
          * Build the Gatt object with the specified paramters
          * @return Gatt object
          */
         public Gatt build() {
-            final Native.Option[] opts = Struct.arrayOf(Runtime.getRuntime(Library.WARBLE), Native.Option.class, 3);
+            final Native.Option[] opts = Struct.arrayOf(Library.RUNTIME, Native.Option.class, 3);
             int i = 0;
 
             opts[i++].set("mac", mac);
@@ -104,89 +254,419 @@ public class Gatt {
             if (addrType != null) {
                 opts[i++].set("address-type", addrType.name().toLowerCase(Locale.US));
             }
-            return new Gatt(Library.WARBLE.warble_gatt_create_with_options(i, opts), mac);
+            return new Gatt(Library.WARBLE.warble_gatt_create_with_options(i, opts), this);
         }
     }
 
     /** MAC address of the remote Gatt device */
     public final String mac;
+    /** MAC address of the HCI device used for the connection, null if the system picks one */
+    final String hci;
     /** Handler that listens for disconnect events */
     public Consumer<Integer> onDisconnect = (status) -> { };
 
+    final Executor callbackExecutor;
+    final int queueCapacity;
+    final OverflowPolicy overflowPolicy;
+    final long operationTimeoutNanos, connectTimeoutNanos;
+    final OperationQueue operations = new OperationQueue(this);
+    final GattMetrics metrics;
+    final CaptureLog capture;
+    final long packedMac;
+
+    /**
+     * Frees the native object, kept separate from the Gatt object so it can run after the Gatt object is collected
+     */
+    private static final class NativeState implements Runnable {
+        private final Pointer warbleGatt;
+        private final String mac;
+        private final Throwable creationSite;
+        private volatile boolean closed = false;
+
+        private NativeState(Pointer warbleGatt, String mac) {
+            this.warbleGatt = warbleGatt;
+            this.mac = mac;
+            this.creationSite = NativeCleaner.creationSite("Gatt object for " + mac);
+        }
+
+        @Override
+        public void run() {
+            if (!closed) {
+                NativeCleaner.reportLeak("Gatt object for " + mac, creationSite);
+            }
+            Library.WARBLE.warble_gatt_delete(warbleGatt);
+        }
+    }
+
     private final Pointer warbleGatt;
-    private final Map<String, GattCharacteristic> characteristics = new HashMap<>();
+    private final NativeState nativeState;
+    private final NativeCleaner.Cleanable cleanable;
+    private volatile boolean closed = false;
+    private final CopyOnWriteArrayList<StreamPublisher<ConnectionEvent>> connectionPublishers = new CopyOnWriteArrayList<>();
+    private final Map<GattUuid, GattCharacteristic> characteristics = new ConcurrentHashMap<>();
+    private final Native.FnVoid_IntPtr_WarbleGattP_Int disconnectHandler;
+    private final Native.FnVoid_IntPtr_WarbleGattP_CharP connectHandler;
+    private final PendingTasks<CompletableFuture<Void>> pendingConnects = new PendingTasks<>();
+    private final AttributeCache attributeCache;
+    private final AttributeCache.Entry cachedAttributes;
 
-    private Gatt(Pointer warbleGatt, String mac) {
+    private Gatt(Pointer warbleGatt, Builder builder) {
         this.warbleGatt = warbleGatt;
-        this.mac = mac;
+        this.mac = builder.mac;
+        this.hci = builder.hci;
+        this.callbackExecutor = builder.callbackExecutor != null ? builder.callbackExecutor : Library.defaultExecutor(mac);
+        this.queueCapacity = builder.queueCapacity;
+        // callbacks fall back to the library's striped executor when the builder does not set one
+        final boolean striped = builder.stripedCallbacks || (builder.callbackExecutor == null && callbackExecutor != null);
+        this.overflowPolicy = builder.overflowPolicy != null ? builder.overflowPolicy :
+                striped ? OverflowPolicy.DROP_OLDEST : OverflowPolicy.BLOCK;
+        this.operationTimeoutNanos = builder.operationTimeoutNanos;
+        this.connectTimeoutNanos = builder.connectTimeoutNanos;
+        this.attributeCache = builder.attributeCache;
+        this.cachedAttributes = attributeCache == null ? null : attributeCache.bind(mac, builder.dbHash);
+        this.metrics = builder.metrics ? new GattMetrics(mac) : null;
+        this.capture = builder.capture;
+        this.packedMac = MacAddress.pack(mac);
+        this.nativeState = new NativeState(warbleGatt, mac);
+        this.cleanable = NativeCleaner.register(this, nativeState);
+
+        // handlers are created once and kept referenced so the native closures are not collected,
+        // in-flight tasks are looked up from the context pointer
+        connectHandler = (context, gatt, err) -> {
+            final CompletableFuture<Void> asyncTask = pendingConnects.remove(context);
+            if (asyncTask == null) {
+                return;
+            }
+            if (capture != null) {
+                capture.connection(packedMac, err);
+            }
+
+            if (err == null) {
+                publishConnectionEvent(ConnectionEvent.Type.CONNECTED, 0);
+                dispatch(() -> asyncTask.complete(null));
+            } else {
+                final GattException error = new GattException(err);
+                if (metrics != null) {
+                    metrics.recordError(GattMetrics.ErrorType.NATIVE, error);
+                }
+                dispatch(() -> asyncTask.completeExceptionally(error));
+            }
+        };
+        disconnectHandler = (ctx, caller, status) -> {
+            if (capture != null) {
+                capture.disconnect(packedMac, status);
+            }
+            operations.failAll(GattMetrics.ErrorType.DISCONNECTED, () -> new GattCharacteristicException("Disconnected from the remote device"));
+            publishConnectionEvent(ConnectionEvent.Type.DISCONNECTED, status);
+            dispatch(() -> onDisconnect.accept(status));
+        };
+        Library.WARBLE.warble_gatt_on_disconnect(warbleGatt, null, disconnectHandler);
+    }
 
-        Library.WARBLE.warble_gatt_on_disconnect(warbleGatt, null, (ctx, caller, status) -> onDisconnect.accept(status));
+    private void publishConnectionEvent(ConnectionEvent.Type type, int status) {
+        if (!connectionPublishers.isEmpty()) {
+            final ConnectionEvent event = new ConnectionEvent(type, status);
+            for (StreamPublisher<ConnectionEvent> publisher : connectionPublishers) {
+                publisher.publish(event);
+            }
+        }
     }
 
+    void dispatch(Runnable task) {
+        if (callbackExecutor == null) {
+            runCallback(task);
+            return;
+        }
+
+        try {
+            if (metrics == null) {
+                callbackExecutor.execute(() -> runCallback(task));
+            } else {
+                final long queued = System.nanoTime();
+                callbackExecutor.execute(() -> {
+                    metrics.recordCallbackDelay(System.nanoTime() - queued);
+                    runCallback(task);
+                });
+            }
+        } catch (RejectedExecutionException e) {
+            // the executor has been shut down, run the callback here rather than leave a task that never completes
+            runCallback(task);
+        }
+    }
+
+    private void runCallback(Runnable task) {
+        final Object previous = Blocking.enter(callbackExecutor);
+        try {
+            task.run();
+        } finally {
+            Blocking.exit(previous);
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Gatt object for " + mac + " has been closed");
+        }
+    }
+
+    /**
+     * Frees the native object along with the characteristics it owns.  Pending connection attempts and operations
+     * fail and {@link #onDisconnect} is not called.  Subsequent calls have no effect
+     */
     @Override
-    protected void finalize() {
+    public void close() {
+        synchronized (nativeState) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            nativeState.closed = true;
+        }
+
+        for (GattCharacteristic gattChar : characteristics.values()) {
+            gattChar.close();
+        }
         characteristics.clear();
-        Library.WARBLE.warble_gatt_delete(warbleGatt);
+
+        for (CompletableFuture<Void> asyncTask : pendingConnects.clear()) {
+            dispatch(() -> asyncTask.completeExceptionally(new GattException("Gatt object has been closed")));
+        }
+        operations.failAll(GattMetrics.ErrorType.CLOSED, () -> new GattCharacteristicException("Gatt object has been closed"));
+        for (StreamPublisher<ConnectionEvent> publisher : connectionPublishers) {
+            publisher.complete();
+        }
+        connectionPublishers.clear();
+        cleanable.clean();
+    }
+
+    void replayDisconnect(int status) {
+        disconnectHandler.apply(null, warbleGatt, status);
+    }
+
+    void release(GattCharacteristic gattChar) {
+        characteristics.values().remove(gattChar);
+    }
+
+    /**
+     * Checks if {@link #close()} has been called
+     * @return True if the native object has been freed
+     */
+    public boolean isClosed() {
+        return closed;
     }
 
     /**
      * Establishes a connection to the remote device
-     * @return Null when task completes, {@link GattException} if task fails
+     * @return Null when task completes, {@link GattException} if task fails or times out
+     * @see Builder#withConnectTimeout(long, TimeUnit)
      */
     public CompletableFuture<Void> connectAsync() {
+        return connectAsync(connectTimeoutNanos);
+    }
+
+    /**
+     * Establishes a connection to the remote device, blocking until the connection is made.  The calling thread
+     * parks while waiting, so this can be called from virtual threads without pinning their carrier
+     * @param timeout How long to wait for the connection, 0 to wait indefinitely
+     * @param unit    Unit of the timeout value
+     * @throws GattException        If the connection fails, times out, or this object has been closed
+     * @throws InterruptedException If the thread is interrupted while waiting; the attempt continues in the background
+     * @throws IllegalStateException If called from a callback thread the connection result has to be delivered through
+     */
+    public void connect(long timeout, TimeUnit unit) throws InterruptedException {
+        Blocking.checkCaller(callbackExecutor);
+        Blocking.await(connectAsync(unit.toNanos(timeout)));
+    }
+
+    private CompletableFuture<Void> connectAsync(long timeoutNanos) {
         final CompletableFuture<Void> asyncTask = new CompletableFuture<>();
+        if (closed) {
+            asyncTask.completeExceptionally(new GattException("Gatt object has been closed"));
+            return asyncTask;
+        }
 
-        Library.WARBLE.warble_gatt_connect_async(warbleGatt, null, (context, gatt, err) -> {
-            if (err == null) {
-                asyncTask.complete(null);
-            } else {
-                asyncTask.completeExceptionally(new GattException(err));
-            }
-        });
+        final Pointer context = pendingConnects.register(asyncTask);
+        if (timeoutNanos > 0) {
+            final ScheduledFuture<?> deadline = OperationQueue.TIMER.schedule(() -> {
+                if (pendingConnects.remove(context) != null) {
+                    Library.WARBLE.warble_gatt_disconnect(warbleGatt);
+
+                    final GattException error = new GattException("Connection attempt timed out");
+                    if (metrics != null) {
+                        metrics.recordError(GattMetrics.ErrorType.TIMEOUT, error);
+                    }
+                    dispatch(() -> asyncTask.completeExceptionally(error));
+                }
+            }, timeoutNanos, TimeUnit.NANOSECONDS);
+            asyncTask.whenComplete((value, error) -> deadline.cancel(false));
+        }
+        if (metrics != null) {
+            final long start = System.nanoTime();
+            asyncTask.thenRun(() -> metrics.recordLatency(GattMetrics.Kind.CONNECT, System.nanoTime() - start));
+        }
+        if (attributeCache != null) {
+            final boolean warm = cachedAttributes.isWarm();
+            final long start = System.nanoTime();
+            asyncTask.thenRun(() -> attributeCache.recordConnect(warm, System.nanoTime() - start));
+        }
+        Library.WARBLE.warble_gatt_connect_async(warbleGatt, context, connectHandler);
 
         return asyncTask;
     }
 
+    /**
+     * Get the queue that serializes GATT operations for this connection
+     * @return Operation queue
+     */
+    public OperationQueue getOperationQueue() {
+        return operations;
+    }
+
+    /**
+     * Creates a publisher that streams connection state changes to any number of subscribers, independent of the
+     * {@link #onDisconnect} handler.  Events are delivered on the {@link Builder#withCallbackExecutor(Executor) callback executor}
+     * if one is set, otherwise on the native event thread.  Subscribers are completed when this object is closed
+     * @param capacity Number of events buffered for each subscriber that has not requested them yet
+     * @param policy   Action to take when a subscriber's buffer is full
+     * @return Connection event publisher
+     * @throws IllegalArgumentException If capacity is not positive, or the policy is {@link OverflowPolicy#BLOCK}
+     *                                  without a callback executor
+     */
+    public StreamPublisher<ConnectionEvent> connectionEventPublisher(int capacity, OverflowPolicy policy) {
+        final StreamPublisher<ConnectionEvent> publisher = new StreamPublisher<>(callbackExecutor, capacity, policy);
+        if (closed) {
+            publisher.complete();
+        } else {
+            connectionPublishers.add(publisher);
+        }
+        return publisher;
+    }
+
+    /**
+     * Get the metrics recorded for this connection
+     * @return Connection metrics, null if not enabled
+     * @see Builder#withMetrics(boolean)
+     */
+    public GattMetrics getMetrics() {
+        return metrics;
+    }
+
     /**
      * Checks if currently connected to the remote device
-     * @return True if connected, false otherwise
+     * @return True if connected, false otherwise or if the object has been closed
      */
     public boolean isConnected() {
-        return Library.WARBLE.warble_gatt_is_connected(warbleGatt) != 0;
+        return !closed && Library.WARBLE.warble_gatt_is_connected(warbleGatt) != 0;
     }
 
     /**
-     * Disconnects from the remote device
+     * Disconnects from the remote device, does nothing if the object has been closed
      */
     public void disconnect() {
-        Library.WARBLE.warble_gatt_disconnect(warbleGatt);
+        if (!closed) {
+            Library.WARBLE.warble_gatt_disconnect(warbleGatt);
+        }
     }
 
     /**
      * Checks if the GATT services exists on the remote device
      * @param uuid 128-bit UUID string to lookup
      * @return True if service exists, false otherwise
+     * @throws IllegalStateException If the object has been closed
      */
     public boolean serviceExists(String uuid) {
+        checkOpen();
+        if (cachedAttributes != null) {
+            try {
+                return serviceExists(GattUuid.parse(uuid));
+            } catch (IllegalArgumentException ignored) {
+            }
+        }
         return Library.WARBLE.warble_gatt_has_service(warbleGatt, uuid) != 0;
     }
 
+    /**
+     * Checks if the GATT services exists on the remote device
+     * @param uuid UUID to lookup
+     * @return True if service exists, false otherwise
+     * @throws IllegalStateException If the object has been closed
+     */
+    public boolean serviceExists(GattUuid uuid) {
+        checkOpen();
+        if (cachedAttributes == null) {
+            return Library.WARBLE.warble_gatt_has_service(warbleGatt, uuid.toString()) != 0;
+        }
+
+        final Boolean cached = cachedAttributes.services.get(uuid);
+        if (cached != null) {
+            return cached;
+        }
+
+        final boolean exists = Library.WARBLE.warble_gatt_has_service(warbleGatt, uuid.toString()) != 0;
+        // lookups only reflect the attribute database once services have been discovered
+        if (isConnected()) {
+            cachedAttributes.services.put(uuid, exists);
+        }
+        return exists;
+    }
+
     /**
      * Find the GATT characteristic corresponding to the uuid string
      * @param uuid 128-bit UUID string to lookup
      * @return Object representing the GATT characteristic, null if it does not exist
+     * @throws IllegalStateException If the object has been closed
      */
     public GattCharacteristic findCharacteristic(String uuid) {
-        if (!characteristics.containsKey(uuid)) {
-            Pointer warbleGattChar = Library.WARBLE.warble_gatt_find_characteristic(warbleGatt, uuid);
-            
-            if (warbleGattChar != null) {
-                GattCharacteristic gattChar = new GattCharacteristic(warbleGattChar);
-                characteristics.put(uuid, gattChar);
-                return gattChar;
-            }
+        checkOpen();
+
+        final GattUuid parsed;
+        try {
+            parsed = GattUuid.parse(uuid);
+        } catch (IllegalArgumentException e) {
             return null;
         }
-        return characteristics.get(uuid);
+        return findCharacteristic(parsed);
+    }
+
+    /**
+     * Find the GATT characteristic corresponding to the uuid.  Characteristics are only looked up in the native
+     * library once, subsequent calls return the same object.  Safe to call from multiple threads.
+     * @param uuid UUID to lookup
+     * @return Object representing the GATT characteristic, null if it does not exist
+     * @throws IllegalStateException If the object has been closed
+     */
+    public GattCharacteristic findCharacteristic(GattUuid uuid) {
+        checkOpen();
+        final GattCharacteristic cached = characteristics.get(uuid);
+        if (cached != null) {
+            return cached;
+        }
+
+        if (cachedAttributes != null && Boolean.FALSE.equals(cachedAttributes.characteristics.get(uuid))) {
+            return null;
+        }
+
+        return characteristics.computeIfAbsent(uuid, key -> {
+            Pointer warbleGattChar = Library.WARBLE.warble_gatt_find_characteristic(warbleGatt, key.toString());
+            // lookups only reflect the attribute database once services have been discovered
+            if (cachedAttributes != null && (warbleGattChar != null || isConnected())) {
+                cachedAttributes.characteristics.put(key, warbleGattChar != null);
+            }
+            return warbleGattChar == null ? null : new GattCharacteristic(this, warbleGattChar);
+        });
+    }
+
+    /**
+     * Looks up a set of characteristics in one call so hot paths can hold on to the objects instead of
+     * repeating the lookup.  Best called once after the connection is established.
+     * @param uuids UUIDs to lookup
+     * @return Characteristics in the same order as the uuids, with null entries for those that do not exist
+     */
+    public GattCharacteristic[] resolveCharacteristics(GattUuid... uuids) {
+        final GattCharacteristic[] resolved = new GattCharacteristic[uuids.length];
+        for (int i = 0; i < uuids.length; i++) {
+            resolved[i] = findCharacteristic(uuids[i]);
+        }
+        return resolved;
     }
-}
\ No newline at end of file
+}
@@ -23,16 +23,50 @@
  */
 package com.mbientlab.warble;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Locale;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 import jnr.ffi.Pointer;
 
 /**
- * Wrapper class around the WarbleGattChar C struct
+ * Wrapper class around the WarbleGattChar C struct.  The native struct is owned by the {@link Gatt} object and is
+ * freed when it is closed.
  */
-public class GattCharacteristic {
+public class GattCharacteristic implements AutoCloseable {
+    // Value lengths are passed to and from the C library as a uint8_t
+    static final int MAX_VALUE_SIZE = 255;
+    private static final Consumer<byte[]> NO_NOTIFICATION_HANDLER = (value) -> { };
+
+    static byte[] copyValue(Pointer value, int length) {
+        byte[] jvm_array = new byte[length];
+        value.get(0, jvm_array, 0, length);
+        return jvm_array;
+    }
+
+    final Gatt owner;
     private final Pointer warbleGattChar;
+    private final Native.FnVoid_VoidP_WarbleGattCharP_UbyteP_Ubyte notificationHandler;
+    private final Native.FnVoid_VoidP_WarbleGattCharP_CharP completionHandler;
+    private final Native.FnVoid_VoidP_WarbleGattCharP_UbyteP_Ubyte_CharP readHandler;
+    private final PendingTasks<CompletableFuture<Void>> pendingCompletions = new PendingTasks<>();
+    private final PendingTasks<CompletableFuture<byte[]>> pendingReads = new PendingTasks<>();
+    private volatile NotificationQueue notificationQueue = null;
+    private volatile boolean closed = false;
+    private volatile SampleDecoder decoder = null;
+    private final CopyOnWriteArrayList<StreamPublisher<byte[]>> notificationPublishers = new CopyOnWriteArrayList<>();
+    private final CopyOnWriteArrayList<NotificationIterator> notificationIterators = new CopyOnWriteArrayList<>();
+    private final byte[] notificationScratch = new byte[MAX_VALUE_SIZE];
+    private final ByteBuffer notificationView = ByteBuffer.wrap(notificationScratch).asReadOnlyBuffer();
+    private final Notification notification = new Notification(notificationView);
+    private volatile ArrivalStats arrivalStats = null;
+    private final CaptureLog capture;
+    private final GattUuid captureUuid;
 
     /** 128-bit UUID string identifying this GATT characteristic */
     public final String uuid;
@@ -40,30 +74,334 @@ public class GattCharacteristic {
      * Handler to process characteristic notification
      * @see #enableNotificationsAsync()
      */
-    public Consumer<byte[]> onNotificationReceived = (value) -> { };
+    public Consumer<byte[]> onNotificationReceived = NO_NOTIFICATION_HANDLER;
+    /**
+     * Handler to process characteristic notifications without allocating a new array for each one.
+     * The read-only buffer is reused between notifications so its contents are only valid until the handler returns;
+     * copy out any bytes that need to be kept.  Set to null to disable.
+     * @see #enableNotificationsAsync()
+     */
+    public Consumer<ByteBuffer> onNotificationBufferReceived = null;
+    /**
+     * Handler to process characteristic notifications along with the time they arrived from the native library,
+     * taken before any queueing.  The notification object is reused so it is only valid until the handler returns.
+     * Set to null to disable.
+     * @see #enableNotificationsAsync()
+     */
+    public Consumer<Notification> onTimestampedNotification = null;
 
-    GattCharacteristic(Pointer warbleGattChar) {
+    GattCharacteristic(Gatt owner, Pointer warbleGattChar) {
+        this.owner = owner;
         this.warbleGattChar = warbleGattChar;
         this.uuid = Library.WARBLE.warble_gattchar_get_uuid(warbleGattChar);
-        
-        Library.WARBLE.warble_gattchar_on_notification_received(warbleGattChar, null, (context, caller, value, length) -> {
-            byte[] jvm_array = new byte[length];
-            for(byte i = 0; i < length; i++) {
-                jvm_array[i] = value.getByte(i);
+        this.capture = owner.capture;
+        this.captureUuid = capture == null ? null : GattUuid.parse(uuid);
+
+        if (owner.callbackExecutor != null) {
+            notificationQueue = new NotificationQueue(this, owner.callbackExecutor, owner.queueCapacity, owner.overflowPolicy, MAX_VALUE_SIZE);
+        }
+
+        // handlers are created once and kept referenced so the native closures are not collected,
+        // in-flight tasks are looked up from the context pointer
+        completionHandler = (context, caller, err) -> {
+            final CompletableFuture<Void> asyncTask = pendingCompletions.remove(context);
+            if (asyncTask == null) {
+                return;
+            }
+            owner.operations.finish(asyncTask);
+            if (capture != null) {
+                capture.completion(owner.packedMac, captureUuid, err);
             }
 
-            onNotificationReceived.accept(jvm_array);
-        });
+            if (err != null) {
+                fail(asyncTask, err);
+            } else {
+                owner.dispatch(() -> asyncTask.complete(null));
+            }
+        };
+        readHandler = (context, caller, value, length, err) -> {
+            final CompletableFuture<byte[]> asyncTask = pendingReads.remove(context);
+            if (asyncTask == null) {
+                return;
+            }
+            owner.operations.finish(asyncTask);
+            if (capture != null) {
+                capture.read(owner.packedMac, captureUuid, value, length & 0xff, err);
+            }
+
+            if (err != null) {
+                fail(asyncTask, err);
+            } else {
+                final byte[] jvm_array = copyValue(value, length & 0xff);
+                owner.dispatch(() -> asyncTask.complete(jvm_array));
+            }
+        };
+        notificationHandler = (context, caller, value, length) -> {
+            final long nanoTime = System.nanoTime(), wallClockMillis = System.currentTimeMillis();
+            if (closed) {
+                return;
+            }
+
+            // decoders, publishers and iterators without an executor run user code here too, not just the handlers
+            final Object previous = Blocking.enter(null);
+            try {
+                handleNotification(value, length & 0xff, nanoTime, wallClockMillis);
+            } finally {
+                Blocking.exit(previous);
+            }
+        };
+        Library.WARBLE.warble_gattchar_on_notification_received(warbleGattChar, null, notificationHandler);
+    }
+
+    private void handleNotification(Pointer value, int size, long nanoTime, long wallClockMillis) {
+        if (capture != null) {
+            capture.notification(owner.packedMac, captureUuid, nanoTime, wallClockMillis, value, size);
+        }
+        final ArrivalStats stats = arrivalStats;
+        if (stats != null) {
+            stats.record(nanoTime);
+        }
+        final GattMetrics metrics = owner.metrics;
+        if (metrics != null) {
+            metrics.recordNotification(size);
+        }
+        final SampleDecoder currentDecoder = decoder;
+        if (currentDecoder != null) {
+            currentDecoder.decode(value, size, nanoTime);
+        }
+        if (!notificationPublishers.isEmpty()) {
+            publishNotification(value, size);
+        }
+        for (NotificationIterator iterator : notificationIterators) {
+            iterator.offer(value, size);
+        }
+
+        final NotificationQueue queue = notificationQueue;
+        if (queue != null) {
+            queue.offer(value, size, nanoTime, wallClockMillis);
+        } else {
+            value.get(0, notificationScratch, 0, size);
+            notificationView.clear();
+            notificationView.limit(size);
+            notification.nanoTime = nanoTime;
+            notification.wallClockMillis = wallClockMillis;
+            dispatchNotification(notificationScratch, size, notification);
+        }
+    }
+
+    void replayNotification(Pointer value, int size) {
+        notificationHandler.apply(null, warbleGattChar, value, (byte) size);
+    }
+
+    private void fail(CompletableFuture<?> asyncTask, String err) {
+        final GattCharacteristicException error = new GattCharacteristicException(err);
+        if (owner.metrics != null) {
+            owner.metrics.recordError(GattMetrics.ErrorType.NATIVE, error);
+        }
+        owner.dispatch(() -> asyncTask.completeExceptionally(error));
+    }
+
+    private void publishNotification(Pointer value, int size) {
+        byte[] copy = null;
+        for (StreamPublisher<byte[]> publisher : notificationPublishers) {
+            if (publisher.hasSubscribers()) {
+                if (copy == null) {
+                    copy = copyValue(value, size);
+                }
+                publisher.publish(copy);
+            }
+        }
+    }
+
+    void dispatchNotification(byte[] value, int size, Notification timestamped) {
+        final Consumer<ByteBuffer> bufferHandler = onNotificationBufferReceived;
+        if (bufferHandler != null) {
+            bufferHandler.accept(timestamped.value);
+        }
+
+        final Consumer<Notification> timestampedHandler = onTimestampedNotification;
+        if (timestampedHandler != null) {
+            timestamped.value.rewind();
+            timestampedHandler.accept(timestamped);
+        }
+
+        final Consumer<byte[]> arrayHandler = onNotificationReceived;
+        if (arrayHandler != NO_NOTIFICATION_HANDLER) {
+            arrayHandler.accept(Arrays.copyOf(value, size));
+        }
+    }
+
+    /**
+     * Get the queue that moves notifications off the native event thread
+     * @return Notification queue, null if notifications are handled on the native thread
+     * @see Gatt.Builder#withCallbackExecutor(Executor)
+     */
+    public NotificationQueue getNotificationQueue() {
+        return notificationQueue;
+    }
+
+    /**
+     * Moves notification handling for this characteristic off the native event thread, replacing any existing queue
+     * @param executor Executor that runs the handlers, null to handle notifications on the native thread
+     * @param capacity Number of notifications the queue can hold, rounded up to a power of 2
+     * @param policy   Action to take when the queue is full
+     * @return Newly created queue, null if <code>executor</code> is null
+     */
+    public NotificationQueue useNotificationQueue(Executor executor, int capacity, OverflowPolicy policy) {
+        notificationQueue = executor == null ? null : new NotificationQueue(this, executor, capacity, policy, MAX_VALUE_SIZE);
+        return notificationQueue;
+    }
+
+    /**
+     * Stops delivering notifications and fails any further operations on this object.  Operations still waiting in
+     * the queue fail when their turn comes, one already issued to the native library completes normally.
+     * Notifications are not disabled on the remote device; call
+     * {@link #disableNotificationsAsync()} first if needed.  Subsequent calls have no effect
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        notificationQueue = null;
+
+        final SampleDecoder currentDecoder = decoder;
+        if (currentDecoder != null) {
+            currentDecoder.flush();
+            decoder = null;
+        }
+        owner.release(this);
+
+        for (StreamPublisher<byte[]> publisher : notificationPublishers) {
+            publisher.complete();
+        }
+        notificationPublishers.clear();
+        for (NotificationIterator iterator : notificationIterators) {
+            iterator.close();
+        }
+    }
+
+    /**
+     * Checks if {@link #close()} has been called, either directly or by closing the owning {@link Gatt} object
+     * @return True if closed
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Starts tracking the time between notifications, replacing any existing statistics
+     * @param expectedInterval Interval the remote device is configured to notify at, used to detect gaps and
+     *                         estimate drops, 0 to compare against the rolling mean instead
+     * @param unit             Unit of the interval
+     * @return Newly created statistics
+     */
+    public ArrivalStats enableArrivalStats(long expectedInterval, TimeUnit unit) {
+        arrivalStats = new ArrivalStats(unit.toNanos(expectedInterval));
+        return arrivalStats;
+    }
+
+    /**
+     * Get the statistics on the time between notifications
+     * @return Arrival statistics, null if not enabled
+     * @see #enableArrivalStats(long, TimeUnit)
+     */
+    public ArrivalStats getArrivalStats() {
+        return arrivalStats;
+    }
+
+    /**
+     * Decodes notifications into column batches in addition to forwarding them to the handlers.  Batches are handed
+     * over on the {@link Gatt.Builder#withCallbackExecutor(Executor) callback executor} if one is set, otherwise on
+     * the native event thread
+     * @param sampleDecoder Decoder to use, replacing the current one, null to stop decoding
+     * @see #enableNotificationsAsync()
+     */
+    public void setDecoder(SampleDecoder sampleDecoder) {
+        if (sampleDecoder != null) {
+            sampleDecoder.attach(owner.callbackExecutor);
+        }
+        decoder = sampleDecoder;
     }
 
-    private CompletableFuture<Void> writeAsync(Consumer<Native.FnVoid_VoidP_WarbleGattCharP_CharP> fn) {
+    /**
+     * Creates a publisher that streams notifications to any number of subscribers, independent of the
+     * {@link #onNotificationReceived} handlers.  Items are delivered on the {@link Gatt.Builder#withCallbackExecutor(Executor) callback executor}
+     * if one is set, otherwise on the native event thread.  All subscribers receive the same array so it must not
+     * be modified.  Subscribers are completed when this object is closed
+     * @param capacity Number of notifications buffered for each subscriber that has not requested them yet
+     * @param policy   Action to take when a subscriber's buffer is full
+     * @return Notification publisher
+     * @throws IllegalArgumentException If capacity is not positive, or the policy is {@link OverflowPolicy#BLOCK}
+     *                                  without a callback executor
+     * @see #enableNotificationsAsync()
+     */
+    public StreamPublisher<byte[]> notificationPublisher(int capacity, OverflowPolicy policy) {
+        final StreamPublisher<byte[]> publisher = new StreamPublisher<>(owner.callbackExecutor, capacity, policy);
+        if (closed) {
+            publisher.complete();
+        } else {
+            notificationPublishers.add(publisher);
+        }
+        return publisher;
+    }
+
+    /**
+     * Creates a blocking iterator over notifications, independent of the {@link #onNotificationReceived} handlers.
+     * Notifications are buffered from the moment this is called, call {@link #enableNotifications(long, TimeUnit)}
+     * afterwards to not miss any
+     * @param capacity Number of notifications buffered while the consumer is busy, rounded up to a power of 2
+     * @return Notification iterator, already closed if this object has been closed
+     * @throws IllegalArgumentException If capacity is not positive
+     */
+    public NotificationIterator notificationIterator(int capacity) {
+        final NotificationIterator iterator = new NotificationIterator(this, capacity);
+        if (closed) {
+            iterator.close();
+        } else {
+            notificationIterators.add(iterator);
+        }
+        return iterator;
+    }
+
+    void release(NotificationIterator iterator) {
+        notificationIterators.remove(iterator);
+    }
+
+    private static CompletableFuture<Void> rejectOversized(byte[] value) {
         final CompletableFuture<Void> asyncTask = new CompletableFuture<>();
+        asyncTask.completeExceptionally(new GattCharacteristicException(String.format(Locale.US,
+                "Value is %d bytes, at most %d can be written at once; use BulkWriter for larger payloads", value.length, MAX_VALUE_SIZE)));
+        return asyncTask;
+    }
 
-        fn.accept((ctx, caller, err) -> {
-            if (err != null) {
-                asyncTask.completeExceptionally(new GattCharacteristicException(err));
-            } else {
-                asyncTask.complete(null);
+    private <T> CompletableFuture<T> enqueue(GattMetrics.Kind kind, OperationQueue.Priority priority, long timeout, TimeUnit unit,
+            PendingTasks<CompletableFuture<T>> pending, Consumer<Pointer> request) {
+        final CompletableFuture<T> asyncTask = new CompletableFuture<>();
+        if (closed) {
+            asyncTask.completeExceptionally(new GattCharacteristicException("Characteristic " + uuid + " has been closed"));
+            return asyncTask;
+        }
+
+        owner.operations.submit(new OperationQueue.Operation(asyncTask, kind, priority, unit.toNanos(timeout)) {
+            // guarded by this, start() and abandon() hold the operation's monitor
+            private Pointer context;
+
+            @Override
+            void start() {
+                if (closed) {
+                    owner.operations.finish(asyncTask);
+                    owner.dispatch(() -> asyncTask.completeExceptionally(new GattCharacteristicException("Characteristic " + uuid + " has been closed")));
+                    return;
+                }
+                context = pending.register(asyncTask);
+                request.accept(context);
+            }
+
+            @Override
+            void abandon() {
+                pending.remove(context);
             }
         });
 
@@ -76,7 +414,25 @@ public class GattCharacteristic {
      * @return Null when task completes, {@link GattCharacteristicException} if task fails
      */
     public CompletableFuture<Void> writeAsync(byte[] value) {
-        return writeAsync(handler -> Library.WARBLE.warble_gattchar_write_async(warbleGattChar, value, (byte) value.length, null, handler));
+        return writeAsync(value, OperationQueue.Priority.NORMAL, owner.operationTimeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Writes value to the characteristic requiring an acknowledge from the remote device
+     * @param value    Value to write to the characteristic
+     * @param priority Queue lane to issue the write from
+     * @param timeout  How long to wait for the write to complete, including time spent in the queue,
+     *                 0 to wait indefinitely
+     * @param unit     Unit of the timeout value
+     * @return Null when task completes, {@link GattCharacteristicException} if task fails, times out, or the value
+     * is longer than 255 bytes
+     */
+    public CompletableFuture<Void> writeAsync(byte[] value, OperationQueue.Priority priority, long timeout, TimeUnit unit) {
+        if (value.length > MAX_VALUE_SIZE) {
+            return rejectOversized(value);
+        }
+        return enqueue(GattMetrics.Kind.WRITE, priority, timeout, unit, pendingCompletions, context ->
+                Library.WARBLE.warble_gattchar_write_async(warbleGattChar, value, (byte) value.length, context, completionHandler));
     }
 
     /**
@@ -85,7 +441,25 @@ public class GattCharacteristic {
      * @return Null when task completes, {@link GattCharacteristicException} if task fails
      */
     public CompletableFuture<Void> writeWithoutResponseAsync(byte[] value) {
-        return writeAsync(handler -> Library.WARBLE.warble_gattchar_write_without_resp_async(warbleGattChar, value, (byte) value.length, null, handler));
+        return writeWithoutResponseAsync(value, OperationQueue.Priority.NORMAL, owner.operationTimeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Writes value to the characteristic without requesting a response from the remove device
+     * @param value    Value to write to the characteristic
+     * @param priority Queue lane to issue the write from
+     * @param timeout  How long to wait for the write to complete, including time spent in the queue,
+     *                 0 to wait indefinitely
+     * @param unit     Unit of the timeout value
+     * @return Null when task completes, {@link GattCharacteristicException} if task fails, times out, or the value
+     * is longer than 255 bytes
+     */
+    public CompletableFuture<Void> writeWithoutResponseAsync(byte[] value, OperationQueue.Priority priority, long timeout, TimeUnit unit) {
+        if (value.length > MAX_VALUE_SIZE) {
+            return rejectOversized(value);
+        }
+        return enqueue(GattMetrics.Kind.WRITE_WITHOUT_RESPONSE, priority, timeout, unit, pendingCompletions, context ->
+                Library.WARBLE.warble_gattchar_write_without_resp_async(warbleGattChar, value, (byte) value.length, context, completionHandler));
     }
 
     /**
@@ -93,44 +467,30 @@ public class GattCharacteristic {
      * @return Value as a byte array when task completes, {@link GattCharacteristicException} if task fails
      */
     public CompletableFuture<byte[]> readAsync() {
-        final CompletableFuture<byte[]> asyncTask = new CompletableFuture<>();
-
-        Library.WARBLE.warble_gattchar_read_async(warbleGattChar, null, (ctx, caller, value, length, err) -> {
-            if (err != null) {
-                asyncTask.completeExceptionally(new GattCharacteristicException(err));
-            } else {
-                byte[] jvm_array = new byte[length];
-                for(byte i = 0; i < length; i++) {
-                    jvm_array[i] = value.getByte(i);
-                }
-
-                asyncTask.complete(jvm_array);
-            }
-        });
-
-        return asyncTask;
+        return readAsync(OperationQueue.Priority.NORMAL, owner.operationTimeoutNanos, TimeUnit.NANOSECONDS);
     }
 
-    private CompletableFuture<Void> editNotification(Consumer<Native.FnVoid_VoidP_WarbleGattCharP_CharP> fn) {
-        final CompletableFuture<Void> asyncTask = new CompletableFuture<>();
-
-        fn.accept((ctx, caller, err) -> {
-            if (err != null) {
-                asyncTask.completeExceptionally(new GattCharacteristicException(err));
-            } else {
-                asyncTask.complete(null);
-            }
-        });
-
-        return asyncTask;
+    /**
+     * Reads current value from the characteristic
+     * @param priority Queue lane to issue the read from
+     * @param timeout  How long to wait for the read to complete, including time spent in the queue,
+     *                 0 to wait indefinitely
+     * @param unit     Unit of the timeout value
+     * @return Value as a byte array when task completes, {@link GattCharacteristicException} if task fails or times out
+     */
+    public CompletableFuture<byte[]> readAsync(OperationQueue.Priority priority, long timeout, TimeUnit unit) {
+        return enqueue(GattMetrics.Kind.READ, priority, timeout, unit, pendingReads, context ->
+                Library.WARBLE.warble_gattchar_read_async(warbleGattChar, context, readHandler));
     }
 
     /**
-     * Enables characteristic notifications, which are forwarded to the {@link #onNotificationReceived} consumer
+     * Enables characteristic notifications, which are forwarded to the {@link #onNotificationReceived} and
+     * {@link #onNotificationBufferReceived} consumers
      * @return Null when task completes, {@link GattCharacteristicException} if task fails
      */
     public CompletableFuture<Void> enableNotificationsAsync() {
-        return editNotification(handler -> Library.WARBLE.warble_gattchar_enable_notifications_async(warbleGattChar, null, handler));
+        return enqueue(GattMetrics.Kind.ENABLE_NOTIFICATIONS, OperationQueue.Priority.NORMAL, owner.operationTimeoutNanos,
+                TimeUnit.NANOSECONDS, pendingCompletions, context -> Library.WARBLE.warble_gattchar_enable_notifications_async(warbleGattChar, context, completionHandler));
     }
 
     /**
@@ -138,6 +498,82 @@ public class GattCharacteristic {
      * @return Null when task completes, {@link GattCharacteristicException} if task fails
      */
     public CompletableFuture<Void> disableNotificationsAsync() {
-        return editNotification(handler -> Library.WARBLE.warble_gattchar_disable_notifications_async(warbleGattChar, null, handler));
+        return enqueue(GattMetrics.Kind.DISABLE_NOTIFICATIONS, OperationQueue.Priority.NORMAL, owner.operationTimeoutNanos,
+                TimeUnit.NANOSECONDS, pendingCompletions, context -> Library.WARBLE.warble_gattchar_disable_notifications_async(warbleGattChar, context, completionHandler));
+    }
+
+    /**
+     * Reads current value from the characteristic, blocking until the read completes.  The calling thread parks while
+     * waiting, so this can be called from virtual threads without pinning their carrier
+     * @param timeout How long to wait for the read, including time spent in the queue, 0 to wait indefinitely
+     * @param unit    Unit of the timeout value
+     * @return Characteristic value
+     * @throws GattCharacteristicException If the read fails or times out
+     * @throws InterruptedException        If the thread is interrupted while waiting; the read stays queued
+     * @throws IllegalStateException       If called from a callback thread the result has to be delivered through
+     */
+    public byte[] read(long timeout, TimeUnit unit) throws InterruptedException {
+        Blocking.checkCaller(owner.callbackExecutor);
+        return Blocking.await(readAsync(OperationQueue.Priority.NORMAL, timeout, unit));
+    }
+
+    /**
+     * Writes value to the characteristic requiring an acknowledge from the remote device, blocking until the write completes
+     * @param value   Value to write to the characteristic
+     * @param timeout How long to wait for the write, including time spent in the queue, 0 to wait indefinitely
+     * @param unit    Unit of the timeout value
+     * @throws GattCharacteristicException If the write fails, times out, or the value is longer than 255 bytes
+     * @throws InterruptedException        If the thread is interrupted while waiting; the write stays queued
+     * @throws IllegalStateException       If called from a callback thread the result has to be delivered through
+     * @see #read(long, TimeUnit)
+     */
+    public void write(byte[] value, long timeout, TimeUnit unit) throws InterruptedException {
+        Blocking.checkCaller(owner.callbackExecutor);
+        Blocking.await(writeAsync(value, OperationQueue.Priority.NORMAL, timeout, unit));
+    }
+
+    /**
+     * Writes value to the characteristic without requesting a response from the remote device, blocking until the
+     * library has sent it
+     * @param value   Value to write to the characteristic
+     * @param timeout How long to wait for the write, including time spent in the queue, 0 to wait indefinitely
+     * @param unit    Unit of the timeout value
+     * @throws GattCharacteristicException If the write fails, times out, or the value is longer than 255 bytes
+     * @throws InterruptedException        If the thread is interrupted while waiting; the write stays queued
+     * @throws IllegalStateException       If called from a callback thread the result has to be delivered through
+     * @see #read(long, TimeUnit)
+     */
+    public void writeWithoutResponse(byte[] value, long timeout, TimeUnit unit) throws InterruptedException {
+        Blocking.checkCaller(owner.callbackExecutor);
+        Blocking.await(writeWithoutResponseAsync(value, OperationQueue.Priority.NORMAL, timeout, unit));
+    }
+
+    /**
+     * Enables characteristic notifications, blocking until the remote device acknowledges
+     * @param timeout How long to wait, including time spent in the queue, 0 to wait indefinitely
+     * @param unit    Unit of the timeout value
+     * @throws GattCharacteristicException If the request fails or times out
+     * @throws InterruptedException        If the thread is interrupted while waiting; the request stays queued
+     * @throws IllegalStateException       If called from a callback thread the result has to be delivered through
+     * @see #notificationIterator(int)
+     */
+    public void enableNotifications(long timeout, TimeUnit unit) throws InterruptedException {
+        Blocking.checkCaller(owner.callbackExecutor);
+        Blocking.await(enqueue(GattMetrics.Kind.ENABLE_NOTIFICATIONS, OperationQueue.Priority.NORMAL, timeout, unit,
+                pendingCompletions, context -> Library.WARBLE.warble_gattchar_enable_notifications_async(warbleGattChar, context, completionHandler)));
+    }
+
+    /**
+     * Disables characteristic notifications, blocking until the remote device acknowledges
+     * @param timeout How long to wait, including time spent in the queue, 0 to wait indefinitely
+     * @param unit    Unit of the timeout value
+     * @throws GattCharacteristicException If the request fails or times out
+     * @throws InterruptedException        If the thread is interrupted while waiting; the request stays queued
+     * @throws IllegalStateException       If called from a callback thread the result has to be delivered through
+     */
+    public void disableNotifications(long timeout, TimeUnit unit) throws InterruptedException {
+        Blocking.checkCaller(owner.callbackExecutor);
+        Blocking.await(enqueue(GattMetrics.Kind.DISABLE_NOTIFICATIONS, OperationQueue.Priority.NORMAL, timeout, unit,
+                pendingCompletions, context -> Library.WARBLE.warble_gattchar_disable_notifications_async(warbleGattChar, context, completionHandler)));
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.ObjectName;
+
+/**
+ * Latency histograms, notification counters, and error counts for one {@link Gatt} connection.
+ * Values are recorded without locking or allocating and read with {@link #snapshot()}.
+ * @see Gatt.Builder#withMetrics(boolean)
+ */
+public final class GattMetrics implements GattMetricsMXBean {
+    /**
+     * Operations with a latency histogram
+     */
+    public enum Kind {
+        /** {@link Gatt#connectAsync()}, from the request until the connection is established */
+        CONNECT,
+        /** Characteristic reads */
+        READ,
+        /** Characteristic writes that require a response */
+        WRITE,
+        /** Characteristic writes without response */
+        WRITE_WITHOUT_RESPONSE,
+        /** Enabling characteristic notifications */
+        ENABLE_NOTIFICATIONS,
+        /** Disabling characteristic notifications */
+        DISABLE_NOTIFICATIONS
+    }
+
+    /**
+     * Causes errors are counted under.  Native error messages are not used as keys since they are not bounded
+     */
+    public enum ErrorType {
+        /** A connection attempt or operation exceeded its deadline */
+        TIMEOUT,
+        /** The connection was lost while the operation was pending */
+        DISCONNECTED,
+        /** The {@link Gatt} object was closed while the operation was pending */
+        CLOSED,
+        /** The native library reported a failure */
+        NATIVE;
+
+        final String key = name().toLowerCase(Locale.US);
+    }
+
+    /**
+     * Immutable copy of the metrics at a point in time
+     */
+    public static final class Snapshot {
+        /** Value of {@link System#nanoTime()} when the snapshot was taken */
+        public final long timestamp;
+        /** Number of notifications received */
+        public final long notificationCount;
+        /** Number of notification payload bytes received */
+        public final long notificationBytes;
+        private final Map<Kind, LatencyHistogram.Snapshot> latencies;
+        private final LatencyHistogram.Snapshot queueWait, callbackDelay;
+        private final Map<String, Long> gattErrors, characteristicErrors;
+
+        private Snapshot(GattMetrics metrics) {
+            timestamp = System.nanoTime();
+            notificationCount = metrics.notifications.sum();
+            notificationBytes = metrics.notificationBytes.sum();
+
+            final Map<Kind, LatencyHistogram.Snapshot> copy = new EnumMap<>(Kind.class);
+            for (Kind kind : Kind.values()) {
+                copy.put(kind, metrics.latencies[kind.ordinal()].snapshot());
+            }
+            latencies = Collections.unmodifiableMap(copy);
+            queueWait = metrics.queueWait.snapshot();
+            callbackDelay = metrics.callbackDelay.snapshot();
+            gattErrors = Metrics.copy(metrics.gattErrors);
+            characteristicErrors = Metrics.copy(metrics.characteristicErrors);
+        }
+
+        /**
+         * Get the latency of an operation type, measured from when the native request was issued until the native
+         * library reported the result
+         * @param kind Operation type
+         * @return Latency histogram
+         */
+        public LatencyHistogram.Snapshot getLatency(Kind kind) {
+            return latencies.get(kind);
+        }
+
+        /**
+         * Get the time characteristic operations spent in the {@link OperationQueue} before being issued
+         * @return Queue wait histogram
+         */
+        public LatencyHistogram.Snapshot getQueueWait() {
+            return queueWait;
+        }
+
+        /**
+         * Get the time callbacks waited for the callback executor to run them
+         * @return Callback delay histogram, empty if no executor is set
+         */
+        public LatencyHistogram.Snapshot getCallbackDelay() {
+            return callbackDelay;
+        }
+
+        /**
+         * Get the number of {@link GattException} errors of each type
+         * @return Counts keyed by the lower case {@link ErrorType} name
+         */
+        public Map<String, Long> getGattErrors() {
+            return gattErrors;
+        }
+
+        /**
+         * Get the number of {@link GattCharacteristicException} errors of each type
+         * @return Counts keyed by the lower case {@link ErrorType} name
+         */
+        public Map<String, Long> getCharacteristicErrors() {
+            return characteristicErrors;
+        }
+
+        /**
+         * Computes the notification rate between an earlier snapshot and this one
+         * @param previous Earlier snapshot of the same metrics
+         * @return Notifications per second
+         */
+        public double getNotificationRate(Snapshot previous) {
+            return Metrics.rate(notificationCount, previous.notificationCount, timestamp - previous.timestamp);
+        }
+
+        /**
+         * Computes the notification throughput between an earlier snapshot and this one
+         * @param previous Earlier snapshot of the same metrics
+         * @return Notification payload bytes per second
+         */
+        public double getNotificationByteRate(Snapshot previous) {
+            return Metrics.rate(notificationBytes, previous.notificationBytes, timestamp - previous.timestamp);
+        }
+    }
+
+    private final String mac;
+    private final LatencyHistogram[] latencies = new LatencyHistogram[Kind.values().length];
+    private final LatencyHistogram queueWait = new LatencyHistogram(), callbackDelay = new LatencyHistogram();
+    private final LongAdder notifications = new LongAdder(), notificationBytes = new LongAdder();
+    private final ConcurrentHashMap<String, LongAdder> gattErrors = new ConcurrentHashMap<>(),
+            characteristicErrors = new ConcurrentHashMap<>();
+
+    GattMetrics(String mac) {
+        this.mac = mac;
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyHistogram();
+        }
+    }
+
+    void recordLatency(Kind kind, long nanos) {
+        latencies[kind.ordinal()].record(nanos);
+    }
+
+    void recordQueueWait(long nanos) {
+        queueWait.record(nanos);
+    }
+
+    void recordCallbackDelay(long nanos) {
+        callbackDelay.record(nanos);
+    }
+
+    void recordNotification(int size) {
+        notifications.increment();
+        notificationBytes.add(size);
+    }
+
+    void recordError(ErrorType type, RuntimeException error) {
+        Metrics.count(error instanceof GattException ? gattErrors : characteristicErrors, type.key);
+    }
+
+    /**
+     * Copies the current metrics
+     * @return Immutable snapshot
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server under
+     * <code>com.mbientlab.warble:type=Gatt,mac=&lt;mac&gt;</code>, replacing any existing registration
+     * @return Name the metrics were registered under
+     */
+    public ObjectName registerMBean() {
+        return Metrics.register(this, mbeanProperties());
+    }
+
+    /**
+     * Removes the registration created by {@link #registerMBean()}
+     */
+    public void unregisterMBean() {
+        Metrics.unregister(mbeanProperties());
+    }
+
+    private String mbeanProperties() {
+        return "type=Gatt,mac=" + ObjectName.quote(mac);
+    }
+
+    @Override
+    public String getMac() {
+        return mac;
+    }
+
+    @Override
+    public long getNotificationCount() {
+        return notifications.sum();
+    }
+
+    @Override
+    public long getNotificationBytes() {
+        return notificationBytes.sum();
+    }
+
+    @Override
+    public Map<String, Double> getLatencySummary() {
+        final Map<String, Double> summary = new TreeMap<>();
+        for (Kind kind : Kind.values()) {
+            Metrics.summarize(summary, kind.name().toLowerCase(Locale.US), latencies[kind.ordinal()].snapshot());
+        }
+        Metrics.summarize(summary, "queue_wait", queueWait.snapshot());
+        Metrics.summarize(summary, "callback_delay", callbackDelay.snapshot());
+        return summary;
+    }
+
+    @Override
+    public Map<String, Long> getGattErrors() {
+        return Metrics.copy(gattErrors);
+    }
+
+    @Override
+    public Map<String, Long> getCharacteristicErrors() {
+        return Metrics.copy(characteristicErrors);
+    }
+
+    @Override
+    public void reset() {
+        for (LatencyHistogram histogram : latencies) {
+            histogram.reset();
+        }
+        queueWait.reset();
+        callbackDelay.reset();
+        notifications.reset();
+        notificationBytes.reset();
+        gattErrors.clear();
+        characteristicErrors.clear();
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.util.Map;
+
+/**
+ * JMX view of a {@link GattMetrics} object.  Latencies are summarized in microseconds
+ */
+public interface GattMetricsMXBean {
+    /**
+     * Get the MAC address of the remote device
+     * @return Device MAC address
+     */
+    String getMac();
+    /**
+     * Get the number of notifications received
+     * @return Notification count
+     */
+    long getNotificationCount();
+    /**
+     * Get the number of notification payload bytes received
+     * @return Byte count
+     */
+    long getNotificationBytes();
+    /**
+     * Get the count, mean, p50, p99, and max of each operation's latency, keyed as <code>read.p99</code>
+     * @return Latency summary in microseconds
+     */
+    Map<String, Double> getLatencySummary();
+    /**
+     * Get the number of {@link GattException} errors of each type
+     * @return Counts keyed by the lower case {@link GattMetrics.ErrorType} name
+     */
+    Map<String, Long> getGattErrors();
+    /**
+     * Get the number of {@link GattCharacteristicException} errors of each type
+     * @return Counts keyed by the lower case {@link GattMetrics.ErrorType} name
+     */
+    Map<String, Long> getCharacteristicErrors();
+    /**
+     * Clears all recorded values
+     */
+    void reset();
+}
@@ -0,0 +1,481 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Manages connections to many remote devices.  Connection attempts are capped per HCI adapter so a burst of
+ * reconnects does not overwhelm the controller, and dropped connections are automatically reestablished with a
+ * jittered exponential backoff.  The pool takes over the {@link Gatt#onDisconnect} handler of every device it owns,
+ * use {@link #onDisconnect} instead.  Devices still in the pool are closed along with it.
+ */
+public class GattPool implements AutoCloseable {
+    /**
+     * Connection states of a device managed by the pool
+     */
+    public enum State {
+        /** Not connected and not trying to connect */
+        DISCONNECTED,
+        /** Waiting for the backoff delay to pass before the next connection attempt */
+        BACKOFF,
+        /** Waiting for a free connection slot on the HCI adapter */
+        WAITING,
+        /** Connection attempt in progress */
+        CONNECTING,
+        /** Connected to the remote device */
+        CONNECTED,
+        /** Gave up after too many failed connection attempts */
+        FAILED
+    }
+
+    /**
+     * Builder class to construct a {@link GattPool} object
+     */
+    public static class Builder {
+        private int maxConcurrentConnects = 2, maxAttempts = 0;
+        private long initialBackoffNanos = TimeUnit.MILLISECONDS.toNanos(500), maxBackoffNanos = TimeUnit.SECONDS.toNanos(60);
+
+        /**
+         * Sets how many connection attempts can be in progress at once on each HCI adapter.  Defaults to 2
+         * @param max Maximum concurrent connection attempts per adapter
+         * @return Calling object
+         */
+        public Builder withMaxConcurrentConnects(int max) {
+            if (max < 1) {
+                throw new IllegalArgumentException("Need at least 1 concurrent connection attempt");
+            }
+            this.maxConcurrentConnects = max;
+            return this;
+        }
+
+        /**
+         * Sets the range of the reconnect delay, which doubles after each failed attempt.
+         * Defaults to 500 milliseconds up to 60 seconds
+         * @param initial Delay before the first reconnect attempt
+         * @param max     Upper bound of the delay
+         * @param unit    Unit of the delay values
+         * @return Calling object
+         */
+        public Builder withBackoff(long initial, long max, TimeUnit unit) {
+            this.initialBackoffNanos = unit.toNanos(initial);
+            this.maxBackoffNanos = unit.toNanos(max);
+            return this;
+        }
+
+        /**
+         * Sets how many consecutive failed attempts are allowed before the pool stops trying to connect to a device.
+         * Defaults to 0
+         * @param maxAttempts Maximum consecutive failures, 0 to keep retrying forever
+         * @return Calling object
+         */
+        public Builder withMaxAttempts(int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        /**
+         * Build the GattPool object with the specified parameters
+         * @return GattPool object
+         */
+        public GattPool build() {
+            return new GattPool(this);
+        }
+    }
+
+    private final class Adapter {
+        final ArrayDeque<Device> waiting = new ArrayDeque<>();
+        int available = maxConcurrentConnects;
+    }
+
+    private final class Device {
+        final Gatt gatt;
+        final Adapter adapter;
+        State state = State.DISCONNECTED;
+        boolean wanted = false, removed = false;
+        int failures = 0;
+        ScheduledFuture<?> retry = null;
+
+        Device(Gatt gatt, Adapter adapter) {
+            this.gatt = gatt;
+            this.adapter = adapter;
+        }
+    }
+
+    /** Handler that listens for devices connecting, including reconnects */
+    public Consumer<Gatt> onConnected = (gatt) -> { };
+    /** Handler that listens for disconnect events from any device in the pool */
+    public BiConsumer<Gatt, Integer> onDisconnect = (gatt, status) -> { };
+
+    private final int maxConcurrentConnects, maxAttempts;
+    private final long initialBackoffNanos, maxBackoffNanos;
+    private final Map<String, Device> devices = new ConcurrentHashMap<>();
+    private final Map<String, Adapter> adapters = new HashMap<>();
+    private final AtomicIntegerArray stateCounts = new AtomicIntegerArray(State.values().length);
+    // guarded by this
+    private boolean closed = false;
+
+    private GattPool(Builder builder) {
+        this.maxConcurrentConnects = builder.maxConcurrentConnects;
+        this.maxAttempts = builder.maxAttempts;
+        this.initialBackoffNanos = builder.initialBackoffNanos;
+        this.maxBackoffNanos = builder.maxBackoffNanos;
+    }
+
+    // accepts any spelling MacAddress can parse, e.g. lower case or without separators
+    private static String key(String mac) {
+        return MacAddress.normalize(mac);
+    }
+
+    /**
+     * Creates a Gatt object and adds it to the pool.  The device is not connected until {@link #connect(String)}
+     * or {@link #connectAll()} is called
+     * @param builder Builder configured for the remote device
+     * @return Gatt object owned by the pool
+     * @throws IllegalStateException If a device with the same MAC address is already in the pool, or the pool has
+     * been closed
+     */
+    public Gatt add(Gatt.Builder builder) {
+        final Gatt gatt = builder.build();
+        final String key = key(gatt.mac);
+
+        final Device device;
+        synchronized (this) {
+            if (closed || devices.containsKey(key)) {
+                gatt.close();
+                throw new IllegalStateException(closed ? "Pool has been closed" : "Device already in the pool: " + gatt.mac);
+            }
+
+            final String hciKey = gatt.hci == null ? "" : key(gatt.hci);
+            Adapter adapter = adapters.get(hciKey);
+            if (adapter == null) {
+                adapter = new Adapter();
+                adapters.put(hciKey, adapter);
+            }
+
+            device = new Device(gatt, adapter);
+            devices.put(key, device);
+            stateCounts.incrementAndGet(State.DISCONNECTED.ordinal());
+        }
+        gatt.onDisconnect = status -> disconnected(device, status);
+
+        return gatt;
+    }
+
+    /**
+     * Disconnects from a device and removes it from the pool.  The caller takes ownership of the returned object
+     * and should {@link Gatt#close() close} it once it is no longer needed
+     * @param mac MAC address of the device
+     * @return Gatt object that was removed, null if the device is not in the pool
+     */
+    public Gatt remove(String mac) {
+        final Device device = devices.get(key(mac));
+        if (device == null) {
+            return null;
+        }
+
+        disconnect(mac);
+        synchronized (this) {
+            devices.remove(key(mac));
+            device.adapter.waiting.remove(device);
+            stateCounts.decrementAndGet(device.state.ordinal());
+            device.removed = true;
+        }
+        device.gatt.onDisconnect = (status) -> { };
+
+        return device.gatt;
+    }
+
+    /**
+     * Find a device in the pool
+     * @param mac MAC address of the device
+     * @return Gatt object for the device, null if it is not in the pool
+     */
+    public Gatt get(String mac) {
+        final Device device = devices.get(key(mac));
+        return device == null ? null : device.gatt;
+    }
+
+    /**
+     * Get the connection state of a device
+     * @param mac MAC address of the device
+     * @return Device's connection state, null if it is not in the pool
+     */
+    public State getState(String mac) {
+        final Device device = devices.get(key(mac));
+        if (device == null) {
+            return null;
+        }
+        synchronized (this) {
+            return device.state;
+        }
+    }
+
+    /**
+     * Count how many devices are in a connection state
+     * @param state State to count
+     * @return Number of devices in the state
+     */
+    public int count(State state) {
+        return stateCounts.get(state.ordinal());
+    }
+
+    /**
+     * Get the number of devices in the pool
+     * @return Pool size
+     */
+    public int size() {
+        return devices.size();
+    }
+
+    /**
+     * Connects to a device and keeps the connection alive until {@link #disconnect(String)} is called
+     * @param mac MAC address of the device
+     * @throws IllegalArgumentException If the device is not in the pool
+     */
+    public void connect(String mac) {
+        final Device device = devices.get(key(mac));
+        if (device == null) {
+            throw new IllegalArgumentException("Device not in the pool: " + mac);
+        }
+
+        final List<Device> ready;
+        synchronized (this) {
+            device.wanted = true;
+            if (device.state != State.DISCONNECTED && device.state != State.FAILED) {
+                return;
+            }
+
+            device.failures = 0;
+            ready = enqueue(device);
+        }
+        start(ready);
+    }
+
+    /**
+     * Connects to every device in the pool
+     */
+    public void connectAll() {
+        for (Device device : devices.values()) {
+            connect(device.gatt.mac);
+        }
+    }
+
+    /**
+     * Disconnects from a device and stops reconnecting to it
+     * @param mac MAC address of the device
+     */
+    public void disconnect(String mac) {
+        final Device device = devices.get(key(mac));
+        if (device == null) {
+            return;
+        }
+
+        final boolean connected;
+        synchronized (this) {
+            device.wanted = false;
+            if (device.retry != null) {
+                device.retry.cancel(false);
+                device.retry = null;
+            }
+            if (device.state == State.BACKOFF || device.state == State.FAILED) {
+                transition(device, State.DISCONNECTED);
+            }
+            connected = device.state == State.CONNECTED;
+        }
+
+        if (connected) {
+            device.gatt.disconnect();
+        }
+    }
+
+    /**
+     * Disconnects from every device in the pool
+     */
+    public void disconnectAll() {
+        for (Device device : devices.values()) {
+            disconnect(device.gatt.mac);
+        }
+    }
+
+    /**
+     * Stops reconnecting and closes every device still in the pool.  Subsequent calls have no effect
+     */
+    @Override
+    public void close() {
+        final List<Device> owned;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            owned = new ArrayList<>(devices.values());
+            for (Device device : owned) {
+                device.wanted = false;
+                if (device.retry != null) {
+                    device.retry.cancel(false);
+                    device.retry = null;
+                }
+                device.adapter.waiting.remove(device);
+                stateCounts.decrementAndGet(device.state.ordinal());
+                device.removed = true;
+            }
+            devices.clear();
+        }
+
+        for (Device device : owned) {
+            device.gatt.onDisconnect = (status) -> { };
+            device.gatt.close();
+        }
+    }
+
+    private void transition(Device device, State next) {
+        if (!device.removed) {
+            stateCounts.decrementAndGet(device.state.ordinal());
+            stateCounts.incrementAndGet(next.ordinal());
+        }
+        device.state = next;
+    }
+
+    // Must be called while holding the pool lock, returns devices to start connecting once the lock is released
+    private List<Device> enqueue(Device device) {
+        transition(device, State.WAITING);
+        device.adapter.waiting.addLast(device);
+        return acquire(device.adapter);
+    }
+
+    // Must be called while holding the pool lock
+    private List<Device> acquire(Adapter adapter) {
+        final List<Device> ready = new ArrayList<>();
+        Device next;
+        while (adapter.available > 0 && (next = adapter.waiting.pollFirst()) != null) {
+            if (!next.wanted) {
+                transition(next, State.DISCONNECTED);
+                continue;
+            }
+
+            adapter.available--;
+            transition(next, State.CONNECTING);
+            ready.add(next);
+        }
+        return ready;
+    }
+
+    private void start(List<Device> ready) {
+        for (Device device : ready) {
+            final CompletableFuture<Void> attempt;
+            try {
+                attempt = device.gatt.connectAsync();
+            } catch (RuntimeException e) {
+                attemptDone(device, e);
+                continue;
+            }
+            attempt.whenComplete((value, error) -> attemptDone(device, error));
+        }
+    }
+
+    private void attemptDone(Device device, Throwable error) {
+        final List<Device> ready;
+        boolean connected = false, abandoned = false;
+
+        synchronized (this) {
+            device.adapter.available++;
+
+            if (error == null) {
+                device.failures = 0;
+                transition(device, State.CONNECTED);
+                connected = device.wanted;
+                abandoned = !device.wanted;
+            } else if (!device.wanted) {
+                transition(device, State.DISCONNECTED);
+            } else {
+                device.failures++;
+                if (maxAttempts > 0 && device.failures >= maxAttempts) {
+                    transition(device, State.FAILED);
+                } else {
+                    scheduleRetry(device);
+                }
+            }
+            ready = acquire(device.adapter);
+        }
+
+        start(ready);
+        if (connected) {
+            onConnected.accept(device.gatt);
+        } else if (abandoned) {
+            device.gatt.disconnect();
+        }
+    }
+
+    private void disconnected(Device device, int status) {
+        synchronized (this) {
+            if (device.state == State.CONNECTED) {
+                if (device.wanted) {
+                    scheduleRetry(device);
+                } else {
+                    transition(device, State.DISCONNECTED);
+                }
+            }
+        }
+
+        onDisconnect.accept(device.gatt, status);
+    }
+
+    // Must be called while holding the pool lock
+    private void scheduleRetry(Device device) {
+        long delay = initialBackoffNanos;
+        for (int i = 0; i < device.failures && delay < maxBackoffNanos; i++) {
+            delay <<= 1;
+        }
+        delay = Math.min(delay, maxBackoffNanos);
+        // randomize the second half of the delay so devices dropped at the same time do not reconnect in lockstep
+        final long jittered = delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+
+        transition(device, State.BACKOFF);
+        device.retry = OperationQueue.TIMER.schedule(() -> {
+            final List<Device> ready;
+            synchronized (this) {
+                if (device.state != State.BACKOFF || !device.wanted) {
+                    return;
+                }
+                device.retry = null;
+                ready = enqueue(device);
+            }
+            start(ready);
+        }, jittered, TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.util.UUID;
+
+/**
+ * Compact, immutable 128-bit GATT UUID.  16-bit and 32-bit UUIDs assigned by the Bluetooth SIG are expanded
+ * with the Bluetooth base UUID, <code>0000xxxx-0000-1000-8000-00805f9b34fb</code>.
+ */
+public final class GattUuid {
+    private static final long BASE_MSB = 0x0000000000001000L, BASE_LSB = 0x800000805f9b34fbL;
+
+    /** Most significant 64 bits */
+    public final long msb;
+    /** Least significant 64 bits */
+    public final long lsb;
+    private String string;
+
+    private GattUuid(long msb, long lsb) {
+        this.msb = msb;
+        this.lsb = lsb;
+    }
+
+    /**
+     * Creates a UUID from its 128-bit value
+     * @param msb Most significant 64 bits
+     * @param lsb Least significant 64 bits
+     * @return UUID object
+     */
+    public static GattUuid of(long msb, long lsb) {
+        return new GattUuid(msb, lsb);
+    }
+
+    /**
+     * Creates a UUID assigned by the Bluetooth SIG, such as 0x2a26 for the firmware revision characteristic
+     * @param shortUuid 16-bit or 32-bit UUID value
+     * @return UUID object
+     */
+    public static GattUuid fromShort(long shortUuid) {
+        return new GattUuid(((shortUuid & 0xffffffffL) << 32) | BASE_MSB, BASE_LSB);
+    }
+
+    /**
+     * Converts a {@link UUID} object
+     * @param uuid UUID to convert
+     * @return UUID object
+     */
+    public static GattUuid from(UUID uuid) {
+        return new GattUuid(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    /**
+     * Parses a UUID string, either the full 128-bit form or a 4 or 8 hex digit SIG assigned value
+     * @param uuid UUID string
+     * @return UUID object
+     * @throws IllegalArgumentException If the string is not a valid UUID
+     */
+    public static GattUuid parse(String uuid) {
+        final int length = uuid.length();
+        if (length == 4 || length == 8) {
+            return fromShort(parseHex(uuid, 0, length));
+        }
+        if (length != 36 || uuid.charAt(8) != '-' || uuid.charAt(13) != '-' || uuid.charAt(18) != '-' || uuid.charAt(23) != '-') {
+            throw new IllegalArgumentException("Invalid UUID string: " + uuid);
+        }
+
+        final long msb = (parseHex(uuid, 0, 8) << 32) | (parseHex(uuid, 9, 13) << 16) | parseHex(uuid, 14, 18),
+                lsb = (parseHex(uuid, 19, 23) << 48) | parseHex(uuid, 24, 36);
+        return new GattUuid(msb, lsb);
+    }
+
+    private static long parseHex(String str, int start, int end) {
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            final int digit = Character.digit(str.charAt(i), 16);
+            if (digit < 0) {
+                throw new IllegalArgumentException("Invalid UUID string: " + str);
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    /**
+     * Checks if the UUID is derived from the Bluetooth base UUID
+     * @return True if the UUID can be represented with 32 bits or less
+     */
+    public boolean isShort() {
+        return (msb & 0xffffffffL) == BASE_MSB && lsb == BASE_LSB;
+    }
+
+    /**
+     * Get the SIG assigned value of a short UUID
+     * @return 16-bit or 32-bit UUID value
+     * @throws IllegalStateException If the UUID is not derived from the base UUID
+     */
+    public long getShortValue() {
+        if (!isShort()) {
+            throw new IllegalStateException("Not a short UUID: " + this);
+        }
+        return msb >>> 32;
+    }
+
+    /**
+     * Converts to a {@link UUID} object
+     * @return UUID object
+     */
+    public UUID toUUID() {
+        return new UUID(msb, lsb);
+    }
+
+    /**
+     * Get the UUID in the lower case 128-bit string form used by the Warble C library
+     * @return UUID string
+     */
+    @Override
+    public String toString() {
+        String result = string;
+        if (result == null) {
+            string = result = new UUID(msb, lsb).toString();
+        }
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof GattUuid)) {
+            return false;
+        }
+
+        final GattUuid other = (GattUuid) o;
+        return msb == other.msb && lsb == other.lsb;
+    }
+
+    @Override
+    public int hashCode() {
+        final long hash = msb ^ lsb;
+        return (int) (hash ^ (hash >>> 32));
+    }
+}
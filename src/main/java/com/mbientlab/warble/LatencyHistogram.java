@@ -0,0 +1,185 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Log-linear histogram of durations in nanoseconds.  Each power of two is split into 8 linear buckets, keeping
+ * reported percentiles within 12.5% of the recorded value.  Recording is lock-free and does not allocate.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3, SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS;
+
+    static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return value < 0 ? 0 : (int) value;
+        }
+
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        return ((exponent - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) |
+                (int) ((value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+    }
+
+    static long lowerBound(int index) {
+        final int group = index >>> SUB_BUCKET_BITS, sub = index & (SUB_BUCKETS - 1);
+        if (group == 0) {
+            return sub;
+        }
+
+        final int exponent = group + SUB_BUCKET_BITS - 1;
+        return (1L << exponent) | ((long) sub << (exponent - SUB_BUCKET_BITS));
+    }
+
+    static long upperBound(int index) {
+        return index == BUCKETS - 1 ? Long.MAX_VALUE : lowerBound(index + 1) - 1;
+    }
+
+    /**
+     * Immutable copy of a histogram's contents
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count, sum, min, max;
+
+        private Snapshot(long[] counts, long count, long sum, long min, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.min = min;
+            this.max = max;
+        }
+
+        /**
+         * Get the number of recorded durations
+         * @return Sample count
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Get the smallest recorded duration
+         * @param unit Unit to express the duration in
+         * @return Minimum, 0 if nothing was recorded
+         */
+        public long getMin(TimeUnit unit) {
+            return unit.convert(min, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Get the largest recorded duration
+         * @param unit Unit to express the duration in
+         * @return Maximum, 0 if nothing was recorded
+         */
+        public long getMax(TimeUnit unit) {
+            return unit.convert(max, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Get the average recorded duration
+         * @param unit Unit to express the duration in
+         * @return Mean, 0 if nothing was recorded
+         */
+        public double getMean(TimeUnit unit) {
+            return count == 0 ? 0 : (double) sum / count / unit.toNanos(1);
+        }
+
+        /**
+         * Get the duration that the given fraction of samples did not exceed, rounded up to its bucket's upper bound
+         * @param percentile Percentile between 0 and 100
+         * @param unit       Unit to express the duration in
+         * @return Duration at the percentile, 0 if nothing was recorded
+         */
+        public long getPercentile(double percentile, TimeUnit unit) {
+            if (count == 0) {
+                return 0;
+            }
+
+            final long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return unit.convert(Math.max(min, Math.min(upperBound(i), max)), TimeUnit.NANOSECONDS);
+                }
+            }
+            return unit.convert(max, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong(), sum = new AtomicLong(),
+            min = new AtomicLong(Long.MAX_VALUE), max = new AtomicLong(0);
+
+    LatencyHistogram() {
+    }
+
+    /**
+     * Records a duration
+     * @param nanos Duration in nanoseconds, negative values are recorded as 0
+     */
+    public void record(long nanos) {
+        final long value = Math.max(0, nanos);
+        counts.incrementAndGet(index(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+
+        long current;
+        while (value < (current = min.get()) && !min.compareAndSet(current, value)) { }
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) { }
+    }
+
+    /**
+     * Clears all recorded durations.  Durations recorded while the reset is in progress may be partially kept
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        min.set(Long.MAX_VALUE);
+        max.set(0);
+    }
+
+    /**
+     * Copies the current contents of the histogram
+     * @return Immutable snapshot
+     */
+    public Snapshot snapshot() {
+        final long[] copy = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+            total += copy[i];
+        }
+
+        final long lowest = min.get();
+        return new Snapshot(copy, total, sum.get(), total == 0 || lowest == Long.MAX_VALUE ? 0 : lowest, max.get());
+    }
+}
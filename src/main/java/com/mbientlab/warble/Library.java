@@ -26,14 +26,25 @@ package com.mbientlab.warble;
 import jnr.ffi.LibraryLoader;
 import jnr.ffi.Runtime;
 import jnr.ffi.Struct;
+import jnr.ffi.provider.LoadedLibrary;
 
 import java.util.Locale;
+import java.util.concurrent.Executor;
 
 /**
  * General library level functions
  */
 public class Library {
-    static final Native WARBLE = LibraryLoader.create(Native.class).load("warble");
+    /**
+     * System property selecting the native bindings: <code>jnr</code> (the default) or <code>panama</code> to bind
+     * the Warble C library with jnr-ffi or, on Java 22+, the Foreign Function and Memory API, or the name of a class
+     * that implements the bindings in place of the C library, used to run benchmarks and tests without Bluetooth hardware
+     */
+    static final String PROPERTY_NATIVE_IMPL = "warble.native";
+    private static final String BACKEND_JNR = "jnr", BACKEND_PANAMA = "panama";
+
+    static final Native WARBLE = loadNative();
+    static final Runtime RUNTIME = WARBLE instanceof LoadedLibrary ? Runtime.getRuntime(WARBLE) : Runtime.getSystemRuntime();
 
     /**
      * API log levels
@@ -50,6 +61,28 @@ public class Library {
 
     }
 
+    private static Native loadNative() {
+        final String backend = System.getProperty(PROPERTY_NATIVE_IMPL, BACKEND_JNR);
+        if (backend.equals(BACKEND_JNR)) {
+            return LibraryLoader.create(Native.class).load("warble");
+        }
+
+        // PanamaNative is only packaged in the Java 22 part of the multi-release jar
+        final String impl = backend.equals(BACKEND_PANAMA) ? "com.mbientlab.warble.PanamaNative" : backend;
+        try {
+            return (Native) Class.forName(impl).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot instantiate native implementation: " + impl, e);
+        }
+    }
+
+    private static volatile StripedExecutor dispatcher = null;
+
+    static Executor defaultExecutor(String mac) {
+        final StripedExecutor current = dispatcher;
+        return current == null ? null : current.forDevice(mac);
+    }
+
     static boolean isWindows() {
         return System.getProperty("os.name").toLowerCase(Locale.US).contains("windows");
     }
@@ -75,7 +108,7 @@ public class Library {
      * @param bleppLogLevel libblepp log level, only available on Linux
      */
     public static void init(LogLevel bleppLogLevel) {
-        Native.Option[] opts = Struct.arrayOf(Runtime.getRuntime(Library.WARBLE), Native.Option.class, 1);
+        Native.Option[] opts = Struct.arrayOf(RUNTIME, Native.Option.class, 1);
         int i = 0;
 
         if (!isWindows() && bleppLogLevel != null) {
@@ -83,4 +116,15 @@ public class Library {
         }
         WARBLE.warble_lib_init(i, opts);
     }
+
+    /**
+     * Initializes the Warble library and sets the executor callbacks are dispatched on for Gatt objects built
+     * without their own {@link Gatt.Builder#withCallbackExecutor(Executor) callback executor}
+     * @param bleppLogLevel libblepp log level, only available on Linux
+     * @param dispatcher    Executor whose workers run device callbacks, null to call them from the native event thread
+     */
+    public static void init(LogLevel bleppLogLevel, StripedExecutor dispatcher) {
+        init(bleppLogLevel);
+        Library.dispatcher = dispatcher;
+    }
 }
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.util.Locale;
+
+import jnr.ffi.Pointer;
+
+/**
+ * Converts between MAC address strings and 48-bit values packed into a <code>long</code>
+ */
+public final class MacAddress {
+    private static final int MAC_LENGTH = 17;
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    /** Value returned when a MAC address cannot be parsed */
+    public static final long INVALID = -1L;
+
+    private MacAddress() {
+
+    }
+
+    private static int hexValue(int c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+
+    /**
+     * Packs a MAC address string into a long
+     * @param mac MAC address as a hex string, separators such as ':' or '-' are ignored
+     * @return Packed address, {@link #INVALID} if the string does not contain exactly 12 hex digits
+     */
+    public static long pack(String mac) {
+        long packed = 0;
+        int digits = 0;
+
+        for (int i = 0; i < mac.length(); i++) {
+            final int value = hexValue(mac.charAt(i));
+            if (value >= 0) {
+                packed = (packed << 4) | value;
+                digits++;
+            }
+        }
+        return digits == 12 ? packed : INVALID;
+    }
+
+    /**
+     * Packs the NUL terminated MAC address string stored in native memory without creating a Java string
+     * @param mac Pointer to the string
+     * @return Packed address, {@link #INVALID} if the pointer is null or the string does not contain exactly
+     * 12 hex digits
+     */
+    static long pack(Pointer mac) {
+        if (mac == null) {
+            return INVALID;
+        }
+
+        long packed = 0;
+        int digits = 0;
+
+        for (int i = 0; i < MAC_LENGTH; i++) {
+            final byte c = mac.getByte(i);
+            if (c == 0) {
+                break;
+            }
+
+            final int value = hexValue(c);
+            if (value >= 0) {
+                packed = (packed << 4) | value;
+                digits++;
+            }
+        }
+        return digits == 12 ? packed : INVALID;
+    }
+
+    /**
+     * Converts a packed address back to a string
+     * @param packed Packed MAC address
+     * @return Upper case, colon separated MAC address string
+     */
+    public static String toString(long packed) {
+        final char[] str = new char[MAC_LENGTH];
+        for (int i = 0; i < 6; i++) {
+            final int octet = (int) (packed >>> ((5 - i) * 8)) & 0xff;
+            str[i * 3] = HEX_DIGITS[octet >>> 4];
+            str[i * 3 + 1] = HEX_DIGITS[octet & 0xf];
+            if (i < 5) {
+                str[i * 3 + 2] = ':';
+            }
+        }
+        return new String(str);
+    }
+
+    /**
+     * Normalizes a MAC address string
+     * @param mac MAC address as a hex string
+     * @return Upper case, colon separated MAC address string
+     */
+    static String normalize(String mac) {
+        final long packed = pack(mac);
+        return packed == INVALID ? mac.toUpperCase(Locale.US) : toString(packed);
+    }
+}
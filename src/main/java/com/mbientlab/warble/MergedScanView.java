@@ -0,0 +1,405 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import jnr.ffi.Pointer;
+
+/**
+ * Merges the results of several {@link AdapterScanner} objects into one stream of devices.  A device seen by more
+ * than one adapter is reported once per deduplication window, along with the signal strength each adapter last
+ * measured for it.
+ * <p>
+ * The Warble library runs one native scan at a time, so started adapters do not scan in parallel; they take turns
+ * at the {@link AdapterScanner#setRotationInterval(long, TimeUnit) rotation interval}.  Each adapter only hears
+ * advertisements during its turn, so adding adapters lowers what each one captures and the merged view sees no more
+ * advertisements per second than a single adapter would.  What merging adds is signal strength from several
+ * positions and coverage of devices only one adapter can reach.
+ * <p>
+ * {@link #onDevice} runs on the native scan thread.  {@link #onDeviceLost} runs on the executor set with
+ * {@link Builder#withCallbackExecutor(Executor)}, never on the library's timer thread.
+ * @see AdapterScanner#onResultReceived(MergedScanView)
+ */
+public class MergedScanView {
+    private static final int MAX_NAME_SIZE = 64;
+    private static final long NOT_SEEN = Long.MIN_VALUE;
+
+    /**
+     * Signal strength of a device as measured by one adapter
+     */
+    public static final class Sighting {
+        /** MAC address of the adapter, null if the system picked it */
+        public final String hci;
+        /** Most recent signal strength */
+        public final int rssi;
+        /** {@link System#nanoTime()} value of the most recent advertisement */
+        public final long lastSeenNanos;
+
+        private Sighting(String hci, int rssi, long lastSeenNanos) {
+            this.hci = hci;
+            this.rssi = rssi;
+            this.lastSeenNanos = lastSeenNanos;
+        }
+    }
+
+    /**
+     * Immutable snapshot of a device in the view
+     */
+    public static final class Device {
+        /** MAC address packed into a long */
+        public final long mac;
+        /** Advertising name */
+        public final String name;
+        /** Adapters that have seen the device, strongest signal first */
+        public final List<Sighting> sightings;
+
+        private Device(long mac, String name, List<Sighting> sightings) {
+            this.mac = mac;
+            this.name = name;
+            this.sightings = sightings;
+        }
+
+        /**
+         * Get the MAC address as a string
+         * @return Upper case, colon separated MAC address
+         */
+        public String getMac() {
+            return MacAddress.toString(mac);
+        }
+
+        /**
+         * Get the adapter with the strongest signal to the device
+         * @return Strongest sighting
+         */
+        public Sighting getStrongest() {
+            return sightings.get(0);
+        }
+    }
+
+    /**
+     * Builder class to construct a {@link MergedScanView} object
+     */
+    public static class Builder {
+        private int expectedDevices = 256;
+        private long windowNanos = TimeUnit.SECONDS.toNanos(1), expireAfterNanos = TimeUnit.SECONDS.toNanos(30);
+        private Executor callbackExecutor = OperationQueue.CALLBACKS;
+
+        /**
+         * Sets how long after reporting a device further advertisements from it, on any adapter, are only recorded.
+         * Defaults to 1 second
+         * @param window Time between reports of the same device
+         * @param unit   Unit of the window value
+         * @return Calling object
+         */
+        public Builder withDeduplicationWindow(long window, TimeUnit unit) {
+            this.windowNanos = unit.toNanos(window);
+            return this;
+        }
+
+        /**
+         * Sets how long a device can go unseen by every adapter before it is removed from the view.  Defaults to 30 seconds
+         * @param timeout Time since the last advertisement
+         * @param unit    Unit of the timeout value
+         * @return Calling object
+         */
+        public Builder withExpiry(long timeout, TimeUnit unit) {
+            this.expireAfterNanos = unit.toNanos(timeout);
+            return this;
+        }
+
+        /**
+         * Sets how many devices the view is initially sized for.  Defaults to 256
+         * @param count Expected number of devices
+         * @return Calling object
+         */
+        public Builder withExpectedDevices(int count) {
+            this.expectedDevices = count;
+            return this;
+        }
+
+        /**
+         * Sets the executor {@link #onDeviceLost} is called on.  Defaults to a single library thread shared with
+         * other periodic reports, so slow handlers should move their work elsewhere
+         * @param executor Executor to call the handler on
+         * @return Calling object
+         */
+        public Builder withCallbackExecutor(Executor executor) {
+            this.callbackExecutor = executor;
+            return this;
+        }
+
+        /**
+         * Build the MergedScanView object
+         * @return MergedScanView object
+         */
+        public MergedScanView build() {
+            return new MergedScanView(this);
+        }
+    }
+
+    private static final class Entry {
+        final long mac;
+        final byte[] name = new byte[MAX_NAME_SIZE];
+        int nameLength;
+        String nameString;
+        long reportedNanos, lastSeenNanos;
+        int[] rssi;
+        long[] seen;
+
+        Entry(long mac, int adapters) {
+            this.mac = mac;
+            rssi = new int[adapters];
+            seen = new long[adapters];
+            Arrays.fill(seen, NOT_SEEN);
+        }
+    }
+
+    /** Handler that listens for devices, called the first time a device is seen and at most once per deduplication window after that */
+    public Consumer<Device> onDevice = (device) -> { };
+    /** Handler that listens for devices removed from the view because no adapter has seen them recently */
+    public Consumer<Device> onDeviceLost = (device) -> { };
+
+    private final long windowNanos, expireAfterNanos;
+    private final Executor callbackExecutor;
+    private final LongIndexMap index;
+    private final ScheduledFuture<?> sweeper;
+    private final List<AdapterScanner> adapters = new ArrayList<>();
+    private final byte[] nameScratch = new byte[MAX_NAME_SIZE];
+
+    private Entry[] entries;
+    private int[] freeSlots;
+    private int used = 0;
+
+    private MergedScanView(Builder builder) {
+        windowNanos = builder.windowNanos;
+        expireAfterNanos = builder.expireAfterNanos;
+        callbackExecutor = builder.callbackExecutor;
+        index = new LongIndexMap(builder.expectedDevices);
+        entries = new Entry[0];
+        freeSlots = new int[0];
+        grow(Math.max(builder.expectedDevices, 16));
+
+        sweeper = expireAfterNanos > 0 ?
+                OperationQueue.TIMER.scheduleWithFixedDelay(OperationQueue.logExceptions("expiring merged scan devices", this::sweep),
+                        expireAfterNanos, Math.max(expireAfterNanos >> 2, 1), TimeUnit.NANOSECONDS) :
+                null;
+    }
+
+    private void grow(int newCapacity) {
+        final int oldCapacity = entries.length;
+        entries = Arrays.copyOf(entries, newCapacity);
+
+        final int[] free = new int[newCapacity];
+        int count = 0;
+        for (int i = newCapacity - 1; i >= oldCapacity; i--) {
+            free[count++] = i;
+        }
+        System.arraycopy(freeSlots, 0, free, count, oldCapacity - used);
+        freeSlots = free;
+    }
+
+    private int adapterIndex(AdapterScanner source) {
+        for (int i = 0; i < adapters.size(); i++) {
+            if (adapters.get(i) == source) {
+                return i;
+            }
+        }
+        adapters.add(source);
+        return adapters.size() - 1;
+    }
+
+    private boolean sameName(Entry entry, int nameLength) {
+        if (entry.nameLength != nameLength) {
+            return false;
+        }
+        for (int i = 0; i < nameLength; i++) {
+            if (entry.name[i] != nameScratch[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Device snapshot(Entry entry) {
+        if (entry.nameString == null) {
+            entry.nameString = new String(entry.name, 0, entry.nameLength, StandardCharsets.US_ASCII);
+        }
+
+        final List<Sighting> sightings = new ArrayList<>(entry.seen.length);
+        for (int i = 0; i < entry.seen.length; i++) {
+            if (entry.seen[i] != NOT_SEEN) {
+                sightings.add(new Sighting(adapters.get(i).hci, entry.rssi[i], entry.seen[i]));
+            }
+        }
+        sightings.sort((a, b) -> Integer.compare(b.rssi, a.rssi));
+        return new Device(entry.mac, entry.nameString, Collections.unmodifiableList(sightings));
+    }
+
+    // Called from the native scan thread for every advertisement
+    void accept(AdapterScanner source, Pointer result) {
+        final long mac = ScanRecord.mac(result);
+        if (mac == MacAddress.INVALID) {
+            return;
+        }
+
+        final long now = System.nanoTime();
+        final int sample = ScanRecord.rssi(result);
+        final Device report;
+
+        synchronized (this) {
+            final int nameLength = ScanRecord.name(result, nameScratch);
+            final int adapter = adapterIndex(source);
+            final boolean added;
+
+            int slot = index.get(mac);
+            Entry entry;
+            if (slot < 0) {
+                if (used == entries.length) {
+                    grow(entries.length << 1);
+                }
+                slot = freeSlots[entries.length - used - 1];
+                used++;
+                index.put(mac, slot);
+                entry = entries[slot] = new Entry(mac, adapters.size());
+                added = true;
+            } else {
+                entry = entries[slot];
+                added = false;
+            }
+
+            if (adapter >= entry.seen.length) {
+                final int oldLength = entry.seen.length;
+                entry.rssi = Arrays.copyOf(entry.rssi, adapters.size());
+                entry.seen = Arrays.copyOf(entry.seen, adapters.size());
+                Arrays.fill(entry.seen, oldLength, entry.seen.length, NOT_SEEN);
+            }
+            entry.rssi[adapter] = sample;
+            entry.seen[adapter] = entry.lastSeenNanos = now;
+
+            if (!sameName(entry, nameLength)) {
+                System.arraycopy(nameScratch, 0, entry.name, 0, nameLength);
+                entry.nameLength = nameLength;
+                entry.nameString = null;
+            }
+
+            if (added || now - entry.reportedNanos >= windowNanos) {
+                entry.reportedNanos = now;
+                report = snapshot(entry);
+            } else {
+                report = null;
+            }
+        }
+
+        if (report != null) {
+            onDevice.accept(report);
+        }
+    }
+
+    private void sweep() {
+        final List<Device> lost = new ArrayList<>();
+        final long now = System.nanoTime();
+
+        synchronized (this) {
+            for (int slot = 0; slot < entries.length; slot++) {
+                final Entry entry = entries[slot];
+                if (entry != null && now - entry.lastSeenNanos > expireAfterNanos) {
+                    lost.add(snapshot(entry));
+                    index.remove(entry.mac);
+                    entries[slot] = null;
+                    used--;
+                    freeSlots[entries.length - used - 1] = slot;
+                }
+            }
+        }
+
+        if (!lost.isEmpty()) {
+            final Consumer<Device> handler = onDeviceLost;
+            callbackExecutor.execute(() -> {
+                for (Device device : lost) {
+                    OperationQueue.logExceptions("calling a merged scan handler", () -> handler.accept(device)).run();
+                }
+            });
+        }
+    }
+
+    /**
+     * Get the number of devices in the view
+     * @return View size
+     */
+    public synchronized int size() {
+        return used;
+    }
+
+    /**
+     * Looks up a device in the view
+     * @param mac MAC address packed into a long
+     * @return Snapshot of the device, null if it is not in the view
+     * @see MacAddress#pack(String)
+     */
+    public synchronized Device get(long mac) {
+        final int slot = index.get(mac);
+        return slot < 0 ? null : snapshot(entries[slot]);
+    }
+
+    /**
+     * Looks up a device in the view
+     * @param mac MAC address as a hex string
+     * @return Snapshot of the device, null if it is not in the view
+     */
+    public Device get(String mac) {
+        return get(MacAddress.pack(mac));
+    }
+
+    /**
+     * Get a snapshot of every device in the view
+     * @return List of devices
+     */
+    public synchronized List<Device> devices() {
+        final List<Device> devices = new ArrayList<>(used);
+        for (Entry entry : entries) {
+            if (entry != null) {
+                devices.add(snapshot(entry));
+            }
+        }
+        return devices;
+    }
+
+    /**
+     * Stops removing expired devices from the view
+     */
+    public void stop() {
+        if (sweeper != null) {
+            sweeper.cancel(false);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Helpers shared by {@link GattMetrics} and {@link ScannerMetrics}
+ */
+final class Metrics {
+    static final String JMX_DOMAIN = "com.mbientlab.warble";
+
+    private Metrics() {
+    }
+
+    static void count(ConcurrentHashMap<String, LongAdder> counters, String key) {
+        final String name = key == null ? "" : key;
+        LongAdder counter = counters.get(name);
+        if (counter == null) {
+            counter = counters.computeIfAbsent(name, ignored -> new LongAdder());
+        }
+        counter.increment();
+    }
+
+    static Map<String, Long> copy(ConcurrentHashMap<String, LongAdder> counters) {
+        final Map<String, Long> copy = new TreeMap<>();
+        counters.forEach((key, counter) -> copy.put(key, counter.sum()));
+        return Collections.unmodifiableMap(copy);
+    }
+
+    static void summarize(Map<String, Double> summary, String prefix, LatencyHistogram.Snapshot snapshot) {
+        summary.put(prefix + ".count", (double) snapshot.getCount());
+        summary.put(prefix + ".mean", snapshot.getMean(TimeUnit.MICROSECONDS));
+        summary.put(prefix + ".p50", (double) snapshot.getPercentile(50, TimeUnit.MICROSECONDS));
+        summary.put(prefix + ".p99", (double) snapshot.getPercentile(99, TimeUnit.MICROSECONDS));
+        summary.put(prefix + ".max", (double) snapshot.getMax(TimeUnit.MICROSECONDS));
+    }
+
+    static double rate(long current, long previous, long elapsedNanos) {
+        return elapsedNanos <= 0 ? 0 : (current - previous) * 1e9 / elapsedNanos;
+    }
+
+    static ObjectName register(Object mbean, String properties) {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName(JMX_DOMAIN + ":" + properties);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(mbean, name);
+            return name;
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not register metrics with the platform MBean server", e);
+        }
+    }
+
+    static void unregister(String properties) {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName(JMX_DOMAIN + ":" + properties);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not unregister metrics from the platform MBean server", e);
+        }
+    }
+}
@@ -25,6 +25,7 @@ package com.mbientlab.warble;
 
 import jnr.ffi.annotations.Delegate;
 import jnr.ffi.annotations.Encoding;
+import jnr.ffi.annotations.In;
 import jnr.ffi.Pointer;
 import jnr.ffi.Runtime;
 import jnr.ffi.Struct;
@@ -45,7 +46,7 @@ public interface Native {
     }
 
     final class ScanResult extends Struct {
-        final AsciiStringRef mac = new AsciiStringRef(12),
+        final AsciiStringRef mac = new AsciiStringRef(17),
             name = new AsciiStringRef(24);
         final Signed32 rssi = new Signed32();
         public final Pointer private_data = new Pointer();
@@ -104,7 +105,9 @@ public interface Native {
     void warble_scanner_set_handler(Pointer context, FnVoid_VoidP_WarbleScanResultP handler);
 
     ScanManufacturerData warble_scan_result_get_manufacturer_data(ScanResult result, @u_int16_t short companyId);
+    Pointer warble_scan_result_get_manufacturer_data(Pointer result, @u_int16_t short companyId);
     int warble_scan_result_has_service_uuid(ScanResult result, @Encoding("US-ASCII") String uuid);
+    int warble_scan_result_has_service_uuid(Pointer result, @In byte[] uuid);
 
     void warble_gatt_connect_async(Pointer gatt, Pointer context, FnVoid_IntPtr_WarbleGattP_CharP handler);
     void warble_gatt_disconnect(Pointer gatt);
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs cleanup actions for objects that became unreachable without being closed, a Java 8 stand-in for
+ * <code>java.lang.ref.Cleaner</code>.  Actions run on a single daemon thread and must not reference the object
+ * they clean up after.
+ */
+final class NativeCleaner {
+    /** Set to true to record where each native resource was created so leaks can be traced back */
+    static final String PROPERTY_LEAK_DETECTION = "warble.leakDetection";
+    static final boolean LEAK_DETECTION = Boolean.getBoolean(PROPERTY_LEAK_DETECTION);
+    static final Logger LOGGER = Logger.getLogger("com.mbientlab.warble");
+
+    /**
+     * Registered cleanup action
+     */
+    static final class Cleanable extends PhantomReference<Object> {
+        private final Runnable action;
+
+        private Cleanable(Object referent, Runnable action) {
+            super(referent, QUEUE);
+            this.action = action;
+        }
+
+        /**
+         * Runs the action if it has not run yet and unregisters it
+         */
+        void clean() {
+            if (PENDING.remove(this)) {
+                clear();
+                action.run();
+            }
+        }
+    }
+
+    private static final ReferenceQueue<Object> QUEUE = new ReferenceQueue<>();
+    // keeps the phantom references reachable until they are cleaned
+    private static final Set<Cleanable> PENDING = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+    static {
+        final Thread reaper = new Thread(() -> {
+            while (true) {
+                try {
+                    final Reference<?> ref = QUEUE.remove();
+                    ((Cleanable) ref).clean();
+                } catch (InterruptedException ignored) {
+                } catch (Throwable e) {
+                    // an Error must not kill the reaper, every later cleanup would be skipped
+                    LOGGER.log(Level.WARNING, "Cleanup action failed", e);
+                }
+            }
+        }, "warble-cleaner");
+        reaper.setDaemon(true);
+        reaper.start();
+    }
+
+    private NativeCleaner() {
+    }
+
+    /**
+     * Registers an action to run once <code>referent</code> becomes phantom reachable
+     * @param referent Object to monitor
+     * @param action   Cleanup action, must not reference <code>referent</code>
+     * @return Handle to run the action early
+     */
+    static Cleanable register(Object referent, Runnable action) {
+        final Cleanable cleanable = new Cleanable(referent, action);
+        PENDING.add(cleanable);
+        return cleanable;
+    }
+
+    /**
+     * Captures the current stack if leak detection is enabled
+     * @param resource Description of the resource being created
+     * @return Creation site, null if leak detection is disabled
+     */
+    static Throwable creationSite(String resource) {
+        return LEAK_DETECTION ? new Throwable(resource + " created here") : null;
+    }
+
+    static void reportLeak(String resource, Throwable creationSite) {
+        if (creationSite == null) {
+            LOGGER.warning(resource + " was not closed before being garbage collected, set -D" + PROPERTY_LEAK_DETECTION +
+                    "=true to record where it was created");
+        } else {
+            LOGGER.log(Level.WARNING, resource + " was not closed before being garbage collected", creationSite);
+        }
+    }
+}
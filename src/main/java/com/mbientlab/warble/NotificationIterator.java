@@ -0,0 +1,185 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import jnr.ffi.Pointer;
+
+/**
+ * Blocking view of a characteristic's notifications for thread-per-device code.  Notifications are copied into a
+ * fixed size ring as they arrive and handed to the one thread calling {@link #next(long, TimeUnit)}, which parks
+ * while the ring is empty.  Nothing blocks on a monitor, so virtual threads release their carrier while waiting.
+ * Notifications that arrive while the ring is full are dropped and counted.
+ * @see GattCharacteristic#notificationIterator(int)
+ */
+public final class NotificationIterator implements AutoCloseable {
+    private final GattCharacteristic source;
+    private final byte[][] slots;
+    private final int mask;
+    // head is only written by the consumer, tail only by the native event thread
+    private final AtomicLong head = new AtomicLong(), tail = new AtomicLong(), dropped = new AtomicLong();
+    private volatile Thread waiter = null;
+    private volatile boolean closed = false;
+
+    NotificationIterator(GattCharacteristic source, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.source = source;
+        this.slots = new byte[size][];
+        this.mask = size - 1;
+    }
+
+    // Called from the native event thread
+    void offer(Pointer value, int size) {
+        final long t = tail.get();
+        if (t - head.get() == slots.length) {
+            dropped.incrementAndGet();
+            return;
+        }
+
+        slots[(int) t & mask] = GattCharacteristic.copyValue(value, size);
+        // volatile write before reading the waiter, pairs with the consumer publishing itself before re-checking
+        tail.set(t + 1);
+        wake();
+    }
+
+    private void wake() {
+        final Thread current = waiter;
+        if (current != null) {
+            LockSupport.unpark(current);
+        }
+    }
+
+    private byte[] poll() {
+        final long h = head.get();
+        if (h == tail.get()) {
+            return null;
+        }
+
+        final int index = (int) h & mask;
+        final byte[] value = slots[index];
+        slots[index] = null;
+        head.lazySet(h + 1);
+        return value;
+    }
+
+    /**
+     * Waits for the next notification
+     * @param timeout How long to wait
+     * @param unit    Unit of the timeout value
+     * @return Notification value, null if the timeout elapsed or the iterator was closed
+     * @throws InterruptedException If the thread is interrupted while waiting
+     * @throws IllegalStateException If called from the native event thread, which delivers the notifications
+     */
+    public byte[] next(long timeout, TimeUnit unit) throws InterruptedException {
+        // notifications are offered straight from the event thread, whatever the device's callback executor
+        Blocking.checkCaller(null);
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (true) {
+            final byte[] value = poll();
+            if (value != null || closed) {
+                return value;
+            }
+
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return null;
+            }
+
+            waiter = Thread.currentThread();
+            if (head.get() == tail.get() && !closed) {
+                LockSupport.parkNanos(this, remaining);
+            }
+            waiter = null;
+
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    /**
+     * Waits for the next notification with no timeout
+     * @return Notification value, null if the iterator was closed
+     * @throws InterruptedException If the thread is interrupted while waiting
+     * @throws IllegalStateException If called from the native event thread, which delivers the notifications
+     */
+    public byte[] next() throws InterruptedException {
+        Blocking.checkCaller(null);
+        while (true) {
+            final byte[] value = poll();
+            if (value != null || closed) {
+                return value;
+            }
+
+            waiter = Thread.currentThread();
+            if (head.get() == tail.get() && !closed) {
+                LockSupport.park(this);
+            }
+            waiter = null;
+
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    /**
+     * Get the number of notifications waiting to be taken
+     * @return Buffered notification count
+     */
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    /**
+     * Get the number of notifications dropped because the ring was full
+     * @return Dropped notification count
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Stops receiving notifications.  Buffered notifications can still be taken, after which {@link #next()}
+     * returns null instead of waiting
+     */
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            source.release(this);
+            wake();
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import jnr.ffi.Pointer;
+
+/**
+ * Preallocated single producer ring buffer that moves characteristic notifications off the native event thread.
+ * The native thread copies each payload into a free slot and publishes it; queued notifications are then
+ * forwarded to the characteristic's handlers by a task running on the configured executor.
+ */
+public class NotificationQueue {
+    private static final long BLOCK_PARK_NANOS = 50_000L;
+
+    private final GattCharacteristic owner;
+    private final Executor executor;
+    private final OverflowPolicy policy;
+    private final int mask;
+    private final byte[][] slots;
+    private final int[] sizes;
+    private final long[] nanoTimes, wallClockTimes;
+    private final byte[] drainScratch;
+    private final Notification drainNotification;
+    private final AtomicLong head = new AtomicLong(), tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong(), delivered = new AtomicLong();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final Runnable drainTask = this::drain;
+    private volatile boolean overflowed = false;
+
+    /** Number of notifications the queue can hold */
+    public final int capacity;
+
+    NotificationQueue(GattCharacteristic owner, Executor executor, int capacity, OverflowPolicy policy, int maxValueSize) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Queue capacity must be positive");
+        }
+
+        this.owner = owner;
+        this.executor = executor;
+        this.policy = policy;
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+
+        this.capacity = size;
+        this.mask = this.capacity - 1;
+        this.slots = new byte[this.capacity][maxValueSize];
+        this.sizes = new int[this.capacity];
+        this.nanoTimes = new long[this.capacity];
+        this.wallClockTimes = new long[this.capacity];
+        this.drainScratch = new byte[maxValueSize];
+        this.drainNotification = new Notification(ByteBuffer.wrap(drainScratch).asReadOnlyBuffer());
+    }
+
+    /**
+     * Get the number of notifications waiting to be delivered
+     * @return Current queue depth
+     */
+    public int getDepth() {
+        return (int) (tail.get() - head.get());
+    }
+
+    /**
+     * Get the number of notifications discarded by the overflow policy
+     * @return Total dropped notifications
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Get the number of notifications forwarded to the handlers
+     * @return Total delivered notifications
+     */
+    public long getDelivered() {
+        return delivered.get();
+    }
+
+    /**
+     * Get the policy used when the queue is full
+     * @return Overflow policy
+     */
+    public OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+    // Only called from the native event thread
+    void offer(Pointer value, int size, long nanoTime, long wallClockMillis) {
+        final long t = tail.get();
+
+        if (overflowed) {
+            if (t != head.get()) {
+                dropped.incrementAndGet();
+                return;
+            }
+            overflowed = false;
+        }
+
+        while (t - head.get() >= capacity) {
+            switch (policy) {
+                case BLOCK:
+                    LockSupport.parkNanos(BLOCK_PARK_NANOS);
+                    break;
+                case DROP_OLDEST:
+                    final long h = head.get();
+                    if (t - h >= capacity && head.compareAndSet(h, h + 1)) {
+                        dropped.incrementAndGet();
+                    }
+                    break;
+                case COUNT_AND_DROP:
+                    overflowed = true;
+                    dropped.incrementAndGet();
+                    return;
+                default:
+                    dropped.incrementAndGet();
+                    return;
+            }
+        }
+
+        final int index = (int) (t & mask);
+        value.get(0, slots[index], 0, size);
+        sizes[index] = size;
+        nanoTimes[index] = nanoTime;
+        wallClockTimes[index] = wallClockMillis;
+        tail.lazySet(t + 1);
+
+        if (scheduled.compareAndSet(false, true)) {
+            executor.execute(drainTask);
+        }
+    }
+
+    private void drain() {
+        final Object previous = Blocking.enter(executor);
+        try {
+            drainBatch();
+        } finally {
+            Blocking.exit(previous);
+        }
+    }
+
+    private void drainBatch() {
+        int budget = capacity;
+
+        while (true) {
+            final long h = head.get();
+            if (h == tail.get()) {
+                scheduled.set(false);
+                // producer may have published between the empty check and clearing the flag
+                if (h == tail.get() || !scheduled.compareAndSet(false, true)) {
+                    return;
+                }
+                continue;
+            }
+
+            final int index = (int) (h & mask), size = sizes[index];
+            final long nanoTime = nanoTimes[index], wallClockMillis = wallClockTimes[index];
+            System.arraycopy(slots[index], 0, drainScratch, 0, size);
+            // the copy is only valid if the producer did not evict the slot while it was being read
+            if (!head.compareAndSet(h, h + 1)) {
+                continue;
+            }
+
+            delivered.incrementAndGet();
+            drainNotification.value.clear();
+            drainNotification.value.limit(size);
+            drainNotification.nanoTime = nanoTime;
+            drainNotification.wallClockMillis = wallClockMillis;
+            try {
+                owner.dispatchNotification(drainScratch, size, drainNotification);
+            } catch (RuntimeException | Error e) {
+                executor.execute(drainTask);
+                throw e;
+            }
+
+            if (--budget == 0) {
+                // let other queues sharing the executor have a turn
+                executor.execute(drainTask);
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,373 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+
+/**
+ * Serializes GATT operations for a {@link Gatt} connection.  BLE stacks only allow one outstanding request per
+ * connection so reads, writes, and notification changes wait here until the previous operation finishes.
+ * Higher priority lanes are always served first and operations that exceed their deadline fail with a timeout.
+ */
+public class OperationQueue {
+    /**
+     * Queue lanes, operations in a higher lane overtake everything waiting in the lower lanes
+     */
+    public enum Priority {
+        /** Control plane traffic that should not wait behind bulk transfers */
+        HIGH,
+        /** Default lane */
+        NORMAL,
+        /** Bulk or background traffic */
+        LOW
+    }
+
+    static final ScheduledExecutorService TIMER;
+    static {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "warble-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+        TIMER = timer;
+    }
+
+    // runs handlers for periodic work scheduled on TIMER so user code can neither stall nor cancel the timer
+    static final ExecutorService CALLBACKS = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "warble-callbacks");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Wraps a periodic task so an exception is logged instead of silently cancelling the schedule
+     * @param description What the task does, used in the log message
+     * @param task        Task to wrap
+     * @return Task that never throws
+     */
+    static Runnable logExceptions(String description, Runnable task) {
+        return () -> {
+            try {
+                task.run();
+            } catch (RuntimeException | Error e) {
+                NativeCleaner.LOGGER.log(Level.WARNING, "Uncaught exception while " + description, e);
+            }
+        };
+    }
+
+    /**
+     * A queued GATT request
+     */
+    abstract static class Operation {
+        final CompletableFuture<?> task;
+        final GattMetrics.Kind kind;
+        final Priority priority;
+        final long timeoutNanos;
+        long enqueuedAt, startedAt;
+        ScheduledFuture<?> deadline;
+        // set under the queue lock once the operation is expired or failed, start() is skipped if it has not run yet
+        volatile boolean abandoned;
+
+        Operation(CompletableFuture<?> task, GattMetrics.Kind kind, Priority priority, long timeoutNanos) {
+            this.task = task;
+            this.kind = kind;
+            this.priority = priority;
+            this.timeoutNanos = timeoutNanos;
+        }
+
+        /** Issues the native request, called holding the operation's monitor */
+        abstract void start();
+        /** Stops tracking a request that will not complete normally, called holding the operation's monitor */
+        abstract void abandon();
+    }
+
+    private final Gatt owner;
+    private final ArrayDeque<Operation>[] lanes;
+    private Operation active = null;
+
+    private long completed = 0, timedOut = 0, failed = 0;
+    private long totalQueueWaitNanos = 0, maxQueueWaitNanos = 0, totalOnAirNanos = 0, maxOnAirNanos = 0;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    OperationQueue(Gatt owner) {
+        this.owner = owner;
+        this.lanes = new ArrayDeque[Priority.values().length];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new ArrayDeque<>();
+        }
+    }
+
+    void submit(Operation op) {
+        synchronized (this) {
+            op.enqueuedAt = System.nanoTime();
+            lanes[op.priority.ordinal()].addLast(op);
+            if (op.timeoutNanos > 0) {
+                op.deadline = TIMER.schedule(() -> expire(op), op.timeoutNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+        startNext();
+    }
+
+    /**
+     * Signals that the native request for a task has completed
+     * @param task Task passed to the completed operation
+     */
+    void finish(CompletableFuture<?> task) {
+        synchronized (this) {
+            if (active == null || active.task != task) {
+                return;
+            }
+
+            final long onAir = System.nanoTime() - active.startedAt;
+            totalOnAirNanos += onAir;
+            maxOnAirNanos = Math.max(maxOnAirNanos, onAir);
+            completed++;
+            if (owner.metrics != null) {
+                owner.metrics.recordLatency(active.kind, onAir);
+            }
+
+            if (active.deadline != null) {
+                active.deadline.cancel(false);
+            }
+            active = null;
+        }
+        startNext();
+    }
+
+    /**
+     * Fails the active operation and everything waiting in the queue
+     * @param type  Cause the errors are counted under
+     * @param error Supplies the exception to complete each task with
+     */
+    void failAll(GattMetrics.ErrorType type, Supplier<RuntimeException> error) {
+        final List<Operation> dropped = new ArrayList<>();
+        synchronized (this) {
+            if (active != null) {
+                dropped.add(active);
+                active = null;
+            }
+            for (ArrayDeque<Operation> lane : lanes) {
+                dropped.addAll(lane);
+                lane.clear();
+            }
+            for (Operation op : dropped) {
+                op.abandoned = true;
+            }
+            failed += dropped.size();
+        }
+
+        for (Operation op : dropped) {
+            if (op.deadline != null) {
+                op.deadline.cancel(false);
+            }
+            synchronized (op) {
+                op.abandon();
+            }
+
+            final RuntimeException e = error.get();
+            if (owner.metrics != null) {
+                owner.metrics.recordError(type, e);
+            }
+            owner.dispatch(() -> op.task.completeExceptionally(e));
+        }
+    }
+
+    private void expire(Operation op) {
+        synchronized (this) {
+            if (active == op) {
+                active = null;
+            } else if (!lanes[op.priority.ordinal()].remove(op)) {
+                return;
+            }
+            op.abandoned = true;
+            timedOut++;
+        }
+
+        synchronized (op) {
+            op.abandon();
+        }
+
+        final GattCharacteristicException e = new GattCharacteristicException("Operation timed out");
+        if (owner.metrics != null) {
+            owner.metrics.recordError(GattMetrics.ErrorType.TIMEOUT, e);
+        }
+        owner.dispatch(() -> op.task.completeExceptionally(e));
+        startNext();
+    }
+
+    private void startNext() {
+        final Operation next;
+        synchronized (this) {
+            if (active != null) {
+                return;
+            }
+
+            Operation op = null;
+            for (int i = 0; i < lanes.length && op == null; i++) {
+                // skip tasks the caller already cancelled
+                while ((op = lanes[i].pollFirst()) != null && op.task.isDone()) {
+                    if (op.deadline != null) {
+                        op.deadline.cancel(false);
+                    }
+                }
+            }
+            if (op == null) {
+                return;
+            }
+
+            op.startedAt = System.nanoTime();
+            final long wait = op.startedAt - op.enqueuedAt;
+            totalQueueWaitNanos += wait;
+            maxQueueWaitNanos = Math.max(maxQueueWaitNanos, wait);
+            if (owner.metrics != null) {
+                owner.metrics.recordQueueWait(wait);
+            }
+
+            active = next = op;
+        }
+        issue(next);
+    }
+
+    private void issue(Operation op) {
+        RuntimeException error = null;
+        synchronized (op) {
+            // expire() or failAll() can claim the operation between startNext releasing the lock and getting here
+            if (op.abandoned) {
+                return;
+            }
+            try {
+                op.start();
+            } catch (RuntimeException e) {
+                op.abandon();
+                error = e;
+            }
+        }
+        if (error == null) {
+            return;
+        }
+
+        synchronized (this) {
+            if (active != op) {
+                return;
+            }
+            active = null;
+            op.abandoned = true;
+            failed++;
+        }
+        if (op.deadline != null) {
+            op.deadline.cancel(false);
+        }
+
+        final RuntimeException e = error;
+        if (owner.metrics != null) {
+            owner.metrics.recordError(GattMetrics.ErrorType.NATIVE, e);
+        }
+        owner.dispatch(() -> op.task.completeExceptionally(e));
+        startNext();
+    }
+
+    /**
+     * Get the number of operations waiting to be issued, excluding the active one
+     * @return Current queue depth
+     */
+    public synchronized int getQueuedCount() {
+        int count = 0;
+        for (ArrayDeque<Operation> lane : lanes) {
+            count += lane.size();
+        }
+        return count;
+    }
+
+    /**
+     * Get the number of operations that received a response from the remote device
+     * @return Total completed operations
+     */
+    public synchronized long getCompletedCount() {
+        return completed;
+    }
+
+    /**
+     * Get the number of operations that exceeded their deadline
+     * @return Total timed out operations
+     */
+    public synchronized long getTimedOutCount() {
+        return timedOut;
+    }
+
+    /**
+     * Get the number of operations failed because the connection was lost or the native request could not be issued
+     * @return Total failed operations
+     */
+    public synchronized long getFailedCount() {
+        return failed;
+    }
+
+    /**
+     * Get the time operations spent waiting in the queue before being issued
+     * @param unit Unit to express the time in
+     * @return Sum of all queue wait times
+     */
+    public synchronized long getTotalQueueWait(TimeUnit unit) {
+        return unit.convert(totalQueueWaitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Get the longest time an operation spent waiting in the queue
+     * @param unit Unit to express the time in
+     * @return Maximum queue wait time
+     */
+    public synchronized long getMaxQueueWait(TimeUnit unit) {
+        return unit.convert(maxQueueWaitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Get the time completed operations spent between being issued and receiving a response
+     * @param unit Unit to express the time in
+     * @return Sum of all on-air times
+     */
+    public synchronized long getTotalOnAirTime(TimeUnit unit) {
+        return unit.convert(totalOnAirNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Get the longest time a completed operation spent between being issued and receiving a response
+     * @param unit Unit to express the time in
+     * @return Maximum on-air time
+     */
+    public synchronized long getMaxOnAirTime(TimeUnit unit) {
+        return unit.convert(maxOnAirNanos, TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import jnr.ffi.Pointer;
+import jnr.ffi.Runtime;
+
+/**
+ * Correlates in-flight asynchronous tasks with the context pointer passed to the C library.
+ * Each task is keyed by a unique id that is handed to native code as the <code>context</code> argument of a
+ * long-lived callback, so issuing a task does not require creating a new native closure.
+ */
+final class PendingTasks<T> {
+    private static final int INITIAL_CAPACITY = 16;
+    // context pointers are opaque ids that are never dereferenced, any runtime can wrap them
+    private static final Runtime RUNTIME = Runtime.getSystemRuntime();
+
+    private long nextId = 1;
+    private long[] keys = new long[INITIAL_CAPACITY];
+    private Object[] values = new Object[INITIAL_CAPACITY];
+    private int size = 0;
+
+    private static int indexOf(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    /**
+     * Adds a task to the table
+     * @param task Task to track
+     * @return Context pointer identifying the task
+     */
+    Pointer register(T task) {
+        final long id;
+        synchronized (this) {
+            id = nextId++;
+            if (nextId == 0) {
+                nextId = 1;
+            }
+
+            if ((size + 1) << 1 > keys.length) {
+                resize(keys.length << 1);
+            }
+            insert(id, task);
+            size++;
+        }
+        return Pointer.wrap(RUNTIME, id);
+    }
+
+    /**
+     * Removes the task associated with the context pointer
+     * @param context Context pointer received from the C library
+     * @return Task identified by the context, null if it was already removed
+     */
+    @SuppressWarnings("unchecked")
+    synchronized T remove(Pointer context) {
+        if (context == null) {
+            return null;
+        }
+
+        final long key = context.address();
+        final int mask = keys.length - 1;
+        int i = indexOf(key, mask);
+        while (keys[i] != 0) {
+            if (keys[i] == key) {
+                final T task = (T) values[i];
+                shiftDown(i, mask);
+                size--;
+                return task;
+            }
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Removes all tasks from the table
+     * @return Tasks that were in the table
+     */
+    @SuppressWarnings("unchecked")
+    synchronized List<T> clear() {
+        final List<T> tasks = new ArrayList<>(size);
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0) {
+                tasks.add((T) values[i]);
+                keys[i] = 0;
+                values[i] = null;
+            }
+        }
+        size = 0;
+        return tasks;
+    }
+
+    /**
+     * Get the number of tasks in the table
+     * @return Number of in-flight tasks
+     */
+    synchronized int size() {
+        return size;
+    }
+
+    private void insert(long key, Object value) {
+        final int mask = keys.length - 1;
+        int i = indexOf(key, mask);
+        while (keys[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+    }
+
+    // backward shift deletion keeps probe sequences intact without tombstones
+    private void shiftDown(int hole, int mask) {
+        int i = hole;
+        while (true) {
+            i = (i + 1) & mask;
+            if (keys[i] == 0) {
+                break;
+            }
+
+            final int home = indexOf(keys[i], mask);
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                keys[hole] = keys[i];
+                values[hole] = values[i];
+                hole = i;
+            }
+        }
+        keys[hole] = 0;
+        values[hole] = null;
+    }
+
+    private void resize(int capacity) {
+        final long[] oldKeys = keys;
+        final Object[] oldValues = values;
+
+        keys = new long[capacity];
+        values = new Object[capacity];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                insert(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,418 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Periodically reads characteristics across many devices from one hashed timing wheel, instead of a timer task per
+ * device.  Polls sharing an interval are spread evenly over it, a poll is skipped while its previous read is still
+ * outstanding, and every interval is stretched while reads are slow, then eased back once the radio recovers.
+ * Results are handed over in batches on a callback executor, so the handler never runs on the library's timer thread.
+ */
+public final class PollScheduler {
+    // golden ratio conjugate, successive multiples mod 1 spread phases evenly without clustering
+    private static final double PHASE_STEP = 0.6180339887498949;
+
+    /**
+     * Outcome of one read
+     */
+    public static final class PollResult {
+        /** Characteristic that was read */
+        public final GattCharacteristic characteristic;
+        /** Value read, null if the read failed */
+        public final byte[] value;
+        /** Reason the read failed, null if it succeeded */
+        public final Throwable error;
+        /** {@link System#nanoTime()} value when the read completed */
+        public final long completedNanos;
+        /** Time from issuing the read to its completion, in nanoseconds */
+        public final long latencyNanos;
+        /** Number of deadlines skipped since the previous result because this read was still outstanding */
+        public final int missed;
+
+        private PollResult(GattCharacteristic characteristic, byte[] value, Throwable error, long completedNanos, long latencyNanos, int missed) {
+            this.characteristic = characteristic;
+            this.value = value;
+            this.error = error;
+            this.completedNanos = completedNanos;
+            this.latencyNanos = latencyNanos;
+            this.missed = missed;
+        }
+    }
+
+    /**
+     * Builder class to construct a {@link PollScheduler} object
+     */
+    public static class Builder {
+        private long tickNanos = TimeUnit.MILLISECONDS.toNanos(10), batchIntervalNanos = TimeUnit.SECONDS.toNanos(1),
+                congestionNanos = TimeUnit.MILLISECONDS.toNanos(500);
+        private int wheelSize = 512, batchSize = 256;
+        private double maxStretch = 4.0;
+        private Executor executor = OperationQueue.CALLBACKS;
+
+        /**
+         * Sets the wheel's resolution and number of buckets.  Defaults to 512 buckets of 10ms
+         * @param tick Time each bucket covers, polls fire up to one tick late
+         * @param unit Unit of the tick
+         * @param size Number of buckets, rounded up to a power of 2
+         * @return Calling object
+         */
+        public Builder withWheel(long tick, TimeUnit unit, int size) {
+            this.tickNanos = unit.toNanos(tick);
+            this.wheelSize = size;
+            return this;
+        }
+
+        /**
+         * Sets when results are handed to {@link #onResults}, whichever limit is reached first.
+         * Defaults to 256 results or 1 second
+         * @param size     Number of results per batch
+         * @param interval Longest time a result waits in a partial batch
+         * @param unit     Unit of the interval
+         * @return Calling object
+         */
+        public Builder withBatching(int size, long interval, TimeUnit unit) {
+            this.batchSize = size;
+            this.batchIntervalNanos = unit.toNanos(interval);
+            return this;
+        }
+
+        /**
+         * Sets when the radio is considered congested.  Each slow read stretches every interval by
+         * half, up to the limit; each timely read shrinks the stretch by 2% back toward the configured intervals.
+         * Defaults to reads slower than 500ms and a limit of 4 times the configured intervals
+         * @param latency    Read latency above which a read counts as congested
+         * @param unit       Unit of the latency
+         * @param maxStretch Largest multiple of the configured intervals to stretch to, 1 to disable
+         * @return Calling object
+         */
+        public Builder withCongestionControl(long latency, TimeUnit unit, double maxStretch) {
+            this.congestionNanos = unit.toNanos(latency);
+            this.maxStretch = maxStretch;
+            return this;
+        }
+
+        /**
+         * Sets the executor that runs {@link #onResults}.  Defaults to a single library thread shared with other
+         * periodic reports, so slow handlers should move their work elsewhere
+         * @param executor Executor to run the handler on
+         * @return Calling object
+         */
+        public Builder withCallbackExecutor(Executor executor) {
+            if (executor == null) {
+                throw new IllegalArgumentException("Callback executor cannot be null");
+            }
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Create the scheduler and start its wheel
+         * @return Scheduler object
+         * @throws IllegalArgumentException If a value is out of range
+         */
+        public PollScheduler build() {
+            if (tickNanos <= 0 || wheelSize <= 0 || wheelSize > (1 << 20)) {
+                throw new IllegalArgumentException("Tick must be positive and the wheel size between [1, 1048576]");
+            }
+            if (batchSize <= 0 || batchIntervalNanos <= 0) {
+                throw new IllegalArgumentException("Batch size and interval must be positive");
+            }
+            if (maxStretch < 1) {
+                throw new IllegalArgumentException("Stretch limit must be at least 1");
+            }
+            return new PollScheduler(this);
+        }
+    }
+
+    /**
+     * Handle to a characteristic being polled
+     */
+    public final class Poll {
+        /** Characteristic being read */
+        public final GattCharacteristic characteristic;
+        private final long intervalNanos, timeoutNanos;
+        private final AtomicInteger missedSinceResult = new AtomicInteger();
+        private final AtomicLong completed = new AtomicLong(), missed = new AtomicLong();
+        private volatile boolean outstanding = false, cancelled = false;
+        // wheel thread only
+        private long deadlineTick;
+
+        private Poll(GattCharacteristic characteristic, long intervalNanos) {
+            this.characteristic = characteristic;
+            this.intervalNanos = intervalNanos;
+            // a read still running after this long cannot produce a useful sample
+            this.timeoutNanos = Math.max(intervalNanos, TimeUnit.SECONDS.toNanos(1)) * 4;
+        }
+
+        /**
+         * Stops polling the characteristic.  A read already issued still reports its result
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        /**
+         * Get the number of reads that completed, successfully or not
+         * @return Completed read count
+         */
+        public long getCompleted() {
+            return completed.get();
+        }
+
+        /**
+         * Get the number of deadlines skipped because the previous read was still outstanding
+         * @return Missed deadline count
+         */
+        public long getMissed() {
+            return missed.get();
+        }
+
+        private void fire() {
+            if (outstanding) {
+                missedSinceResult.incrementAndGet();
+                missed.incrementAndGet();
+                missedDeadlines.incrementAndGet();
+                return;
+            }
+            if (!characteristic.owner.isConnected()) {
+                return;
+            }
+
+            outstanding = true;
+            final long start = System.nanoTime();
+            final CompletableFuture<byte[]> read;
+            try {
+                read = characteristic.readAsync(OperationQueue.Priority.LOW, timeoutNanos, TimeUnit.NANOSECONDS);
+            } catch (RuntimeException e) {
+                outstanding = false;
+                publish(new PollResult(characteristic, null, e, start, 0, missedSinceResult.getAndSet(0)));
+                return;
+            }
+            read.whenComplete((value, error) -> {
+                final long now = System.nanoTime();
+                completed.incrementAndGet();
+                // a failed read says nothing about the radio unless it also took too long, such as a timeout
+                if (now - start > congestionNanos) {
+                    congested();
+                } else if (error == null) {
+                    recovered();
+                }
+                outstanding = false;
+                publish(new PollResult(characteristic, value, error, now, now - start, missedSinceResult.getAndSet(0)));
+            });
+        }
+    }
+
+    /** Handler that receives batches of poll results */
+    public Consumer<List<PollResult>> onResults = (results) -> { };
+
+    private final long tickNanos, batchIntervalNanos, congestionNanos, startNanos;
+    private final int batchSize, mask;
+    private final double maxStretch;
+    private final Executor executor;
+    private final ScheduledFuture<?> ticker;
+    // wheel thread only
+    private final ArrayList<Poll>[] buckets;
+    private final ArrayList<Poll> fired = new ArrayList<>();
+    private long tick = 0, lastFlushNanos;
+    private int registered = 0;
+
+    private final ConcurrentLinkedQueue<Poll> added = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<PollResult> results = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingResults = new AtomicInteger();
+    private final AtomicLong missedDeadlines = new AtomicLong(), stretchBits = new AtomicLong(Double.doubleToRawLongBits(1.0));
+    private final AtomicInteger active = new AtomicInteger();
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private PollScheduler(Builder builder) {
+        tickNanos = builder.tickNanos;
+        batchIntervalNanos = builder.batchIntervalNanos;
+        congestionNanos = builder.congestionNanos;
+        batchSize = builder.batchSize;
+        maxStretch = builder.maxStretch;
+        executor = builder.executor;
+
+        final int size = Integer.highestOneBit(Math.max(builder.wheelSize - 1, 1)) << 1;
+        mask = size - 1;
+        buckets = new ArrayList[size];
+        for (int i = 0; i < size; i++) {
+            buckets[i] = new ArrayList<>();
+        }
+
+        startNanos = lastFlushNanos = System.nanoTime();
+        ticker = OperationQueue.TIMER.scheduleAtFixedRate(OperationQueue.logExceptions("advancing the poll wheel", this::advance), tickNanos, tickNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Starts reading a characteristic at a fixed interval.  The first read is placed at an offset into the interval
+     * so polls added together do not fire together
+     * @param characteristic Characteristic to read
+     * @param interval       Time between reads before any congestion stretch
+     * @param unit           Unit of the interval
+     * @return Handle to cancel the poll with
+     * @throws IllegalArgumentException If the interval is shorter than the wheel's tick
+     */
+    public Poll schedule(GattCharacteristic characteristic, long interval, TimeUnit unit) {
+        final long intervalNanos = unit.toNanos(interval);
+        if (intervalNanos < tickNanos) {
+            throw new IllegalArgumentException("Interval cannot be shorter than the wheel's tick");
+        }
+
+        final Poll poll = new Poll(characteristic, intervalNanos);
+        added.add(poll);
+        active.incrementAndGet();
+        return poll;
+    }
+
+    /**
+     * Get the number of polls being scheduled
+     * @return Active poll count
+     */
+    public int size() {
+        return active.get();
+    }
+
+    /**
+     * Get the number of deadlines skipped across all polls because the previous read was still outstanding
+     * @return Missed deadline count
+     */
+    public long getMissedDeadlines() {
+        return missedDeadlines.get();
+    }
+
+    /**
+     * Get how much the intervals are currently stretched by in response to congestion
+     * @return Multiple of the configured intervals, 1 if not congested
+     */
+    public double getStretch() {
+        return Double.longBitsToDouble(stretchBits.get());
+    }
+
+    /**
+     * Stops the wheel and hands over any results still in a partial batch.  Reads already issued are not reported
+     */
+    public void stop() {
+        ticker.cancel(false);
+        OperationQueue.TIMER.execute(this::flush);
+    }
+
+    private void congested() {
+        updateStretch(Math.min(maxStretch, getStretch() * 1.5));
+    }
+
+    private void recovered() {
+        final double current = getStretch();
+        if (current > 1.0) {
+            updateStretch(Math.max(1.0, current * 0.98));
+        }
+    }
+
+    private void updateStretch(double value) {
+        // last writer wins, the stretch is a heuristic and races only delay convergence
+        stretchBits.set(Double.doubleToRawLongBits(value));
+    }
+
+    private long intervalTicks(Poll poll) {
+        return Math.max(1, Math.round(poll.intervalNanos * getStretch() / tickNanos));
+    }
+
+    private void insert(Poll poll) {
+        buckets[(int) (poll.deadlineTick & mask)].add(poll);
+    }
+
+    private void advance() {
+        Poll poll;
+        while ((poll = added.poll()) != null) {
+            final long interval = intervalTicks(poll);
+            poll.deadlineTick = tick + 1 + (long) (((registered++ * PHASE_STEP) % 1.0) * interval);
+            insert(poll);
+        }
+
+        // catch up on ticks the timer thread ran late for
+        final long target = (System.nanoTime() - startNanos) / tickNanos;
+        while (tick < target) {
+            tick++;
+            final ArrayList<Poll> bucket = buckets[(int) (tick & mask)];
+            int kept = 0;
+            for (int i = 0; i < bucket.size(); i++) {
+                final Poll entry = bucket.get(i);
+                if (entry.cancelled || entry.characteristic.isClosed()) {
+                    active.decrementAndGet();
+                } else if (entry.deadlineTick <= tick) {
+                    fired.add(entry);
+                } else {
+                    bucket.set(kept++, entry);
+                }
+            }
+            bucket.subList(kept, bucket.size()).clear();
+
+            for (Poll entry : fired) {
+                entry.deadlineTick += intervalTicks(entry);
+                if (entry.deadlineTick <= tick) {
+                    entry.deadlineTick = tick + 1;
+                }
+                insert(entry);
+                entry.fire();
+            }
+            fired.clear();
+        }
+
+        final long now = System.nanoTime();
+        if (pendingResults.get() >= batchSize || (pendingResults.get() > 0 && now - lastFlushNanos >= batchIntervalNanos)) {
+            flush();
+        }
+    }
+
+    private void publish(PollResult result) {
+        results.add(result);
+        pendingResults.incrementAndGet();
+    }
+
+    private void flush() {
+        lastFlushNanos = System.nanoTime();
+        final List<PollResult> batch = new ArrayList<>(Math.min(pendingResults.get(), batchSize));
+        PollResult result;
+        while (batch.size() < batchSize && (result = results.poll()) != null) {
+            pendingResults.decrementAndGet();
+            batch.add(result);
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        final Consumer<List<PollResult>> handler = onResults;
+        executor.execute(OperationQueue.logExceptions("calling the poll result handler", () -> handler.accept(batch)));
+    }
+}
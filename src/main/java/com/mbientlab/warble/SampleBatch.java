@@ -0,0 +1,115 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+/**
+ * Column oriented batch of decoded samples.  Batches are pooled by their {@link SampleDecoder}; call
+ * {@link #release()} once the batch has been processed so its arrays can be reused.
+ */
+public final class SampleBatch {
+    private final SampleDecoder owner;
+    private final float[][] floats;
+    private final long[][] longs;
+    final long[] timestamps;
+    int size = 0;
+
+    SampleBatch(SampleDecoder owner, SampleLayout layout, int capacity) {
+        this.owner = owner;
+        this.floats = new float[layout.types.length][];
+        this.longs = new long[layout.types.length][];
+        for (int i = 0; i < layout.types.length; i++) {
+            if (layout.raw[i]) {
+                longs[i] = new long[capacity];
+            } else {
+                floats[i] = new float[capacity];
+            }
+        }
+        this.timestamps = new long[capacity];
+    }
+
+    /**
+     * Get the number of samples in the batch, columns hold valid data up to this index
+     * @return Sample count
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the values of a scaled field
+     * @param field Field index, in the order the fields were added to the layout
+     * @return Column array, only the first {@link #size()} entries are valid
+     * @throws IllegalArgumentException If the field is a raw field
+     */
+    public float[] getFloats(int field) {
+        if (floats[field] == null) {
+            throw new IllegalArgumentException("Field " + field + " is a raw field, use getLongs");
+        }
+        return floats[field];
+    }
+
+    /**
+     * Get the values of a raw field
+     * @param field Field index, in the order the fields were added to the layout
+     * @return Column array, only the first {@link #size()} entries are valid
+     * @throws IllegalArgumentException If the field is a scaled field
+     */
+    public long[] getLongs(int field) {
+        if (longs[field] == null) {
+            throw new IllegalArgumentException("Field " + field + " is a scaled field, use getFloats");
+        }
+        return longs[field];
+    }
+
+    /**
+     * Get the time each sample was received, as {@link System#nanoTime()} values
+     * @return Timestamp array, only the first {@link #size()} entries are valid
+     */
+    public long[] getTimestamps() {
+        return timestamps;
+    }
+
+    /**
+     * Returns the batch to its decoder's pool.  The batch must not be used afterwards
+     */
+    public void release() {
+        size = 0;
+        owner.recycle(this);
+    }
+
+    void put(SampleLayout layout, byte[] data, int offset, long timestamp) {
+        for (int i = 0; i < layout.types.length; i++) {
+            final long value = SampleLayout.decode(layout.types[i], data, offset + layout.offsets[i]);
+            if (layout.raw[i]) {
+                longs[i][size] = value;
+            } else if (layout.types[i] == SampleLayout.Type.FLOAT32) {
+                floats[i][size] = Float.intBitsToFloat((int) value) * layout.scales[i];
+            } else {
+                floats[i][size] = value * layout.scales[i];
+            }
+        }
+        timestamps[size] = timestamp;
+        size++;
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+import jnr.ffi.Pointer;
+
+/**
+ * Decodes notification payloads described by a {@link SampleLayout} straight into pooled {@link SampleBatch}
+ * columns, handing each batch to {@link #onBatchReady} once it is full.  Decoding does not allocate.
+ * @see GattCharacteristic#setDecoder(SampleDecoder)
+ */
+public class SampleDecoder {
+    private static final int POOL_SIZE = 4;
+
+    /** Handler that receives full batches, it must call {@link SampleBatch#release()} when done with each one */
+    public Consumer<SampleBatch> onBatchReady = SampleBatch::release;
+
+    private final SampleLayout layout;
+    private final int batchSize;
+    private final ArrayBlockingQueue<SampleBatch> pool = new ArrayBlockingQueue<>(POOL_SIZE);
+    private final byte[] scratch = new byte[GattCharacteristic.MAX_VALUE_SIZE];
+    private volatile Executor executor = null;
+
+    // guarded by this
+    private SampleBatch current = null;
+    private long samples = 0, batches = 0, malformed = 0, allocated = 0;
+
+    /**
+     * Creates a decoder
+     * @param layout    Layout of the payloads
+     * @param batchSize Number of samples per batch
+     */
+    public SampleDecoder(SampleLayout layout, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        this.layout = layout;
+        this.batchSize = batchSize;
+    }
+
+    void attach(Executor executor) {
+        this.executor = executor;
+    }
+
+    void recycle(SampleBatch batch) {
+        pool.offer(batch);
+    }
+
+    synchronized void decode(Pointer value, int length, long timestamp) {
+        value.get(0, scratch, 0, length);
+        decode(scratch, length, timestamp);
+    }
+
+    /**
+     * Decodes a payload that did not come from a characteristic notification, such as a logged sample
+     * @param payload   Payload bytes
+     * @param length    Number of valid bytes in the payload
+     * @param timestamp Arrival time of the payload, as a {@link System#nanoTime()} value
+     */
+    public synchronized void decode(byte[] payload, int length, long timestamp) {
+        final int available = (length - layout.header) / layout.stride;
+        final int rows = layout.repeat == 0 ? available : layout.repeat;
+        if (length < layout.header || rows > available) {
+            malformed++;
+            return;
+        }
+
+        for (int row = 0; row < rows; row++) {
+            if (current == null) {
+                current = pool.poll();
+                if (current == null) {
+                    current = new SampleBatch(this, layout, batchSize);
+                    allocated++;
+                }
+            }
+
+            current.put(layout, payload, layout.header + row * layout.stride, timestamp - (rows - 1 - row) * layout.samplePeriodNanos);
+            if (current.size == batchSize) {
+                emit();
+            }
+        }
+        samples += rows;
+    }
+
+    /**
+     * Hands over the current batch even if it is not full
+     */
+    public synchronized void flush() {
+        if (current != null && current.size > 0) {
+            emit();
+        }
+    }
+
+    private void emit() {
+        final SampleBatch batch = current;
+        final Consumer<SampleBatch> handler = onBatchReady;
+        current = null;
+        batches++;
+
+        final Executor target = executor;
+        if (target == null) {
+            handler.accept(batch);
+        } else {
+            target.execute(() -> handler.accept(batch));
+        }
+    }
+
+    /**
+     * Get the layout payloads are decoded with
+     * @return Sample layout
+     */
+    public SampleLayout getLayout() {
+        return layout;
+    }
+
+    /**
+     * Get the number of samples decoded
+     * @return Total samples
+     */
+    public synchronized long getSampleCount() {
+        return samples;
+    }
+
+    /**
+     * Get the number of batches handed to {@link #onBatchReady}
+     * @return Total batches
+     */
+    public synchronized long getBatchCount() {
+        return batches;
+    }
+
+    /**
+     * Get the number of payloads too short for the layout, which are discarded
+     * @return Total malformed payloads
+     */
+    public synchronized long getMalformedCount() {
+        return malformed;
+    }
+
+    /**
+     * Get the number of batches created because the pool was empty.  A steadily growing count means batches are
+     * not being released
+     * @return Total batches allocated
+     */
+    public synchronized long getAllocatedCount() {
+        return allocated;
+    }
+}
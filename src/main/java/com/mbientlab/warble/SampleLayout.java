@@ -0,0 +1,213 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Declarative description of a notification payload made of packed little-endian samples, such as
+ * <code>[header][x y z][x y z]...</code>.  Used by a {@link SampleDecoder} to decode payloads into column batches.
+ */
+public final class SampleLayout {
+    /**
+     * Little-endian field encodings
+     */
+    public enum Type {
+        /** Signed 8-bit integer */
+        INT8(1),
+        /** Unsigned 8-bit integer */
+        UINT8(1),
+        /** Signed 16-bit integer */
+        INT16(2),
+        /** Unsigned 16-bit integer */
+        UINT16(2),
+        /** Signed 32-bit integer */
+        INT32(4),
+        /** Unsigned 32-bit integer */
+        UINT32(4),
+        /** IEEE 754 single precision float */
+        FLOAT32(4);
+
+        /** Number of bytes the field occupies */
+        public final int size;
+
+        Type(int size) {
+            this.size = size;
+        }
+    }
+
+    /**
+     * Builder class to construct a {@link SampleLayout} object
+     */
+    public static class Builder {
+        private final List<Type> types = new ArrayList<>();
+        private final List<Float> scales = new ArrayList<>();
+        private int header = 0, repeat = 1;
+        private long samplePeriodNanos = 0;
+
+        /**
+         * Sets the number of bytes to skip at the start of each payload
+         * @param bytes Header length
+         * @return Calling object
+         */
+        public Builder withHeader(int bytes) {
+            this.header = bytes;
+            return this;
+        }
+
+        /**
+         * Adds a field that is decoded into a <code>float</code> column after multiplying by a scale factor
+         * @param type  Field encoding
+         * @param scale Factor to multiply the raw value by
+         * @return Calling object
+         */
+        public Builder withField(Type type, float scale) {
+            types.add(type);
+            scales.add(scale);
+            return this;
+        }
+
+        /**
+         * Adds a field that is decoded into a <code>long</code> column without scaling, for counters and raw values
+         * @param type Field encoding
+         * @return Calling object
+         */
+        public Builder withRawField(Type type) {
+            types.add(type);
+            scales.add(null);
+            return this;
+        }
+
+        /**
+         * Sets how many samples each payload holds.  Defaults to 1
+         * @param count Samples per payload, 0 to decode as many as fit
+         * @return Calling object
+         */
+        public Builder withRepeat(int count) {
+            this.repeat = count;
+            return this;
+        }
+
+        /**
+         * Sets the time between samples so payloads with several samples get evenly spaced timestamps ending at the
+         * arrival time.  Defaults to 0, giving every sample in a payload the arrival time
+         * @param period Time between samples
+         * @param unit   Unit of the period
+         * @return Calling object
+         */
+        public Builder withSamplePeriod(long period, TimeUnit unit) {
+            this.samplePeriodNanos = unit.toNanos(period);
+            return this;
+        }
+
+        /**
+         * Build the SampleLayout object with the specified parameters
+         * @return SampleLayout object
+         */
+        public SampleLayout build() {
+            if (types.isEmpty()) {
+                throw new IllegalStateException("Layout must have at least one field");
+            }
+            if (header < 0 || repeat < 0) {
+                throw new IllegalStateException("Header length and repeat count cannot be negative");
+            }
+            return new SampleLayout(this);
+        }
+    }
+
+    final Type[] types;
+    final float[] scales;
+    final boolean[] raw;
+    final int[] offsets;
+    final int header, repeat, stride;
+    final long samplePeriodNanos;
+
+    private SampleLayout(Builder builder) {
+        types = builder.types.toArray(new Type[0]);
+        scales = new float[types.length];
+        raw = new boolean[types.length];
+        offsets = new int[types.length];
+
+        int offset = 0;
+        for (int i = 0; i < types.length; i++) {
+            final Float scale = builder.scales.get(i);
+            raw[i] = scale == null;
+            scales[i] = raw[i] ? 1f : scale;
+            offsets[i] = offset;
+            offset += types[i].size;
+        }
+
+        stride = offset;
+        header = builder.header;
+        repeat = builder.repeat;
+        samplePeriodNanos = builder.samplePeriodNanos;
+    }
+
+    /**
+     * Get the number of fields in each sample
+     * @return Field count
+     */
+    public int getFieldCount() {
+        return types.length;
+    }
+
+    /**
+     * Checks if a field is decoded into a <code>long</code> column
+     * @param field Field index, in the order the fields were added
+     * @return True for raw fields, false for scaled <code>float</code> fields
+     */
+    public boolean isRaw(int field) {
+        return raw[field];
+    }
+
+    /**
+     * Get the number of bytes each sample occupies
+     * @return Sample size in bytes
+     */
+    public int getSampleSize() {
+        return stride;
+    }
+
+    static long decode(Type type, byte[] data, int offset) {
+        switch (type) {
+            case INT8:
+                return data[offset];
+            case UINT8:
+                return data[offset] & 0xff;
+            case INT16:
+                return (short) ((data[offset] & 0xff) | (data[offset + 1] << 8));
+            case UINT16:
+                return (data[offset] & 0xff) | ((data[offset + 1] & 0xff) << 8);
+            case INT32:
+            case FLOAT32:
+                return (data[offset] & 0xff) | ((data[offset + 1] & 0xff) << 8) | ((data[offset + 2] & 0xff) << 16) | (data[offset + 3] << 24);
+            case UINT32:
+                return ((data[offset] & 0xff) | ((data[offset + 1] & 0xff) << 8) | ((data[offset + 2] & 0xff) << 16) | (data[offset + 3] << 24)) & 0xffffffffL;
+            default:
+                throw new IllegalStateException("Unknown field type: " + type);
+        }
+    }
+}
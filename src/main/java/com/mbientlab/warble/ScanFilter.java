@@ -0,0 +1,255 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jnr.ffi.Pointer;
+
+/**
+ * Compiled scan filter that is evaluated against the native scan result before any Java wrapper, struct, or
+ * string is created for it.  The only allocations are the short lived pointers to the MAC address and name, and the
+ * pointer the bindings return when a company id criterion finds manufacturer data.  Criteria of different kinds
+ * must all match; within a kind, matching any one of the listed values is sufficient.  MAC addresses and MAC
+ * prefixes are one kind, so a device is accepted if it matches any of the listed addresses or prefixes.  A filter
+ * keeps no per-result state and can be shared by scanners running on different threads.
+ * @see Scanner#setFilter(ScanFilter)
+ */
+public class ScanFilter {
+    /**
+     * Builder class to construct a {@link ScanFilter} object.  Criteria that are not set are not checked
+     */
+    public static class Builder {
+        private final List<byte[]> serviceUuids = new ArrayList<>();
+        private final List<Integer> companyIds = new ArrayList<>();
+        private final List<Long> macs = new ArrayList<>();
+        private final List<long[]> macPrefixes = new ArrayList<>();
+        private Integer minRssi = null;
+        private byte[] namePrefix = null;
+
+        /**
+         * Only accept devices advertising the GATT service
+         * @param uuid 128-bit UUID string of the service
+         * @return Calling object
+         */
+        public Builder withServiceUuid(String uuid) {
+            serviceUuids.add(Arrays.copyOf(uuid.getBytes(StandardCharsets.US_ASCII), uuid.length() + 1));
+            return this;
+        }
+
+        /**
+         * Only accept devices whose advertisement includes manufacturer data for the company
+         * @param companyId Company id to look up, between [0, 0xffff]
+         * @return Calling object
+         */
+        public Builder withCompanyId(int companyId) {
+            companyIds.add(companyId & 0xffff);
+            return this;
+        }
+
+        /**
+         * Only accept the device with this MAC address, or one matching a {@link #withMacPrefix(String) MAC prefix}
+         * @param mac MAC address as a hex string
+         * @return Calling object
+         */
+        public Builder withMac(String mac) {
+            final long packed = MacAddress.pack(mac);
+            if (packed == MacAddress.INVALID) {
+                throw new IllegalArgumentException("Invalid MAC address: " + mac);
+            }
+            macs.add(packed);
+            return this;
+        }
+
+        /**
+         * Only accept devices whose MAC address starts with the prefix, such as a vendor OUI, or that are listed with
+         * {@link #withMac(String)}
+         * @param prefix Leading octets of the MAC address as a hex string, e.g. "D4:CA:6E"
+         * @return Calling object
+         */
+        public Builder withMacPrefix(String prefix) {
+            long value = 0;
+            int digits = 0;
+            for (char c : prefix.toCharArray()) {
+                final int digit = Character.digit(c, 16);
+                if (digit >= 0) {
+                    value = (value << 4) | digit;
+                    digits++;
+                }
+            }
+            if (digits == 0 || digits > 12) {
+                throw new IllegalArgumentException("Invalid MAC prefix: " + prefix);
+            }
+
+            final int shift = (12 - digits) * 4;
+            macPrefixes.add(new long[] {value << shift, (0xFFFFFFFFFFFFL >>> shift) << shift});
+            return this;
+        }
+
+        /**
+         * Only accept devices whose signal strength is at least the threshold
+         * @param rssi Minimum signal strength
+         * @return Calling object
+         */
+        public Builder withMinRssi(int rssi) {
+            this.minRssi = rssi;
+            return this;
+        }
+
+        /**
+         * Only accept devices whose advertising name starts with the prefix
+         * @param prefix Case sensitive name prefix
+         * @return Calling object
+         */
+        public Builder withNamePrefix(String prefix) {
+            this.namePrefix = prefix.getBytes(StandardCharsets.US_ASCII);
+            return this;
+        }
+
+        /**
+         * Compiles the filter
+         * @return ScanFilter object
+         */
+        public ScanFilter build() {
+            return new ScanFilter(this);
+        }
+    }
+
+    private final byte[][] serviceUuids;
+    private final int[] companyIds;
+    private final LongIndexMap macs;
+    private final long[] prefixValues, prefixMasks;
+    private final boolean checkRssi;
+    private final int minRssi;
+    private final byte[] namePrefix;
+    private final AtomicLong accepted = new AtomicLong(), rejected = new AtomicLong();
+
+    private ScanFilter(Builder builder) {
+        serviceUuids = builder.serviceUuids.toArray(new byte[0][]);
+
+        companyIds = new int[builder.companyIds.size()];
+        for (int i = 0; i < companyIds.length; i++) {
+            companyIds[i] = builder.companyIds.get(i);
+        }
+
+        if (builder.macs.isEmpty()) {
+            macs = null;
+        } else {
+            macs = new LongIndexMap(builder.macs.size());
+            for (long mac : builder.macs) {
+                macs.put(mac, 0);
+            }
+        }
+
+        prefixValues = new long[builder.macPrefixes.size()];
+        prefixMasks = new long[prefixValues.length];
+        for (int i = 0; i < prefixValues.length; i++) {
+            prefixValues[i] = builder.macPrefixes.get(i)[0];
+            prefixMasks[i] = builder.macPrefixes.get(i)[1];
+        }
+
+        checkRssi = builder.minRssi != null;
+        minRssi = checkRssi ? builder.minRssi : 0;
+        namePrefix = builder.namePrefix;
+    }
+
+    /**
+     * Get the number of scan results that passed the filter
+     * @return Total accepted results
+     */
+    public long getAccepted() {
+        return accepted.get();
+    }
+
+    /**
+     * Get the number of scan results that were discarded by the filter
+     * @return Total rejected results
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    // Called from the native scan thread, cheapest checks first
+    boolean test(Pointer result) {
+        if (matches(result)) {
+            accepted.incrementAndGet();
+            return true;
+        }
+        rejected.incrementAndGet();
+        return false;
+    }
+
+    private boolean matches(Pointer result) {
+        if (checkRssi && ScanRecord.rssi(result) < minRssi) {
+            return false;
+        }
+
+        if (macs != null || prefixValues.length > 0) {
+            final long mac = ScanRecord.mac(result);
+            if (mac == MacAddress.INVALID) {
+                return false;
+            }
+
+            boolean found = macs != null && macs.get(mac) >= 0;
+            for (int i = 0; !found && i < prefixValues.length; i++) {
+                found = (mac & prefixMasks[i]) == prefixValues[i];
+            }
+            if (!found) {
+                return false;
+            }
+        }
+
+        if (namePrefix != null && !ScanRecord.nameStartsWith(result, namePrefix)) {
+            return false;
+        }
+
+        if ((companyIds.length > 0 || serviceUuids.length > 0) && !ScanRecord.hasAdvertisement(result)) {
+            return false;
+        }
+
+        if (companyIds.length > 0) {
+            boolean found = false;
+            for (int i = 0; !found && i < companyIds.length; i++) {
+                found = Library.WARBLE.warble_scan_result_get_manufacturer_data(result, (short) companyIds[i]) != null;
+            }
+            if (!found) {
+                return false;
+            }
+        }
+
+        if (serviceUuids.length > 0) {
+            boolean found = false;
+            for (int i = 0; !found && i < serviceUuids.length; i++) {
+                found = Library.WARBLE.warble_scan_result_has_service_uuid(result, serviceUuids[i]) != 0;
+            }
+            return found;
+        }
+
+        return true;
+    }
+}
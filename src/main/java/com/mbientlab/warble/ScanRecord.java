@@ -0,0 +1,133 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import jnr.ffi.Pointer;
+
+/**
+ * Reads fields directly from the memory of a WarbleScanResult C struct, avoiding the allocations made by
+ * {@link ScanResult} and jnr structs.  The MAC address and name are read byte by byte from native memory without
+ * creating Java strings.  Only valid while the scan callback is executing.
+ */
+final class ScanRecord {
+    // WarbleScanResult layout: const char* mac, const char* name, int32_t rssi, void* private_data
+    private static final long NAME_OFFSET = Library.RUNTIME.addressSize(),
+            RSSI_OFFSET = 2L * Library.RUNTIME.addressSize(),
+            PRIVATE_DATA_OFFSET = 3L * Library.RUNTIME.addressSize();
+
+    private ScanRecord() {
+
+    }
+
+    static long mac(Pointer result) {
+        return MacAddress.pack(result.getPointer(0));
+    }
+
+    static int rssi(Pointer result) {
+        return result.getInt(RSSI_OFFSET);
+    }
+
+    /**
+     * Wraps the advertising name in a pointer object, for callers that copy the whole string anyway
+     * @param result Pointer to the scan result
+     * @return Pointer to the NUL terminated name, null if the result has no name
+     */
+    static Pointer namePointer(Pointer result) {
+        return result.getPointer(NAME_OFFSET);
+    }
+
+    /**
+     * Checks if the advertisement behind the result can be queried for manufacturer data and service UUIDs.
+     * Results rebuilt by {@link CaptureReplay} only carry the MAC address, name, and signal strength
+     * @param result Pointer to the scan result
+     * @return True if the native library has advertisement data for the result
+     */
+    static boolean hasAdvertisement(Pointer result) {
+        return result.getAddress(PRIVATE_DATA_OFFSET) != 0;
+    }
+
+    /**
+     * Copies the ASCII bytes of the advertising name
+     * @param result Pointer to the scan result
+     * @param dst    Array to copy to, the name is truncated if it does not fit
+     * @return Number of bytes copied
+     */
+    static int name(Pointer result, byte[] dst) {
+        final Pointer name = result.getPointer(NAME_OFFSET);
+        if (name == null) {
+            return 0;
+        }
+
+        final int end = name.indexOf(0, (byte) 0, dst.length);
+        final int length = end < 0 ? dst.length : end;
+        name.get(0, dst, 0, length);
+        return length;
+    }
+
+    /**
+     * Checks if the advertising name starts with a prefix, comparing in place without copying the name
+     * @param result Pointer to the scan result
+     * @param prefix ASCII bytes of the prefix
+     * @return True if the name starts with the prefix
+     */
+    static boolean nameStartsWith(Pointer result, byte[] prefix) {
+        final Pointer name = result.getPointer(NAME_OFFSET);
+        if (name == null) {
+            return prefix.length == 0;
+        }
+
+        for (int i = 0; i < prefix.length; i++) {
+            // a shorter name hits its NUL terminator, which never equals a prefix byte
+            if (name.getByte(i) != prefix[i] || prefix[i] == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copies manufacturer data from the advertisement
+     * @param result    Pointer to the scan result
+     * @param companyId Company id to look up, between [0, 0xffff]
+     * @param dst       Array to copy to, the data is truncated if it does not fit
+     * @param offset    Position in the array to start copying to
+     * @return Number of bytes copied, -1 if the company id is not present
+     */
+    static int manufacturerData(Pointer result, int companyId, byte[] dst, int offset) {
+        if (!hasAdvertisement(result)) {
+            return -1;
+        }
+        final Pointer data = Library.WARBLE.warble_scan_result_get_manufacturer_data(result, (short) (companyId & 0xffff));
+        if (data == null) {
+            return -1;
+        }
+
+        final Pointer value = data.getPointer(0);
+        final int length = Math.min(dst.length - offset, data.getByte(Library.RUNTIME.addressSize()) & 0xff);
+        if (value != null) {
+            value.get(0, dst, offset, length);
+        }
+        return value == null ? 0 : length;
+    }
+}
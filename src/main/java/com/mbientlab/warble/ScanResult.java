@@ -29,9 +29,11 @@ import jnr.ffi.Pointer;
  * Information received from a discovered BLE device
  */
 public class ScanResult {
+    private final Pointer address;
     private final Native.ScanResult nativeResult;
 
     ScanResult(Pointer address) {
+        this.address = address;
         nativeResult = new Native.ScanResult(address.getRuntime());
         nativeResult.useMemory(address);
     }
@@ -66,7 +68,7 @@ public class ScanResult {
      * @return True if the service uuid is in the ad packet, false otherwise
      */
     public boolean hasServiceUuid(String uuid) {
-        return Library.WARBLE.warble_scan_result_has_service_uuid(nativeResult, uuid) != 0;
+        return ScanRecord.hasAdvertisement(address) && Library.WARBLE.warble_scan_result_has_service_uuid(nativeResult, uuid) != 0;
     }
 
     /**
@@ -75,16 +77,31 @@ public class ScanResult {
      * @return Manufacturer data if company id is present in the scan response, null otherwise
      */
     public byte[] getManufacturerData(int companyId) {
+        if (!ScanRecord.hasAdvertisement(address)) {
+            return null;
+        }
         Native.ScanManufacturerData data = Library.WARBLE.warble_scan_result_get_manufacturer_data(nativeResult, (short) (companyId & 0xffff));
         if (data != null) {
-            byte[] jvm_array = new byte[data.value_size.get()];
-            for(byte i = 0; i < jvm_array.length; i++) {
-                jvm_array[i] = data.value.get().getByte(i);
-            }
-
-            return jvm_array;
+            return GattCharacteristic.copyValue(data.value.get(), data.value_size.get());
         }
 
         return null;
     }
+
+    /**
+     * Copies the scan result into an immutable object that remains valid after the scan handler returns
+     * @return Snapshot with the MAC address, name, and signal strength
+     */
+    public ScanSnapshot snapshot() {
+        return snapshot(ScanSnapshot.Schema.BASIC);
+    }
+
+    /**
+     * Copies the scan result into an immutable object that remains valid after the scan handler returns
+     * @param schema Manufacturer data and service UUIDs to include in the snapshot
+     * @return Snapshot of the scan result
+     */
+    public ScanSnapshot snapshot(ScanSnapshot.Schema schema) {
+        return ScanSnapshot.capture(address, schema);
+    }
 }
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import jnr.ffi.Pointer;
+
+/**
+ * Immutable copy of a scan result that remains valid after the scan callback returns and can be safely passed
+ * to other threads.  Everything is read from native memory once when the snapshot is taken; the name and
+ * manufacturer data share a single backing array.
+ * @see ScanResult#snapshot(Schema)
+ * @see Scanner#onSnapshotReceived(Schema, java.util.function.Consumer)
+ */
+public final class ScanSnapshot {
+    private static final int MAX_NAME_SIZE = 248, MAX_DATA_SIZE = 255;
+    private static final ThreadLocal<byte[]> SCRATCH = new ThreadLocal<>();
+
+    /**
+     * Lists the optional advertisement contents to copy into each snapshot.  The Warble C library only supports
+     * looking up manufacturer data and service UUIDs by key, so the keys of interest must be known up front.
+     */
+    public static final class Schema {
+        /**
+         * Builder class to construct a {@link Schema} object
+         */
+        public static class Builder {
+            private final List<Integer> companyIds = new ArrayList<>();
+            private final List<String> serviceUuids = new ArrayList<>();
+
+            /**
+             * Copies manufacturer data for the company id into the snapshot
+             * @param companyId Company id to look up, between [0, 0xffff]
+             * @return Calling object
+             */
+            public Builder withManufacturerData(int companyId) {
+                companyIds.add(companyId & 0xffff);
+                return this;
+            }
+
+            /**
+             * Records whether the service UUID is in the ad packet
+             * @param uuid 128-bit UUID string to lookup
+             * @return Calling object
+             */
+            public Builder withServiceUuid(String uuid) {
+                if (serviceUuids.size() == Long.SIZE) {
+                    throw new IllegalStateException("Schema can track at most " + Long.SIZE + " service UUIDs");
+                }
+                serviceUuids.add(uuid);
+                return this;
+            }
+
+            /**
+             * Build the Schema object
+             * @return Schema object
+             */
+            public Schema build() {
+                return new Schema(this);
+            }
+        }
+
+        /** Schema that only captures the MAC address, name, and signal strength */
+        public static final Schema BASIC = new Builder().build();
+
+        private final int[] companyIds;
+        private final String[] serviceUuids;
+        private final byte[][] encodedUuids;
+
+        private Schema(Builder builder) {
+            companyIds = new int[builder.companyIds.size()];
+            for (int i = 0; i < companyIds.length; i++) {
+                companyIds[i] = builder.companyIds.get(i);
+            }
+
+            serviceUuids = builder.serviceUuids.toArray(new String[0]);
+            encodedUuids = new byte[serviceUuids.length][];
+            for (int i = 0; i < serviceUuids.length; i++) {
+                encodedUuids[i] = Arrays.copyOf(serviceUuids[i].getBytes(StandardCharsets.US_ASCII), serviceUuids[i].length() + 1);
+            }
+        }
+    }
+
+    /** MAC address packed into a long */
+    public final long mac;
+    /** Signal strength when the advertisement was received */
+    public final int rssi;
+
+    private final Schema schema;
+    private final long serviceBits;
+    // [name][present, length, data] for each company id in the schema
+    private final byte[] backing;
+    private final int nameLength;
+    private String name;
+
+    private ScanSnapshot(long mac, int rssi, Schema schema, long serviceBits, byte[] backing, int nameLength) {
+        this.mac = mac;
+        this.rssi = rssi;
+        this.schema = schema;
+        this.serviceBits = serviceBits;
+        this.backing = backing;
+        this.nameLength = nameLength;
+    }
+
+    /**
+     * Copies a native scan result
+     * @param result Pointer to the WarbleScanResult struct
+     * @param schema Optional contents to copy
+     * @return Immutable snapshot
+     */
+    static ScanSnapshot capture(Pointer result, Schema schema) {
+        byte[] scratch = SCRATCH.get();
+        if (scratch == null || scratch.length < MAX_NAME_SIZE + schema.companyIds.length * (MAX_DATA_SIZE + 2)) {
+            scratch = new byte[MAX_NAME_SIZE + schema.companyIds.length * (MAX_DATA_SIZE + 2)];
+            SCRATCH.set(scratch);
+        }
+
+        final int nameLength = ScanRecord.name(result, scratch);
+        int offset = nameLength;
+
+        for (int companyId : schema.companyIds) {
+            final int length = ScanRecord.manufacturerData(result, companyId, scratch, offset + 2);
+            scratch[offset] = (byte) (length < 0 ? 0 : 1);
+            scratch[offset + 1] = (byte) Math.max(length, 0);
+            offset += 2 + Math.max(length, 0);
+        }
+
+        long serviceBits = 0;
+        for (int i = 0; ScanRecord.hasAdvertisement(result) && i < schema.encodedUuids.length; i++) {
+            if (Library.WARBLE.warble_scan_result_has_service_uuid(result, schema.encodedUuids[i]) != 0) {
+                serviceBits |= 1L << i;
+            }
+        }
+
+        return new ScanSnapshot(ScanRecord.mac(result), ScanRecord.rssi(result), schema, serviceBits,
+                Arrays.copyOf(scratch, offset), nameLength);
+    }
+
+    /**
+     * Get the MAC address of the scanned device
+     * @return MAC address hex string
+     */
+    public String getMac() {
+        return MacAddress.toString(mac);
+    }
+
+    /**
+     * Get the device's advertising name
+     * @return BLE advertising name
+     */
+    public String getName() {
+        String result = name;
+        if (result == null) {
+            name = result = new String(backing, 0, nameLength, StandardCharsets.US_ASCII);
+        }
+        return result;
+    }
+
+    /**
+     * Get the device's signal strength
+     * @return Signal strength value
+     */
+    public int getRssi() {
+        return rssi;
+    }
+
+    /**
+     * Checks if the BLE ad packet contained the GATT service uuid
+     * @param uuid 128-bit UUID string listed in the snapshot's schema
+     * @return True if the service uuid was in the ad packet, false otherwise
+     * @throws IllegalArgumentException If the uuid is not in the schema
+     */
+    public boolean hasServiceUuid(String uuid) {
+        for (int i = 0; i < schema.serviceUuids.length; i++) {
+            if (schema.serviceUuids[i].equalsIgnoreCase(uuid)) {
+                return (serviceBits & (1L << i)) != 0;
+            }
+        }
+        throw new IllegalArgumentException("Service UUID not captured by the schema: " + uuid);
+    }
+
+    private int dataOffset(int companyId) {
+        int offset = nameLength;
+        for (int id : schema.companyIds) {
+            if (id == (companyId & 0xffff)) {
+                return backing[offset] == 0 ? -1 : offset + 1;
+            }
+            offset += 2 + (backing[offset + 1] & 0xff);
+        }
+        throw new IllegalArgumentException(String.format("Company id not captured by the schema: 0x%04x", companyId));
+    }
+
+    /**
+     * Get additional data from the manufacturer included in the scan response
+     * @param companyId Company id listed in the snapshot's schema
+     * @return Copy of the manufacturer data if the company id was present in the scan response, null otherwise
+     * @throws IllegalArgumentException If the company id is not in the schema
+     */
+    public byte[] getManufacturerData(int companyId) {
+        final int offset = dataOffset(companyId);
+        return offset < 0 ? null : Arrays.copyOfRange(backing, offset + 1, offset + 1 + (backing[offset] & 0xff));
+    }
+
+    /**
+     * Get a read-only view of the manufacturer data without copying it
+     * @param companyId Company id listed in the snapshot's schema
+     * @return Manufacturer data if the company id was present in the scan response, null otherwise
+     * @throws IllegalArgumentException If the company id is not in the schema
+     */
+    public ByteBuffer getManufacturerDataBuffer(int companyId) {
+        final int offset = dataOffset(companyId);
+        return offset < 0 ? null : ByteBuffer.wrap(backing, offset + 1, backing[offset] & 0xff).slice().asReadOnlyBuffer();
+    }
+}
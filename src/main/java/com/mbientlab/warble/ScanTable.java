@@ -0,0 +1,412 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import jnr.ffi.Pointer;
+
+/**
+ * Aggregates the raw scan result stream into a table of nearby devices keyed by their packed MAC address.
+ * Repeated advertisements only update the table; handlers are notified of new, changed, and lost devices at
+ * most once per report interval.  Handlers run on the executor set with {@link Builder#withCallbackExecutor(Executor)},
+ * never on the library's timer thread.
+ * @see Scanner#onResultReceived(ScanTable)
+ */
+public class ScanTable {
+    private static final byte FLAG_NEW = 0x1, FLAG_CHANGED = 0x2;
+    private static final int MAX_NAME_SIZE = 64, MAX_DATA_SIZE = 255;
+
+    /**
+     * Immutable snapshot of a device in the table
+     */
+    public static final class Device {
+        /** MAC address packed into a long */
+        public final long mac;
+        /** Advertising name */
+        public final String name;
+        /** Exponentially smoothed signal strength */
+        public final float rssi;
+        /** {@link System#nanoTime()} value of the last advertisement */
+        public final long lastSeenNanos;
+        /** Number of advertisements received from the device */
+        public final long seenCount;
+        /** Latest manufacturer data for the tracked company id, null if not tracked or not present */
+        public final byte[] manufacturerData;
+
+        private Device(long mac, String name, float rssi, long lastSeenNanos, long seenCount, byte[] manufacturerData) {
+            this.mac = mac;
+            this.name = name;
+            this.rssi = rssi;
+            this.lastSeenNanos = lastSeenNanos;
+            this.seenCount = seenCount;
+            this.manufacturerData = manufacturerData;
+        }
+
+        /**
+         * Get the MAC address as a string
+         * @return Upper case, colon separated MAC address
+         */
+        public String getMac() {
+            return MacAddress.toString(mac);
+        }
+    }
+
+    /**
+     * Builder class to construct a {@link ScanTable} object
+     */
+    public static class Builder {
+        private int companyId = -1, expectedDevices = 256;
+        private float rssiSmoothing = 0.25f, rssiThreshold = 3f;
+        private long reportIntervalNanos = TimeUnit.SECONDS.toNanos(1), expireAfterNanos = TimeUnit.SECONDS.toNanos(30);
+        private Executor callbackExecutor = OperationQueue.CALLBACKS;
+
+        /**
+         * Tracks manufacturer data for a company id, changes to the data are reported as device changes
+         * @param companyId Company id to look up, between [0, 0xffff]
+         * @return Calling object
+         */
+        public Builder withManufacturerData(int companyId) {
+            this.companyId = companyId & 0xffff;
+            return this;
+        }
+
+        /**
+         * Sets how often handlers are notified of table updates.  Defaults to 1 second
+         * @param interval Time between reports, must be positive
+         * @param unit     Unit of the interval value
+         * @return Calling object
+         */
+        public Builder withReportInterval(long interval, TimeUnit unit) {
+            if (interval <= 0) {
+                throw new IllegalArgumentException("Report interval must be positive");
+            }
+            this.reportIntervalNanos = unit.toNanos(interval);
+            return this;
+        }
+
+        /**
+         * Sets the executor the handlers are called on.  Defaults to a single library thread shared with other
+         * periodic reports, so slow handlers should move their work elsewhere
+         * @param executor Executor to call handlers on
+         * @return Calling object
+         */
+        public Builder withCallbackExecutor(Executor executor) {
+            this.callbackExecutor = executor;
+            return this;
+        }
+
+        /**
+         * Sets how long a device can go without advertising before it is removed from the table.  Defaults to 30 seconds
+         * @param timeout Time since the last advertisement
+         * @param unit    Unit of the timeout value
+         * @return Calling object
+         */
+        public Builder withExpiry(long timeout, TimeUnit unit) {
+            this.expireAfterNanos = unit.toNanos(timeout);
+            return this;
+        }
+
+        /**
+         * Configures RSSI smoothing.  Defaults to a weight of 0.25 and a 3 dBm threshold
+         * @param weight    Weight of the newest sample in the exponential moving average, between (0, 1]
+         * @param threshold How far the smoothed RSSI must move from the last reported value to count as a change
+         * @return Calling object
+         */
+        public Builder withRssiSmoothing(float weight, float threshold) {
+            this.rssiSmoothing = weight;
+            this.rssiThreshold = threshold;
+            return this;
+        }
+
+        /**
+         * Sets how many devices the table is initially sized for.  Defaults to 256
+         * @param count Expected number of devices
+         * @return Calling object
+         */
+        public Builder withExpectedDevices(int count) {
+            this.expectedDevices = count;
+            return this;
+        }
+
+        /**
+         * Build the ScanTable object and start reporting updates
+         * @return ScanTable object
+         */
+        public ScanTable build() {
+            return new ScanTable(this);
+        }
+    }
+
+    /** Handler that listens for devices added to the table */
+    public Consumer<Device> onNewDevice = (device) -> { };
+    /** Handler that listens for changes to the name, manufacturer data, or smoothed RSSI of a device */
+    public Consumer<Device> onDeviceChanged = (device) -> { };
+    /** Handler that listens for devices removed from the table because they stopped advertising */
+    public Consumer<Device> onDeviceLost = (device) -> { };
+
+    private final int companyId;
+    private final float rssiSmoothing, rssiThreshold;
+    private final long expireAfterNanos;
+    private final Executor callbackExecutor;
+    private final LongIndexMap index;
+    private final ScheduledFuture<?> reporter;
+
+    // only used by the scan callback thread
+    private final byte[] nameScratch = new byte[MAX_NAME_SIZE], dataScratch = new byte[MAX_DATA_SIZE];
+
+    private int capacity, used = 0;
+    private int[] freeSlots;
+    private long[] macs, lastSeen, seenCount;
+    private float[] rssi, reportedRssi;
+    private byte[][] names, data;
+    private int[] nameLengths, dataLengths;
+    private String[] nameStrings;
+    private byte[] flags;
+    private boolean[] occupied;
+
+    private ScanTable(Builder builder) {
+        companyId = builder.companyId;
+        rssiSmoothing = builder.rssiSmoothing;
+        rssiThreshold = builder.rssiThreshold;
+        expireAfterNanos = builder.expireAfterNanos;
+        callbackExecutor = builder.callbackExecutor;
+        index = new LongIndexMap(builder.expectedDevices);
+
+        allocate(Math.max(builder.expectedDevices, 16));
+        reporter = OperationQueue.TIMER.scheduleAtFixedRate(OperationQueue.logExceptions("reporting scan table updates", this::report), builder.reportIntervalNanos,
+                builder.reportIntervalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void allocate(int newCapacity) {
+        macs = macs == null ? new long[newCapacity] : Arrays.copyOf(macs, newCapacity);
+        lastSeen = lastSeen == null ? new long[newCapacity] : Arrays.copyOf(lastSeen, newCapacity);
+        seenCount = seenCount == null ? new long[newCapacity] : Arrays.copyOf(seenCount, newCapacity);
+        rssi = rssi == null ? new float[newCapacity] : Arrays.copyOf(rssi, newCapacity);
+        reportedRssi = reportedRssi == null ? new float[newCapacity] : Arrays.copyOf(reportedRssi, newCapacity);
+        names = names == null ? new byte[newCapacity][] : Arrays.copyOf(names, newCapacity);
+        data = data == null ? new byte[newCapacity][] : Arrays.copyOf(data, newCapacity);
+        nameLengths = nameLengths == null ? new int[newCapacity] : Arrays.copyOf(nameLengths, newCapacity);
+        dataLengths = dataLengths == null ? new int[newCapacity] : Arrays.copyOf(dataLengths, newCapacity);
+        nameStrings = nameStrings == null ? new String[newCapacity] : Arrays.copyOf(nameStrings, newCapacity);
+        flags = flags == null ? new byte[newCapacity] : Arrays.copyOf(flags, newCapacity);
+        occupied = occupied == null ? new boolean[newCapacity] : Arrays.copyOf(occupied, newCapacity);
+
+        final int[] free = new int[newCapacity];
+        int count = 0;
+        for (int i = newCapacity - 1; i >= capacity; i--) {
+            free[count++] = i;
+        }
+        for (int i = 0; i < capacity - used; i++) {
+            free[count++] = freeSlots[i];
+        }
+        freeSlots = free;
+        capacity = newCapacity;
+    }
+
+    private static boolean contentEquals(byte[] stored, int storedLength, byte[] incoming, int incomingLength) {
+        if (storedLength != incomingLength) {
+            return false;
+        }
+        for (int i = 0; i < incomingLength; i++) {
+            if (stored[i] != incoming[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Called from the native scan thread for every advertisement
+    void accept(Pointer result) {
+        final long mac = ScanRecord.mac(result);
+        if (mac == MacAddress.INVALID) {
+            return;
+        }
+
+        final long now = System.nanoTime();
+        final int sample = ScanRecord.rssi(result);
+        final int nameLength = ScanRecord.name(result, nameScratch);
+        final int dataLength = companyId >= 0 ? ScanRecord.manufacturerData(result, companyId, dataScratch, 0) : -1;
+
+        synchronized (this) {
+            int slot = index.get(mac);
+            if (slot < 0) {
+                if (used == capacity) {
+                    allocate(capacity << 1);
+                }
+                slot = freeSlots[capacity - used - 1];
+                used++;
+                index.put(mac, slot);
+
+                occupied[slot] = true;
+                macs[slot] = mac;
+                seenCount[slot] = 0;
+                rssi[slot] = reportedRssi[slot] = sample;
+                names[slot] = Arrays.copyOf(nameScratch, nameLength);
+                nameLengths[slot] = nameLength;
+                nameStrings[slot] = null;
+                data[slot] = dataLength < 0 ? null : Arrays.copyOf(dataScratch, dataLength);
+                dataLengths[slot] = dataLength;
+                flags[slot] = FLAG_NEW;
+            } else {
+                rssi[slot] += rssiSmoothing * (sample - rssi[slot]);
+                if (Math.abs(rssi[slot] - reportedRssi[slot]) >= rssiThreshold) {
+                    flags[slot] |= FLAG_CHANGED;
+                }
+
+                if (!contentEquals(names[slot], nameLengths[slot], nameScratch, nameLength)) {
+                    if (names[slot].length < nameLength) {
+                        names[slot] = new byte[nameLength];
+                    }
+                    System.arraycopy(nameScratch, 0, names[slot], 0, nameLength);
+                    nameLengths[slot] = nameLength;
+                    nameStrings[slot] = null;
+                    flags[slot] |= FLAG_CHANGED;
+                }
+
+                if (dataLength >= 0 && (data[slot] == null || !contentEquals(data[slot], dataLengths[slot], dataScratch, dataLength))) {
+                    if (data[slot] == null || data[slot].length < dataLength) {
+                        data[slot] = new byte[dataLength];
+                    }
+                    System.arraycopy(dataScratch, 0, data[slot], 0, dataLength);
+                    dataLengths[slot] = dataLength;
+                    flags[slot] |= FLAG_CHANGED;
+                }
+            }
+
+            lastSeen[slot] = now;
+            seenCount[slot]++;
+        }
+    }
+
+    private Device snapshot(int slot) {
+        if (nameStrings[slot] == null) {
+            nameStrings[slot] = new String(names[slot], 0, nameLengths[slot], StandardCharsets.US_ASCII);
+        }
+        return new Device(macs[slot], nameStrings[slot], rssi[slot], lastSeen[slot], seenCount[slot],
+                data[slot] == null || dataLengths[slot] < 0 ? null : Arrays.copyOf(data[slot], dataLengths[slot]));
+    }
+
+    private void report() {
+        final List<Device> added = new ArrayList<>(), changed = new ArrayList<>(), lost = new ArrayList<>();
+        final long now = System.nanoTime();
+
+        synchronized (this) {
+            for (int slot = 0; slot < capacity; slot++) {
+                if (!occupied[slot]) {
+                    continue;
+                }
+
+                if (expireAfterNanos > 0 && now - lastSeen[slot] > expireAfterNanos) {
+                    lost.add(snapshot(slot));
+                    index.remove(macs[slot]);
+                    occupied[slot] = false;
+                    names[slot] = data[slot] = null;
+                    nameStrings[slot] = null;
+                    used--;
+                    freeSlots[capacity - used - 1] = slot;
+                } else if ((flags[slot] & FLAG_NEW) != 0) {
+                    added.add(snapshot(slot));
+                } else if ((flags[slot] & FLAG_CHANGED) != 0) {
+                    changed.add(snapshot(slot));
+                }
+
+                if (flags[slot] != 0) {
+                    reportedRssi[slot] = rssi[slot];
+                    flags[slot] = 0;
+                }
+            }
+        }
+
+        if (!added.isEmpty() || !changed.isEmpty() || !lost.isEmpty()) {
+            callbackExecutor.execute(() -> {
+                notify(onNewDevice, added);
+                notify(onDeviceChanged, changed);
+                notify(onDeviceLost, lost);
+            });
+        }
+    }
+
+    private static void notify(Consumer<Device> handler, List<Device> devices) {
+        for (Device device : devices) {
+            OperationQueue.logExceptions("calling a scan table handler", () -> handler.accept(device)).run();
+        }
+    }
+
+    /**
+     * Get the number of devices in the table
+     * @return Table size
+     */
+    public synchronized int size() {
+        return used;
+    }
+
+    /**
+     * Looks up a device in the table
+     * @param mac MAC address packed into a long
+     * @return Snapshot of the device, null if it is not in the table
+     * @see MacAddress#pack(String)
+     */
+    public synchronized Device get(long mac) {
+        final int slot = index.get(mac);
+        return slot < 0 ? null : snapshot(slot);
+    }
+
+    /**
+     * Looks up a device in the table
+     * @param mac MAC address as a hex string
+     * @return Snapshot of the device, null if it is not in the table
+     */
+    public Device get(String mac) {
+        return get(MacAddress.pack(mac));
+    }
+
+    /**
+     * Get a snapshot of every device in the table
+     * @return List of devices
+     */
+    public synchronized List<Device> devices() {
+        final List<Device> devices = new ArrayList<>(used);
+        for (int slot = 0; slot < capacity; slot++) {
+            if (occupied[slot]) {
+                devices.add(snapshot(slot));
+            }
+        }
+        return devices;
+    }
+
+    /**
+     * Stops reporting updates to the handlers
+     */
+    public void stop() {
+        reporter.cancel(false);
+    }
+}
@@ -24,13 +24,15 @@
 package com.mbientlab.warble;
 
 import java.util.Locale;
+import java.util.concurrent.Executor;
 import java.util.function.Consumer;
 
-import jnr.ffi.Runtime;
+import jnr.ffi.Pointer;
 import jnr.ffi.Struct;
 
 /**
- * Scans for nearby BLE devices
+ * Scans for nearby BLE devices.  The static functions drive the library's one scanner; use {@link AdapterScanner}
+ * objects instead to scan with several HCI adapters, and do not mix the two.
  */
 public class Scanner {
     /**
@@ -43,12 +45,153 @@ public class Scanner {
         ACTIVE
     }
 
+    private static volatile Consumer<Pointer> resultSink = null;
+    private static volatile ScanFilter filter = null;
+    private static volatile ScannerMetrics metrics = null;
+    private static volatile CaptureLog capture = null;
+    // keep a reference to the handler so the native closure is not collected
+    private static final Native.FnVoid_VoidP_WarbleScanResultP SCAN_HANDLER = (context, pointer) -> {
+        final CaptureLog currentCapture = capture;
+        if (currentCapture != null) {
+            currentCapture.scanResult(pointer, System.nanoTime(), System.currentTimeMillis());
+        }
+
+        final Object previous = Blocking.enter(null);
+        try {
+            final AdapterScanner adapter = AdapterScanner.active;
+            if (adapter != null) {
+                adapter.accept(pointer);
+            } else {
+                deliver(pointer, filter, metrics, resultSink);
+            }
+        } finally {
+            Blocking.exit(previous);
+        }
+    };
+
+    static void deliver(Pointer pointer, ScanFilter currentFilter, ScannerMetrics currentMetrics, Consumer<Pointer> sink) {
+        if (currentMetrics != null) {
+            currentMetrics.recordResult();
+        }
+
+        if (currentFilter != null && !currentFilter.test(pointer)) {
+            if (currentMetrics != null) {
+                currentMetrics.recordFiltered();
+            }
+            return;
+        }
+
+        if (sink == null) {
+            return;
+        }
+        if (currentMetrics == null) {
+            sink.accept(pointer);
+        } else {
+            final long start = System.nanoTime();
+            try {
+                sink.accept(pointer);
+            } catch (RuntimeException e) {
+                currentMetrics.recordError(e);
+                throw e;
+            } finally {
+                currentMetrics.recordHandlerTime(System.nanoTime() - start);
+            }
+        }
+    }
+
+    static void replay(Pointer result) {
+        SCAN_HANDLER.apply(null, result);
+    }
+
+    static void attachHandler() {
+        Library.WARBLE.warble_scanner_set_handler(null, SCAN_HANDLER);
+    }
+
+    private static void setResultSink(Consumer<Pointer> sink) {
+        resultSink = sink;
+        attachHandler();
+    }
+
     /**
      * Sets a handler to process discovered devices
      * @param handler Consumer to forwarded scan results to
      */
     public static void onResultReceived(Consumer<ScanResult> handler) {
-        Library.WARBLE.warble_scanner_set_handler(null, (context, pointer) -> handler.accept(new ScanResult(pointer)));
+        setResultSink(pointer -> handler.accept(new ScanResult(pointer)));
+    }
+
+    /**
+     * Sets a handler that receives immutable copies of each scan result, replacing the current handler.
+     * Snapshots are built directly from native memory and can be handed off to other threads.
+     * @param schema  Manufacturer data and service UUIDs to include in each snapshot
+     * @param handler Consumer to forward snapshots to
+     */
+    public static void onSnapshotReceived(ScanSnapshot.Schema schema, Consumer<ScanSnapshot> handler) {
+        setResultSink(pointer -> handler.accept(ScanSnapshot.capture(pointer, schema)));
+    }
+
+    /**
+     * Streams immutable copies of each scan result to any number of subscribers, replacing the current handler.
+     * Results that arrive while a subscriber has no outstanding demand are buffered up to the given capacity
+     * @param schema   Manufacturer data and service UUIDs to include in each snapshot
+     * @param executor Executor that delivers snapshots to subscribers, null to deliver them on the native event thread
+     * @param capacity Number of snapshots buffered for each subscriber
+     * @param policy   Action to take when a subscriber's buffer is full
+     * @return Snapshot publisher
+     * @throws IllegalArgumentException If capacity is not positive, or the policy is {@link OverflowPolicy#BLOCK}
+     *                                  without an executor
+     */
+    public static StreamPublisher<ScanSnapshot> snapshotPublisher(ScanSnapshot.Schema schema, Executor executor, int capacity, OverflowPolicy policy) {
+        final StreamPublisher<ScanSnapshot> publisher = new StreamPublisher<>(executor, capacity, policy);
+        setResultSink(pointer -> {
+            if (publisher.hasSubscribers()) {
+                publisher.publish(ScanSnapshot.capture(pointer, schema));
+            }
+        });
+        return publisher;
+    }
+
+    /**
+     * Aggregates discovered devices into a table instead of forwarding every scan result, replacing the
+     * current handler
+     * @param table Table to update with scan results
+     */
+    public static void onResultReceived(ScanTable table) {
+        setResultSink(table::accept);
+    }
+
+    /**
+     * Sets a filter that discards unwanted scan results before they reach the handler
+     * @param scanFilter Compiled filter, null to accept all results
+     */
+    public static void setFilter(ScanFilter scanFilter) {
+        filter = scanFilter;
+    }
+
+    /**
+     * Records scan callback counts and handler timing into a metrics object
+     * @param scannerMetrics Metrics to update, null to stop recording
+     */
+    public static void setMetrics(ScannerMetrics scannerMetrics) {
+        metrics = scannerMetrics;
+    }
+
+    /**
+     * Appends every scan result, before filtering, to a capture log.  Covers results from both the static API and
+     * {@link AdapterScanner} objects
+     * @param log Log to append to, null to stop capturing
+     * @see CaptureReplay
+     */
+    public static void setCapture(CaptureLog log) {
+        capture = log;
+    }
+
+    /**
+     * Get the metrics currently being recorded
+     * @return Scanner metrics, null if not recording
+     */
+    public static ScannerMetrics getMetrics() {
+        return metrics;
     }
 
     /**
@@ -64,7 +207,7 @@ public class Scanner {
      * @param hciMac MAC address of the HCI device to use as a hex string, null to have the system pick one
      */
     public static void start(ScanType type, String hciMac) {
-        Native.Option[] opts = Struct.arrayOf(Runtime.getRuntime(Library.WARBLE), Native.Option.class, 2);
+        Native.Option[] opts = Struct.arrayOf(Library.RUNTIME, Native.Option.class, 2);
         int i = 0;
 
         if (!Library.isWindows() && hciMac != null) {
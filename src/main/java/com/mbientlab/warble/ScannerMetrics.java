@@ -0,0 +1,168 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.ObjectName;
+
+/**
+ * Scan callback counters and handler timing for the {@link Scanner}.
+ * Values are recorded without locking or allocating and read with {@link #snapshot()}.
+ * @see Scanner#setMetrics(ScannerMetrics)
+ */
+public final class ScannerMetrics implements ScannerMetricsMXBean {
+    private static final String MBEAN_PROPERTIES = "type=Scanner";
+
+    /**
+     * Immutable copy of the metrics at a point in time
+     */
+    public static final class Snapshot {
+        /** Value of {@link System#nanoTime()} when the snapshot was taken */
+        public final long timestamp;
+        /** Number of scan results received from the native library */
+        public final long resultCount;
+        /** Number of scan results discarded by the filter */
+        public final long filteredCount;
+        private final LatencyHistogram.Snapshot handlerTime;
+        private final Map<String, Long> handlerErrors;
+
+        private Snapshot(ScannerMetrics metrics) {
+            timestamp = System.nanoTime();
+            resultCount = metrics.results.sum();
+            filteredCount = metrics.filtered.sum();
+            handlerTime = metrics.handlerTime.snapshot();
+            handlerErrors = Metrics.copy(metrics.handlerErrors);
+        }
+
+        /**
+         * Get the time spent in the result handler for each result that passed the filter
+         * @return Handler time histogram
+         */
+        public LatencyHistogram.Snapshot getHandlerTime() {
+            return handlerTime;
+        }
+
+        /**
+         * Get the number of times each exception thrown by the result handler was seen
+         * @return Counts keyed by exception class name
+         */
+        public Map<String, Long> getHandlerErrors() {
+            return handlerErrors;
+        }
+
+        /**
+         * Computes the scan callback rate between an earlier snapshot and this one
+         * @param previous Earlier snapshot of the same metrics
+         * @return Scan results per second
+         */
+        public double getResultRate(Snapshot previous) {
+            return Metrics.rate(resultCount, previous.resultCount, timestamp - previous.timestamp);
+        }
+    }
+
+    private final LongAdder results = new LongAdder(), filtered = new LongAdder();
+    private final LatencyHistogram handlerTime = new LatencyHistogram();
+    private final ConcurrentHashMap<String, LongAdder> handlerErrors = new ConcurrentHashMap<>();
+
+    /**
+     * Creates an empty set of scanner metrics
+     */
+    public ScannerMetrics() {
+    }
+
+    void recordResult() {
+        results.increment();
+    }
+
+    void recordFiltered() {
+        filtered.increment();
+    }
+
+    void recordHandlerTime(long nanos) {
+        handlerTime.record(nanos);
+    }
+
+    void recordError(RuntimeException error) {
+        // messages are not part of the key, they can embed values and grow the map without bound
+        Metrics.count(handlerErrors, error.getClass().getName());
+    }
+
+    /**
+     * Copies the current metrics
+     * @return Immutable snapshot
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server under <code>com.mbientlab.warble:type=Scanner</code>,
+     * replacing any existing registration
+     * @return Name the metrics were registered under
+     */
+    public ObjectName registerMBean() {
+        return Metrics.register(this, MBEAN_PROPERTIES);
+    }
+
+    /**
+     * Removes the registration created by {@link #registerMBean()}
+     */
+    public void unregisterMBean() {
+        Metrics.unregister(MBEAN_PROPERTIES);
+    }
+
+    @Override
+    public long getResultCount() {
+        return results.sum();
+    }
+
+    @Override
+    public long getFilteredCount() {
+        return filtered.sum();
+    }
+
+    @Override
+    public Map<String, Double> getLatencySummary() {
+        final Map<String, Double> summary = new TreeMap<>();
+        Metrics.summarize(summary, "handler", handlerTime.snapshot());
+        return summary;
+    }
+
+    @Override
+    public Map<String, Long> getHandlerErrors() {
+        return Metrics.copy(handlerErrors);
+    }
+
+    @Override
+    public void reset() {
+        results.reset();
+        filtered.reset();
+        handlerTime.reset();
+        handlerErrors.clear();
+    }
+}
@@ -0,0 +1,910 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+import jnr.ffi.Pointer;
+import jnr.ffi.Runtime;
+import jnr.ffi.Struct;
+
+/**
+ * Pure Java stand-in for the Warble C library that simulates a population of advertising, connectable devices, used
+ * to load test the full stack without Bluetooth hardware.  Selected by setting the <code>warble.native</code> system
+ * property to this class's name, then configured with {@link #get()}.{@link #setProfile(Profile)}.
+ * <p>
+ * Like the C library, every callback is delivered from one event thread.  Connections, operations, notifications,
+ * and advertisements are scheduled on it with the latencies, rates, and loss configured in the {@link Profile}.
+ * Operations still pending when a device disconnects are never completed, as with a real link.
+ */
+public final class SimulatedNative implements Native {
+    private static final int MAX_VALUE_SIZE = 255;
+    // locally administered addresses, the index of the device makes up the lower bytes
+    private static final long MAC_BASE = 0xF20000000000L;
+    private static final Runtime RUNTIME = Runtime.getSystemRuntime();
+    // reported to completion handlers instead of failing on handles that were never created or already deleted
+    private static final String UNKNOWN_GATT = "Unknown or deleted gatt handle",
+            UNKNOWN_CHARACTERISTIC = "Unknown or deleted characteristic handle";
+
+    /**
+     * Behavior of the simulated devices
+     */
+    public static final class Profile {
+        /**
+         * Builder class to construct a {@link Profile} object
+         */
+        public static class Builder {
+            private int devices = 100, notificationSize = 20, companyId = 0x067e;
+            private long advertisingIntervalNanos = TimeUnit.MILLISECONDS.toNanos(100),
+                    notificationIntervalNanos = TimeUnit.MILLISECONDS.toNanos(10),
+                    minLatencyNanos = TimeUnit.MILLISECONDS.toNanos(5), maxLatencyNanos = TimeUnit.MILLISECONDS.toNanos(15),
+                    minConnectNanos = TimeUnit.MILLISECONDS.toNanos(50), maxConnectNanos = TimeUnit.MILLISECONDS.toNanos(250),
+                    stormIntervalNanos = 0;
+            private double packetLoss = 0, connectFailure = 0, stormFraction = 0;
+            private String[] characteristics = {"326a9001-85cb-9195-d9dd-464cfbbae75a", "326a9006-85cb-9195-d9dd-464cfbbae75a"},
+                    serviceUuids = {"326a9000-85cb-9195-d9dd-464cfbbae75a"};
+
+            /**
+             * Sets the number of simulated devices.  Defaults to 100
+             * @param count Number of devices
+             * @return Calling object
+             */
+            public Builder withDevices(int count) {
+                this.devices = count;
+                return this;
+            }
+
+            /**
+             * Sets how often each device advertises while scanning.  Defaults to 100ms
+             * @param interval Time between advertisements, jittered by 10%
+             * @param unit     Unit of the interval
+             * @return Calling object
+             */
+            public Builder withAdvertisingInterval(long interval, TimeUnit unit) {
+                this.advertisingIntervalNanos = unit.toNanos(interval);
+                return this;
+            }
+
+            /**
+             * Sets how often each characteristic notifies once notifications are enabled, and how large each
+             * notification is.  Defaults to 20 bytes every 10ms.  Values start with a 4 byte sequence number followed,
+             * if there is room, by the 8 byte {@link System#nanoTime()} value the notification was generated at, both
+             * little endian, so gaps and end to end latency can be measured
+             * @param interval Time between notifications
+             * @param unit     Unit of the interval
+             * @param size     Notification size in bytes, between [4, 255]
+             * @return Calling object
+             */
+            public Builder withNotifications(long interval, TimeUnit unit, int size) {
+                this.notificationIntervalNanos = unit.toNanos(interval);
+                this.notificationSize = size;
+                return this;
+            }
+
+            /**
+             * Sets the range operation completions are delayed by.  Defaults to 5 - 15ms
+             * @param min  Shortest latency
+             * @param max  Longest latency
+             * @param unit Unit of the latencies
+             * @return Calling object
+             */
+            public Builder withOperationLatency(long min, long max, TimeUnit unit) {
+                this.minLatencyNanos = unit.toNanos(min);
+                this.maxLatencyNanos = unit.toNanos(max);
+                return this;
+            }
+
+            /**
+             * Sets the range connection attempts take and the fraction that fail.  Defaults to 50 - 250ms and no failures
+             * @param min         Shortest connection time
+             * @param max         Longest connection time
+             * @param unit        Unit of the times
+             * @param failureRate Fraction of attempts that fail, between [0, 1]
+             * @return Calling object
+             */
+            public Builder withConnection(long min, long max, TimeUnit unit, double failureRate) {
+                this.minConnectNanos = unit.toNanos(min);
+                this.maxConnectNanos = unit.toNanos(max);
+                this.connectFailure = failureRate;
+                return this;
+            }
+
+            /**
+             * Sets the fraction of notifications and advertisements that are lost.  Lost notifications still use up
+             * a sequence number.  Defaults to 0
+             * @param rate Loss rate, between [0, 1]
+             * @return Calling object
+             */
+            public Builder withPacketLoss(double rate) {
+                this.packetLoss = rate;
+                return this;
+            }
+
+            /**
+             * Periodically drops the connection of a fraction of the connected devices at once.  Disabled by default
+             * @param interval Time between storms, 0 to disable
+             * @param unit     Unit of the interval
+             * @param fraction Fraction of connected devices to disconnect, between [0, 1]
+             * @return Calling object
+             * @see #disconnectStorm(double)
+             */
+            public Builder withDisconnectStorms(long interval, TimeUnit unit, double fraction) {
+                this.stormIntervalNanos = unit.toNanos(interval);
+                this.stormFraction = fraction;
+                return this;
+            }
+
+            /**
+             * Sets the characteristics every device has.  Defaults to the MetaWear command and notify characteristics
+             * @param uuids 128-bit UUID strings
+             * @return Calling object
+             */
+            public Builder withCharacteristics(String... uuids) {
+                this.characteristics = uuids;
+                return this;
+            }
+
+            /**
+             * Sets the service UUIDs and manufacturer data in every advertisement.  The manufacturer data is the
+             * device's 4 byte little endian index.  Defaults to the MetaWear service and MbientLab's company id
+             * @param companyId    Company id of the manufacturer data, -1 to leave it out
+             * @param serviceUuids 128-bit UUID strings
+             * @return Calling object
+             */
+            public Builder withAdvertisement(int companyId, String... serviceUuids) {
+                this.companyId = companyId;
+                this.serviceUuids = serviceUuids;
+                return this;
+            }
+
+            /**
+             * Create the profile
+             * @return Profile object
+             * @throws IllegalArgumentException If a value is out of range
+             */
+            public Profile build() {
+                if (devices < 0 || devices > 0xffffff) {
+                    throw new IllegalArgumentException("Device count must be between [0, 16777215]");
+                }
+                if (notificationSize < 4 || notificationSize > MAX_VALUE_SIZE) {
+                    throw new IllegalArgumentException("Notification size must be between [4, 255]");
+                }
+                if (advertisingIntervalNanos <= 0 || notificationIntervalNanos <= 0) {
+                    throw new IllegalArgumentException("Intervals must be positive");
+                }
+                if (minLatencyNanos < 0 || maxLatencyNanos < minLatencyNanos || minConnectNanos < 0 || maxConnectNanos < minConnectNanos) {
+                    throw new IllegalArgumentException("Latency ranges must be non-negative and ordered");
+                }
+                return new Profile(this);
+            }
+        }
+
+        final int devices, notificationSize, companyId;
+        final long advertisingIntervalNanos, notificationIntervalNanos, minLatencyNanos, maxLatencyNanos,
+                minConnectNanos, maxConnectNanos, stormIntervalNanos;
+        final double packetLoss, connectFailure, stormFraction;
+        final Set<String> characteristics, serviceUuids;
+
+        private Profile(Builder builder) {
+            devices = builder.devices;
+            notificationSize = builder.notificationSize;
+            companyId = builder.companyId;
+            advertisingIntervalNanos = builder.advertisingIntervalNanos;
+            notificationIntervalNanos = builder.notificationIntervalNanos;
+            minLatencyNanos = builder.minLatencyNanos;
+            maxLatencyNanos = builder.maxLatencyNanos;
+            minConnectNanos = builder.minConnectNanos;
+            maxConnectNanos = builder.maxConnectNanos;
+            stormIntervalNanos = builder.stormIntervalNanos;
+            packetLoss = builder.packetLoss;
+            connectFailure = builder.connectFailure;
+            stormFraction = builder.stormFraction;
+            characteristics = new HashSet<>(Arrays.asList(builder.characteristics));
+            serviceUuids = new HashSet<>(Arrays.asList(builder.serviceUuids));
+        }
+    }
+
+    private abstract static class Event implements Comparable<Event> {
+        long due, order;
+
+        abstract void fire();
+
+        @Override
+        public int compareTo(Event o) {
+            final int byDue = Long.compare(due, o.due);
+            return byDue != 0 ? byDue : Long.compare(order, o.order);
+        }
+    }
+
+    private static final class Task extends Event {
+        private final Runnable action;
+
+        private Task(Runnable action) {
+            this.action = action;
+        }
+
+        @Override
+        void fire() {
+            action.run();
+        }
+    }
+
+    private static final class Device {
+        final int index;
+        final long mac;
+        final Pointer scanResult, manufacturerData;
+        // only referenced by address from the structs above, kept here so the memory is not freed with the pointer
+        private final Pointer macString, name, manufacturerValue;
+        int rssi;
+
+        private Device(int index) {
+            this.index = index;
+            this.mac = MAC_BASE + index;
+            this.rssi = -40 - ThreadLocalRandom.current().nextInt(50);
+
+            final int addressSize = RUNTIME.addressSize();
+            scanResult = RUNTIME.getMemoryManager().allocateDirect(4 * addressSize, true);
+            macString = allocateString(MacAddress.toString(mac));
+            name = allocateString(String.format("Sim-%06x", index));
+            scanResult.putPointer(0, macString);
+            scanResult.putPointer(addressSize, name);
+            scanResult.putInt(2L * addressSize, rssi);
+            // the real library's private data is never null, see ScanRecord.hasAdvertisement
+            scanResult.putAddress(3L * addressSize, scanResult.address());
+
+            // WarbleScanMftData: const uint8_t* value, uint8_t value_size
+            manufacturerValue = RUNTIME.getMemoryManager().allocateDirect(4, true);
+            manufacturerValue.put(0, new byte[] {(byte) index, (byte) (index >> 8), (byte) (index >> 16), (byte) (index >> 24)}, 0, 4);
+            manufacturerData = RUNTIME.getMemoryManager().allocateDirect(addressSize + 4, true);
+            manufacturerData.putPointer(0, manufacturerValue);
+            manufacturerData.putByte(addressSize, (byte) 4);
+        }
+    }
+
+    private final class SimGatt {
+        final Pointer handle;
+        final Device device;
+        final String mac;
+        final Map<String, SimCharacteristic> characteristics = new ConcurrentHashMap<>();
+        WeakReference<FnVoid_IntPtr_WarbleGattP_Int> onDisconnect = new WeakReference<>(null);
+        Pointer onDisconnectContext;
+        // changed on the event thread only, incremented on every disconnect to abandon the previous link's events
+        volatile int session = 0;
+        volatile boolean connected = false, deleted = false;
+
+        private SimGatt(Pointer handle, String mac) {
+            this.handle = handle;
+            this.mac = mac;
+            this.device = devices.get(mac == null ? MacAddress.INVALID : MacAddress.pack(mac));
+        }
+    }
+
+    private final class SimCharacteristic {
+        final Pointer handle, value = RUNTIME.getMemoryManager().allocateDirect(MAX_VALUE_SIZE, true);
+        final SimGatt gatt;
+        final String uuid;
+        WeakReference<FnVoid_VoidP_WarbleGattCharP_UbyteP_Ubyte> onNotification = new WeakReference<>(null);
+        Pointer onNotificationContext;
+        volatile byte[] stored = new byte[0];
+        // event thread only
+        boolean notifying = false;
+        int sequence = 0, streams = 0;
+
+        private SimCharacteristic(SimGatt gatt, Pointer handle, String uuid) {
+            this.gatt = gatt;
+            this.handle = handle;
+            this.uuid = uuid;
+        }
+    }
+
+    private final class NotificationTick extends Event {
+        private final SimCharacteristic owner;
+        private final int stream, session;
+
+        private NotificationTick(SimCharacteristic owner) {
+            this.owner = owner;
+            this.stream = owner.streams;
+            this.session = owner.gatt.session;
+        }
+
+        @Override
+        void fire() {
+            final SimGatt gatt = owner.gatt;
+            if (!owner.notifying || owner.streams != stream || gatt.session != session || gatt.deleted) {
+                return;
+            }
+
+            final Profile current = profile;
+            final int sequence = owner.sequence++;
+            if (lost(current.packetLoss)) {
+                dropped.incrementAndGet();
+            } else {
+                final FnVoid_VoidP_WarbleGattCharP_UbyteP_Ubyte handler = owner.onNotification.get();
+                if (handler != null) {
+                    putLittleEndian(owner.value, sequence, current.notificationSize);
+                    delivered.incrementAndGet();
+                    handler.apply(owner.onNotificationContext, owner.handle, owner.value, (byte) current.notificationSize);
+                }
+            }
+            // fixed rate, a busy event thread falls behind instead of stretching the interval
+            schedule(this, due + current.notificationIntervalNanos);
+        }
+    }
+
+    private final class AdvertisingTick extends Event {
+        private final Device device;
+        private final int generation;
+
+        private AdvertisingTick(Device device, int generation) {
+            this.device = device;
+            this.generation = generation;
+        }
+
+        @Override
+        void fire() {
+            if (generation != scanGeneration) {
+                return;
+            }
+
+            final Profile current = profile;
+            if (lost(current.packetLoss)) {
+                dropped.incrementAndGet();
+            } else {
+                final FnVoid_VoidP_WarbleScanResultP handler = scanHandler;
+                if (handler != null) {
+                    // random walk between -30 and -100 dBm
+                    device.rssi = Math.max(-100, Math.min(-30, device.rssi + ThreadLocalRandom.current().nextInt(-3, 4)));
+                    device.scanResult.putInt(2L * RUNTIME.addressSize(), device.rssi);
+                    delivered.incrementAndGet();
+                    handler.apply(scanContext, device.scanResult);
+                }
+            }
+            schedule(this, due + jitter(current.advertisingIntervalNanos));
+        }
+    }
+
+    private static Pointer allocateString(String value) {
+        final byte[] bytes = value.getBytes(StandardCharsets.US_ASCII);
+        final Pointer memory = RUNTIME.getMemoryManager().allocateDirect(bytes.length + 1, true);
+        memory.put(0, bytes, 0, bytes.length);
+        return memory;
+    }
+
+    private static void putLittleEndian(Pointer value, int sequence, int size) {
+        for (int i = 0; i < 4; i++) {
+            value.putByte(i, (byte) (sequence >>> (i * 8)));
+        }
+        if (size >= 12) {
+            final long now = System.nanoTime();
+            for (int i = 0; i < 8; i++) {
+                value.putByte(4 + i, (byte) (now >>> (i * 8)));
+            }
+        }
+    }
+
+    private static boolean lost(double rate) {
+        return rate > 0 && ThreadLocalRandom.current().nextDouble() < rate;
+    }
+
+    private static long between(long min, long max) {
+        return min == max ? min : ThreadLocalRandom.current().nextLong(min, max + 1);
+    }
+
+    private static long jitter(long interval) {
+        return between(interval - interval / 10, interval + interval / 10);
+    }
+
+    /**
+     * Get the simulator the library is using
+     * @return Simulated native library
+     * @throws IllegalStateException If the <code>warble.native</code> system property does not select this class
+     */
+    public static SimulatedNative get() {
+        if (!(Library.WARBLE instanceof SimulatedNative)) {
+            throw new IllegalStateException("Set the " + Library.PROPERTY_NATIVE_IMPL + " system property to " +
+                    SimulatedNative.class.getName() + " to use the simulator");
+        }
+        return (SimulatedNative) Library.WARBLE;
+    }
+
+    /**
+     * Get the MAC address of a simulated device
+     * @param index Device index, between [0, device count)
+     * @return MAC address string
+     */
+    public static String deviceMac(int index) {
+        return MacAddress.toString(MAC_BASE + index);
+    }
+
+    // owned by the event thread, other threads hand events over through the inbox
+    private final PriorityQueue<Event> events = new PriorityQueue<>();
+    private final ConcurrentLinkedQueue<Event> inbox = new ConcurrentLinkedQueue<>();
+    private final Thread eventThread;
+    private volatile boolean parked = false;
+    private long nextOrder = 0;
+
+    private final Map<Long, SimGatt> gatts = new ConcurrentHashMap<>();
+    private final Map<Long, SimCharacteristic> characteristics = new ConcurrentHashMap<>();
+    private final AtomicLong delivered = new AtomicLong(), dropped = new AtomicLong();
+    private final LatencyHistogram eventLag = new LatencyHistogram();
+    private volatile Profile profile;
+    private volatile Map<Long, Device> devices;
+    private volatile FnVoid_VoidP_WarbleScanResultP scanHandler;
+    private volatile Pointer scanContext;
+    // changed on the event thread only, incremented when scanning starts or stops
+    private volatile int scanGeneration = 0;
+    private volatile Event storm = null;
+
+    /**
+     * Creates a simulator with the default profile and starts its event thread.  Use {@link #get()} to reach the
+     * instance the library created
+     */
+    public SimulatedNative() {
+        setProfile(new Profile.Builder().build());
+        eventThread = new Thread(this::runEvents, "warble-sim-events");
+        eventThread.setDaemon(true);
+        eventThread.start();
+    }
+
+    /**
+     * Replaces the simulated devices.  Gatt objects already created keep the devices they were created with
+     * @param newProfile Behavior of the devices
+     */
+    public void setProfile(Profile newProfile) {
+        final Map<Long, Device> created = new ConcurrentHashMap<>();
+        for (int i = 0; i < newProfile.devices; i++) {
+            final Device device = new Device(i);
+            created.put(device.mac, device);
+        }
+        devices = created;
+        profile = newProfile;
+
+        // a replaced storm event stops rescheduling itself
+        if (newProfile.stormIntervalNanos > 0) {
+            final Event next = new Event() {
+                @Override
+                void fire() {
+                    if (storm == this) {
+                        disconnectNow(newProfile.stormFraction);
+                        schedule(this, due + newProfile.stormIntervalNanos);
+                    }
+                }
+            };
+            storm = next;
+            schedule(next, System.nanoTime() + newProfile.stormIntervalNanos);
+        } else {
+            storm = null;
+        }
+    }
+
+    /**
+     * Drops the connection of a fraction of the connected devices at once, on the event thread
+     * @param fraction Fraction of connected devices to disconnect, between [0, 1]
+     */
+    public void disconnectStorm(double fraction) {
+        post(() -> disconnectNow(fraction));
+    }
+
+    /**
+     * Get the number of notifications and advertisements delivered to handlers
+     * @return Delivered count
+     */
+    public long getDelivered() {
+        return delivered.get();
+    }
+
+    /**
+     * Get the number of notifications and advertisements discarded by the simulated packet loss
+     * @return Dropped count
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Clears the delivered and dropped counts and the event lag
+     */
+    public void resetStats() {
+        delivered.set(0);
+        dropped.set(0);
+        eventLag.reset();
+    }
+
+    /**
+     * Get how late events ran compared to when they were scheduled.  Grows when handlers running on the event
+     * thread cannot keep up with the simulated traffic
+     * @return Snapshot of the event lag
+     */
+    public LatencyHistogram.Snapshot getEventLag() {
+        return eventLag.snapshot();
+    }
+
+    private void runEvents() {
+        while (true) {
+            Event incoming;
+            while ((incoming = inbox.poll()) != null) {
+                incoming.order = nextOrder++;
+                events.add(incoming);
+            }
+
+            final Event head = events.peek();
+            final long wait = head == null ? Long.MAX_VALUE : head.due - System.nanoTime();
+            if (wait > 0) {
+                parked = true;
+                // checked after publishing the flag so a concurrent schedule either sees it or leaves an event here
+                if (inbox.isEmpty()) {
+                    if (head == null) {
+                        LockSupport.park(this);
+                    } else {
+                        LockSupport.parkNanos(this, wait);
+                    }
+                }
+                parked = false;
+                continue;
+            }
+
+            events.poll();
+            eventLag.record(System.nanoTime() - head.due);
+            try {
+                head.fire();
+            } catch (RuntimeException e) {
+                NativeCleaner.LOGGER.log(Level.WARNING, "Uncaught exception in a simulated native callback", e);
+            }
+        }
+    }
+
+    private void schedule(Event event, long due) {
+        event.due = due;
+        if (Thread.currentThread() == eventThread) {
+            event.order = nextOrder++;
+            events.add(event);
+        } else {
+            inbox.add(event);
+            if (parked) {
+                LockSupport.unpark(eventThread);
+            }
+        }
+    }
+
+    private void post(Runnable action) {
+        schedule(new Task(action), System.nanoTime());
+    }
+
+    private void postAfter(long delayNanos, Runnable action) {
+        schedule(new Task(action), System.nanoTime() + delayNanos);
+    }
+
+    private void dropConnection(SimGatt gatt, int status) {
+        if (!gatt.connected) {
+            return;
+        }
+        gatt.connected = false;
+        gatt.session++;
+        for (SimCharacteristic it : gatt.characteristics.values()) {
+            it.notifying = false;
+        }
+
+        final FnVoid_IntPtr_WarbleGattP_Int handler = gatt.onDisconnect.get();
+        if (handler != null && !gatt.deleted) {
+            handler.apply(gatt.onDisconnectContext, gatt.handle, status);
+        }
+    }
+
+    private void disconnectNow(double fraction) {
+        final List<SimGatt> connected = new ArrayList<>();
+        for (SimGatt it : gatts.values()) {
+            if (it.connected) {
+                connected.add(it);
+            }
+        }
+        // HCI connection timeout
+        final int status = 0x08;
+        for (SimGatt it : connected) {
+            if (lost(fraction)) {
+                dropConnection(it, status);
+            }
+        }
+    }
+
+    /**
+     * Completes an operation after the simulated latency, or never if the link drops in the meantime
+     */
+    private void completeLater(SimCharacteristic gattChar, Runnable success, Consumer<String> failure) {
+        final SimGatt gatt = gattChar.gatt;
+        final int session = gatt.session;
+        final boolean connected = gatt.connected;
+        final Profile current = profile;
+        postAfter(connected ? between(current.minLatencyNanos, current.maxLatencyNanos) : 0, () -> {
+            if (gatt.deleted) {
+                return;
+            }
+            if (!connected) {
+                failure.accept("Not connected to the remote device");
+            } else if (gatt.session == session) {
+                success.run();
+            }
+        });
+    }
+
+    private void completeLater(Pointer gattchar, Pointer context, FnVoid_VoidP_WarbleGattCharP_CharP handler, Runnable effect) {
+        final SimCharacteristic it = characteristics.get(gattchar.address());
+        if (it == null) {
+            post(() -> handler.apply(context, gattchar, UNKNOWN_CHARACTERISTIC));
+            return;
+        }
+        completeLater(it, () -> {
+            effect.run();
+            handler.apply(context, gattchar, null);
+        }, err -> handler.apply(context, gattchar, err));
+    }
+
+    @Override
+    public String warble_lib_version() {
+        return "1.1.0";
+    }
+
+    @Override
+    public String warble_lib_config() {
+        return "Simulated";
+    }
+
+    @Override
+    public void warble_lib_init(int length, Option[] options) {
+    }
+
+    @Override
+    public void warble_scanner_stop() {
+        post(() -> scanGeneration++);
+    }
+
+    @Override
+    public void warble_scanner_start(int length, Option[] options) {
+        post(() -> {
+            final int generation = ++scanGeneration;
+            final long now = System.nanoTime(), interval = profile.advertisingIntervalNanos;
+            // spread the first advertisements over one interval
+            for (Device device : devices.values()) {
+                schedule(new AdvertisingTick(device, generation), now + ThreadLocalRandom.current().nextLong(interval));
+            }
+        });
+    }
+
+    @Override
+    public void warble_scanner_set_handler(Pointer context, FnVoid_VoidP_WarbleScanResultP handler) {
+        scanContext = context;
+        scanHandler = handler;
+    }
+
+    @Override
+    public ScanManufacturerData warble_scan_result_get_manufacturer_data(ScanResult result, short companyId) {
+        final Pointer data = warble_scan_result_get_manufacturer_data(Struct.getMemory(result), companyId);
+        if (data == null) {
+            return null;
+        }
+
+        final ScanManufacturerData struct = new ScanManufacturerData(RUNTIME);
+        struct.useMemory(data);
+        return struct;
+    }
+
+    @Override
+    public Pointer warble_scan_result_get_manufacturer_data(Pointer result, short companyId) {
+        if ((companyId & 0xffff) != profile.companyId) {
+            return null;
+        }
+        final Device device = devices.get(ScanRecord.mac(result));
+        return device == null ? null : device.manufacturerData;
+    }
+
+    @Override
+    public int warble_scan_result_has_service_uuid(ScanResult result, String uuid) {
+        return profile.serviceUuids.contains(uuid) ? 1 : 0;
+    }
+
+    @Override
+    public int warble_scan_result_has_service_uuid(Pointer result, byte[] uuid) {
+        return warble_scan_result_has_service_uuid((ScanResult) null, new String(uuid, 0, uuid.length - 1, StandardCharsets.US_ASCII));
+    }
+
+    @Override
+    public void warble_gatt_connect_async(Pointer gatt, Pointer context, FnVoid_IntPtr_WarbleGattP_CharP handler) {
+        final SimGatt it = gatts.get(gatt.address());
+        if (it == null) {
+            post(() -> handler.apply(context, gatt, UNKNOWN_GATT));
+            return;
+        }
+        final Profile current = profile;
+        postAfter(between(current.minConnectNanos, current.maxConnectNanos), () -> {
+            if (it.deleted) {
+                return;
+            }
+            if (it.connected) {
+                handler.apply(context, gatt, null);
+            } else if (it.device == null) {
+                handler.apply(context, gatt, "No simulated device with address " + it.mac);
+            } else if (lost(current.connectFailure)) {
+                handler.apply(context, gatt, "Simulated connection failure");
+            } else {
+                it.connected = true;
+                handler.apply(context, gatt, null);
+            }
+        });
+    }
+
+    @Override
+    public void warble_gatt_disconnect(Pointer gatt) {
+        final SimGatt it = gatts.get(gatt.address());
+        if (it != null) {
+            post(() -> dropConnection(it, 0));
+        }
+    }
+
+    @Override
+    public void warble_gatt_delete(Pointer gatt) {
+        final SimGatt it = gatts.remove(gatt.address());
+        if (it != null) {
+            it.deleted = true;
+            for (SimCharacteristic gattChar : it.characteristics.values()) {
+                characteristics.remove(gattChar.handle.address());
+            }
+        }
+    }
+
+    @Override
+    public void warble_gatt_on_disconnect(Pointer gatt, Pointer context, FnVoid_IntPtr_WarbleGattP_Int handler) {
+        final SimGatt it = gatts.get(gatt.address());
+        if (it == null) {
+            return;
+        }
+        it.onDisconnectContext = context;
+        it.onDisconnect = new WeakReference<>(handler);
+    }
+
+    @Override
+    public int warble_gatt_is_connected(Pointer gatt) {
+        final SimGatt it = gatts.get(gatt.address());
+        return it != null && it.connected ? 1 : 0;
+    }
+
+    @Override
+    public Pointer warble_gatt_create(String mac) {
+        final Pointer handle = RUNTIME.getMemoryManager().allocateDirect(8, true);
+        gatts.put(handle.address(), new SimGatt(handle, mac));
+        return handle;
+    }
+
+    @Override
+    public Pointer warble_gatt_create_with_options(int length, Option[] options) {
+        String mac = null;
+        for (int i = 0; i < length; i++) {
+            if ("mac".equals(options[i].key.get())) {
+                mac = options[i].value.get();
+            }
+        }
+        return warble_gatt_create(mac);
+    }
+
+    @Override
+    public Pointer warble_gatt_find_characteristic(Pointer gatt, String uuid) {
+        final SimGatt it = gatts.get(gatt.address());
+        // like the C library, characteristics are only known once services have been discovered
+        if (it == null || !it.connected || !profile.characteristics.contains(uuid)) {
+            return null;
+        }
+
+        return it.characteristics.computeIfAbsent(uuid, key -> {
+            final SimCharacteristic created = new SimCharacteristic(it, RUNTIME.getMemoryManager().allocateDirect(8, true), key);
+            characteristics.put(created.handle.address(), created);
+            return created;
+        }).handle;
+    }
+
+    @Override
+    public int warble_gatt_has_service(Pointer gatt, String uuid) {
+        final SimGatt it = gatts.get(gatt.address());
+        return it != null && it.device != null && profile.serviceUuids.contains(uuid) ? 1 : 0;
+    }
+
+    @Override
+    public void warble_gattchar_disable_notifications_async(Pointer gattchar, Pointer context, FnVoid_VoidP_WarbleGattCharP_CharP handler) {
+        final SimCharacteristic it = characteristics.get(gattchar.address());
+        completeLater(gattchar, context, handler, () -> it.notifying = false);
+    }
+
+    @Override
+    public void warble_gattchar_write_without_resp_async(Pointer gattchar, byte[] value, byte value_size, Pointer context, FnVoid_VoidP_WarbleGattCharP_CharP handler) {
+        final SimCharacteristic it = characteristics.get(gattchar.address());
+        final byte[] copy = Arrays.copyOf(value, value_size & 0xff);
+        completeLater(gattchar, context, handler, () -> it.stored = copy);
+    }
+
+    @Override
+    public void warble_gattchar_read_async(Pointer gattchar, Pointer context, FnVoid_VoidP_WarbleGattCharP_UbyteP_Ubyte_CharP handler) {
+        final SimCharacteristic it = characteristics.get(gattchar.address());
+        if (it == null) {
+            post(() -> handler.apply(context, gattchar, null, (byte) 0, UNKNOWN_CHARACTERISTIC));
+            return;
+        }
+        completeLater(it, () -> {
+            final byte[] value = it.stored;
+            it.value.put(0, value, 0, value.length);
+            handler.apply(context, gattchar, it.value, (byte) value.length, null);
+        }, err -> handler.apply(context, gattchar, null, (byte) 0, err));
+    }
+
+    @Override
+    public void warble_gattchar_write_async(Pointer gattchar, byte[] value, byte value_size, Pointer context, FnVoid_VoidP_WarbleGattCharP_CharP handler) {
+        warble_gattchar_write_without_resp_async(gattchar, value, value_size, context, handler);
+    }
+
+    @Override
+    public void warble_gattchar_enable_notifications_async(Pointer gattchar, Pointer context, FnVoid_VoidP_WarbleGattCharP_CharP handler) {
+        final SimCharacteristic it = characteristics.get(gattchar.address());
+        completeLater(gattchar, context, handler, () -> {
+            if (!it.notifying) {
+                it.notifying = true;
+                it.streams++;
+                schedule(new NotificationTick(it), System.nanoTime() + profile.notificationIntervalNanos);
+            }
+        });
+    }
+
+    @Override
+    public void warble_gattchar_on_notification_received(Pointer gattchar, Pointer context, FnVoid_VoidP_WarbleGattCharP_UbyteP_Ubyte handler) {
+        final SimCharacteristic it = characteristics.get(gattchar.address());
+        if (it == null) {
+            return;
+        }
+        it.onNotificationContext = context;
+        it.onNotification = new WeakReference<>(handler);
+    }
+
+    @Override
+    public String warble_gattchar_get_uuid(Pointer gattchar) {
+        final SimCharacteristic it = characteristics.get(gattchar.address());
+        return it == null ? null : it.uuid;
+    }
+
+    @Override
+    public Pointer warble_gattchar_get_gatt(Pointer gattchar) {
+        final SimCharacteristic it = characteristics.get(gattchar.address());
+        return it == null ? null : it.gatt.handle;
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * Hot <a href="http://www.reactive-streams.org/">Reactive Streams</a> publisher that fans items out to any number of
+ * subscribers.  Each subscriber gets its own bounded buffer that holds items until the subscriber requests them;
+ * once a buffer is full the publisher's {@link OverflowPolicy} decides what happens to new items.  Subscribers only
+ * see items published after they subscribe.
+ * @param <T> Type of item published
+ */
+public class StreamPublisher<T> implements Publisher<T> {
+    private static final Executor INLINE = Runnable::run;
+
+    private final Executor executor;
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final CopyOnWriteArrayList<BufferedSubscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile Throwable terminalError = null;
+    private volatile boolean terminated = false;
+    // run when a cancellation leaves the publisher without subscribers, lets operators release their upstream
+    volatile Runnable onLastCancel = null;
+
+    /**
+     * Per subscriber buffer and demand counter.  Signals are serialized by the work-in-progress counter so
+     * <code>request</code> can be called from within <code>onNext</code>
+     */
+    private final class BufferedSubscription implements Subscription, Runnable {
+        private final Subscriber<? super T> subscriber;
+        private final ArrayDeque<T> buffer = new ArrayDeque<>();
+        private final AtomicLong requested = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private volatile boolean cancelled = false, done = false;
+        // set by an invalid request, signalled from the drain loop so it cannot overlap onNext
+        private volatile Throwable requestError = null;
+        private boolean overflowed = false;
+        private Throwable error = null;
+
+        private BufferedSubscription(Subscriber<? super T> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        void offer(T item) {
+            synchronized (this) {
+                if (overflowed) {
+                    if (!buffer.isEmpty()) {
+                        dropped.incrementAndGet();
+                        return;
+                    }
+                    overflowed = false;
+                }
+
+                // a terminated stream wakes blocked producers, nothing offered after that is delivered
+                while (buffer.size() >= capacity && !cancelled && !done) {
+                    switch (policy) {
+                        case BLOCK:
+                            try {
+                                wait();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                dropped.incrementAndGet();
+                                return;
+                            }
+                            break;
+                        case DROP_OLDEST:
+                            buffer.pollFirst();
+                            dropped.incrementAndGet();
+                            break;
+                        case COUNT_AND_DROP:
+                            overflowed = true;
+                            dropped.incrementAndGet();
+                            return;
+                        default:
+                            dropped.incrementAndGet();
+                            return;
+                    }
+                }
+                if (cancelled || done) {
+                    return;
+                }
+                buffer.addLast(item);
+            }
+            schedule();
+        }
+
+        void terminate(Throwable cause) {
+            synchronized (this) {
+                error = cause;
+                done = true;
+                notifyAll();
+            }
+            schedule();
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                if (requestError == null) {
+                    requestError = new IllegalArgumentException("Rule 3.9: request must be positive, was " + n);
+                }
+                schedule();
+                return;
+            }
+
+            long current, next;
+            do {
+                current = requested.get();
+                next = current + n < 0 ? Long.MAX_VALUE : current + n;
+            } while (!requested.compareAndSet(current, next));
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            final boolean last = subscriptions.remove(this) && subscriptions.isEmpty();
+            synchronized (this) {
+                buffer.clear();
+                notifyAll();
+            }
+
+            final Runnable hook = onLastCancel;
+            if (last && hook != null) {
+                hook.run();
+            }
+        }
+
+        private boolean signalRequestError() {
+            final Throwable cause = requestError;
+            if (cause == null || cancelled) {
+                return false;
+            }
+            cancel();
+            subscriber.onError(cause);
+            return true;
+        }
+
+        private void schedule() {
+            if (wip.getAndIncrement() == 0) {
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                if (signalRequestError()) {
+                    return;
+                }
+                long demand = requested.get(), emitted = 0;
+                while (emitted != demand && !cancelled && requestError == null) {
+                    final T item;
+                    synchronized (this) {
+                        item = buffer.pollFirst();
+                        if (item != null && policy == OverflowPolicy.BLOCK) {
+                            notify();
+                        }
+                    }
+                    if (item == null) {
+                        break;
+                    }
+                    subscriber.onNext(item);
+                    emitted++;
+                }
+                if (emitted != 0 && demand != Long.MAX_VALUE) {
+                    requested.addAndGet(-emitted);
+                }
+                if (signalRequestError() || cancelled) {
+                    return;
+                }
+
+                if (done) {
+                    final Throwable cause;
+                    synchronized (this) {
+                        if (!buffer.isEmpty()) {
+                            missed = wip.addAndGet(-missed);
+                            continue;
+                        }
+                        cause = error;
+                    }
+                    cancelled = true;
+                    subscriptions.remove(this);
+                    if (cause == null) {
+                        subscriber.onComplete();
+                    } else {
+                        subscriber.onError(cause);
+                    }
+                    return;
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+    }
+
+    /**
+     * Creates a publisher
+     * @param executor Executor that delivers items to subscribers, null to deliver them on the publishing thread
+     * @param capacity Number of items buffered for each subscriber
+     * @param policy   Action to take when a subscriber's buffer is full
+     * @throws IllegalArgumentException If capacity is not positive, or the policy is {@link OverflowPolicy#BLOCK}
+     *                                  without an executor, which would stall the publishing thread forever
+     */
+    StreamPublisher(Executor executor, int capacity, OverflowPolicy policy) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Buffer capacity must be positive");
+        }
+        if (executor == null && policy == OverflowPolicy.BLOCK) {
+            throw new IllegalArgumentException("BLOCK policy requires an executor");
+        }
+
+        this.executor = executor == null ? INLINE : executor;
+        this.capacity = capacity;
+        this.policy = policy;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super T> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("Rule 1.9: subscriber must not be null");
+        }
+
+        final BufferedSubscription subscription = new BufferedSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        if (terminated) {
+            subscription.terminate(terminalError);
+        } else {
+            subscriptions.add(subscription);
+            // close the race with a concurrent complete() that missed this subscriber
+            if (terminated && subscriptions.remove(subscription)) {
+                subscription.terminate(terminalError);
+            }
+        }
+    }
+
+    /**
+     * Checks if any subscribers are attached
+     * @return True if at least one subscriber has not cancelled or been terminated
+     */
+    public boolean hasSubscribers() {
+        return !subscriptions.isEmpty();
+    }
+
+    /**
+     * Get the number of attached subscribers
+     * @return Subscriber count
+     */
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    /**
+     * Get the number of items discarded by the overflow policy, summed over all subscribers
+     * @return Total dropped items
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Get the policy used when a subscriber's buffer is full
+     * @return Overflow policy
+     */
+    public OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+    void publish(T item) {
+        for (BufferedSubscription subscription : subscriptions) {
+            subscription.offer(item);
+        }
+    }
+
+    void complete() {
+        terminate(null);
+    }
+
+    void fail(Throwable cause) {
+        terminate(cause);
+    }
+
+    private synchronized void terminate(Throwable cause) {
+        if (terminated) {
+            return;
+        }
+        terminalError = cause;
+        terminated = true;
+
+        for (BufferedSubscription subscription : subscriptions) {
+            subscriptions.remove(subscription);
+            subscription.terminate(cause);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * Operators that thin out fast streams for slow consumers.  Each operator subscribes to its upstream right away,
+ * requesting everything, and republishes through a new {@link StreamPublisher}.  When the last subscriber of an
+ * operator cancels, the operator cancels its upstream subscription and completes, so it stops consuming and late
+ * subscribers are not left waiting.
+ */
+public final class Streams {
+    /**
+     * Forwards every upstream signal to a publisher
+     */
+    private static class Relay<T> implements Subscriber<T> {
+        final StreamPublisher<T> downstream;
+        private final AtomicReference<Subscription> upstream = new AtomicReference<>();
+        private volatile boolean disconnected = false;
+
+        Relay(StreamPublisher<T> downstream) {
+            this.downstream = downstream;
+            downstream.onLastCancel = this::disconnect;
+        }
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            if (!upstream.compareAndSet(null, subscription) || disconnected) {
+                subscription.cancel();
+                return;
+            }
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        void disconnect() {
+            disconnected = true;
+            final Subscription subscription = upstream.getAndSet(CANCELLED);
+            if (subscription != null && subscription != CANCELLED) {
+                subscription.cancel();
+            }
+            downstream.complete();
+        }
+
+        @Override
+        public void onNext(T item) {
+            downstream.publish(item);
+        }
+
+        @Override
+        public void onError(Throwable cause) {
+            downstream.fail(cause);
+        }
+
+        @Override
+        public void onComplete() {
+            downstream.complete();
+        }
+    }
+
+    private static final Subscription CANCELLED = new Subscription() {
+        @Override
+        public void request(long n) {
+        }
+
+        @Override
+        public void cancel() {
+        }
+    };
+
+    private Streams() {
+    }
+
+    /**
+     * Keeps only the most recent item for each subscriber that has no outstanding demand, so slow subscribers
+     * always see the latest value instead of a backlog
+     * @param upstream Publisher to conflate
+     * @param executor Executor that delivers items to subscribers, null to deliver them on the upstream thread
+     * @param <T>      Type of item published
+     * @return Conflated publisher
+     */
+    public static <T> StreamPublisher<T> conflate(Publisher<T> upstream, Executor executor) {
+        final StreamPublisher<T> conflated = new StreamPublisher<>(executor, 1, OverflowPolicy.DROP_OLDEST);
+        upstream.subscribe(new Relay<>(conflated));
+        return conflated;
+    }
+
+    /**
+     * Emits the most recent upstream item once per period, skipping periods where nothing new arrived
+     * @param upstream Publisher to sample
+     * @param period   Time between samples
+     * @param unit     Unit of the period
+     * @param executor Executor that delivers items to subscribers, null to deliver them on a library thread shared
+     *                 with other periodic reports.  Items are never delivered on the library's timer thread
+     * @param <T>      Type of item published
+     * @return Sampled publisher, buffering one item per subscriber
+     */
+    public static <T> StreamPublisher<T> sample(Publisher<T> upstream, long period, TimeUnit unit, Executor executor) {
+        final StreamPublisher<T> sampled = new StreamPublisher<>(executor == null ? OperationQueue.CALLBACKS : executor,
+                1, OverflowPolicy.DROP_OLDEST);
+        final AtomicReference<T> latest = new AtomicReference<>();
+        final Runnable publishLatest = () -> {
+            final T item = latest.getAndSet(null);
+            if (item != null) {
+                sampled.publish(item);
+            }
+        };
+        final ScheduledFuture<?> sampler = OperationQueue.TIMER.scheduleAtFixedRate(
+                OperationQueue.logExceptions("sampling a stream", publishLatest), period, period, unit);
+
+        upstream.subscribe(new Relay<T>(sampled) {
+            @Override
+            void disconnect() {
+                sampler.cancel(false);
+                super.disconnect();
+            }
+
+            @Override
+            public void onNext(T item) {
+                latest.set(item);
+            }
+
+            @Override
+            public void onError(Throwable cause) {
+                sampler.cancel(false);
+                super.onError(cause);
+            }
+
+            @Override
+            public void onComplete() {
+                sampler.cancel(false);
+                final T item = latest.getAndSet(null);
+                if (item != null) {
+                    sampled.publish(item);
+                }
+                super.onComplete();
+            }
+        });
+        return sampled;
+    }
+}
@@ -0,0 +1,336 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs callbacks on a fixed set of worker threads, sending every callback for a device to the same worker.  This
+ * keeps notifications and completions for a device, and each of its characteristics, in order while spreading
+ * devices across cores.  Submitting never blocks by default.  Each characteristic's notifications are coalesced into
+ * a single pending task by its {@link NotificationQueue}, so when a device's worker falls behind, the busy device's
+ * queues fill up and apply their {@link OverflowPolicy}.  Gatt objects whose callbacks run on a striped executor
+ * default to {@link OverflowPolicy#DROP_OLDEST}, which leaves other devices unaffected; choosing
+ * {@link OverflowPolicy#BLOCK} parks the native event thread and stalls every device.  Tasks that do not fit in a
+ * worker's bounded queue spill into an overflow list, counted in {@link StripeStats#overflowed}, and still run in
+ * submission order.
+ * @see Gatt.Builder#withCallbackExecutor(StripedExecutor)
+ * @see Library#init(Library.LogLevel, StripedExecutor)
+ */
+public class StripedExecutor implements AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger("com.mbientlab.warble");
+
+    /**
+     * Builder class to construct a {@link StripedExecutor} object
+     */
+    public static class Builder {
+        private int stripes = Runtime.getRuntime().availableProcessors(), queueCapacity = 1024;
+        private boolean blockWhenFull = false;
+
+        /**
+         * Sets the number of worker threads.  Defaults to the number of available processors
+         * @param count Worker count
+         * @return Calling object
+         */
+        public Builder withStripes(int count) {
+            if (count < 1) {
+                throw new IllegalArgumentException("Stripe count must be positive");
+            }
+            this.stripes = count;
+            return this;
+        }
+
+        /**
+         * Sets how many tasks can wait in each worker's queue before new ones spill over, or submitters are blocked if
+         * {@link #withBlockWhenFull(boolean)} is set.  Defaults to 1024
+         * @param capacity Tasks per worker queue
+         * @return Calling object
+         */
+        public Builder withQueueCapacity(int capacity) {
+            if (capacity < 1) {
+                throw new IllegalArgumentException("Queue capacity must be positive");
+            }
+            this.queueCapacity = capacity;
+            return this;
+        }
+
+        /**
+         * Makes submitters wait for room in a full worker queue instead of spilling over.  Off by default.  Callbacks
+         * are submitted from the native event thread, so a single slow device then stalls callbacks for every
+         * device, and completions scheduled on the shared timer are delayed for the whole library
+         * @param block True to block submitters
+         * @return Calling object
+         */
+        public Builder withBlockWhenFull(boolean block) {
+            this.blockWhenFull = block;
+            return this;
+        }
+
+        /**
+         * Build the StripedExecutor object with the specified parameters, starting its worker threads
+         * @return StripedExecutor object
+         */
+        public StripedExecutor build() {
+            return new StripedExecutor(this);
+        }
+    }
+
+    /**
+     * Point in time load figures for one worker
+     */
+    public static final class StripeStats {
+        /** Tasks waiting to run */
+        public final int queued;
+        /** Tasks run since the executor was created */
+        public final long executed;
+        /** Times a submitter had to wait for room in the queue */
+        public final long blocked;
+        /** Tasks that did not fit in the queue and were put in the overflow list */
+        public final long overflowed;
+        private final long busyNanos, blockedNanos;
+
+        private StripeStats(Stripe stripe) {
+            queued = stripe.queue.size() + stripe.overflow.size();
+            executed = stripe.executed.get();
+            blocked = stripe.blocked.get();
+            overflowed = stripe.overflowed.get();
+            busyNanos = stripe.busyNanos.get();
+            blockedNanos = stripe.blockedNanos.get();
+        }
+
+        /**
+         * Get the time the worker spent running tasks
+         * @param unit Unit to express the time in
+         * @return Total busy time
+         */
+        public long getBusyTime(TimeUnit unit) {
+            return unit.convert(busyNanos, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Get the time submitters spent waiting for room in the queue
+         * @param unit Unit to express the time in
+         * @return Total blocked time
+         */
+        public long getBlockedTime(TimeUnit unit) {
+            return unit.convert(blockedNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    // wakes a worker parked on an empty queue after a task was put in its overflow list
+    private static final Runnable WAKE = () -> { };
+
+    private final class Stripe implements Executor, Runnable {
+        private final ArrayBlockingQueue<Runnable> queue;
+        // once non-empty, new tasks go here until the worker catches up so they stay behind the queued ones
+        private final ConcurrentLinkedQueue<Runnable> overflow = new ConcurrentLinkedQueue<>();
+        // tasks the worker submits to itself, kept separate so the worker never blocks on its own full queue
+        private final ArrayDeque<Runnable> local = new ArrayDeque<>();
+        private final AtomicLong executed = new AtomicLong(), blocked = new AtomicLong(), overflowed = new AtomicLong(),
+                busyNanos = new AtomicLong(), blockedNanos = new AtomicLong();
+        // submitters between their shutdown check and enqueueing, the worker waits for them before exiting
+        private final AtomicInteger submitting = new AtomicInteger();
+        private final Thread worker;
+
+        private Stripe(int index, int capacity) {
+            queue = new ArrayBlockingQueue<>(capacity);
+            worker = new Thread(this, "warble-stripe-" + index);
+            worker.setDaemon(true);
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            if (Thread.currentThread() == worker) {
+                // still accepted while draining, the worker runs these before it exits
+                local.addLast(task);
+                return;
+            }
+
+            submitting.incrementAndGet();
+            try {
+                if (shutdown) {
+                    throw new RejectedExecutionException("Executor has been closed");
+                }
+                enqueue(task);
+            } finally {
+                submitting.decrementAndGet();
+            }
+        }
+
+        private void enqueue(Runnable task) {
+            if (overflow.isEmpty() && queue.offer(task)) {
+                return;
+            }
+            if (!blockWhenFull) {
+                overflowed.incrementAndGet();
+                overflow.add(task);
+                // the worker may have found both empty just before the add and be about to park on the queue
+                if (queue.isEmpty()) {
+                    queue.offer(WAKE);
+                }
+                return;
+            }
+
+            blocked.incrementAndGet();
+            final long start = System.nanoTime();
+            try {
+                queue.put(task);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("Interrupted while waiting for room in the queue", e);
+            } finally {
+                blockedNanos.addAndGet(System.nanoTime() - start);
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    Runnable task = queue.poll();
+                    if (task == null && (task = overflow.poll()) == null) {
+                        if (!shutdown) {
+                            task = queue.take();
+                        } else if (submitting.get() == 0 && queue.isEmpty() && overflow.isEmpty()) {
+                            return;
+                        } else {
+                            task = queue.poll(1, TimeUnit.MILLISECONDS);
+                        }
+                    }
+                    if (task != null) {
+                        runTask(task);
+                    }
+                    Runnable next;
+                    while ((next = local.pollFirst()) != null) {
+                        runTask(next);
+                    }
+                } catch (InterruptedException ignored) {
+                }
+            }
+        }
+
+        private void runTask(Runnable task) {
+            if (task == WAKE) {
+                return;
+            }
+            final long start = System.nanoTime();
+            try {
+                task.run();
+            } catch (RuntimeException | Error e) {
+                LOGGER.log(Level.WARNING, "Uncaught exception in callback", e);
+            } finally {
+                busyNanos.addAndGet(System.nanoTime() - start);
+                executed.incrementAndGet();
+            }
+        }
+    }
+
+    private final Stripe[] stripes;
+    private final boolean blockWhenFull;
+    private volatile boolean shutdown = false;
+
+    private StripedExecutor(Builder builder) {
+        blockWhenFull = builder.blockWhenFull;
+        stripes = new Stripe[builder.stripes];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe(i, builder.queueCapacity);
+            stripes[i].worker.start();
+        }
+    }
+
+    static int index(long key, int count) {
+        // mix the bits since MAC addresses from one vendor share their upper bytes
+        long h = key * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        return (int) ((h & Long.MAX_VALUE) % count);
+    }
+
+    /**
+     * Get the executor that runs callbacks for a device.  Every call with the same MAC address returns the same
+     * worker's executor
+     * @param mac MAC address of the device
+     * @return Executor for the device
+     */
+    public Executor forDevice(String mac) {
+        final long packed = MacAddress.pack(mac);
+        return stripes[index(packed == MacAddress.INVALID ? mac.hashCode() : packed, stripes.length)];
+    }
+
+    /**
+     * Get the number of worker threads
+     * @return Stripe count
+     */
+    public int getStripeCount() {
+        return stripes.length;
+    }
+
+    /**
+     * Copies the current load figures of each worker, the stripe for a device is the one its executor maps to
+     * @return Stats indexed by stripe
+     */
+    public StripeStats[] getStats() {
+        final StripeStats[] stats = new StripeStats[stripes.length];
+        for (int i = 0; i < stripes.length; i++) {
+            stats[i] = new StripeStats(stripes[i]);
+        }
+        return stats;
+    }
+
+    /**
+     * Get the stripe a device's callbacks run on
+     * @param mac MAC address of the device
+     * @return Index into {@link #getStats()}
+     */
+    public int stripeOf(String mac) {
+        final Executor executor = forDevice(mac);
+        for (int i = 0; i < stripes.length; i++) {
+            if (stripes[i] == executor) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Stops the worker threads once they have run the tasks already queued, so pending callbacks still complete.
+     * Further submissions are rejected with a {@link RejectedExecutionException}
+     */
+    @Override
+    public void close() {
+        shutdown = true;
+        for (Stripe stripe : stripes) {
+            // wakes a worker parked on its empty queue so it sees the shutdown
+            stripe.queue.offer(WAKE);
+        }
+    }
+}
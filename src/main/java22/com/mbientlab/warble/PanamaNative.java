@@ -0,0 +1,608 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.io.File;
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SymbolLookup;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jnr.ffi.Pointer;
+import jnr.ffi.Runtime;
+import jnr.ffi.Struct;
+
+import static java.lang.foreign.ValueLayout.ADDRESS;
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+import static java.lang.foreign.ValueLayout.JAVA_SHORT;
+
+/**
+ * Binds the Warble C library with the Foreign Function and Memory API instead of jnr-ffi.  Only included in the
+ * Java 22 part of the multi-release jar; select it by setting the <code>warble.native</code> system property to
+ * <code>panama</code>.
+ * <p>
+ * Each callback type has one upcall stub, created when the library is loaded, that looks up the Java handler by
+ * the native object it was called for, or for notifications, by the context it was registered with.  Pointers passed
+ * to handlers wrap the native address directly, so payloads are read straight out of native memory.
+ */
+final class PanamaNative implements Native {
+    private static final Logger LOGGER = Logger.getLogger("com.mbientlab.warble");
+    private static final Linker LINKER = Linker.nativeLinker();
+    private static final Runtime RUNTIME = Runtime.getSystemRuntime();
+    // pointers the Java side never dereferences are passed as integers so calls do not allocate a MemorySegment,
+    // the FFM API only runs on 64-bit platforms
+    private static final ValueLayout HANDLE = JAVA_LONG;
+    private static final int SCRATCH_SIZE = 512;
+    // argument buffer for strings and values; the native library copies them before it calls back into Java
+    private static final ThreadLocal<MemorySegment> SCRATCH = ThreadLocal.withInitial(() -> Arena.ofAuto().allocate(SCRATCH_SIZE));
+
+    private static SymbolLookup findLibrary() {
+        final String name = System.mapLibraryName("warble");
+        for (String property : new String[] {"jnr.ffi.library.path", "java.library.path"}) {
+            final String paths = System.getProperty(property);
+            if (paths == null) {
+                continue;
+            }
+            for (String path : paths.split(File.pathSeparator)) {
+                final File file = new File(path, name);
+                if (file.isFile()) {
+                    return SymbolLookup.libraryLookup(file.toPath(), Arena.global());
+                }
+            }
+        }
+        return SymbolLookup.libraryLookup(name, Arena.global());
+    }
+
+    private static RuntimeException rethrow(Throwable t) {
+        if (t instanceof RuntimeException) {
+            return (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        return new IllegalStateException(t);
+    }
+
+    private static Pointer wrap(long address) {
+        return address == 0 ? null : Pointer.wrap(RUNTIME, address);
+    }
+
+    private static long address(Pointer pointer) {
+        return pointer == null ? 0 : pointer.address();
+    }
+
+    private static long address(Struct struct) {
+        return struct == null ? 0 : Struct.getMemory(struct).address();
+    }
+
+    private static long options(int length, Option[] options) {
+        // Struct.arrayOf places the structs back to back in direct memory, the layout the library expects
+        return length == 0 || options == null ? 0 : address(options[0]);
+    }
+
+    private static String string(MemorySegment segment) {
+        return segment.equals(MemorySegment.NULL) ? null : segment.reinterpret(Long.MAX_VALUE).getString(0);
+    }
+
+    private static MemorySegment scratch(String value) {
+        final byte[] bytes = value.getBytes(StandardCharsets.US_ASCII);
+        if (bytes.length >= SCRATCH_SIZE) {
+            throw new IllegalArgumentException("String argument too long: " + value);
+        }
+
+        final MemorySegment segment = SCRATCH.get();
+        MemorySegment.copy(bytes, 0, segment, JAVA_BYTE, 0, bytes.length);
+        segment.set(JAVA_BYTE, bytes.length, (byte) 0);
+        return segment;
+    }
+
+    private static MemorySegment scratch(byte[] value, int length) {
+        final MemorySegment segment = SCRATCH.get();
+        MemorySegment.copy(value, 0, segment, JAVA_BYTE, 0, length);
+        return segment;
+    }
+
+    private static final class NotificationSlot {
+        final long gattchar;
+        final Pointer gattcharPointer, context;
+        final FnVoid_VoidP_WarbleGattCharP_UbyteP_Ubyte handler;
+
+        NotificationSlot(long gattchar, Pointer context, FnVoid_VoidP_WarbleGattCharP_UbyteP_Ubyte handler) {
+            this.gattchar = gattchar;
+            this.gattcharPointer = wrap(gattchar);
+            this.context = context;
+            this.handler = handler;
+        }
+    }
+
+    private final SymbolLookup symbols = findLibrary();
+
+    private final MethodHandle libVersion = downcall("warble_lib_version", FunctionDescriptor.of(ADDRESS)),
+            libConfig = downcall("warble_lib_config", FunctionDescriptor.of(ADDRESS)),
+            libInit = downcall("warble_lib_init", FunctionDescriptor.ofVoid(JAVA_INT, HANDLE)),
+            scannerStop = downcall("warble_scanner_stop", FunctionDescriptor.ofVoid()),
+            scannerStart = downcall("warble_scanner_start", FunctionDescriptor.ofVoid(JAVA_INT, HANDLE)),
+            scannerSetHandler = downcall("warble_scanner_set_handler", FunctionDescriptor.ofVoid(HANDLE, ADDRESS)),
+            getManufacturerData = downcall("warble_scan_result_get_manufacturer_data", FunctionDescriptor.of(HANDLE, HANDLE, JAVA_SHORT)),
+            hasServiceUuid = downcall("warble_scan_result_has_service_uuid", FunctionDescriptor.of(JAVA_INT, HANDLE, ADDRESS)),
+            connectAsync = downcall("warble_gatt_connect_async", FunctionDescriptor.ofVoid(HANDLE, HANDLE, ADDRESS)),
+            disconnect = downcall("warble_gatt_disconnect", FunctionDescriptor.ofVoid(HANDLE)),
+            delete = downcall("warble_gatt_delete", FunctionDescriptor.ofVoid(HANDLE)),
+            onDisconnect = downcall("warble_gatt_on_disconnect", FunctionDescriptor.ofVoid(HANDLE, HANDLE, ADDRESS)),
+            isConnected = downcall("warble_gatt_is_connected", FunctionDescriptor.of(JAVA_INT, HANDLE)),
+            create = downcall("warble_gatt_create", FunctionDescriptor.of(HANDLE, ADDRESS)),
+            createWithOptions = downcall("warble_gatt_create_with_options", FunctionDescriptor.of(HANDLE, JAVA_INT, HANDLE)),
+            findCharacteristic = downcall("warble_gatt_find_characteristic", FunctionDescriptor.of(HANDLE, HANDLE, ADDRESS)),
+            hasService = downcall("warble_gatt_has_service", FunctionDescriptor.of(JAVA_INT, HANDLE, ADDRESS)),
+            disableNotifications = downcall("warble_gattchar_disable_notifications_async", FunctionDescriptor.ofVoid(HANDLE, HANDLE, ADDRESS)),
+            writeWithoutResp = downcall("warble_gattchar_write_without_resp_async", FunctionDescriptor.ofVoid(HANDLE, ADDRESS, JAVA_BYTE, HANDLE, ADDRESS)),
+            read = downcall("warble_gattchar_read_async", FunctionDescriptor.ofVoid(HANDLE, HANDLE, ADDRESS)),
+            write = downcall("warble_gattchar_write_async", FunctionDescriptor.ofVoid(HANDLE, ADDRESS, JAVA_BYTE, HANDLE, ADDRESS)),
+            enableNotifications = downcall("warble_gattchar_enable_notifications_async", FunctionDescriptor.ofVoid(HANDLE, HANDLE, ADDRESS)),
+            onNotification = downcall("warble_gattchar_on_notification_received", FunctionDescriptor.ofVoid(HANDLE, HANDLE, ADDRESS)),
+            getUuid = downcall("warble_gattchar_get_uuid", FunctionDescriptor.of(ADDRESS, HANDLE)),
+            getGatt = downcall("warble_gattchar_get_gatt", FunctionDescriptor.of(HANDLE, HANDLE));
+
+    private final MemorySegment scanStub = upcall("onScanResult", FunctionDescriptor.ofVoid(HANDLE, HANDLE)),
+            connectStub = upcall("onConnect", FunctionDescriptor.ofVoid(HANDLE, HANDLE, ADDRESS)),
+            disconnectStub = upcall("onDisconnect", FunctionDescriptor.ofVoid(HANDLE, HANDLE, JAVA_INT)),
+            completionStub = upcall("onCompletion", FunctionDescriptor.ofVoid(HANDLE, HANDLE, ADDRESS)),
+            readStub = upcall("onRead", FunctionDescriptor.ofVoid(HANDLE, HANDLE, HANDLE, JAVA_BYTE, ADDRESS)),
+            notificationStub = upcall("onNotification", FunctionDescriptor.ofVoid(HANDLE, HANDLE, HANDLE, JAVA_BYTE));
+
+    private volatile FnVoid_VoidP_WarbleScanResultP scanHandler;
+    private final Map<Long, FnVoid_IntPtr_WarbleGattP_CharP> connectHandlers = new ConcurrentHashMap<>();
+    private final Map<Long, FnVoid_IntPtr_WarbleGattP_Int> disconnectHandlers = new ConcurrentHashMap<>();
+    private final Map<Long, FnVoid_VoidP_WarbleGattCharP_CharP> completionHandlers = new ConcurrentHashMap<>();
+    private final Map<Long, FnVoid_VoidP_WarbleGattCharP_UbyteP_Ubyte_CharP> readHandlers = new ConcurrentHashMap<>();
+    // characteristic address to the address of the gatt object that owns it
+    private final Map<Long, Long> owners = new ConcurrentHashMap<>();
+    // notification handlers are found by the index passed to the library as their context, skipping a map lookup
+    private volatile NotificationSlot[] notificationSlots = new NotificationSlot[16];
+
+    PanamaNative() {
+    }
+
+    private MethodHandle downcall(String name, FunctionDescriptor descriptor) {
+        return LINKER.downcallHandle(symbols.find(name).orElseThrow(() -> new UnsatisfiedLinkError("Cannot find symbol: " + name)), descriptor);
+    }
+
+    private MemorySegment upcall(String name, FunctionDescriptor descriptor) {
+        try {
+            final MethodHandle target = MethodHandles.lookup()
+                    .findVirtual(PanamaNative.class, name, descriptor.toMethodType())
+                    .bindTo(this);
+            return LINKER.upcallStub(target, descriptor, Arena.global());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot create upcall stub: " + name, e);
+        }
+    }
+
+    // exceptions cannot propagate out of an upcall, the JVM would terminate
+    private static void uncaught(Throwable t) {
+        LOGGER.log(Level.WARNING, "Uncaught exception in native callback", t);
+    }
+
+    private void onScanResult(long context, long result) {
+        final FnVoid_VoidP_WarbleScanResultP handler = scanHandler;
+        if (handler != null) {
+            try {
+                handler.apply(wrap(context), wrap(result));
+            } catch (Throwable t) {
+                uncaught(t);
+            }
+        }
+    }
+
+    private void onConnect(long context, long gatt, MemorySegment err) {
+        final FnVoid_IntPtr_WarbleGattP_CharP handler = connectHandlers.get(gatt);
+        if (handler != null) {
+            try {
+                handler.apply(wrap(context), wrap(gatt), string(err));
+            } catch (Throwable t) {
+                uncaught(t);
+            }
+        }
+    }
+
+    private void onDisconnect(long context, long gatt, int status) {
+        final FnVoid_IntPtr_WarbleGattP_Int handler = disconnectHandlers.get(gatt);
+        if (handler != null) {
+            try {
+                handler.apply(wrap(context), wrap(gatt), status);
+            } catch (Throwable t) {
+                uncaught(t);
+            }
+        }
+    }
+
+    private void onCompletion(long context, long gattchar, MemorySegment err) {
+        final FnVoid_VoidP_WarbleGattCharP_CharP handler = completionHandlers.get(gattchar);
+        if (handler != null) {
+            try {
+                handler.apply(wrap(context), wrap(gattchar), string(err));
+            } catch (Throwable t) {
+                uncaught(t);
+            }
+        }
+    }
+
+    private void onRead(long context, long gattchar, long value, byte length, MemorySegment err) {
+        final FnVoid_VoidP_WarbleGattCharP_UbyteP_Ubyte_CharP handler = readHandlers.get(gattchar);
+        if (handler != null) {
+            try {
+                handler.apply(wrap(context), wrap(gattchar), wrap(value), length, string(err));
+            } catch (Throwable t) {
+                uncaught(t);
+            }
+        }
+    }
+
+    private void onNotification(long context, long gattchar, long value, byte length) {
+        final NotificationSlot[] slots = notificationSlots;
+        final int index = (int) context - 1;
+        final NotificationSlot slot = index >= 0 && index < slots.length ? slots[index] : null;
+        if (slot != null && slot.gattchar == gattchar) {
+            try {
+                slot.handler.apply(slot.context, slot.gattcharPointer, wrap(value), length);
+            } catch (Throwable t) {
+                uncaught(t);
+            }
+        }
+    }
+
+    // returns the context to give the library, 0 if the handler was removed
+    private synchronized long registerNotifications(long gattchar, Pointer context, FnVoid_VoidP_WarbleGattCharP_UbyteP_Ubyte handler) {
+        NotificationSlot[] slots = notificationSlots;
+        int free = -1;
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i] != null && slots[i].gattchar == gattchar) {
+                slots[i] = null;
+                free = i;
+            } else if (slots[i] == null && free < 0) {
+                free = i;
+            }
+        }
+        if (handler == null) {
+            return 0;
+        }
+
+        if (free < 0) {
+            free = slots.length;
+            slots = Arrays.copyOf(slots, slots.length << 1);
+        }
+        slots[free] = new NotificationSlot(gattchar, context, handler);
+        // volatile write publishes the new slot
+        notificationSlots = slots;
+        return free + 1;
+    }
+
+    private synchronized void removeNotifications(long gattchar) {
+        final NotificationSlot[] slots = notificationSlots;
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i] != null && slots[i].gattchar == gattchar) {
+                slots[i] = null;
+            }
+        }
+        notificationSlots = slots;
+    }
+
+    private static <T> MemorySegment register(Map<Long, T> handlers, Pointer owner, T handler, MemorySegment stub) {
+        if (handler == null) {
+            handlers.remove(owner.address());
+            return MemorySegment.NULL;
+        }
+        handlers.put(owner.address(), handler);
+        return stub;
+    }
+
+    @Override
+    public String warble_lib_version() {
+        try {
+            return string((MemorySegment) libVersion.invokeExact());
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @Override
+    public String warble_lib_config() {
+        try {
+            return string((MemorySegment) libConfig.invokeExact());
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @Override
+    public void warble_lib_init(int length, Option[] options) {
+        try {
+            libInit.invokeExact(length, options(length, options));
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @Override
+    public void warble_scanner_stop() {
+        try {
+            scannerStop.invokeExact();
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @Override
+    public void warble_scanner_start(int length, Option[] options) {
+        try {
+            scannerStart.invokeExact(length, options(length, options));
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @Override
+    public void warble_scanner_set_handler(Pointer context, FnVoid_VoidP_WarbleScanResultP handler) {
+        scanHandler = handler;
+        final MemorySegment stub = handler == null ? MemorySegment.NULL : scanStub;
+        try {
+            scannerSetHandler.invokeExact(address(context), stub);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @Override
+    public ScanManufacturerData warble_scan_result_get_manufacturer_data(ScanResult result, short companyId) {
+        final Pointer data = warble_scan_result_get_manufacturer_data(Struct.getMemory(result), companyId);
+        if (data == null) {
+            return null;
+        }
+
+        final ScanManufacturerData struct = new ScanManufacturerData(RUNTIME);
+        struct.useMemory(data);
+        return struct;
+    }
+
+    @Override
+    public Pointer warble_scan_result_get_manufacturer_data(Pointer result, short companyId) {
+        try {
+            return wrap((long) getManufacturerData.invokeExact(address(result), companyId));
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @Override
+    public int warble_scan_result_has_service_uuid(ScanResult result, String uuid) {
+        try {
+            return (int) hasServiceUuid.invokeExact(address(result), scratch(uuid));
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @Override
+    public int warble_scan_result_has_service_uuid(Pointer result, byte[] uuid) {
+        try {
+            return (int) hasServiceUuid.invokeExact(address(result), scratch(uuid, uuid.length));
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @Override
+    public void warble_gatt_connect_async(Pointer gatt, Pointer context, FnVoid_IntPtr_WarbleGattP_CharP handler) {
+        final MemorySegment stub = register(connectHandlers, gatt, handler, connectStub);
+        try {
+            connectAsync.invokeExact(address(gatt), address(context), stub);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @Override
+    public void warble_gatt_disconnect(Pointer gatt) {
+        try {
+            disconnect.invokeExact(address(gatt));
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @Override
+    public void warble_gatt_delete(Pointer gatt) {
+        try {
+            delete.invokeExact(address(gatt));
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+
+        final Long key = gatt.address();
+        connectHandlers.remove(key);
+        disconnectHandlers.remove(key);
+        owners.entrySet().removeIf(entry -> {
+            if (entry.getValue().equals(key)) {
+                completionHandlers.remove(entry.getKey());
+                readHandlers.remove(entry.getKey());
+                removeNotifications(entry.getKey());
+                return true;
+            }
+            return false;
+        });
+    }
+
+    @Override
+    public void warble_gatt_on_disconnect(Pointer gatt, Pointer context, FnVoid_IntPtr_WarbleGattP_Int handler) {
+        final MemorySegment stub = register(disconnectHandlers, gatt, handler, disconnectStub);
+        try {
+            onDisconnect.invokeExact(address(gatt), address(context), stub);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @Override
+    public int warble_gatt_is_connected(Pointer gatt) {
+        try {
+            return (int) isConnected.invokeExact(address(gatt));
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @Override
+    public Pointer warble_gatt_create(String mac) {
+        try {
+            return wrap((long) create.invokeExact(scratch(mac)));
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @Override
+    public Pointer warble_gatt_create_with_options(int length, Option[] options) {
+        try {
+            return wrap((long) createWithOptions.invokeExact(length, options(length, options)));
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @Override
+    public Pointer warble_gatt_find_characteristic(Pointer gatt, String uuid) {
+        final long gattchar;
+        try {
+            gattchar = (long) findCharacteristic.invokeExact(address(gatt), scratch(uuid));
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+
+        if (gattchar != 0) {
+            owners.put(gattchar, gatt.address());
+        }
+        return wrap(gattchar);
+    }
+
+    @Override
+    public int warble_gatt_has_service(Pointer gatt, String uuid) {
+        try {
+            return (int) hasService.invokeExact(address(gatt), scratch(uuid));
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @Override
+    public void warble_gattchar_disable_notifications_async(Pointer gattchar, Pointer context, FnVoid_VoidP_WarbleGattCharP_CharP handler) {
+        final MemorySegment stub = register(completionHandlers, gattchar, handler, completionStub);
+        try {
+            disableNotifications.invokeExact(address(gattchar), address(context), stub);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @Override
+    public void warble_gattchar_write_without_resp_async(Pointer gattchar, byte[] value, byte value_size, Pointer context, FnVoid_VoidP_WarbleGattCharP_CharP handler) {
+        final MemorySegment stub = register(completionHandlers, gattchar, handler, completionStub);
+        try {
+            writeWithoutResp.invokeExact(address(gattchar), scratch(value, value_size & 0xff), value_size, address(context), stub);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @Override
+    public void warble_gattchar_read_async(Pointer gattchar, Pointer context, FnVoid_VoidP_WarbleGattCharP_UbyteP_Ubyte_CharP handler) {
+        final MemorySegment stub = register(readHandlers, gattchar, handler, readStub);
+        try {
+            read.invokeExact(address(gattchar), address(context), stub);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @Override
+    public void warble_gattchar_write_async(Pointer gattchar, byte[] value, byte value_size, Pointer context, FnVoid_VoidP_WarbleGattCharP_CharP handler) {
+        final MemorySegment stub = register(completionHandlers, gattchar, handler, completionStub);
+        try {
+            write.invokeExact(address(gattchar), scratch(value, value_size & 0xff), value_size, address(context), stub);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @Override
+    public void warble_gattchar_enable_notifications_async(Pointer gattchar, Pointer context, FnVoid_VoidP_WarbleGattCharP_CharP handler) {
+        final MemorySegment stub = register(completionHandlers, gattchar, handler, completionStub);
+        try {
+            enableNotifications.invokeExact(address(gattchar), address(context), stub);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @Override
+    public void warble_gattchar_on_notification_received(Pointer gattchar, Pointer context, FnVoid_VoidP_WarbleGattCharP_UbyteP_Ubyte handler) {
+        final long slot = registerNotifications(gattchar.address(), context, handler);
+        final MemorySegment stub = handler == null ? MemorySegment.NULL : notificationStub;
+        try {
+            onNotification.invokeExact(address(gattchar), slot, stub);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @Override
+    public String warble_gattchar_get_uuid(Pointer gattchar) {
+        try {
+            return string((MemorySegment) getUuid.invokeExact(address(gattchar)));
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @Override
+    public Pointer warble_gattchar_get_gatt(Pointer gattchar) {
+        try {
+            return wrap((long) getGatt.invokeExact(address(gattchar)));
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+}
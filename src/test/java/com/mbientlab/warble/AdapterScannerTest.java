@@ -0,0 +1,139 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import jnr.ffi.Pointer;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import static org.testng.AssertJUnit.*;
+
+public class AdapterScannerTest {
+    private static final String DEVICE = "C8:4B:AA:97:50:05";
+
+    private StubNative stub;
+    private AdapterScanner first, second;
+    private MergedScanView view;
+
+    @BeforeMethod
+    public void setUp() {
+        stub = (StubNative) Library.WARBLE;
+        first = new AdapterScanner("00:1A:7D:DA:71:01");
+        second = new AdapterScanner("00:1A:7D:DA:71:02");
+        view = new MergedScanView.Builder()
+                .withDeduplicationWindow(1, TimeUnit.HOURS)
+                .withExpiry(0, TimeUnit.SECONDS)
+                .build();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        first.stop();
+        second.stop();
+        view.stop();
+    }
+
+    @Test
+    public void stoppingActiveAdapterMovesScan() {
+        first.start();
+        second.start();
+        assertTrue(first.isActive());
+        assertTrue(stub.scanning);
+
+        first.stop();
+        assertTrue(second.isActive());
+        assertTrue(stub.scanning);
+
+        second.stop();
+        assertFalse(second.isActive());
+        assertFalse(stub.scanning);
+    }
+
+    @Test
+    public void resultsGoToActiveAdapter() {
+        final List<String> firstMacs = new ArrayList<>(), secondMacs = new ArrayList<>();
+        first.onResultReceived(result -> firstMacs.add(result.getMac()));
+        second.onResultReceived(result -> secondMacs.add(result.getMac()));
+
+        first.start();
+        second.start();
+        stub.deliverScanResult(stub.scanResult(DEVICE, "MetaWear", -60));
+        first.stop();
+        stub.deliverScanResult(stub.scanResult(DEVICE, "MetaWear", -60));
+
+        assertEquals(1, firstMacs.size());
+        assertEquals(1, secondMacs.size());
+    }
+
+    @Test
+    public void mergesSightingsAcrossAdapters() {
+        final List<MergedScanView.Device> reported = new ArrayList<>();
+        view.onDevice = reported::add;
+        first.onResultReceived(view);
+        second.onResultReceived(view);
+
+        final Pointer near = stub.scanResult(DEVICE, "MetaWear", -50), far = stub.scanResult(DEVICE, "MetaWear", -80);
+        first.start();
+        second.start();
+        stub.deliverScanResult(far);
+        first.stop();
+        stub.deliverScanResult(near);
+        stub.deliverScanResult(near);
+
+        assertEquals(1, reported.size());
+        assertEquals(1, view.size());
+
+        final MergedScanView.Device device = view.get(DEVICE);
+        assertEquals("MetaWear", device.name);
+        assertEquals(2, device.sightings.size());
+        assertEquals(second.hci, device.getStrongest().hci);
+        assertEquals(-50, device.getStrongest().rssi);
+        assertEquals(-80, device.sightings.get(1).rssi);
+    }
+
+    @Test
+    public void throwingLostHandlerDoesNotStopExpiry() throws InterruptedException {
+        final MergedScanView expiring = new MergedScanView.Builder().withExpiry(20, TimeUnit.MILLISECONDS).build();
+        final BlockingQueue<String> lost = new LinkedBlockingQueue<>();
+        expiring.onDeviceLost = device -> {
+            lost.add(device.getMac());
+            throw new IllegalStateException("handler failure");
+        };
+
+        try {
+            expiring.accept(first, stub.scanResult(DEVICE, "MetaWear", -60));
+            assertEquals(DEVICE, lost.poll(1, TimeUnit.SECONDS));
+            expiring.accept(first, stub.scanResult("C8:4B:AA:97:50:06", "MetaWear", -60));
+            assertEquals("C8:4B:AA:97:50:06", lost.poll(1, TimeUnit.SECONDS));
+        } finally {
+            expiring.stop();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Test;
+import static org.testng.AssertJUnit.*;
+
+public class ArrivalStatsTest {
+    private static final long PERIOD = TimeUnit.MILLISECONDS.toNanos(10);
+
+    @Test
+    public void steadyStream() {
+        ArrivalStats stats = new ArrivalStats(PERIOD);
+        for (int i = 0; i < 100; i++) {
+            stats.record(i * PERIOD + (i % 2 == 0 ? 0 : 1000));
+        }
+
+        assertEquals(100, stats.getCount());
+        assertEquals(10.0, stats.getMeanInterval(TimeUnit.MILLISECONDS), 0.01);
+        assertEquals(1000.0, stats.getJitter(99, TimeUnit.NANOSECONDS), 0.0);
+        assertEquals(0, stats.getGapCount());
+        assertEquals(0, stats.getEstimatedDropped());
+    }
+
+    @Test
+    public void estimatesDropsFromGaps() {
+        ArrivalStats stats = new ArrivalStats(PERIOD);
+        long time = 0;
+        for (int i = 0; i < 10; i++) {
+            stats.record(time += PERIOD);
+        }
+        // 3 notifications missing
+        stats.record(time += 4 * PERIOD);
+        stats.record(time + PERIOD);
+
+        assertEquals(1, stats.getGapCount());
+        assertEquals(3, stats.getEstimatedDropped());
+    }
+
+    @Test
+    public void usesRollingMeanWithoutExpectedInterval() {
+        ArrivalStats stats = new ArrivalStats(0);
+        long time = 0;
+        for (int i = 0; i < 50; i++) {
+            stats.record(time += PERIOD);
+        }
+        stats.record(time + 3 * PERIOD);
+
+        assertEquals(1, stats.getGapCount());
+        assertEquals(2, stats.getEstimatedDropped());
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import static org.testng.AssertJUnit.*;
+
+public class AttributeCacheTest {
+    private static final String MAC = "D4:CA:6E:01:A2:B3", OTHER_MAC = "C8:4B:AA:97:50:05";
+    private static final GattUuid SERVICE = GattUuid.parse("326a9000-85cb-9195-d9dd-464cfbbae75a"),
+            NOTIFY = GattUuid.parse("326a9006-85cb-9195-d9dd-464cfbbae75a"),
+            MISSING = GattUuid.fromShort(0x2a29);
+
+    private Path directory, file;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("attributes");
+        file = directory.resolve("attributes.bin");
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path it : (Iterable<Path>) files::iterator) {
+                Files.delete(it);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    private void populate(AttributeCache cache) {
+        final AttributeCache.Entry entry = cache.bind(MAC, 42);
+        entry.services.put(SERVICE, true);
+        entry.characteristics.put(NOTIFY, true);
+        entry.characteristics.put(MISSING, false);
+        cache.bind(OTHER_MAC, 7).services.put(SERVICE, false);
+    }
+
+    @Test
+    public void roundTrips() throws IOException {
+        final AttributeCache cache = AttributeCache.open(file);
+        assertEquals(0, cache.size());
+        populate(cache);
+        cache.save();
+
+        final AttributeCache loaded = AttributeCache.open(file);
+        assertEquals(2, loaded.size());
+
+        final AttributeCache.Entry entry = loaded.bind(MAC.toLowerCase(), 42);
+        assertTrue(entry.isWarm());
+        assertEquals(Boolean.TRUE, entry.services.get(SERVICE));
+        assertEquals(Boolean.TRUE, entry.characteristics.get(NOTIFY));
+        assertEquals(Boolean.FALSE, entry.characteristics.get(MISSING));
+        assertEquals(Boolean.FALSE, loaded.bind(OTHER_MAC, 7).services.get(SERVICE));
+    }
+
+    @Test
+    public void invalidates() throws IOException {
+        final AttributeCache cache = AttributeCache.open(file);
+        populate(cache);
+
+        // a different attribute database replaces the entry
+        assertFalse(cache.bind(MAC, 43).isWarm());
+        assertEquals(2, cache.size());
+
+        cache.invalidate(OTHER_MAC);
+        assertEquals(1, cache.size());
+        cache.save();
+
+        final AttributeCache loaded = AttributeCache.open(file);
+        assertEquals(1, loaded.size());
+        assertFalse(loaded.bind(MAC, 42).isWarm());
+        assertFalse(loaded.bind(OTHER_MAC, 7).isWarm());
+    }
+
+    @Test
+    public void ignoresCorruptFile() throws IOException {
+        Files.write(file, new byte[] {0x12, 0x34, 0x56, 0x78, 0, 0, 0, 1, 0, 0, 0, 5});
+        assertEquals(0, AttributeCache.open(file).size());
+
+        Files.write(file, new byte[0]);
+        assertEquals(0, AttributeCache.open(file).size());
+    }
+
+    @Test
+    public void ignoresTruncatedFile() throws IOException {
+        final AttributeCache cache = AttributeCache.open(file);
+        populate(cache);
+        cache.save();
+
+        final byte[] contents = Files.readAllBytes(file);
+        for (int length : new int[] {4, 12, 20, contents.length - 1}) {
+            Files.write(file, Arrays.copyOf(contents, length));
+            // a partial file is dropped as a whole rather than loading some of the entries
+            assertEquals(0, AttributeCache.open(file).size());
+        }
+
+        // the cache keeps working and replaces the damaged file on the next save
+        final AttributeCache recovered = AttributeCache.open(file);
+        populate(recovered);
+        recovered.save();
+        assertEquals(2, AttributeCache.open(file).size());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void rejectsInvalidMac() throws IOException {
+        AttributeCache.open(file).bind("D4:CA:6E:01:A2", 42);
+    }
+
+    @Test
+    public void savesWhileLookupsRun() throws Exception {
+        final AttributeCache cache = AttributeCache.open(file);
+        final Thread writer = new Thread(() -> {
+            for (int i = 0; i < 20000; i++) {
+                final AttributeCache.Entry entry = cache.bind(MacAddress.toString(i % 512), 42);
+                entry.characteristics.put(GattUuid.fromShort(i % 64), true);
+            }
+        });
+        writer.start();
+
+        while (writer.isAlive()) {
+            cache.save();
+            // every record must line up with its count, a misaligned file loads hashes that were never written
+            final AttributeCache loaded = AttributeCache.open(file);
+            assertTrue(loaded.size() <= 512);
+            for (int i = 0; i < 512; i++) {
+                assertTrue(loaded.bind(MacAddress.toString(i), 42).characteristics.values().stream().allMatch(it -> it));
+            }
+        }
+        writer.join();
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import static org.testng.AssertJUnit.*;
+
+public class BulkWriterTest {
+    private StubNative stub;
+    private Gatt gatt;
+    private GattCharacteristic gattChar;
+    private byte[] payload;
+
+    @BeforeMethod
+    public void setUp() throws InterruptedException {
+        stub = (StubNative) Library.WARBLE;
+        gattChar = stub.connectedCharacteristic(new Gatt.Builder("D4:CA:6E:01:A2:B3"));
+        gatt = gattChar.owner;
+
+        payload = new byte[40];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) i;
+        }
+        stub.holdCompletions = true;
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        stub.holdCompletions = false;
+        while (stub.release(null)) {
+        }
+        gatt.close();
+    }
+
+    private void releaseAll() {
+        while (stub.release(null)) {
+        }
+    }
+
+    private byte[] written() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] chunk : stub.writes) {
+            out.write(chunk);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void keepsWindowQueued() throws Exception {
+        final BulkWriter writer = new BulkWriter.Builder(gattChar).withChunkSize(4).withWindow(3).withCheckpointInterval(0).build();
+        final CompletableFuture<Long> transfer = writer.write(ByteBuffer.wrap(payload));
+
+        // one chunk with the native library, the rest of the window in the operation queue
+        assertEquals(1, stub.writes.size());
+        assertEquals(2, gatt.getOperationQueue().getQueuedCount());
+
+        stub.release(null);
+        assertEquals(2, stub.writes.size());
+        assertEquals(2, gatt.getOperationQueue().getQueuedCount());
+        assertEquals(4, writer.getBytesWritten());
+
+        releaseAll();
+        assertEquals(40L, (long) transfer.get(1, TimeUnit.SECONDS));
+        assertEquals(10, stub.writes.size());
+        assertArrayEquals(payload, written());
+    }
+
+    @Test
+    public void waitsForCheckpoint() {
+        final BulkWriter writer = new BulkWriter.Builder(gattChar).withChunkSize(4).withWindow(8).withCheckpointInterval(2).build();
+        writer.write(ByteBuffer.wrap(payload));
+
+        // chunk 2 is acknowledged, nothing after it is queued until it completes
+        assertEquals(1, stub.writes.size());
+        assertEquals(1, gatt.getOperationQueue().getQueuedCount());
+        stub.release(null);
+        assertEquals(0, gatt.getOperationQueue().getQueuedCount());
+        stub.release(null);
+        assertEquals(1, gatt.getOperationQueue().getQueuedCount());
+        assertEquals(3, stub.writes.size());
+    }
+
+    @Test
+    public void pausesAndResumes() throws Exception {
+        final BulkWriter writer = new BulkWriter.Builder(gattChar).withChunkSize(4).withWindow(2).withCheckpointInterval(0).build();
+        final CompletableFuture<Long> transfer = writer.write(ByteBuffer.wrap(payload));
+
+        writer.pause();
+        assertTrue(writer.isPaused());
+        releaseAll();
+        assertEquals(2, stub.writes.size());
+        assertEquals(8, writer.getBytesWritten());
+        assertFalse(transfer.isDone());
+
+        writer.resume();
+        releaseAll();
+        assertEquals(40L, (long) transfer.get(1, TimeUnit.SECONDS));
+        assertArrayEquals(payload, written());
+    }
+
+    @Test
+    public void failsOnWriteError() {
+        final BulkWriter writer = new BulkWriter.Builder(gattChar).withChunkSize(4).build();
+        final CompletableFuture<Long> transfer = writer.write(ByteBuffer.wrap(payload));
+
+        stub.release("Write rejected");
+        try {
+            transfer.get(1, TimeUnit.SECONDS);
+            fail("Transfer should have failed");
+        } catch (Exception e) {
+            assertTrue(e instanceof ExecutionException);
+            assertTrue(e.getCause() instanceof GattCharacteristicException);
+        }
+
+        // the queue issued the next chunk before the failure reached the writer, the rest of the window is dropped
+        releaseAll();
+        assertEquals(2, stub.writes.size());
+        assertEquals(0, gatt.getOperationQueue().getQueuedCount());
+    }
+
+    @Test
+    public void cancelDropsQueuedChunks() {
+        final BulkWriter writer = new BulkWriter.Builder(gattChar).withChunkSize(4).withWindow(4).withCheckpointInterval(0).build();
+        final CompletableFuture<Long> transfer = writer.write(ByteBuffer.wrap(payload));
+        assertEquals(3, gatt.getOperationQueue().getQueuedCount());
+
+        transfer.cancel(false);
+        releaseAll();
+        assertEquals(1, stub.writes.size());
+        assertEquals(0, gatt.getOperationQueue().getQueuedCount());
+    }
+
+    @Test
+    public void failsWhenProgressHandlerThrows() {
+        final BulkWriter writer = new BulkWriter.Builder(gattChar).withChunkSize(4).build();
+        final IllegalStateException thrown = new IllegalStateException("handler failure");
+        writer.onProgress = w -> {
+            throw thrown;
+        };
+        final CompletableFuture<Long> transfer = writer.write(ByteBuffer.wrap(payload));
+
+        stub.release(null);
+        try {
+            transfer.get(1, TimeUnit.SECONDS);
+            fail("Transfer should have failed");
+        } catch (Exception e) {
+            assertSame(thrown, e.getCause());
+        }
+    }
+}
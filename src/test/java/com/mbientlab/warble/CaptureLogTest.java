@@ -0,0 +1,153 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import static org.testng.AssertJUnit.*;
+
+public class CaptureLogTest {
+    private static final String DEVICE = "D4:CA:6E:01:A2:B3", CHARACTERISTIC = "326a9006-85cb-9195-d9dd-464cfbbae75a";
+
+    private StubNative stub;
+    private Path directory;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        stub = (StubNative) Library.WARBLE;
+        directory = Files.createTempDirectory("capture");
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        Scanner.setCapture(null);
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    public void replaysNotificationsAndDisconnects() throws IOException, InterruptedException {
+        try (CaptureLog log = new CaptureLog.Builder(directory).build()) {
+            final Gatt gatt = new Gatt.Builder(DEVICE).withCapture(log).build();
+            gatt.connect(1, TimeUnit.SECONDS);
+            final GattCharacteristic gattChar = gatt.findCharacteristic(CHARACTERISTIC);
+            for (int i = 0; i < 3; i++) {
+                stub.sendNotification(gattChar, new byte[] {(byte) i, 42});
+            }
+            stub.disconnectAll(8);
+            gatt.close();
+
+            // connect, 3 notifications, disconnect
+            assertEquals(5, log.getWritten());
+        }
+
+        final Gatt replayed = new Gatt.Builder(DEVICE).build();
+        replayed.connect(1, TimeUnit.SECONDS);
+        final List<byte[]> values = new ArrayList<>();
+        final int[] status = {0};
+        replayed.findCharacteristic(CHARACTERISTIC).onNotificationReceived = values::add;
+        replayed.onDisconnect = value -> status[0] = value;
+
+        final CaptureReplay replay = new CaptureReplay.Builder(directory).withDevice(replayed).withSpeed(0).build();
+        final List<CaptureLog.RecordType> types = new ArrayList<>();
+        replay.onRecord = record -> types.add(record.getType());
+        assertEquals(5, replay.run());
+        replayed.close();
+
+        assertEquals(CaptureLog.RecordType.CONNECT, types.get(0));
+        assertEquals(3, values.size());
+        assertEquals(2, values.get(2)[0]);
+        assertEquals(42, values.get(2)[1]);
+        assertEquals(8, status[0]);
+    }
+
+    @Test
+    public void rollsSegments() throws IOException, InterruptedException {
+        final long written;
+        try (CaptureLog log = new CaptureLog.Builder(directory).withSegmentSize(4096).build()) {
+            final Gatt gatt = new Gatt.Builder(DEVICE).withCapture(log).build();
+            gatt.connect(1, TimeUnit.SECONDS);
+            final GattCharacteristic gattChar = gatt.findCharacteristic(CHARACTERISTIC);
+            for (int i = 0; i < 200; i++) {
+                stub.sendNotification(gattChar, new byte[100]);
+                // leave the background thread time to map the next segment
+                if (i % 10 == 0) {
+                    Thread.sleep(5);
+                }
+            }
+            gatt.close();
+            written = log.getWritten();
+            assertEquals(201, written + log.getDropped());
+        }
+
+        try (Stream<Path> files = Files.list(directory)) {
+            assertTrue(files.count() > 1);
+        }
+        assertEquals(written, new CaptureReplay.Builder(directory).withSpeed(0).build().run());
+    }
+
+    @Test
+    public void replaysScanResults() throws IOException, InterruptedException {
+        try (CaptureLog log = new CaptureLog.Builder(directory).build()) {
+            Scanner.setCapture(log);
+            Scanner.onResultReceived(result -> { });
+            stub.deliverScanResult(stub.scanResult(DEVICE, "MetaWear", -60));
+            Scanner.setCapture(null);
+        }
+
+        final List<String> results = new ArrayList<>();
+        Scanner.onResultReceived(result -> {
+            assertNull(result.getManufacturerData(0x27f));
+            final ScanSnapshot snapshot = result.snapshot();
+            results.add(snapshot.getMac() + " " + snapshot.getName() + " " + snapshot.getRssi());
+        });
+        new CaptureReplay.Builder(directory).withScanResults(true).withSpeed(0).build().run();
+
+        assertEquals(1, results.size());
+        assertEquals(DEVICE + " MetaWear -60", results.get(0));
+    }
+
+    @Test
+    public void closeRemovesSpareSegment() throws IOException {
+        for (int i = 0; i < 20; i++) {
+            new CaptureLog.Builder(directory).build().close();
+            try (Stream<Path> files = Files.list(directory)) {
+                assertEquals(i + 1, files.count());
+            }
+        }
+    }
+}
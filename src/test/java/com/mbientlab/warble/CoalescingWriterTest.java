@@ -0,0 +1,170 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import static org.testng.AssertJUnit.*;
+
+public class CoalescingWriterTest {
+    private StubNative stub;
+    private Gatt gatt;
+    private GattCharacteristic gattChar;
+
+    @BeforeMethod
+    public void setUp() throws InterruptedException {
+        stub = (StubNative) Library.WARBLE;
+        gattChar = stub.connectedCharacteristic(new Gatt.Builder("D4:CA:6E:01:A2:B3"));
+        gatt = gattChar.owner;
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        gatt.close();
+    }
+
+    @Test
+    public void sendsFullPackets() {
+        final CoalescingWriter writer = new CoalescingWriter.Builder(gattChar)
+                .withPacketSize(4)
+                .withLinger(1, TimeUnit.HOURS)
+                .build();
+        final List<CompletableFuture<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            tasks.add(writer.write(new byte[] {(byte) (2 * i), (byte) (2 * i + 1)}));
+        }
+
+        assertEquals(2, stub.writes.size());
+        assertArrayEquals(new byte[] {0, 1, 2, 3}, stub.writes.get(0));
+        assertArrayEquals(new byte[] {4, 5, 6, 7}, stub.writes.get(1));
+        assertTrue(tasks.get(3).isDone());
+        // the last message waits for more to fill its packet
+        assertFalse(tasks.get(4).isDone());
+        assertEquals(5, writer.getMessageCount());
+        assertEquals(2, writer.getPacketCount());
+
+        writer.flush();
+        assertArrayEquals(new byte[] {8, 9}, stub.writes.get(2));
+        assertTrue(tasks.get(4).isDone());
+    }
+
+    @Test
+    public void sendsPartialPacketAfterLinger() throws InterruptedException, ExecutionException, TimeoutException {
+        final CoalescingWriter writer = new CoalescingWriter.Builder(gattChar)
+                .withLinger(20, TimeUnit.MILLISECONDS)
+                .build();
+        writer.write(new byte[] {1, 2}).get(1, TimeUnit.SECONDS);
+
+        assertEquals(1, stub.writes.size());
+        assertArrayEquals(new byte[] {1, 2}, stub.writes.get(0));
+        assertTrue(writer.getLingerTime().getMax(TimeUnit.MILLISECONDS) >= 19);
+    }
+
+    @Test
+    public void prefixesMessageLengths() throws InterruptedException {
+        final CoalescingWriter writer = new CoalescingWriter.Builder(gattChar)
+                .withPacketSize(6)
+                .withFraming(CoalescingWriter.LENGTH_PREFIXED)
+                .withLinger(1, TimeUnit.HOURS)
+                .build();
+        writer.write(new byte[] {1, 2});
+        writer.write(new byte[] {3});
+        writer.flush();
+
+        assertEquals(1, stub.writes.size());
+        assertArrayEquals(new byte[] {2, 1, 2, 1, 3}, stub.writes.get(0));
+        assertTrue(writer.write(new byte[6]).isCompletedExceptionally());
+    }
+
+    @Test
+    public void keepsMessageOrder() throws InterruptedException {
+        // a short linger races the timer against the writers filling and sending packets
+        final CoalescingWriter writer = new CoalescingWriter.Builder(gattChar)
+                .withPacketSize(20)
+                .withFraming(CoalescingWriter.LENGTH_PREFIXED)
+                .withLinger(50, TimeUnit.MICROSECONDS)
+                .build();
+        final int threads = 4, messages = 2000;
+        final List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final byte id = (byte) t;
+            writers.add(new Thread(() -> {
+                for (int i = 0; i < messages; i++) {
+                    writer.write(new byte[] {id, (byte) (i >> 8), (byte) i});
+                }
+            }));
+        }
+        for (Thread thread : writers) {
+            thread.start();
+        }
+        for (Thread thread : writers) {
+            thread.join();
+        }
+        writer.flush();
+
+        final int[] next = new int[threads];
+        for (byte[] packet : stub.writes) {
+            for (int offset = 0; offset < packet.length; offset += packet[offset] + 1) {
+                assertEquals(3, packet[offset]);
+                final int id = packet[offset + 1], sequence = ((packet[offset + 2] & 0xff) << 8) | (packet[offset + 3] & 0xff);
+                assertEquals(next[id]++, sequence);
+            }
+        }
+        for (int count : next) {
+            assertEquals(messages, count);
+        }
+    }
+
+    @Test
+    public void writesOutsideTheLock() {
+        final CoalescingWriter writer = new CoalescingWriter.Builder(gattChar)
+                .withPacketSize(2)
+                .withLinger(1, TimeUnit.HOURS)
+                .build();
+        final boolean[] locked = {true};
+        final CompletableFuture<Void> chained = new CompletableFuture<>();
+
+        // without a callback executor the stub's response completes the message on the writing thread
+        writer.write(new byte[] {0}).whenComplete((value, error) -> {
+            locked[0] = Thread.holdsLock(writer);
+            // writing from a completion queues behind the packet being sent instead of recursing
+            writer.write(new byte[] {2, 3}).whenComplete((v, e) -> chained.complete(null));
+        });
+        writer.write(new byte[] {1});
+
+        assertFalse(locked[0]);
+        assertTrue(chained.isDone());
+        assertEquals(2, stub.writes.size());
+        assertArrayEquals(new byte[] {0, 1}, stub.writes.get(0));
+        assertArrayEquals(new byte[] {2, 3}, stub.writes.get(1));
+    }
+}
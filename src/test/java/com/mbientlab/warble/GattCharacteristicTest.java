@@ -0,0 +1,115 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import static org.testng.AssertJUnit.*;
+
+public class GattCharacteristicTest {
+    // not used by other tests, the stub notifies every characteristic with a matching UUID
+    private static final String UUID = "326a90f2-85cb-9195-d9dd-464cfbbae75a";
+
+    private StubNative stub;
+    private Gatt gatt;
+    private byte[] payload;
+    private byte[] bufferCopy, arrayCopy;
+
+    @BeforeMethod
+    public void setUp() {
+        stub = (StubNative) Library.WARBLE;
+        // longer than 127 bytes so a sign extended length would be negative
+        payload = new byte[200];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) (i * 7);
+        }
+        bufferCopy = null;
+        arrayCopy = null;
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        stub.readValue = new byte[0];
+        if (gatt != null) {
+            gatt.close();
+        }
+    }
+
+    private GattCharacteristic connect(Executor executor) throws InterruptedException {
+        gatt = new Gatt.Builder("D4:CA:6E:01:A2:B3").withCallbackExecutor(executor).build();
+        gatt.connect(1, TimeUnit.SECONDS);
+
+        final GattCharacteristic gattChar = gatt.findCharacteristic(UUID);
+        gattChar.onNotificationBufferReceived = buffer -> {
+            bufferCopy = new byte[buffer.remaining()];
+            buffer.get(bufferCopy);
+        };
+        gattChar.onNotificationReceived = value -> arrayCopy = value;
+        return gattChar;
+    }
+
+    @Test
+    public void notificationsCarryFullPayload() throws InterruptedException {
+        final GattCharacteristic gattChar = connect(null);
+        stub.sendNotification(gattChar, payload);
+
+        assertArrayEquals(payload, bufferCopy);
+        assertArrayEquals(payload, arrayCopy);
+    }
+
+    @Test
+    public void queuedNotificationsCarryFullPayload() throws InterruptedException {
+        final GattCharacteristic gattChar = connect(Runnable::run);
+        stub.sendNotification(gattChar, payload);
+
+        assertArrayEquals(payload, bufferCopy);
+        assertArrayEquals(payload, arrayCopy);
+    }
+
+    @Test
+    public void bufferIsReusedBetweenNotifications() throws InterruptedException {
+        final GattCharacteristic gattChar = connect(null);
+        final ByteBuffer[] seen = new ByteBuffer[2];
+        gattChar.onNotificationBufferReceived = buffer -> seen[seen[0] == null ? 0 : 1] = buffer;
+
+        stub.sendNotification(gattChar, payload);
+        stub.sendNotification(gattChar, new byte[] {1, 2, 3});
+        assertSame(seen[0], seen[1]);
+        assertTrue(seen[1].isReadOnly());
+        assertEquals(3, seen[1].remaining());
+    }
+
+    @Test
+    public void readsCarryFullPayload() throws Exception {
+        final GattCharacteristic gattChar = connect(null);
+        stub.readValue = payload;
+
+        assertArrayEquals(payload, gattChar.readAsync().get(1, TimeUnit.SECONDS));
+    }
+}
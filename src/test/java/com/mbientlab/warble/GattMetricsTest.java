@@ -0,0 +1,73 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import static org.testng.AssertJUnit.*;
+
+public class GattMetricsTest {
+    private StubNative stub;
+    private Gatt gatt;
+    private GattCharacteristic gattChar;
+
+    @BeforeMethod
+    public void setUp() throws InterruptedException {
+        stub = (StubNative) Library.WARBLE;
+        gattChar = stub.connectedCharacteristic(new Gatt.Builder("D4:CA:6E:01:A2:B3").withCallbackExecutor(Runnable::run).withMetrics(true));
+        gatt = gattChar.owner;
+        stub.holdCompletions = true;
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        stub.holdCompletions = false;
+        while (stub.release(null)) {
+        }
+        gatt.close();
+    }
+
+    @Test
+    public void errorsKeyedByType() {
+        for (int i = 0; i < 100; i++) {
+            final CompletableFuture<Void> write = gattChar.writeAsync(new byte[] {1});
+            // native messages often embed handles or status codes
+            stub.release("Write failed with status " + i);
+            assertTrue(write.isCompletedExceptionally());
+        }
+        gattChar.writeAsync(new byte[] {2});
+        gattChar.writeAsync(new byte[] {3});
+        stub.disconnectAll(0x08);
+
+        final GattMetrics.Snapshot snapshot = gatt.getMetrics().snapshot();
+        assertEquals(2, snapshot.getCharacteristicErrors().size());
+        assertEquals(100L, (long) snapshot.getCharacteristicErrors().get("native"));
+        assertEquals(2L, (long) snapshot.getCharacteristicErrors().get("disconnected"));
+        assertEquals(Collections.emptyMap(), snapshot.getGattErrors());
+    }
+}
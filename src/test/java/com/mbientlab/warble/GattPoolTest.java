@@ -0,0 +1,226 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import static org.testng.AssertJUnit.*;
+
+public class GattPoolTest {
+    private StubNative stub;
+    private GattPool pool;
+    private final List<String> macs = new ArrayList<>();
+
+    @BeforeMethod
+    public void setUp() {
+        stub = (StubNative) Library.WARBLE;
+        stub.holdConnects = true;
+        macs.clear();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        stub.holdConnects = false;
+        while (stub.release(null)) {
+        }
+        for (String mac : macs) {
+            final Gatt gatt = pool.remove(mac);
+            if (gatt != null) {
+                gatt.close();
+            }
+        }
+    }
+
+    private void add(int count) {
+        for (int i = 0; i < count; i++) {
+            final String mac = String.format("D4:CA:6E:01:A2:%02X", i);
+            // completes connection attempts inline so pool state can be checked right after the stub responds
+            pool.add(new Gatt.Builder(mac).withCallbackExecutor(Runnable::run));
+            macs.add(mac);
+        }
+    }
+
+    private long awaitState(String mac, GattPool.State state) throws InterruptedException {
+        final long start = System.nanoTime(), deadline = start + TimeUnit.SECONDS.toNanos(5);
+        while (pool.getState(mac) != state && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(state, pool.getState(mac));
+        return System.nanoTime() - start;
+    }
+
+    @Test
+    public void capsConcurrentConnects() {
+        // long enough that the failed device stays in backoff for the rest of the test
+        pool = new GattPool.Builder().withMaxConcurrentConnects(2).withBackoff(1, 1, TimeUnit.MINUTES).build();
+        add(5);
+        pool.connectAll();
+
+        assertEquals(2, stub.heldCount());
+        assertEquals(2, pool.count(GattPool.State.CONNECTING));
+        assertEquals(3, pool.count(GattPool.State.WAITING));
+
+        // each finished attempt frees its slot for the next waiting device
+        stub.release(null);
+        assertEquals(1, pool.count(GattPool.State.CONNECTED));
+        assertEquals(2, pool.count(GattPool.State.CONNECTING));
+        assertEquals(2, pool.count(GattPool.State.WAITING));
+
+        stub.release("Connection refused");
+        assertEquals(1, pool.count(GattPool.State.BACKOFF));
+        assertEquals(2, pool.count(GattPool.State.CONNECTING));
+
+        while (stub.release(null)) {
+        }
+        assertEquals(4, pool.count(GattPool.State.CONNECTED));
+        assertEquals(1, pool.count(GattPool.State.BACKOFF));
+        assertEquals(0, pool.count(GattPool.State.WAITING));
+    }
+
+    @Test
+    public void backsOffAfterFailures() throws InterruptedException {
+        pool = new GattPool.Builder()
+                .withBackoff(100, 400, TimeUnit.MILLISECONDS)
+                .withMaxAttempts(3)
+                .build();
+        add(1);
+        final String mac = macs.get(0);
+        pool.connect(mac);
+        assertEquals(GattPool.State.CONNECTING, pool.getState(mac));
+
+        // the delay doubles after each failure and is never jittered below half
+        stub.release("Connection refused");
+        assertEquals(GattPool.State.BACKOFF, pool.getState(mac));
+        assertTrue(awaitState(mac, GattPool.State.CONNECTING) >= TimeUnit.MILLISECONDS.toNanos(50));
+
+        stub.release("Connection refused");
+        assertEquals(GattPool.State.BACKOFF, pool.getState(mac));
+        assertTrue(awaitState(mac, GattPool.State.CONNECTING) >= TimeUnit.MILLISECONDS.toNanos(100));
+
+        stub.release("Connection refused");
+        assertEquals(GattPool.State.FAILED, pool.getState(mac));
+        assertEquals(0, stub.heldCount());
+
+        // connecting again starts over
+        pool.connect(mac);
+        assertEquals(GattPool.State.CONNECTING, pool.getState(mac));
+        stub.release(null);
+        assertEquals(GattPool.State.CONNECTED, pool.getState(mac));
+    }
+
+    @Test
+    public void removeReleasesDevice() {
+        pool = new GattPool.Builder().withMaxConcurrentConnects(1).build();
+        add(2);
+        pool.connect(macs.get(0));
+        stub.release(null);
+        pool.connect(macs.get(1));
+        assertEquals(GattPool.State.CONNECTED, pool.getState(macs.get(0)));
+        assertEquals(GattPool.State.CONNECTING, pool.getState(macs.get(1)));
+
+        // any spelling of the address finds the device
+        final Gatt connected = pool.remove("d4ca6e01a200");
+        assertNotNull(connected);
+        assertFalse(connected.isConnected());
+        assertNull(pool.get(macs.get(0)));
+        assertEquals(0, pool.count(GattPool.State.CONNECTED));
+        assertEquals(1, pool.size());
+        connected.close();
+
+        // removing a device mid attempt gives its slot back once the attempt finishes
+        final Gatt connecting = pool.remove(macs.get(1).toLowerCase());
+        stub.release(null);
+        assertEquals(0, pool.count(GattPool.State.CONNECTING));
+        assertEquals(0, pool.size());
+        connecting.close();
+
+        add(1);
+        pool.connect(macs.get(2));
+        assertEquals(1, stub.heldCount());
+        assertEquals(GattPool.State.CONNECTING, pool.getState(macs.get(2)));
+    }
+
+    @Test
+    public void duplicateAddClosesGatt() {
+        pool = new GattPool.Builder().build();
+        add(1);
+        final String mac = macs.get(0);
+        final String duplicate = mac.toLowerCase();
+        final int deletes = Collections.frequency(stub.deleted, duplicate);
+
+        try {
+            pool.add(new Gatt.Builder(duplicate));
+            fail("Duplicate device should have been rejected");
+        } catch (IllegalStateException ignored) {
+        }
+        // the rejected object is freed right away instead of by the cleaner, the pooled one is untouched
+        assertEquals(deletes + 1, Collections.frequency(stub.deleted, duplicate));
+        assertNotNull(pool.get(mac));
+        assertFalse(pool.get(mac).isClosed());
+    }
+
+    @Test
+    public void closeReleasesEverything() {
+        pool = new GattPool.Builder().withMaxConcurrentConnects(1).withBackoff(1, 1, TimeUnit.MINUTES).build();
+        add(3);
+        pool.connect(macs.get(0));
+        stub.release("Connection refused");
+        pool.connect(macs.get(1));
+        stub.release(null);
+        pool.connect(macs.get(2));
+        assertEquals(GattPool.State.BACKOFF, pool.getState(macs.get(0)));
+        assertEquals(GattPool.State.CONNECTED, pool.getState(macs.get(1)));
+        assertEquals(GattPool.State.CONNECTING, pool.getState(macs.get(2)));
+
+        final List<Gatt> owned = new ArrayList<>();
+        for (String mac : macs) {
+            owned.add(pool.get(mac));
+        }
+        pool.close();
+        pool.close();
+
+        assertEquals(0, pool.size());
+        for (GattPool.State state : GattPool.State.values()) {
+            assertEquals(0, pool.count(state));
+        }
+        for (Gatt gatt : owned) {
+            assertTrue(gatt.isClosed());
+        }
+        // the finished attempt and the cancelled retry do not bring anything back
+        stub.release(null);
+        assertEquals(0, stub.heldCount());
+
+        try {
+            pool.add(new Gatt.Builder("D4:CA:6E:01:A2:FF"));
+            fail("Closed pool should not accept devices");
+        } catch (IllegalStateException ignored) {
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import org.testng.annotations.Test;
+import static org.testng.AssertJUnit.*;
+
+import java.util.UUID;
+
+public class GattUuidTest {
+    @Test
+    public void shortFormExpandsWithBaseUuid() {
+        final GattUuid firmware = GattUuid.fromShort(0x2a26);
+
+        assertEquals("00002a26-0000-1000-8000-00805f9b34fb", firmware.toString());
+        assertEquals(firmware, GattUuid.parse("00002a26-0000-1000-8000-00805f9b34fb"));
+        assertEquals(firmware, GattUuid.parse("2A26"));
+        assertTrue(firmware.isShort());
+        assertEquals(0x2a26, firmware.getShortValue());
+    }
+
+    @Test
+    public void matchesJavaUuid() {
+        final String str = "326a9001-85cb-9195-d9dd-464cfbbae75a";
+        final GattUuid uuid = GattUuid.parse(str);
+
+        assertEquals(UUID.fromString(str), uuid.toUUID());
+        assertEquals(str, uuid.toString());
+        assertFalse(uuid.isShort());
+        assertEquals(uuid.hashCode(), GattUuid.from(UUID.fromString(str)).hashCode());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void rejectsMalformedString() {
+        GattUuid.parse("326a9001-85cb-9195-d9dd+464cfbbae75a");
+    }
+}
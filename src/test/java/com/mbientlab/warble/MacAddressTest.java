@@ -0,0 +1,49 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import org.testng.annotations.Test;
+import static org.testng.AssertJUnit.*;
+
+public class MacAddressTest {
+    @Test
+    public void packIgnoresSeparatorsAndCase() {
+        assertEquals(0xD4CA6E01A2B3L, MacAddress.pack("d4:ca:6e:01:a2:b3"));
+        assertEquals(0xD4CA6E01A2B3L, MacAddress.pack("D4-CA-6E-01-A2-B3"));
+        assertEquals(0xD4CA6E01A2B3L, MacAddress.pack("D4CA6E01A2B3"));
+    }
+
+    @Test
+    public void packRejectsWrongLength() {
+        assertEquals(MacAddress.INVALID, MacAddress.pack("D4:CA:6E:01:A2"));
+        assertEquals(MacAddress.INVALID, MacAddress.pack("D4:CA:6E:01:A2:B3:C4"));
+        assertEquals(MacAddress.INVALID, MacAddress.pack(""));
+    }
+
+    @Test
+    public void roundTrip() {
+        assertEquals("00:0A:F0:FF:10:01", MacAddress.toString(MacAddress.pack("00:0a:f0:ff:10:01")));
+        assertEquals("FF:FF:FF:FF:FF:FF", MacAddress.toString(0xFFFFFFFFFFFFL));
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import static org.testng.AssertJUnit.*;
+
+public class NativeCleanerTest {
+    private StubNative stub;
+
+    @BeforeMethod
+    public void setUp() {
+        stub = (StubNative) Library.WARBLE;
+    }
+
+    private int deletes(String mac) {
+        return Collections.frequency(stub.deleted, mac);
+    }
+
+    // separate method so no reference to the Gatt object is left in the test's frame
+    private void abandon(String mac) throws InterruptedException {
+        final Gatt gatt = new Gatt.Builder(mac).build();
+        gatt.connect(1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void freesUnreachableGatt() throws InterruptedException {
+        final String mac = "F2:00:00:00:13:01";
+        final int invalid = stub.invalidDeletes.get();
+        abandon(mac);
+        assertEquals(0, deletes(mac));
+
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (deletes(mac) == 0 && System.nanoTime() < deadline) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertEquals(1, deletes(mac));
+        assertEquals(invalid, stub.invalidDeletes.get());
+    }
+
+    @Test
+    public void closeIsIdempotent() throws InterruptedException {
+        final String mac = "F2:00:00:00:13:02";
+        final int invalid = stub.invalidDeletes.get();
+        final Gatt gatt = new Gatt.Builder(mac).build();
+        gatt.connect(1, TimeUnit.SECONDS);
+
+        gatt.close();
+        assertTrue(gatt.isClosed());
+        assertEquals(1, deletes(mac));
+
+        gatt.close();
+        assertEquals(1, deletes(mac));
+        assertEquals(invalid, stub.invalidDeletes.get());
+    }
+
+    @Test
+    public void reaperSurvivesErrors() throws InterruptedException {
+        final CountDownLatch ran = new CountDownLatch(2);
+        NativeCleaner.register(new Object(), () -> {
+            ran.countDown();
+            throw new AssertionError("cleanup failure");
+        });
+        NativeCleaner.register(new Object(), ran::countDown);
+
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (ran.getCount() != 0 && System.nanoTime() < deadline) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertEquals(0, ran.getCount());
+
+        // the reaper is still running after the Error
+        final String mac = "F2:00:00:00:13:03";
+        abandon(mac);
+        while (deletes(mac) == 0 && System.nanoTime() < deadline + TimeUnit.SECONDS.toNanos(10)) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertEquals(1, deletes(mac));
+    }
+}
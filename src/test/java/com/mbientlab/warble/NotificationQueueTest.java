@@ -0,0 +1,181 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import static org.testng.AssertJUnit.*;
+
+public class NotificationQueueTest {
+    // not used by other tests, the stub notifies every characteristic with a matching UUID
+    private static final String UUID = "326a90f1-85cb-9195-d9dd-464cfbbae75a";
+
+    /**
+     * Holds drain tasks until the test runs them, standing in for a callback thread that has fallen behind
+     */
+    private static class StalledExecutor implements Executor {
+        final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        boolean runNext() {
+            final Runnable task = tasks.poll();
+            if (task == null) {
+                return false;
+            }
+            task.run();
+            return true;
+        }
+
+        void runAll() {
+            while (runNext()) {
+            }
+        }
+    }
+
+    private StubNative stub;
+    private Gatt gatt;
+    private GattCharacteristic gattChar;
+    private StalledExecutor executor;
+    private List<Integer> received;
+
+    @BeforeMethod
+    public void setUp() throws InterruptedException {
+        stub = (StubNative) Library.WARBLE;
+        gatt = new Gatt.Builder("D4:CA:6E:01:A2:B3").build();
+        gatt.connect(1, TimeUnit.SECONDS);
+        gattChar = gatt.findCharacteristic(UUID);
+        executor = new StalledExecutor();
+        received = new CopyOnWriteArrayList<>();
+        gattChar.onNotificationReceived = value -> received.add((int) value[0]);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        gatt.close();
+    }
+
+    private void send(int first, int last) {
+        for (int i = first; i <= last; i++) {
+            stub.sendNotification(gattChar, new byte[] {(byte) i});
+        }
+    }
+
+    private static List<Integer> range(int first, int last) {
+        final List<Integer> values = new ArrayList<>();
+        for (int i = first; i <= last; i++) {
+            values.add(i);
+        }
+        return values;
+    }
+
+    @Test
+    public void dropOldestKeepsLatest() {
+        final NotificationQueue queue = gattChar.useNotificationQueue(executor, 4, OverflowPolicy.DROP_OLDEST);
+        send(0, 9);
+        assertEquals(4, queue.getDepth());
+        assertEquals(6, queue.getDropped());
+
+        executor.runAll();
+        assertEquals(range(6, 9), received);
+        assertEquals(4, queue.getDelivered());
+    }
+
+    @Test
+    public void dropNewestKeepsEarliest() {
+        final NotificationQueue queue = gattChar.useNotificationQueue(executor, 4, OverflowPolicy.DROP_NEWEST);
+        send(0, 9);
+        assertEquals(4, queue.getDepth());
+        assertEquals(6, queue.getDropped());
+
+        executor.runAll();
+        assertEquals(range(0, 3), received);
+
+        // space freed by the drain is reused
+        send(10, 11);
+        executor.runAll();
+        assertEquals(Arrays.asList(0, 1, 2, 3, 10, 11), received);
+    }
+
+    @Test
+    public void blockStallsProducer() throws InterruptedException {
+        final NotificationQueue queue = gattChar.useNotificationQueue(executor, 4, OverflowPolicy.BLOCK);
+        final Thread producer = new Thread(() -> send(0, 9));
+        producer.start();
+
+        producer.join(100);
+        assertTrue(producer.isAlive());
+        assertEquals(4, queue.getDepth());
+
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while ((producer.isAlive() || !executor.tasks.isEmpty()) && System.nanoTime() < deadline) {
+            if (!executor.runNext()) {
+                Thread.sleep(1);
+            }
+        }
+        assertFalse(producer.isAlive());
+        assertEquals(range(0, 9), received);
+        assertEquals(0, queue.getDropped());
+    }
+
+    @Test
+    public void drainYieldsAfterBudget() {
+        final NotificationQueue queue = gattChar.useNotificationQueue(executor, 4, OverflowPolicy.DROP_NEWEST);
+        final Queue<Integer> more = new ArrayDeque<>(Arrays.asList(4, 5));
+        gattChar.onNotificationReceived = value -> {
+            received.add((int) value[0]);
+            // keep the queue busy while it drains
+            final Integer next = more.poll();
+            if (next != null) {
+                send(next, next);
+            }
+        };
+        send(0, 3);
+        assertEquals(1, executor.tasks.size());
+
+        // one pass delivers at most a queue's worth, then reschedules behind other tasks
+        executor.runNext();
+        assertEquals(range(0, 3), received);
+        assertEquals(2, queue.getDepth());
+        assertEquals(1, executor.tasks.size());
+
+        executor.runAll();
+        assertEquals(range(0, 5), received);
+        assertEquals(0, queue.getDepth());
+    }
+}
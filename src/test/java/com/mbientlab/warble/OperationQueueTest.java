@@ -0,0 +1,178 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import static org.testng.AssertJUnit.*;
+
+public class OperationQueueTest {
+    private StubNative stub;
+    private Gatt gatt;
+    private GattCharacteristic gattChar;
+    private OperationQueue queue;
+
+    @BeforeMethod
+    public void setUp() throws InterruptedException {
+        stub = (StubNative) Library.WARBLE;
+        // completes tasks inline so their state can be checked right after the stub responds
+        gattChar = stub.connectedCharacteristic(new Gatt.Builder("D4:CA:6E:01:A2:B3").withCallbackExecutor(Runnable::run));
+        gatt = gattChar.owner;
+        queue = gatt.getOperationQueue();
+        stub.holdCompletions = true;
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        stub.holdCompletions = false;
+        while (stub.release(null)) {
+        }
+        gatt.close();
+    }
+
+    private CompletableFuture<Void> write(int value, OperationQueue.Priority priority, long timeoutMillis) {
+        return gattChar.writeAsync(new byte[] {(byte) value}, priority, timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private List<Integer> written() {
+        final List<Integer> values = new ArrayList<>();
+        for (byte[] value : stub.writes) {
+            values.add((int) value[0]);
+        }
+        return values;
+    }
+
+    private static void assertFails(CompletableFuture<?> task, String message) throws InterruptedException {
+        try {
+            task.get(1, TimeUnit.SECONDS);
+            fail("Operation should have failed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof GattCharacteristicException);
+            assertEquals(message, e.getCause().getMessage());
+        } catch (TimeoutException e) {
+            fail("Operation was not failed");
+        }
+    }
+
+    @Test
+    public void higherLanesGoFirst() {
+        write(0, OperationQueue.Priority.NORMAL, 0);
+        write(1, OperationQueue.Priority.LOW, 0);
+        write(2, OperationQueue.Priority.NORMAL, 0);
+        write(3, OperationQueue.Priority.HIGH, 0);
+        write(4, OperationQueue.Priority.LOW, 0);
+        write(5, OperationQueue.Priority.HIGH, 0);
+        assertEquals(5, queue.getQueuedCount());
+
+        while (stub.release(null)) {
+        }
+        assertEquals(Arrays.asList(0, 3, 5, 2, 1, 4), written());
+        assertEquals(6, queue.getCompletedCount());
+    }
+
+    @Test
+    public void expiredOperationIssuesNext() throws InterruptedException {
+        final CompletableFuture<Void> stuck = write(0, OperationQueue.Priority.NORMAL, 50);
+        final CompletableFuture<Void> next = write(1, OperationQueue.Priority.NORMAL, 0);
+        assertEquals(1, stub.writes.size());
+
+        assertFails(stuck, "Operation timed out");
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        while (stub.writes.size() < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(Arrays.asList(0, 1), written());
+        assertEquals(1, queue.getTimedOutCount());
+
+        // the late response to the expired write must not complete the next one
+        stub.release(null);
+        assertFalse(next.isDone());
+        stub.release(null);
+        assertTrue(next.isDone());
+    }
+
+    @Test
+    public void disconnectFailsEverything() throws InterruptedException {
+        final CompletableFuture<Void> active = write(0, OperationQueue.Priority.NORMAL, 0);
+        final CompletableFuture<byte[]> read = gattChar.readAsync();
+        final CompletableFuture<Void> low = write(1, OperationQueue.Priority.LOW, 0);
+
+        stub.disconnectAll(0x08);
+        assertFails(active, "Disconnected from the remote device");
+        assertFails(read, "Disconnected from the remote device");
+        assertFails(low, "Disconnected from the remote device");
+        assertEquals(3, queue.getFailedCount());
+        assertEquals(0, queue.getQueuedCount());
+        assertEquals(1, stub.writes.size());
+    }
+
+    @Test
+    public void nativeExceptionIssuesNext() throws InterruptedException {
+        final IllegalStateException thrown = new IllegalStateException("native failure");
+        stub.writeException = thrown;
+        final CompletableFuture<Void> broken = write(0, OperationQueue.Priority.NORMAL, 0);
+        final CompletableFuture<Void> next = write(1, OperationQueue.Priority.NORMAL, 0);
+
+        try {
+            broken.get(1, TimeUnit.SECONDS);
+            fail("Operation should have failed");
+        } catch (ExecutionException e) {
+            assertSame(thrown, e.getCause());
+        } catch (TimeoutException e) {
+            fail("Operation was not failed");
+        }
+        // the failed operation does not hold up the queue until a deadline it does not have
+        assertEquals(Arrays.asList(1), written());
+        assertEquals(1, queue.getFailedCount());
+        stub.release(null);
+        assertTrue(next.isDone());
+    }
+
+    @Test
+    public void writesWithoutResponseAreSerialized() {
+        final List<CompletableFuture<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            tasks.add(gattChar.writeWithoutResponseAsync(new byte[] {(byte) i}));
+        }
+
+        for (int i = 0; i < 4; i++) {
+            // one request with the native library at a time, the rest wait in the queue
+            assertEquals(1, stub.heldCount());
+            assertEquals(3 - i, queue.getQueuedCount());
+            assertEquals(i + 1, stub.writes.size());
+            stub.release(null);
+            assertTrue(tasks.get(i).isDone());
+        }
+        assertEquals(Arrays.asList(0, 1, 2, 3), written());
+    }
+}
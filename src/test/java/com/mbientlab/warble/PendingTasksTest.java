@@ -0,0 +1,85 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import org.testng.annotations.Test;
+import static org.testng.AssertJUnit.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import jnr.ffi.Pointer;
+
+public class PendingTasksTest {
+    @Test
+    public void removeReturnsRegisteredTask() {
+        final PendingTasks<String> tasks = new PendingTasks<>();
+        final Pointer first = tasks.register("first"), second = tasks.register("second");
+
+        assertEquals("second", tasks.remove(second));
+        assertEquals("first", tasks.remove(first));
+        assertNull(tasks.remove(first));
+        assertEquals(0, tasks.size());
+    }
+
+    @Test
+    public void contextIsNeverNull() {
+        final PendingTasks<Integer> tasks = new PendingTasks<>();
+        for (int i = 0; i < 100; i++) {
+            assertTrue(tasks.register(i).address() != 0);
+        }
+        assertNull(tasks.remove(null));
+    }
+
+    @Test
+    public void survivesGrowthAndRandomRemoval() {
+        final PendingTasks<Integer> tasks = new PendingTasks<>();
+        final List<Pointer> contexts = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            contexts.add(tasks.register(i));
+        }
+
+        final List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < contexts.size(); i++) {
+            order.add(i);
+        }
+        Collections.shuffle(order, new Random(0));
+
+        for (int i = 0; i < 500; i++) {
+            final int index = order.get(i);
+            assertEquals(Integer.valueOf(index), tasks.remove(contexts.get(index)));
+        }
+        assertEquals(500, tasks.size());
+
+        final HashSet<Integer> remaining = new HashSet<>(tasks.clear());
+        assertEquals(500, remaining.size());
+        for (int i = 500; i < order.size(); i++) {
+            assertTrue(remaining.contains(order.get(i)));
+        }
+        assertEquals(0, tasks.size());
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import static org.testng.AssertJUnit.*;
+
+public class PollSchedulerTest {
+    private static final String CHARACTERISTIC = "326a9006-85cb-9195-d9dd-464cfbbae75a";
+
+    private final List<Gatt> gatts = new ArrayList<>();
+    private PollScheduler scheduler;
+
+    @BeforeMethod
+    public void setUp() {
+        ((StubNative) Library.WARBLE).readValue = new byte[] {42};
+        scheduler = new PollScheduler.Builder()
+                .withWheel(5, TimeUnit.MILLISECONDS, 64)
+                .withBatching(4, 50, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        scheduler.stop();
+        for (Gatt gatt : gatts) {
+            gatt.close();
+        }
+        gatts.clear();
+    }
+
+    private GattCharacteristic connect(Gatt.Builder builder) throws InterruptedException {
+        final Gatt gatt = builder.build();
+        gatts.add(gatt);
+        gatt.connect(1, TimeUnit.SECONDS);
+        return gatt.findCharacteristic(CHARACTERISTIC);
+    }
+
+    @Test
+    public void deliversBatchedResults() throws InterruptedException {
+        final List<List<PollScheduler.PollResult>> batches = new CopyOnWriteArrayList<>();
+        final CountDownLatch received = new CountDownLatch(16);
+        scheduler.onResults = batch -> {
+            batches.add(batch);
+            for (int i = 0; i < batch.size(); i++) {
+                received.countDown();
+            }
+        };
+        final List<PollScheduler.Poll> polls = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            polls.add(scheduler.schedule(connect(new Gatt.Builder(MacAddress.toString(0xD4CA6E000100L + i))), 40, TimeUnit.MILLISECONDS));
+        }
+        assertTrue(received.await(5, TimeUnit.SECONDS));
+
+        for (List<PollScheduler.PollResult> batch : batches) {
+            assertTrue(batch.size() <= 4);
+            for (PollScheduler.PollResult result : batch) {
+                assertNull(result.error);
+                assertEquals(42, result.value[0]);
+            }
+        }
+        for (PollScheduler.Poll poll : polls) {
+            assertTrue(poll.getCompleted() > 0);
+        }
+    }
+
+    @Test
+    public void spreadsPhases() throws InterruptedException {
+        final Map<GattCharacteristic, Long> firstCompleted = new ConcurrentHashMap<>();
+        final CountDownLatch allSeen = new CountDownLatch(8);
+        scheduler.onResults = batch -> {
+            for (PollScheduler.PollResult result : batch) {
+                if (firstCompleted.putIfAbsent(result.characteristic, result.completedNanos) == null) {
+                    allSeen.countDown();
+                }
+            }
+        };
+        for (int i = 0; i < 8; i++) {
+            scheduler.schedule(connect(new Gatt.Builder(MacAddress.toString(0xD4CA6E000200L + i))), 200, TimeUnit.MILLISECONDS);
+        }
+        assertTrue(allSeen.await(5, TimeUnit.SECONDS));
+
+        // 8 polls spread over a 200ms interval rather than one burst, with slack for a late timer thread
+        final long span = Collections.max(firstCompleted.values()) - Collections.min(firstCompleted.values());
+        assertTrue(span >= TimeUnit.MILLISECONDS.toNanos(100));
+    }
+
+    @Test
+    public void skipsWhileReadOutstanding() throws InterruptedException {
+        // completions are queued on an executor that never runs them, so the read stays outstanding
+        final List<Runnable> stalled = new CopyOnWriteArrayList<>();
+        final Gatt gatt = new Gatt.Builder("D4:CA:6E:00:03:00").withCallbackExecutor(stalled::add).build();
+        gatts.add(gatt);
+        gatt.connectAsync();
+        final GattCharacteristic gattChar = gatt.findCharacteristic(CHARACTERISTIC);
+
+        final PollScheduler.Poll poll = scheduler.schedule(gattChar, 10, TimeUnit.MILLISECONDS);
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (poll.getMissed() <= 5 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        poll.cancel();
+
+        assertEquals(0, poll.getCompleted());
+        final long missed = poll.getMissed();
+        assertTrue(missed > 5);
+        // the poll is counted before the scheduler total
+        assertTrue(scheduler.getMissedDeadlines() >= missed);
+    }
+
+    @Test
+    public void throwingHandlerDoesNotStopPolling() throws InterruptedException {
+        final CountDownLatch afterFailure = new CountDownLatch(2);
+        final AtomicBoolean failed = new AtomicBoolean();
+        scheduler.onResults = batch -> {
+            if (failed.compareAndSet(false, true)) {
+                throw new IllegalStateException("handler failure");
+            }
+            afterFailure.countDown();
+        };
+        scheduler.schedule(connect(new Gatt.Builder("D4:CA:6E:00:04:00")), 10, TimeUnit.MILLISECONDS);
+
+        assertTrue(afterFailure.await(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Test;
+import static org.testng.AssertJUnit.*;
+
+public class SampleDecoderTest {
+    @Test
+    public void decodesPackedSamples() {
+        SampleLayout layout = new SampleLayout.Builder()
+                .withHeader(2)
+                .withField(SampleLayout.Type.INT16, 0.5f)
+                .withRawField(SampleLayout.Type.UINT16)
+                .withRepeat(0)
+                .withSamplePeriod(10, TimeUnit.NANOSECONDS)
+                .build();
+        SampleDecoder decoder = new SampleDecoder(layout, 4);
+        List<float[]> values = new ArrayList<>();
+        List<long[]> raw = new ArrayList<>(), timestamps = new ArrayList<>();
+        decoder.onBatchReady = batch -> {
+            values.add(Arrays.copyOf(batch.getFloats(0), batch.size()));
+            raw.add(Arrays.copyOf(batch.getLongs(1), batch.size()));
+            timestamps.add(Arrays.copyOf(batch.getTimestamps(), batch.size()));
+            batch.release();
+        };
+
+        // header, then (-2, 0xffff), (4, 1), (6, 2)
+        byte[] payload = {0x3, 0x4, (byte) 0xfe, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x4, 0x0, 0x1, 0x0, 0x6, 0x0, 0x2, 0x0};
+        decoder.decode(payload, payload.length, 100);
+        assertTrue(values.isEmpty());
+        decoder.decode(payload, payload.length, 200);
+
+        assertEquals(1, values.size());
+        assertEquals(-1f, values.get(0)[0], 0f);
+        assertEquals(2f, values.get(0)[1], 0f);
+        assertEquals(3f, values.get(0)[2], 0f);
+        assertEquals(-1f, values.get(0)[3], 0f);
+        assertEquals(0xffff, raw.get(0)[0]);
+        assertEquals(2, raw.get(0)[2]);
+        assertEquals(80, timestamps.get(0)[0]);
+        assertEquals(100, timestamps.get(0)[2]);
+        assertEquals(180, timestamps.get(0)[3]);
+
+        decoder.flush();
+        assertEquals(2, values.size());
+        assertEquals(2, values.get(1).length);
+        assertEquals(6, decoder.getSampleCount());
+        assertEquals(1, decoder.getAllocatedCount());
+    }
+
+    @Test
+    public void discardsShortPayloads() {
+        SampleLayout layout = new SampleLayout.Builder()
+                .withField(SampleLayout.Type.INT32, 1f)
+                .withRepeat(2)
+                .build();
+        SampleDecoder decoder = new SampleDecoder(layout, 8);
+
+        decoder.decode(new byte[6], 6, 0);
+        assertEquals(1, decoder.getMalformedCount());
+        assertEquals(0, decoder.getSampleCount());
+    }
+
+    @Test
+    public void decodesEveryType() {
+        byte[] data = {(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff};
+        assertEquals(-1, SampleLayout.decode(SampleLayout.Type.INT8, data, 0));
+        assertEquals(0xff, SampleLayout.decode(SampleLayout.Type.UINT8, data, 0));
+        assertEquals(-1, SampleLayout.decode(SampleLayout.Type.INT16, data, 0));
+        assertEquals(0xffff, SampleLayout.decode(SampleLayout.Type.UINT16, data, 0));
+        assertEquals(-1, SampleLayout.decode(SampleLayout.Type.INT32, data, 0));
+        assertEquals(0xffffffffL, SampleLayout.decode(SampleLayout.Type.UINT32, data, 0));
+
+        byte[] one = {0x0, 0x0, (byte) 0x80, 0x3f};
+        assertEquals(1f, Float.intBitsToFloat((int) SampleLayout.decode(SampleLayout.Type.FLOAT32, one, 0)), 0f);
+    }
+}
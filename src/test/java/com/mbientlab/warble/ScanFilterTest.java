@@ -0,0 +1,135 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import jnr.ffi.Pointer;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import static org.testng.AssertJUnit.*;
+
+public class ScanFilterTest {
+    // not used by any other test, the stub keeps manufacturer data for every scan result
+    private static final int COMPANY_ID = 0x1a2b;
+
+    private StubNative stub;
+
+    @BeforeClass
+    public void setUp() {
+        stub = (StubNative) Library.WARBLE;
+        stub.setManufacturerData(COMPANY_ID, new byte[] {1, 2});
+    }
+
+    @Test
+    public void matchesMac() {
+        ScanFilter filter = new ScanFilter.Builder()
+                .withMac("d4:ca:6e:01:a2:b3")
+                .withMacPrefix("C8:4B")
+                .build();
+
+        assertTrue(filter.test(stub.scanResult("D4:CA:6E:01:A2:B3", "MetaWear", -60)));
+        assertTrue(filter.test(stub.scanResult("C8:4B:00:11:22:33", "MetaWear", -60)));
+        assertFalse(filter.test(stub.scanResult("D4:CA:6E:01:A2:B4", "MetaWear", -60)));
+        assertFalse(filter.test(stub.scanResult("not a mac", "MetaWear", -60)));
+        assertEquals(2, filter.getAccepted());
+        assertEquals(2, filter.getRejected());
+    }
+
+    @Test
+    public void matchesNamePrefix() {
+        ScanFilter filter = new ScanFilter.Builder().withNamePrefix("Meta").build();
+
+        assertTrue(filter.test(stub.scanResult("D4:CA:6E:01:A2:B3", "MetaWear", -60)));
+        assertTrue(filter.test(stub.scanResult("D4:CA:6E:01:A2:B3", "Meta", -60)));
+        assertFalse(filter.test(stub.scanResult("D4:CA:6E:01:A2:B3", "Met", -60)));
+        assertFalse(filter.test(stub.scanResult("D4:CA:6E:01:A2:B3", "metaWear", -60)));
+        assertFalse(filter.test(stub.scanResult("D4:CA:6E:01:A2:B3", "", -60)));
+    }
+
+    @Test
+    public void matchesMinRssi() {
+        ScanFilter filter = new ScanFilter.Builder().withMinRssi(-70).build();
+
+        assertTrue(filter.test(stub.scanResult("D4:CA:6E:01:A2:B3", "MetaWear", -70)));
+        assertTrue(filter.test(stub.scanResult("D4:CA:6E:01:A2:B3", "MetaWear", -40)));
+        assertFalse(filter.test(stub.scanResult("D4:CA:6E:01:A2:B3", "MetaWear", -71)));
+    }
+
+    @Test
+    public void matchesManufacturerData() {
+        Pointer result = stub.scanResult("D4:CA:6E:01:A2:B3", "MetaWear", -60);
+
+        assertTrue(new ScanFilter.Builder().withCompanyId(COMPANY_ID).build().test(result));
+        assertTrue(new ScanFilter.Builder().withCompanyId(0x0001).withCompanyId(COMPANY_ID).build().test(result));
+        assertFalse(new ScanFilter.Builder().withCompanyId(COMPANY_ID + 1).build().test(result));
+    }
+
+    @Test
+    public void requiresEveryKind() {
+        ScanFilter filter = new ScanFilter.Builder()
+                .withMacPrefix("D4:CA:6E")
+                .withNamePrefix("Meta")
+                .withMinRssi(-70)
+                .withCompanyId(COMPANY_ID)
+                .build();
+
+        assertTrue(filter.test(stub.scanResult("D4:CA:6E:01:A2:B3", "MetaWear", -60)));
+        assertFalse(filter.test(stub.scanResult("D4:CA:6E:01:A2:B3", "MetaWear", -80)));
+        assertFalse(filter.test(stub.scanResult("D4:CA:6E:01:A2:B3", "Sensor", -60)));
+        assertFalse(filter.test(stub.scanResult("C8:4B:00:11:22:33", "MetaWear", -60)));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void rejectsInvalidMac() {
+        new ScanFilter.Builder().withMac("D4:CA:6E");
+    }
+
+    @Test
+    public void sharedAcrossThreads() throws InterruptedException {
+        final ScanFilter filter = new ScanFilter.Builder().withNamePrefix("MetaWear").build();
+        final Pointer match = stub.scanResult("D4:CA:6E:01:A2:B3", "MetaWear", -60),
+                other = stub.scanResult("D4:CA:6E:01:A2:B4", "MetaMotion", -60);
+        final boolean[] wrong = {false, false};
+
+        final Thread[] scanners = new Thread[2];
+        for (int t = 0; t < scanners.length; t++) {
+            final int id = t;
+            scanners[t] = new Thread(() -> {
+                for (int i = 0; i < 20000; i++) {
+                    if (filter.test(id == 0 ? match : other) != (id == 0)) {
+                        wrong[id] = true;
+                    }
+                }
+            });
+            scanners[t].start();
+        }
+        for (Thread scanner : scanners) {
+            scanner.join();
+        }
+
+        assertFalse(wrong[0]);
+        assertFalse(wrong[1]);
+        assertEquals(20000, filter.getAccepted());
+        assertEquals(20000, filter.getRejected());
+    }
+}
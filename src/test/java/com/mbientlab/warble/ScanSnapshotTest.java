@@ -0,0 +1,120 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.nio.ByteBuffer;
+
+import jnr.ffi.Pointer;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import static org.testng.AssertJUnit.*;
+
+public class ScanSnapshotTest {
+    // not used by any other test, the stub keeps manufacturer data and service UUIDs for every scan result
+    private static final int PRESENT_ID = 0x3c4d, EMPTY_ID = 0x3c4e, ABSENT_ID = 0x3c4f;
+    private static final String PRESENT_UUID = "326a9100-85cb-9195-d9dd-464cfbbae75a",
+            ABSENT_UUID = "326a9101-85cb-9195-d9dd-464cfbbae75a";
+    private static final byte[] DATA = {0x10, 0x20, 0x30, 0x40};
+
+    private StubNative stub;
+    private ScanSnapshot.Schema schema;
+
+    @BeforeClass
+    public void setUp() {
+        stub = (StubNative) Library.WARBLE;
+        stub.setManufacturerData(PRESENT_ID, DATA);
+        stub.setManufacturerData(EMPTY_ID, new byte[0]);
+        stub.serviceUuids.add(PRESENT_UUID);
+
+        schema = new ScanSnapshot.Schema.Builder()
+                .withManufacturerData(ABSENT_ID)
+                .withManufacturerData(PRESENT_ID)
+                .withManufacturerData(EMPTY_ID)
+                .withServiceUuid(PRESENT_UUID)
+                .withServiceUuid(ABSENT_UUID)
+                .build();
+    }
+
+    @AfterClass
+    public void tearDown() {
+        stub.serviceUuids.remove(PRESENT_UUID);
+    }
+
+    @Test
+    public void capturesPresentData() {
+        final ScanSnapshot snapshot = ScanSnapshot.capture(stub.scanResult("D4:CA:6E:01:A2:B3", "MetaWear", -60), schema);
+
+        assertEquals("D4:CA:6E:01:A2:B3", snapshot.getMac());
+        assertEquals("MetaWear", snapshot.getName());
+        assertEquals(-60, snapshot.getRssi());
+        assertArrayEquals(DATA, snapshot.getManufacturerData(PRESENT_ID));
+        assertArrayEquals(new byte[0], snapshot.getManufacturerData(EMPTY_ID));
+
+        final ByteBuffer buffer = snapshot.getManufacturerDataBuffer(PRESENT_ID);
+        assertTrue(buffer.isReadOnly());
+        assertEquals(DATA.length, buffer.remaining());
+        assertEquals(DATA[0], buffer.get(0));
+
+        assertTrue(snapshot.hasServiceUuid(PRESENT_UUID));
+        // schema lookups ignore case
+        assertTrue(snapshot.hasServiceUuid(PRESENT_UUID.toUpperCase()));
+    }
+
+    @Test
+    public void capturesAbsentData() {
+        final ScanSnapshot snapshot = ScanSnapshot.capture(stub.scanResult("D4:CA:6E:01:A2:B3", "MetaWear", -60), schema);
+
+        assertNull(snapshot.getManufacturerData(ABSENT_ID));
+        assertNull(snapshot.getManufacturerDataBuffer(ABSENT_ID));
+        assertFalse(snapshot.hasServiceUuid(ABSENT_UUID));
+        // data after a missing entry is still found
+        assertArrayEquals(DATA, snapshot.getManufacturerData(PRESENT_ID));
+    }
+
+    @Test
+    public void capturesResultWithoutAdvertisement() {
+        // results rebuilt from a capture log only carry the MAC address, name, and signal strength
+        final Pointer result = stub.scanResult("D4:CA:6E:01:A2:B3", "", -70);
+        result.putAddress(3L * Library.RUNTIME.addressSize(), 0);
+        final ScanSnapshot snapshot = ScanSnapshot.capture(result, schema);
+
+        assertEquals("", snapshot.getName());
+        assertNull(snapshot.getManufacturerData(PRESENT_ID));
+        assertFalse(snapshot.hasServiceUuid(PRESENT_UUID));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void rejectsCompanyIdOutsideSchema() {
+        // present in the advertisement but not listed in the schema
+        ScanSnapshot.capture(stub.scanResult("D4:CA:6E:01:A2:B3", "MetaWear", -60), ScanSnapshot.Schema.BASIC)
+                .getManufacturerData(PRESENT_ID);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void rejectsServiceUuidOutsideSchema() {
+        ScanSnapshot.capture(stub.scanResult("D4:CA:6E:01:A2:B3", "MetaWear", -60), schema)
+                .hasServiceUuid("326a9102-85cb-9195-d9dd-464cfbbae75a");
+    }
+}
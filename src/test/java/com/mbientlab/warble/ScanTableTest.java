@@ -0,0 +1,60 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Test;
+import static org.testng.AssertJUnit.*;
+
+public class ScanTableTest {
+    @Test
+    public void throwingHandlerDoesNotStopReports() throws InterruptedException {
+        final StubNative stub = (StubNative) Library.WARBLE;
+        final ScanTable table = new ScanTable.Builder().withReportInterval(20, TimeUnit.MILLISECONDS).build();
+        final BlockingQueue<String> threads = new LinkedBlockingQueue<>();
+        table.onNewDevice = device -> {
+            threads.add(Thread.currentThread().getName());
+            throw new IllegalStateException("handler failure");
+        };
+
+        try {
+            table.accept(stub.scanResult("D4:CA:6E:01:A2:B3", "MetaWear", -60));
+            assertEquals("warble-callbacks", threads.poll(1, TimeUnit.SECONDS));
+
+            table.accept(stub.scanResult("D4:CA:6E:01:A2:B4", "MetaWear", -60));
+            assertNotNull(threads.poll(1, TimeUnit.SECONDS));
+            assertEquals(2, table.size());
+        } finally {
+            table.stop();
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void rejectsNonPositiveInterval() {
+        new ScanTable.Builder().withReportInterval(0, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import jnr.ffi.Pointer;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import static org.testng.AssertJUnit.*;
+
+public class SimulatedNativeTest {
+    private static final String NOTIFY = "326a9006-85cb-9195-d9dd-464cfbbae75a";
+
+    private SimulatedNative sim;
+    // the simulator only keeps weak references to handlers, as the C library does not keep Java objects alive
+    private Native.FnVoid_VoidP_WarbleGattCharP_UbyteP_Ubyte notificationHandler;
+    private Native.FnVoid_IntPtr_WarbleGattP_Int disconnectHandler;
+    private Native.FnVoid_VoidP_WarbleScanResultP scanHandler;
+
+    @BeforeMethod
+    public void setUp() {
+        sim = new SimulatedNative();
+        sim.setProfile(new SimulatedNative.Profile.Builder()
+                .withDevices(50)
+                .withAdvertisingInterval(10, TimeUnit.MILLISECONDS)
+                .withNotifications(2, TimeUnit.MILLISECONDS, 20)
+                .withOperationLatency(1, 2, TimeUnit.MILLISECONDS)
+                .withConnection(1, 2, TimeUnit.MILLISECONDS, 0)
+                .build());
+    }
+
+    private static int littleEndian(Pointer value) {
+        return (value.getByte(0) & 0xff) | (value.getByte(1) & 0xff) << 8 | (value.getByte(2) & 0xff) << 16 | (value.getByte(3) & 0xff) << 24;
+    }
+
+    private Pointer connect(String mac) throws InterruptedException {
+        final Pointer gatt = sim.warble_gatt_create(mac);
+        final CountDownLatch connected = new CountDownLatch(1);
+        final AtomicReference<String> error = new AtomicReference<>();
+        sim.warble_gatt_connect_async(gatt, null, (context, caller, err) -> {
+            error.set(err);
+            connected.countDown();
+        });
+        assertTrue(connected.await(1, TimeUnit.SECONDS));
+        assertNull(error.get());
+        return gatt;
+    }
+
+    @Test
+    public void streamsNotificationsFromEventThread() throws InterruptedException {
+        final Pointer gattChar = sim.warble_gatt_find_characteristic(connect(SimulatedNative.deviceMac(3)), NOTIFY);
+        final CountDownLatch received = new CountDownLatch(10);
+        final AtomicInteger lastSequence = new AtomicInteger(-1), outOfOrder = new AtomicInteger();
+        final Set<String> threads = ConcurrentHashMap.newKeySet();
+        notificationHandler = (context, caller, value, length) -> {
+            threads.add(Thread.currentThread().getName());
+            final int sequence = littleEndian(value);
+            if (sequence != lastSequence.getAndSet(sequence) + 1 || length != 20) {
+                outOfOrder.incrementAndGet();
+            }
+            received.countDown();
+        };
+        sim.warble_gattchar_on_notification_received(gattChar, null, notificationHandler);
+        sim.warble_gattchar_enable_notifications_async(gattChar, null, (context, caller, err) -> assertNull(err));
+
+        assertTrue(received.await(1, TimeUnit.SECONDS));
+        assertEquals(0, outOfOrder.get());
+        assertEquals(1, threads.size());
+        assertEquals("warble-sim-events", threads.iterator().next());
+    }
+
+    @Test
+    public void disconnectStormAbandonsOperations() throws InterruptedException {
+        sim.setProfile(new SimulatedNative.Profile.Builder()
+                .withDevices(10)
+                .withOperationLatency(50, 50, TimeUnit.MILLISECONDS)
+                .withConnection(1, 2, TimeUnit.MILLISECONDS, 0)
+                .build());
+        final Pointer gatt = connect(SimulatedNative.deviceMac(7));
+        final CountDownLatch disconnected = new CountDownLatch(1);
+        final AtomicInteger status = new AtomicInteger(), completions = new AtomicInteger();
+        disconnectHandler = (context, caller, value) -> {
+            status.set(value);
+            disconnected.countDown();
+        };
+        sim.warble_gatt_on_disconnect(gatt, null, disconnectHandler);
+
+        final Pointer gattChar = sim.warble_gatt_find_characteristic(gatt, NOTIFY);
+        sim.warble_gattchar_read_async(gattChar, null, (context, caller, value, length, err) -> completions.incrementAndGet());
+        sim.disconnectStorm(1.0);
+
+        assertTrue(disconnected.await(1, TimeUnit.SECONDS));
+        assertEquals(0x08, status.get());
+        assertEquals(0, sim.warble_gatt_is_connected(gatt));
+        Thread.sleep(100);
+        assertEquals(0, completions.get());
+    }
+
+    @Test
+    public void unknownDeviceFailsToConnect() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<String> error = new AtomicReference<>();
+        sim.warble_gatt_connect_async(sim.warble_gatt_create("01:02:03:04:05:06"), null, (context, caller, err) -> {
+            error.set(err);
+            done.countDown();
+        });
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertNotNull(error.get());
+    }
+
+    @Test
+    public void deletedHandlesFailCallbacks() throws InterruptedException {
+        final Pointer gatt = connect(SimulatedNative.deviceMac(5));
+        final Pointer gattChar = sim.warble_gatt_find_characteristic(gatt, NOTIFY);
+        sim.warble_gatt_delete(gatt);
+
+        final CountDownLatch failed = new CountDownLatch(3);
+        final Set<String> errors = ConcurrentHashMap.newKeySet();
+        sim.warble_gatt_connect_async(gatt, null, (context, caller, err) -> {
+            errors.add(String.valueOf(err));
+            failed.countDown();
+        });
+        sim.warble_gattchar_read_async(gattChar, null, (context, caller, value, length, err) -> {
+            errors.add(String.valueOf(err));
+            failed.countDown();
+        });
+        sim.warble_gattchar_write_async(gattChar, new byte[] {1}, (byte) 1, null, (context, caller, err) -> {
+            errors.add(String.valueOf(err));
+            failed.countDown();
+        });
+        assertTrue(failed.await(1, TimeUnit.SECONDS));
+        // one message for the gatt, one for its characteristic
+        assertFalse(errors.contains("null"));
+        assertEquals(2, errors.size());
+
+        sim.warble_gatt_on_disconnect(gatt, null, disconnectHandler);
+        sim.warble_gatt_disconnect(gatt);
+        assertEquals(0, sim.warble_gatt_is_connected(gatt));
+        assertNull(sim.warble_gatt_find_characteristic(gatt, NOTIFY));
+        assertNull(sim.warble_gattchar_get_uuid(gattChar));
+    }
+
+    @Test
+    public void advertisesEveryDevice() throws InterruptedException {
+        final Set<Long> seen = ConcurrentHashMap.newKeySet();
+        final CountDownLatch all = new CountDownLatch(1);
+        scanHandler = (context, result) -> {
+            final Pointer data = sim.warble_scan_result_get_manufacturer_data(result, (short) 0x067e);
+            final int index = littleEndian(data.getPointer(0));
+            assertEquals(SimulatedNative.deviceMac(index), MacAddress.toString(ScanRecord.mac(result)));
+            if (seen.add(ScanRecord.mac(result)) && seen.size() == 50) {
+                all.countDown();
+            }
+        };
+        sim.warble_scanner_set_handler(null, scanHandler);
+        sim.warble_scanner_start(0, null);
+        try {
+            assertTrue(all.await(1, TimeUnit.SECONDS));
+        } finally {
+            sim.warble_scanner_stop();
+        }
+    }
+}
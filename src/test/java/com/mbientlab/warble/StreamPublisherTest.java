@@ -0,0 +1,259 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.testng.annotations.Test;
+import static org.testng.AssertJUnit.*;
+
+public class StreamPublisherTest {
+    private static class Recorder implements Subscriber<Integer> {
+        final List<Integer> items = new ArrayList<>();
+        Subscription subscription;
+        Throwable error;
+        boolean completed;
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            subscription = s;
+        }
+
+        @Override
+        public void onNext(Integer item) {
+            items.add(item);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            error = t;
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+    }
+
+    @Test
+    public void honorsDemand() {
+        StreamPublisher<Integer> publisher = new StreamPublisher<>(null, 8, OverflowPolicy.DROP_NEWEST);
+        Recorder recorder = new Recorder();
+        publisher.subscribe(recorder);
+
+        publisher.publish(1);
+        publisher.publish(2);
+        publisher.publish(3);
+        assertTrue(recorder.items.isEmpty());
+
+        recorder.subscription.request(2);
+        assertEquals(Arrays.asList(1, 2), recorder.items);
+
+        recorder.subscription.request(5);
+        publisher.publish(4);
+        assertEquals(Arrays.asList(1, 2, 3, 4), recorder.items);
+    }
+
+    @Test
+    public void overflowDropsOldest() {
+        StreamPublisher<Integer> publisher = new StreamPublisher<>(null, 2, OverflowPolicy.DROP_OLDEST);
+        Recorder recorder = new Recorder();
+        publisher.subscribe(recorder);
+
+        for (int i = 0; i < 5; i++) {
+            publisher.publish(i);
+        }
+        recorder.subscription.request(Long.MAX_VALUE);
+
+        assertEquals(Arrays.asList(3, 4), recorder.items);
+        assertEquals(3, publisher.getDropped());
+    }
+
+    @Test
+    public void subscribersAreIndependent() {
+        StreamPublisher<Integer> publisher = new StreamPublisher<>(null, 4, OverflowPolicy.DROP_NEWEST);
+        Recorder fast = new Recorder(), slow = new Recorder();
+        publisher.subscribe(fast);
+        publisher.subscribe(slow);
+        fast.subscription.request(Long.MAX_VALUE);
+
+        publisher.publish(1);
+        publisher.publish(2);
+        assertEquals(Arrays.asList(1, 2), fast.items);
+        assertTrue(slow.items.isEmpty());
+
+        slow.subscription.cancel();
+        assertEquals(1, publisher.getSubscriberCount());
+    }
+
+    @Test
+    public void completesAfterBufferDrains() {
+        StreamPublisher<Integer> publisher = new StreamPublisher<>(null, 4, OverflowPolicy.DROP_NEWEST);
+        Recorder recorder = new Recorder();
+        publisher.subscribe(recorder);
+
+        publisher.publish(1);
+        publisher.complete();
+        assertFalse(recorder.completed);
+
+        recorder.subscription.request(1);
+        assertEquals(Arrays.asList(1), recorder.items);
+        assertTrue(recorder.completed);
+
+        Recorder late = new Recorder();
+        publisher.subscribe(late);
+        assertTrue(late.completed);
+    }
+
+    @Test
+    public void rejectsNonPositiveRequest() {
+        StreamPublisher<Integer> publisher = new StreamPublisher<>(null, 4, OverflowPolicy.DROP_NEWEST);
+        Recorder recorder = new Recorder();
+        publisher.subscribe(recorder);
+
+        recorder.subscription.request(0);
+        assertTrue(recorder.error instanceof IllegalArgumentException);
+        assertFalse(publisher.hasSubscribers());
+    }
+
+    @Test
+    public void conflateKeepsLatest() {
+        StreamPublisher<Integer> upstream = new StreamPublisher<>(null, 4, OverflowPolicy.DROP_NEWEST);
+        StreamPublisher<Integer> conflated = Streams.conflate(upstream, null);
+        Recorder recorder = new Recorder();
+        conflated.subscribe(recorder);
+
+        for (int i = 0; i < 10; i++) {
+            upstream.publish(i);
+        }
+        recorder.subscription.request(1);
+        assertEquals(Arrays.asList(9), recorder.items);
+    }
+
+    @Test
+    public void invalidRequestSignalledAfterOnNext() {
+        StreamPublisher<Integer> publisher = new StreamPublisher<>(null, 4, OverflowPolicy.DROP_NEWEST);
+        final boolean[] inOnNext = { false, false };
+        Recorder recorder = new Recorder() {
+            @Override
+            public void onNext(Integer item) {
+                inOnNext[0] = true;
+                super.onNext(item);
+                subscription.request(-1);
+                inOnNext[0] = false;
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                inOnNext[1] = inOnNext[0];
+                super.onError(t);
+            }
+        };
+        publisher.subscribe(recorder);
+
+        publisher.publish(1);
+        publisher.publish(2);
+        recorder.subscription.request(5);
+
+        assertEquals(Arrays.asList(1), recorder.items);
+        assertTrue(recorder.error instanceof IllegalArgumentException);
+        assertFalse(inOnNext[1]);
+        assertFalse(publisher.hasSubscribers());
+    }
+
+    @Test
+    public void sampleReleasesUpstreamOnCancel() throws InterruptedException {
+        StreamPublisher<Integer> upstream = new StreamPublisher<>(null, 4, OverflowPolicy.DROP_NEWEST);
+        StreamPublisher<Integer> sampled = Streams.sample(upstream, 10, TimeUnit.MILLISECONDS, Runnable::run);
+        assertTrue(upstream.hasSubscribers());
+
+        final CountDownLatch received = new CountDownLatch(1);
+        Recorder recorder = new Recorder() {
+            @Override
+            public void onNext(Integer item) {
+                super.onNext(item);
+                received.countDown();
+            }
+        };
+        sampled.subscribe(recorder);
+        recorder.subscription.request(Long.MAX_VALUE);
+        upstream.publish(1);
+        assertTrue(received.await(5, TimeUnit.SECONDS));
+
+        recorder.subscription.cancel();
+        assertFalse(upstream.hasSubscribers());
+
+        Recorder late = new Recorder();
+        sampled.subscribe(late);
+        assertTrue(late.completed);
+    }
+
+    @Test
+    public void conflateReleasesUpstreamOnCancel() {
+        StreamPublisher<Integer> upstream = new StreamPublisher<>(null, 4, OverflowPolicy.DROP_NEWEST);
+        StreamPublisher<Integer> conflated = Streams.conflate(upstream, null);
+        Recorder first = new Recorder(), second = new Recorder();
+        conflated.subscribe(first);
+        conflated.subscribe(second);
+
+        first.subscription.cancel();
+        assertTrue(upstream.hasSubscribers());
+        second.subscription.cancel();
+        assertFalse(upstream.hasSubscribers());
+    }
+
+    @Test
+    public void completeReleasesBlockedProducer() throws InterruptedException {
+        StreamPublisher<Integer> publisher = new StreamPublisher<>(Runnable::run, 1, OverflowPolicy.BLOCK);
+        Recorder recorder = new Recorder();
+        publisher.subscribe(recorder);
+
+        // the subscriber never requests, the second item waits for buffer space
+        final Thread producer = new Thread(() -> {
+            publisher.publish(1);
+            publisher.publish(2);
+        });
+        producer.start();
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        while (producer.getState() != Thread.State.WAITING && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(Thread.State.WAITING, producer.getState());
+
+        publisher.complete();
+        producer.join(1000);
+        assertFalse(producer.isAlive());
+
+        // the buffered item is still delivered before completion, the one offered after it is not
+        recorder.subscription.request(5);
+        assertEquals(Arrays.asList(1), recorder.items);
+        assertTrue(recorder.completed);
+    }
+}
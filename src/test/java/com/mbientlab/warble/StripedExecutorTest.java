@@ -0,0 +1,182 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Test;
+import static org.testng.AssertJUnit.*;
+
+public class StripedExecutorTest {
+    @Test
+    public void sameDeviceSameStripe() {
+        try (StripedExecutor executor = new StripedExecutor.Builder().withStripes(4).build()) {
+            assertSame(executor.forDevice("C8:4B:AA:97:50:05"), executor.forDevice("c8:4b:aa:97:50:05"));
+            assertEquals(executor.stripeOf("C8:4B:AA:97:50:05"), executor.stripeOf("c8:4b:aa:97:50:05"));
+        }
+    }
+
+    @Test
+    public void preservesOrderPerDevice() throws InterruptedException {
+        try (StripedExecutor executor = new StripedExecutor.Builder().withStripes(2).withQueueCapacity(4).build()) {
+            final List<Integer> received = new ArrayList<>();
+            final CountDownLatch done = new CountDownLatch(1);
+            final Executor device = executor.forDevice("C8:4B:AA:97:50:05");
+            for (int i = 0; i < 1000; i++) {
+                final int value = i;
+                device.execute(() -> received.add(value));
+            }
+            device.execute(done::countDown);
+
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            for (int i = 0; i < 1000; i++) {
+                assertEquals(i, (int) received.get(i));
+            }
+
+            // the worker counts a task after it returns, so the latch can open before the last count lands
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            StripedExecutor.StripeStats stats = executor.getStats()[executor.stripeOf("C8:4B:AA:97:50:05")];
+            while (stats.executed < 1001 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+                stats = executor.getStats()[executor.stripeOf("C8:4B:AA:97:50:05")];
+            }
+            assertEquals(1001, stats.executed);
+            assertEquals(0, stats.queued);
+        }
+    }
+
+    @Test
+    public void selfSubmitDoesNotBlock() throws InterruptedException {
+        try (StripedExecutor executor = new StripedExecutor.Builder().withStripes(1).withQueueCapacity(1).build()) {
+            final Executor device = executor.forDevice("C8:4B:AA:97:50:05");
+            final CountDownLatch done = new CountDownLatch(10);
+            device.execute(() -> {
+                for (int i = 0; i < 10; i++) {
+                    device.execute(done::countDown);
+                }
+            });
+
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void fullQueueDoesNotBlockSubmitter() throws InterruptedException {
+        try (StripedExecutor executor = new StripedExecutor.Builder().withStripes(1).withQueueCapacity(4).build()) {
+            final Executor device = executor.forDevice("C8:4B:AA:97:50:05");
+            final CountDownLatch release = new CountDownLatch(1), done = new CountDownLatch(1);
+            final List<Integer> received = new ArrayList<>();
+            device.execute(() -> {
+                try {
+                    release.await();
+                } catch (InterruptedException ignored) {
+                }
+            });
+            for (int i = 0; i < 100; i++) {
+                final int value = i;
+                device.execute(() -> received.add(value));
+            }
+            device.execute(done::countDown);
+
+            StripedExecutor.StripeStats stats = executor.getStats()[0];
+            assertTrue(stats.overflowed > 0);
+            assertEquals(0, stats.blocked);
+
+            release.countDown();
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            assertEquals(100, received.size());
+            for (int i = 0; i < 100; i++) {
+                assertEquals(i, (int) received.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void closeRunsQueuedTasks() throws InterruptedException {
+        final StripedExecutor executor = new StripedExecutor.Builder().withStripes(1).withQueueCapacity(4).build();
+        final Executor device = executor.forDevice("C8:4B:AA:97:50:05");
+        final CountDownLatch release = new CountDownLatch(1), done = new CountDownLatch(1);
+        final List<Integer> received = new ArrayList<>();
+        device.execute(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException ignored) {
+            }
+        });
+        for (int i = 0; i < 20; i++) {
+            final int value = i;
+            device.execute(() -> received.add(value));
+        }
+        device.execute(done::countDown);
+
+        executor.close();
+        try {
+            device.execute(() -> { });
+            fail("Closed executor should reject tasks");
+        } catch (RejectedExecutionException ignored) {
+        }
+
+        // queued and spilled tasks still run after close
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(20, received.size());
+    }
+
+    @Test
+    public void stripedCallbacksDefaultToDropOldest() {
+        try (StripedExecutor executor = new StripedExecutor.Builder().withStripes(1).build()) {
+            final String mac = "C8:4B:AA:97:50:05";
+            final Gatt striped = new Gatt.Builder(mac).withCallbackExecutor(executor).build(),
+                    plain = new Gatt.Builder(mac).withCallbackExecutor(Runnable::run).build(),
+                    chosen = new Gatt.Builder(mac).withCallbackExecutor(executor).withNotificationQueue(64, OverflowPolicy.BLOCK).build();
+            assertEquals(OverflowPolicy.DROP_OLDEST, striped.overflowPolicy);
+            assertEquals(OverflowPolicy.BLOCK, plain.overflowPolicy);
+            assertEquals(OverflowPolicy.BLOCK, chosen.overflowPolicy);
+            striped.close();
+            plain.close();
+            chosen.close();
+        }
+    }
+
+    @Test
+    public void closedExecutorStillCompletesTasks() throws Exception {
+        final StripedExecutor executor = new StripedExecutor.Builder().withStripes(1).build();
+        final Gatt gatt = new Gatt.Builder("C8:4B:AA:97:50:05").withCallbackExecutor(executor).build();
+        try {
+            gatt.connectAsync().get(5, TimeUnit.SECONDS);
+            final GattCharacteristic gattChar = gatt.findCharacteristic("326a9006-85cb-9195-d9dd-464cfbbae75a");
+
+            executor.close();
+            // the completion is rejected by the closed executor and runs on the responding thread instead
+            gattChar.writeAsync(new byte[] {1}).get(5, TimeUnit.SECONDS);
+        } finally {
+            gatt.close();
+        }
+    }
+}
@@ -0,0 +1,448 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import jnr.ffi.Pointer;
+import jnr.ffi.Runtime;
+import jnr.ffi.Struct;
+
+/**
+ * In-process implementation of the native bindings that completes every request immediately on the calling
+ * thread.  Selected by setting the <code>warble.native</code> system property to this class's name, or passed
+ * directly to code that accepts a {@link Native} object.
+ */
+public class StubNative implements Native {
+    private static final int MAX_VALUE_SIZE = 255;
+
+    // handlers are only weakly referenced since the native library does not keep Java objects alive either
+
+    static final class StubGatt {
+        final Pointer handle;
+        final String mac;
+        WeakReference<FnVoid_IntPtr_WarbleGattP_Int> onDisconnect = new WeakReference<>(null);
+        Pointer onDisconnectContext;
+        boolean connected;
+
+        StubGatt(Pointer handle, String mac) {
+            this.handle = handle;
+            this.mac = mac;
+        }
+    }
+
+    static final class StubCharacteristic {
+        final Pointer handle, value;
+        final String uuid;
+        WeakReference<FnVoid_VoidP_WarbleGattCharP_UbyteP_Ubyte> onNotification = new WeakReference<>(null);
+        Pointer onNotificationContext;
+
+        StubCharacteristic(Pointer handle, String uuid) {
+            this.handle = handle;
+            this.uuid = uuid;
+            this.value = RUNTIME.getMemoryManager().allocateDirect(MAX_VALUE_SIZE);
+        }
+    }
+
+    private static final Runtime RUNTIME = Runtime.getSystemRuntime();
+
+    private final Map<Long, StubGatt> gatts = new ConcurrentHashMap<>();
+    private final Map<Long, StubCharacteristic> characteristics = new ConcurrentHashMap<>();
+    // keeps memory handed to callers from being freed
+    private final Map<Long, Pointer> allocations = new ConcurrentHashMap<>();
+
+    private final Map<Integer, Pointer> manufacturerData = new ConcurrentHashMap<>();
+
+    /** Service UUIDs attached to every scan result */
+    final Set<String> serviceUuids = ConcurrentHashMap.newKeySet();
+    /** Characteristics that exist on every remote device, null if all UUIDs exist */
+    volatile Set<String> characteristicUuids = null;
+    /** Value returned by characteristic reads */
+    volatile byte[] readValue = new byte[0];
+    /** True if the scanner is running */
+    volatile boolean scanning = false;
+    /** Values passed to characteristic writes, with and without response, in the order they were issued */
+    final List<byte[]> writes = new CopyOnWriteArrayList<>();
+    /** True to hold characteristic reads, writes, and notification changes until {@link #release(String)} is called */
+    volatile boolean holdCompletions = false;
+    /** True to hold connection attempts until {@link #release(String)} is called */
+    volatile boolean holdConnects = false;
+    /** Thrown by the next characteristic write instead of issuing it, then cleared */
+    volatile RuntimeException writeException = null;
+    /** MAC addresses of the gatt objects freed with warble_gatt_delete, in the order they were freed */
+    final Queue<String> deleted = new ConcurrentLinkedQueue<>();
+    /** Number of warble_gatt_delete calls on handles that were already freed or never created */
+    final AtomicInteger invalidDeletes = new AtomicInteger();
+
+    // completes a held request with the error message, or successfully if null
+    private final Queue<Consumer<String>> held = new ConcurrentLinkedQueue<>();
+
+    private volatile FnVoid_VoidP_WarbleScanResultP scanHandler;
+    private volatile Pointer scanContext;
+
+    private Pointer allocate(int size) {
+        final Pointer memory = RUNTIME.getMemoryManager().allocateDirect(size, true);
+        allocations.put(memory.address(), memory);
+        return memory;
+    }
+
+    private Pointer allocateString(String value) {
+        final byte[] bytes = value.getBytes(StandardCharsets.US_ASCII);
+        final Pointer memory = allocate(bytes.length + 1);
+        memory.put(0, bytes, 0, bytes.length);
+        memory.putByte(bytes.length, (byte) 0);
+        return memory;
+    }
+
+    /**
+     * Creates a WarbleScanResult struct in native memory
+     * @param mac  MAC address string
+     * @param name Advertising name
+     * @param rssi Signal strength
+     * @return Pointer to the struct, valid for the life of this object
+     */
+    Pointer scanResult(String mac, String name, int rssi) {
+        final int addressSize = RUNTIME.addressSize();
+        final Pointer result = allocate(4 * addressSize);
+        result.putPointer(0, allocateString(mac));
+        result.putPointer(addressSize, allocateString(name));
+        result.putInt(2L * addressSize, rssi);
+        // any non-null value, the stub keeps advertisement data globally
+        result.putAddress(3L * addressSize, result.address());
+        return result;
+    }
+
+    /**
+     * Forwards a scan result to the scanner handler
+     * @param result Pointer created by {@link #scanResult(String, String, int)}
+     */
+    void deliverScanResult(Pointer result) {
+        final FnVoid_VoidP_WarbleScanResultP handler = scanHandler;
+        if (handler != null) {
+            handler.apply(scanContext, result);
+        }
+    }
+
+    /**
+     * Attaches manufacturer data to every scan result
+     * @param companyId Company id the data belongs to
+     * @param value     Manufacturer data
+     */
+    void setManufacturerData(int companyId, byte[] value) {
+        final Pointer data = allocate(2 * RUNTIME.addressSize());
+        final Pointer copy = allocate(Math.max(value.length, 1));
+        copy.put(0, value, 0, value.length);
+        data.putPointer(0, copy);
+        data.putByte(RUNTIME.addressSize(), (byte) value.length);
+        manufacturerData.put(companyId & 0xffff, data);
+    }
+
+    /**
+     * Builds and connects a gatt object, then finds the characteristic the writer and queue tests use.  Clears
+     * {@link #writes} so only the writes issued by the test are recorded.
+     * @param builder Builder for the remote device
+     * @return Characteristic 326a9006-85cb-9195-d9dd-464cfbbae75a, close its owner when the test is done
+     * @throws InterruptedException If interrupted while connecting
+     */
+    GattCharacteristic connectedCharacteristic(Gatt.Builder builder) throws InterruptedException {
+        final Gatt gatt = builder.build();
+        gatt.connect(1, TimeUnit.SECONDS);
+        final GattCharacteristic gattChar = gatt.findCharacteristic("326a9006-85cb-9195-d9dd-464cfbbae75a");
+        writes.clear();
+        return gattChar;
+    }
+
+    /**
+     * Sends a notification from a characteristic
+     * @param gattChar Characteristic object to notify
+     * @param value    Notification payload, up to 255 bytes
+     */
+    void sendNotification(GattCharacteristic gattChar, byte[] value) {
+        for (StubCharacteristic it : characteristics.values()) {
+            final FnVoid_VoidP_WarbleGattCharP_UbyteP_Ubyte handler = it.onNotification.get();
+            if (it.uuid.equals(gattChar.uuid) && handler != null) {
+                it.value.put(0, value, 0, value.length);
+                handler.apply(it.onNotificationContext, it.handle, it.value, (byte) value.length);
+            }
+        }
+    }
+
+    /**
+     * Completes the oldest request held while {@link #holdCompletions} or {@link #holdConnects} was set
+     * @param error Error message to fail the request with, null to complete it successfully
+     * @return False if no request was held
+     */
+    boolean release(String error) {
+        final Consumer<String> completion = held.poll();
+        if (completion == null) {
+            return false;
+        }
+        completion.accept(error);
+        return true;
+    }
+
+    /**
+     * Get the number of requests waiting for {@link #release(String)}
+     * @return Held request count
+     */
+    int heldCount() {
+        return held.size();
+    }
+
+    private void throwWriteException() {
+        final RuntimeException e = writeException;
+        if (e != null) {
+            writeException = null;
+            throw e;
+        }
+    }
+
+    private void complete(Consumer<String> completion) {
+        if (holdCompletions) {
+            held.add(completion);
+        } else {
+            completion.accept(null);
+        }
+    }
+
+    /**
+     * Drops the connection of every connected device
+     * @param status Status code passed to the disconnect handlers
+     */
+    void disconnectAll(int status) {
+        for (StubGatt it : gatts.values()) {
+            if (it.connected) {
+                it.connected = false;
+                final FnVoid_IntPtr_WarbleGattP_Int handler = it.onDisconnect.get();
+                if (handler != null) {
+                    handler.apply(it.onDisconnectContext, it.handle, status);
+                }
+            }
+        }
+    }
+
+    @Override
+    public String warble_lib_version() {
+        return "1.1.0";
+    }
+
+    @Override
+    public String warble_lib_config() {
+        return "Release";
+    }
+
+    @Override
+    public void warble_lib_init(int length, Option[] options) {
+    }
+
+    @Override
+    public void warble_scanner_stop() {
+        scanning = false;
+    }
+
+    @Override
+    public void warble_scanner_start(int length, Option[] options) {
+        scanning = true;
+    }
+
+    @Override
+    public void warble_scanner_set_handler(Pointer context, FnVoid_VoidP_WarbleScanResultP handler) {
+        scanContext = context;
+        scanHandler = handler;
+    }
+
+    @Override
+    public ScanManufacturerData warble_scan_result_get_manufacturer_data(ScanResult result, short companyId) {
+        final Pointer data = warble_scan_result_get_manufacturer_data(Struct.getMemory(result), companyId);
+        if (data == null) {
+            return null;
+        }
+
+        final ScanManufacturerData struct = new ScanManufacturerData(RUNTIME);
+        struct.useMemory(data);
+        return struct;
+    }
+
+    @Override
+    public Pointer warble_scan_result_get_manufacturer_data(Pointer result, short companyId) {
+        return manufacturerData.get(companyId & 0xffff);
+    }
+
+    @Override
+    public int warble_scan_result_has_service_uuid(ScanResult result, String uuid) {
+        return serviceUuids.contains(uuid) ? 1 : 0;
+    }
+
+    @Override
+    public int warble_scan_result_has_service_uuid(Pointer result, byte[] uuid) {
+        return warble_scan_result_has_service_uuid((ScanResult) null, new String(uuid, 0, uuid.length - 1, StandardCharsets.US_ASCII));
+    }
+
+    @Override
+    public void warble_gatt_connect_async(Pointer gatt, Pointer context, FnVoid_IntPtr_WarbleGattP_CharP handler) {
+        final StubGatt it = gatts.get(gatt.address());
+        final Consumer<String> completion = err -> {
+            it.connected = err == null;
+            handler.apply(context, gatt, err);
+        };
+        if (holdConnects) {
+            held.add(completion);
+        } else {
+            completion.accept(null);
+        }
+    }
+
+    @Override
+    public void warble_gatt_disconnect(Pointer gatt) {
+        final StubGatt it = gatts.get(gatt.address());
+        if (it.connected) {
+            it.connected = false;
+            final FnVoid_IntPtr_WarbleGattP_Int handler = it.onDisconnect.get();
+            if (handler != null) {
+                handler.apply(it.onDisconnectContext, gatt, 0);
+            }
+        }
+    }
+
+    @Override
+    public void warble_gatt_delete(Pointer gatt) {
+        final StubGatt it = gatts.remove(gatt.address());
+        if (it == null) {
+            invalidDeletes.incrementAndGet();
+            return;
+        }
+        deleted.add(String.valueOf(it.mac));
+        allocations.remove(gatt.address());
+    }
+
+    @Override
+    public void warble_gatt_on_disconnect(Pointer gatt, Pointer context, FnVoid_IntPtr_WarbleGattP_Int handler) {
+        final StubGatt it = gatts.get(gatt.address());
+        it.onDisconnectContext = context;
+        it.onDisconnect = new WeakReference<>(handler);
+    }
+
+    @Override
+    public int warble_gatt_is_connected(Pointer gatt) {
+        return gatts.get(gatt.address()).connected ? 1 : 0;
+    }
+
+    @Override
+    public Pointer warble_gatt_create(String mac) {
+        final Pointer handle = allocate(8);
+        gatts.put(handle.address(), new StubGatt(handle, mac));
+        return handle;
+    }
+
+    @Override
+    public Pointer warble_gatt_create_with_options(int length, Option[] options) {
+        String mac = null;
+        for (int i = 0; i < length; i++) {
+            if ("mac".equals(options[i].key.get())) {
+                mac = options[i].value.get();
+            }
+        }
+        return warble_gatt_create(mac);
+    }
+
+    @Override
+    public Pointer warble_gatt_find_characteristic(Pointer gatt, String uuid) {
+        final Set<String> uuids = characteristicUuids;
+        if (uuids != null && !uuids.contains(uuid)) {
+            return null;
+        }
+
+        final Pointer handle = allocate(8);
+        characteristics.put(handle.address(), new StubCharacteristic(handle, uuid));
+        return handle;
+    }
+
+    @Override
+    public int warble_gatt_has_service(Pointer gatt, String uuid) {
+        return 1;
+    }
+
+    @Override
+    public void warble_gattchar_disable_notifications_async(Pointer gattchar, Pointer context, FnVoid_VoidP_WarbleGattCharP_CharP handler) {
+        complete(err -> handler.apply(context, gattchar, err));
+    }
+
+    @Override
+    public void warble_gattchar_write_without_resp_async(Pointer gattchar, byte[] value, byte value_size, Pointer context, FnVoid_VoidP_WarbleGattCharP_CharP handler) {
+        throwWriteException();
+        writes.add(Arrays.copyOf(value, value_size & 0xff));
+        complete(err -> handler.apply(context, gattchar, err));
+    }
+
+    @Override
+    public void warble_gattchar_read_async(Pointer gattchar, Pointer context, FnVoid_VoidP_WarbleGattCharP_UbyteP_Ubyte_CharP handler) {
+        final StubCharacteristic it = characteristics.get(gattchar.address());
+        complete(err -> {
+            final byte[] value = readValue;
+            it.value.put(0, value, 0, value.length);
+            handler.apply(context, gattchar, it.value, (byte) value.length, err);
+        });
+    }
+
+    @Override
+    public void warble_gattchar_write_async(Pointer gattchar, byte[] value, byte value_size, Pointer context, FnVoid_VoidP_WarbleGattCharP_CharP handler) {
+        throwWriteException();
+        writes.add(Arrays.copyOf(value, value_size & 0xff));
+        complete(err -> handler.apply(context, gattchar, err));
+    }
+
+    @Override
+    public void warble_gattchar_enable_notifications_async(Pointer gattchar, Pointer context, FnVoid_VoidP_WarbleGattCharP_CharP handler) {
+        complete(err -> handler.apply(context, gattchar, err));
+    }
+
+    @Override
+    public void warble_gattchar_on_notification_received(Pointer gattchar, Pointer context, FnVoid_VoidP_WarbleGattCharP_UbyteP_Ubyte handler) {
+        final StubCharacteristic it = characteristics.get(gattchar.address());
+        it.onNotificationContext = context;
+        it.onNotification = new WeakReference<>(handler);
+    }
+
+    @Override
+    public String warble_gattchar_get_uuid(Pointer gattchar) {
+        return characteristics.get(gattchar.address()).uuid;
+    }
+
+    @Override
+    public Pointer warble_gattchar_get_gatt(Pointer gattchar) {
+        return null;
+    }
+}
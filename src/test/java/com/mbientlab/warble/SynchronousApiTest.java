@@ -0,0 +1,177 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import static org.testng.AssertJUnit.*;
+
+public class SynchronousApiTest {
+    private StubNative stub;
+    private ExecutorService callbacks;
+    private Gatt gatt;
+    private GattCharacteristic gattChar;
+
+    @BeforeMethod
+    public void setUp() throws InterruptedException {
+        stub = (StubNative) Library.WARBLE;
+        // completes tasks on another thread so callers actually park
+        callbacks = Executors.newSingleThreadExecutor();
+        gattChar = stub.connectedCharacteristic(new Gatt.Builder("D4:CA:6E:01:A2:B3").withCallbackExecutor(callbacks));
+        gatt = gattChar.owner;
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        gatt.close();
+        callbacks.shutdown();
+    }
+
+    @Test
+    public void readReturnsValue() throws InterruptedException {
+        stub.readValue = new byte[] {1, 2, 3};
+        assertTrue(gatt.isConnected());
+        assertEquals(3, gattChar.read(1, TimeUnit.SECONDS).length);
+        gattChar.write(new byte[] {4}, 1, TimeUnit.SECONDS);
+    }
+
+    @Test(expectedExceptions = GattCharacteristicException.class)
+    public void writeRethrowsFailure() throws InterruptedException {
+        gattChar.write(new byte[GattCharacteristic.MAX_VALUE_SIZE + 1], 1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void iteratorReceivesNotifications() throws InterruptedException {
+        try (NotificationIterator iterator = gattChar.notificationIterator(2)) {
+            final Thread producer = new Thread(() -> {
+                for (int i = 0; i < 3; i++) {
+                    stub.sendNotification(gattChar, new byte[] {(byte) i});
+                }
+            });
+            producer.start();
+            producer.join();
+
+            assertEquals(0, iterator.next(1, TimeUnit.SECONDS)[0]);
+            assertEquals(1, iterator.next(1, TimeUnit.SECONDS)[0]);
+            assertEquals(1, iterator.getDropped());
+            assertNull(iterator.next(10, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    @Test
+    public void closeWakesConsumer() throws InterruptedException {
+        final NotificationIterator iterator = gattChar.notificationIterator(4);
+        final byte[][] result = new byte[1][];
+        final Thread consumer = new Thread(() -> {
+            try {
+                result[0] = iterator.next();
+            } catch (InterruptedException ignored) {
+            }
+        });
+        consumer.start();
+
+        Thread.sleep(50);
+        gattChar.close();
+        consumer.join(1000);
+        assertFalse(consumer.isAlive());
+        assertNull(result[0]);
+    }
+
+    @Test
+    public void rejectsCallFromCallbackExecutor() throws Exception {
+        final Throwable[] error = new Throwable[1];
+        gattChar.onNotificationReceived = value -> {
+            try {
+                gattChar.read(1, TimeUnit.SECONDS);
+            } catch (Throwable e) {
+                error[0] = e;
+            }
+        };
+        stub.sendNotification(gattChar, new byte[] {1});
+        // runs after the queued notification
+        callbacks.submit(() -> { }).get(1, TimeUnit.SECONDS);
+        assertTrue(error[0] instanceof IllegalStateException);
+    }
+
+    @Test
+    public void rejectsCallFromEventThread() throws InterruptedException {
+        final GattCharacteristic inlineChar = stub.connectedCharacteristic(new Gatt.Builder("D4:CA:6E:01:A2:B4"));
+        final Gatt inline = inlineChar.owner;
+        final Throwable[] error = new Throwable[1];
+        inlineChar.onNotificationReceived = value -> {
+            try {
+                inlineChar.write(new byte[] {1}, 1, TimeUnit.SECONDS);
+            } catch (Throwable e) {
+                error[0] = e;
+            }
+        };
+        stub.sendNotification(inlineChar, new byte[] {1});
+        assertTrue(error[0] instanceof IllegalStateException);
+
+        // outside of a callback the same thread can block
+        inlineChar.write(new byte[] {1}, 1, TimeUnit.SECONDS);
+        inline.close();
+    }
+
+    @Test
+    public void rejectsCallFromInlineSubscriber() throws InterruptedException {
+        final GattCharacteristic inlineChar = stub.connectedCharacteristic(new Gatt.Builder("D4:CA:6E:01:A2:B4"));
+        final Gatt inline = inlineChar.owner;
+        final Throwable[] error = new Throwable[1];
+        // without a callback executor the publisher delivers items on the event thread
+        inlineChar.notificationPublisher(4, OverflowPolicy.DROP_NEWEST).subscribe(new Subscriber<byte[]>() {
+            @Override
+            public void onSubscribe(Subscription s) {
+                s.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(byte[] item) {
+                try {
+                    inlineChar.read(1, TimeUnit.SECONDS);
+                } catch (Throwable e) {
+                    error[0] = e;
+                }
+            }
+
+            @Override
+            public void onError(Throwable t) {
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+        stub.sendNotification(inlineChar, new byte[] {1});
+        assertTrue(error[0] instanceof IllegalStateException);
+        inline.close();
+    }
+}
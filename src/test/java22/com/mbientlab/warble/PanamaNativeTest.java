@@ -0,0 +1,123 @@
+/*
+ * Copyright 2014-2019 MbientLab Inc. All rights reserved.
+ *
+ * IMPORTANT: Your use of this Software is limited to those specific rights granted under the terms of a software
+ * license agreement between the user who downloaded the software, his/her employer (which must be your
+ * employer) and MbientLab Inc, (the "License").  You may not use this Software unless you agree to abide by the
+ * terms of the License which can be found at www.mbientlab.com/terms.  The License limits your use, and you
+ * acknowledge, that the Software may be modified, copied, and distributed when used in conjunction with an
+ * MbientLab Inc, product.  Other than for the foregoing purpose, you may not use, reproduce, copy, prepare
+ * derivative works of, modify, distribute, perform, display or sell this Software and/or its documentation for any
+ * purpose.
+ *
+ * YOU FURTHER ACKNOWLEDGE AND AGREE THAT THE SOFTWARE AND DOCUMENTATION ARE PROVIDED "AS IS" WITHOUT WARRANTY
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION, ANY WARRANTY OF MERCHANTABILITY, TITLE,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT SHALL MBIENTLAB OR ITS LICENSORS BE LIABLE OR
+ * OBLIGATED UNDER CONTRACT, NEGLIGENCE, STRICT LIABILITY, CONTRIBUTION, BREACH OF WARRANTY, OR OTHER LEGAL EQUITABLE
+ * THEORY ANY DIRECT OR INDIRECT DAMAGES OR EXPENSES INCLUDING BUT NOT LIMITED TO ANY INCIDENTAL, SPECIAL, INDIRECT,
+ * PUNITIVE OR CONSEQUENTIAL DAMAGES, LOST PROFITS OR LOST DATA, COST OF PROCUREMENT OF SUBSTITUTE GOODS, TECHNOLOGY,
+ * SERVICES, OR ANY CLAIMS BY THIRD PARTIES (INCLUDING BUT NOT LIMITED TO ANY DEFENSE THEREOF), OR OTHER SIMILAR COSTS.
+ *
+ * Should you have any questions regarding your right to use this Software, contact MbientLab via email:
+ * hello@mbientlab.com.
+ */
+package com.mbientlab.warble;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import static org.testng.AssertJUnit.*;
+
+/**
+ * Smoke test for the Foreign Function and Memory API bindings, run against the stub C library from
+ * <code>src/jmh/c</code> by <code>gradle panamaTest -Pjava22.home=&lt;jdk&gt;</code>
+ */
+public class PanamaNativeTest {
+    // STUB_NOTIFICATIONS and STUB_VALUE_SIZE in warble_stub.c
+    private static final int NOTIFICATIONS = 1000, VALUE_SIZE = 20;
+    private static final String MAC = "D4:CA:6E:01:A2:B3";
+
+    private Gatt gatt;
+    private GattCharacteristic gattChar;
+
+    @BeforeMethod
+    public void setUp() {
+        gatt = new Gatt.Builder(MAC).build();
+        gatt.connectAsync().join();
+        gattChar = gatt.findCharacteristic("326a9006-85cb-9195-d9dd-464cfbbae75a");
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        gatt.close();
+    }
+
+    @Test
+    public void loadsPanamaBinding() {
+        assertEquals("com.mbientlab.warble.PanamaNative", Library.WARBLE.getClass().getName());
+        assertEquals("stub", Library.version());
+    }
+
+    @Test
+    public void connectsAndDisconnects() throws InterruptedException {
+        assertTrue(gatt.isConnected());
+
+        final CountDownLatch disconnected = new CountDownLatch(1);
+        gatt.onDisconnect = status -> disconnected.countDown();
+        gatt.disconnect();
+        assertTrue(disconnected.await(5, TimeUnit.SECONDS));
+        assertFalse(gatt.isConnected());
+    }
+
+    @Test
+    public void readsAndWrites() {
+        assertEquals("326a9006-85cb-9195-d9dd-464cfbbae75a", gattChar.uuid);
+        assertEquals(VALUE_SIZE, gattChar.readAsync().join().length);
+        gattChar.writeAsync(new byte[] {1, 2, 3}).join();
+        gattChar.writeWithoutResponseAsync(new byte[] {4, 5, 6}).join();
+    }
+
+    @Test
+    public void deliversNotifications() throws InterruptedException {
+        final CountDownLatch received = new CountDownLatch(NOTIFICATIONS);
+        final AtomicInteger wrongSize = new AtomicInteger();
+        gattChar.onNotificationReceived = value -> {
+            if (value.length != VALUE_SIZE) {
+                wrongSize.incrementAndGet();
+            }
+            received.countDown();
+        };
+        gattChar.enableNotificationsAsync().join();
+
+        assertTrue(received.await(5, TimeUnit.SECONDS));
+        assertEquals(0, wrongSize.get());
+    }
+
+    @Test
+    public void readsScanResults() throws InterruptedException {
+        final CountDownLatch received = new CountDownLatch(1);
+        final AtomicReference<String> mac = new AtomicReference<>(), name = new AtomicReference<>();
+        final AtomicReference<byte[]> data = new AtomicReference<>();
+        Scanner.onResultReceived(result -> {
+            if (received.getCount() != 0) {
+                mac.set(result.getMac());
+                name.set(result.getName());
+                data.set(result.getManufacturerData(0x067e));
+                received.countDown();
+            }
+        });
+        Scanner.start();
+        Scanner.stop();
+
+        assertTrue(received.await(5, TimeUnit.SECONDS));
+        assertEquals(MAC, mac.get());
+        assertEquals("MetaWear", name.get());
+        assertTrue(Arrays.equals(new byte[] {1, 2, 3, 4}, data.get()));
+    }
+}